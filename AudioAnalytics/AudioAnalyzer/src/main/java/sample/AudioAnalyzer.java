@@ -5,17 +5,18 @@ package sample;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.Callable;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.net.URI;
 
 
@@ -26,6 +27,8 @@ import com.azure.storage.blob.BlobContainerClientBuilder;
 import com.azure.storage.blob.BlobServiceAsyncClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
 import com.azure.core.credential.TokenCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
 import com.azure.core.http.policy.HttpLogDetailLevel;
 import com.azure.core.http.policy.HttpLogOptions;
 import com.azure.core.management.profile.AzureProfile;
@@ -37,6 +40,9 @@ public class AudioAnalyzer {
     private static final String TRANSFORM_NAME = "MyTransform";
     private static final String INPUT_MP4_RESOURCE = "video/ignite.mp4";
     private static final String OUTPUT_FOLDER_NAME = "Output";
+    private static final String JOB_LEDGER_DIRECTORY = "job-ledger";
+    private static final String TRANSFORM_REGISTRY_FILE = "transform-registry.txt";
+    private static final String ENCODE_CACHE_FILE = "encode-cache.txt";
 
     public static void main(String[] args) {
         // Please make sure you have set configurations in resources/conf/appsettings.json
@@ -70,122 +76,187 @@ public class AudioAnalyzer {
                 .authenticate(credential, profile);
         // Signed in.
 
+        // Analyses are cached locally, and their output assets kept, so the same input is
+        // never analyzed twice with the same transform.
+        EncodeCache encodeCache;
+        try {
+            encodeCache = new EncodeCache(Paths.get(ENCODE_CACHE_FILE));
+        } catch (IOException e) {
+            System.out.println("Failed to open the encode cache: " + e.getMessage());
+            return;
+        }
+
+        // Runs are recorded in a local ledger until they are cleaned up. If an earlier
+        // run was interrupted, e.g. because the process died, resume it and re-attach
+        // to its job instead of uploading and analyzing the same input again.
+        JobLedger ledger;
+        try {
+            ledger = new JobLedger(Paths.get(JOB_LEDGER_DIRECTORY));
+        } catch (IOException e) {
+            System.out.println("Failed to open the job ledger: " + e.getMessage());
+            return;
+        }
+        JobLedger.Entry resumedRun = ledger.getOpenRun(TRANSFORM_NAME);
+
         // Create a unique suffix so that we don't have name collisions if you run the sample
         // multiple times without cleaning up.
-        UUID uuid = UUID.randomUUID();
-        String uniqueness = uuid.toString();
+        String uniqueness = resumedRun != null ? resumedRun.getName() : UUID.randomUUID().toString();
         String jobName = "job-" + uniqueness;
         String outputAssetName = "output-" + uniqueness;
         String inputAssetName = "input-" + uniqueness;
         MediaServicesEventProcessor eventProcessorHost = null;
+        MediaServicesEventMultiplexer.Subscription eventSubscription = null;
 
         Scanner scanner = new Scanner(System.in);
 
         try {
+            if (resumedRun == null) {
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.CREATED);
+            } else {
+                System.out.println("Resuming the run interrupted at " + new Date(resumedRun.getUpdatedMillis())
+                        + ": " + ledger.getResources(uniqueness));
+            }
+
             // Create a preset with audio insights.
             List<TransformOutput> outputs = new ArrayList<>();
             outputs.add(new TransformOutput().withPreset(
                     new BuiltInStandardEncoderPreset().withPresetName(EncoderNamedPreset.CONTENT_AWARE_ENCODING)));
 
-            // Create the transform.
-            System.out.println("Creating a transform...");
-            Transform transform = manager.transforms()
-                    .define(TRANSFORM_NAME)
-                    .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
-                    .withOutputs(outputs)
-                    .create();
-            System.out.println("Transform created");
-
-            createInputAsset(manager, config.getResourceGroup(), config.getAccountName(), inputAssetName,
-                    INPUT_MP4_RESOURCE);
-
-            // Output from the encoding Job must be written to an Asset, so let's create
-            // one. Note that we are using a unique asset name, there should not be a name
-            // collision.
-            System.out.println("Creating an output asset...");
-            Asset outputAsset = manager.assets()
-                    .define(outputAssetName)
-                    .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
-                    .create();
+            // Make sure the transform exists with these outputs. A local registry skips the
+            // request if the transform was checked within the last hour, and updates it only
+            // if its outputs differ.
+            TransformRegistry transformRegistry = new TransformRegistry(Paths.get(TRANSFORM_REGISTRY_FILE));
+            String presetFingerprint = transformRegistry.ensure(manager, config.getResourceGroup(),
+                    config.getAccountName(), TRANSFORM_NAME, outputs);
+
+            // Analyzing the same input with the same presets again gives the same output, so
+            // reuse the output of an earlier run instead of uploading and analyzing again.
+            String contentHash;
+            try (InputStream content = AudioAnalyzer.class.getClassLoader()
+                    .getResourceAsStream(INPUT_MP4_RESOURCE)) {
+                contentHash = EncodeCache.hashContent(content);
+            }
+            String cachedOutputAssetName = encodeCache.find(manager, config.getResourceGroup(),
+                    config.getAccountName(), contentHash, presetFingerprint);
+
+            JobState jobState;
+            if (cachedOutputAssetName != null) {
+                System.out.println("This input was already analyzed with this transform into "
+                        + cachedOutputAssetName + ", skipping the upload and the job.");
+                outputAssetName = cachedOutputAssetName;
+                jobState = JobState.FINISHED;
+            } else {
+                // The input of a resumed run was uploaded before the interruption.
+                if (ledger.get(JobLedger.Kind.ASSET, inputAssetName) == null) {
+                    createInputAsset(manager, config.getResourceGroup(), config.getAccountName(), inputAssetName,
+                            INPUT_MP4_RESOURCE);
+                    ledger.record(JobLedger.Kind.ASSET, inputAssetName, uniqueness, JobLedger.CREATED);
+                }
 
-            Job job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
-                    transform.name(), jobName, inputAssetName, outputAsset.name());
+                // Output from the encoding Job must be written to an Asset, so let's create
+                // one. Note that we are using a unique asset name, there should not be a name
+                // collision.
+                System.out.println("Creating an output asset...");
+                Asset outputAsset = manager.assets()
+                        .define(outputAssetName)
+                        .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
+                        .create();
+                ledger.record(JobLedger.Kind.ASSET, outputAssetName, uniqueness, JobLedger.CREATED);
+
+                // Events enqueued before the job was submitted can't be about it.
+                Instant jobSubmittedTime;
+                Job job = null;
+                JobLedger.Entry recordedJob = ledger.get(JobLedger.Kind.JOB, jobName);
+                if (recordedJob != null && JobLedger.SUBMITTING.equals(recordedJob.getState())
+                        && !jobExists(manager, config.getResourceGroup(), config.getAccountName(), transform.name(), jobName)) {
+                    // Interrupted before the job was created, so submit it again.
+                    System.out.println("Job " + jobName + " was never created, submitting it again.");
+                    recordedJob = null;
+                }
+                if (recordedJob == null) {
+                    jobSubmittedTime = Instant.now();
+                    ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, JobLedger.SUBMITTING);
+                    job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
+                            TRANSFORM_NAME, jobName, inputAssetName, outputAsset.name());
+                    ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, job.state().toString());
+                } else {
+                    // Submitted before the interruption, so only wait for it.
+                    jobSubmittedTime = Instant.ofEpochMilli(recordedJob.getCreatedMillis());
+                    System.out.println("Re-attaching to job " + jobName + ", last recorded as "
+                            + recordedJob.getState() + ".");
+                }
 
-            long startedTime = System.currentTimeMillis();
+                long startedTime = System.currentTimeMillis();
 
-            try {
-                // First we will try to process Job events through Event Hub in real-time. If this fails for any reason,
-                // we will fall-back on polling Job status instead.
-                System.out.println("Creating an event processor host to process events from Event Hub...");
-                String storageConnectionString = config.getStorageConnectionString();
-
-                // Cleanup storage container. We will config Event Hub to use the storage container configured in appsettings.json.
-                // All the blobs in <The container configured in appsettings.json> will be deleted.
-                BlobServiceAsyncClient client = new BlobServiceClientBuilder()
-                        .endpoint(storageConnectionString)
-                        .buildAsyncClient();
-                BlobContainerAsyncClient container = client.getBlobContainerAsyncClient(config.getStorageContainerName());
-                container.listBlobs().collectList().block()
-                        .forEach(blobItem -> container.getBlobAsyncClient(blobItem.getName()).delete().block());
-
-                // Create a event processor host to process events from Event Hub.
-                Object monitor = new Object();
-                eventProcessorHost = new MediaServicesEventProcessor(jobName, monitor, null,
-                        config.getEventHubConnectionString(), config.getEventHubName(),
-                        container);
-
-                // Define a task to wait for the job to finish.
-                Callable<String> jobTask = () -> {
-                    synchronized (monitor) {
-                        monitor.wait();
+                try {
+                    // First we will try to process Job events through Event Hub in real-time. If this fails for any reason,
+                    // we will fall-back on polling Job status instead.
+                    System.out.println("Creating an event processor host to process events from Event Hub...");
+                    String storageConnectionString = config.getStorageConnectionString();
+
+                    // Event Hub keeps its checkpoints and partition ownership in the storage
+                    // container configured in appsettings.json. A partition resumes after its
+                    // checkpoint, or without one starts at the job submission time, less a minute
+                    // for clock skew, so the retention window is not replayed.
+                    BlobServiceAsyncClient client = new BlobServiceClientBuilder()
+                            .endpoint(storageConnectionString)
+                            .buildAsyncClient();
+                    BlobContainerAsyncClient container = client.getBlobContainerAsyncClient(config.getStorageContainerName());
+
+                    // Subscribe through the Event Hub consumer shared by all workflows of this
+                    // process. The subscription keeps it running until it is closed.
+                    eventSubscription = MediaServicesEventMultiplexer.forEventHub(config.getEventHubConnectionString(),
+                            config.getEventHubName(), container,
+                            EventHubEventSource.enqueuedAfter(jobSubmittedTime.minusSeconds(60)))
+                            .subscribeJob(jobName);
+                    eventProcessorHost = eventSubscription.getProcessor();
+
+                    // Wait for the job to finish. The future is completed by the final job
+                    // event. Should that event get lost, a background sweep reads the jobs not
+                    // heard from for two minutes from Media Services instead, so the wait
+                    // never stalls until a timeout.
+                    HybridJobTracker jobTracker = new HybridJobTracker(eventProcessorHost, manager,
+                            config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME);
+                    CompletableFuture<JobState> jobCompletion = jobTracker.waitForJob(jobName);
+                    // The final state comes with the event, so the job needn't be fetched again.
+                    jobState = jobCompletion.get();
+
+                    // Break the elapsed time down into queueing, encoding and event delivery.
+                    System.out.println(eventProcessorHost.getJobLatency(jobName));
+
+                    Duration firstEvent = eventProcessorHost.getTimeToFirstEvent();
+                    if (firstEvent != null) {
+                        System.out.println("First job event received " + firstEvent.toMillis()
+                                + " ms after the event processor started, after "
+                                + eventProcessorHost.getEventsBeforeFirstEvent() + " events of other jobs.");
                     }
-                    return "Job";
-                };
-
-                // Define another task
-                Callable<String> timeoutTask = () -> {
-                    TimeUnit.MINUTES.sleep(30);
-                    return "Timeout";
-                };
-
-                ExecutorService executor = Executors.newFixedThreadPool(2);
-                List<Callable<String>> tasks = Arrays.asList(jobTask, timeoutTask);
-
-                String result = executor.invokeAny(tasks);
-                if (result.equalsIgnoreCase("Job")) {
-                    // Job finished. Shutdown timeout.
-                    executor.shutdownNow();
-                } else {
-                    // Timeout happened. Switch to polling method.
-                    synchronized (monitor) {
-                        monitor.notify();
+                } catch (Exception e) {
+                    // if Event Grid or Event Hub is not configured, We will fall-back on polling instead.
+                    // Polling is not a recommended best practice for production applications because of the latency it introduces.
+                    // Overuse of this API may trigger throttling. Developers should instead use Event Grid.
+                    job = waitForJobToFinish(manager, config.getResourceGroup(), config.getAccountName(),
+                            TRANSFORM_NAME, jobName);
+                    jobState = job.state();
+                } finally {
+                    if (eventSubscription != null) {
+                        System.out.println("Job final state received, unregistering event processor...");
+
+                        // Stops the shared event processor, unless another workflow still uses it.
+                        eventSubscription.close();
+                        System.out.println();
                     }
-
-                    throw new Exception("Timeout happened.");
                 }
 
-                // Get the latest status of the job.
-                job = manager.jobs().get(config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME, jobName);
-            } catch (Exception e) {
-                // if Event Grid or Event Hub is not configured, We will fall-back on polling instead.
-                // Polling is not a recommended best practice for production applications because of the latency it introduces.
-                // Overuse of this API may trigger throttling. Developers should instead use Event Grid.
-                job = waitForJobToFinish(manager, config.getResourceGroup(), config.getAccountName(),
-                        TRANSFORM_NAME, jobName);
-            } finally {
-                if (eventProcessorHost != null) {
-                    System.out.println("Job final state received, unregistering event processor...");
-
-                    // Disposes of the Event Processor Host.
-                    eventProcessorHost.stop();
-                    System.out.println();
+                long elapsed = (System.currentTimeMillis() - startedTime) / 1000; // Elapsed time in seconds
+                System.out.println("Job elapsed time: " + elapsed + " second(s).");
+                ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, jobState.toString());
+                if (jobState == JobState.FINISHED) {
+                    encodeCache.put(config.getResourceGroup(), config.getAccountName(), contentHash,
+                            presetFingerprint, outputAssetName);
                 }
             }
 
-            long elapsed = (System.currentTimeMillis() - startedTime) / 1000; // Elapsed time in seconds
-            System.out.println("Job elapsed time: " + elapsed + " second(s).");
-
-            if (job.state() == JobState.FINISHED) {
+            if (jobState == JobState.FINISHED) {
                 System.out.println("Job finished.");
                 System.out.println();
 
@@ -199,7 +270,7 @@ public class AudioAnalyzer {
                 }
 
                 // Download the result to output folder.
-                downloadOutputAsset(manager, config.getResourceGroup(), config.getAccountName(), outputAsset.name(),
+                downloadOutputAsset(manager, config.getResourceGroup(), config.getAccountName(), outputAssetName,
                         outputFolder);
             }
 
@@ -213,8 +284,18 @@ public class AudioAnalyzer {
                 scanner.close();
             }
 
-            cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME, jobName,
-                    inputAssetName, outputAssetName);
+            // The ledger drops every resource as it is deleted, and the run once nothing of
+            // it is left, so a failed cleanup leaves the rest to the next run.
+            try {
+                cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME, jobName,
+                        inputAssetName, outputAssetName, encodeCache.isCached(outputAssetName), ledger,
+                        uniqueness);
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.DELETED);
+            } catch (Exception e) {
+                System.out.println("Cleanup failed, the next run resumes it: " + e);
+            } finally {
+                ledger.close();
+            }
         }
     }
 
@@ -305,7 +386,31 @@ public class AudioAnalyzer {
     }
 
     /**
-     * Polls Media Services for the status of the Job.
+     * Check whether a job exists, e.g. one whose submission was interrupted.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param jobName       The name of the job.
+     * @return Whether the job exists.
+     */
+    private static boolean jobExists(MediaServicesManager manager, String resourceGroup, String accountName,
+                                     String transformName, String jobName) {
+        try {
+            return manager.jobs().get(resourceGroup, accountName, transformName, jobName) != null;
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Polls Media Services for the status of the Job, at intervals adapted to
+     * its progress and to throttling.
      *
      * @param manager       This is the entry point of Azure Media resource
      *                      management.
@@ -318,37 +423,7 @@ public class AudioAnalyzer {
      */
     private static Job waitForJobToFinish(MediaServicesManager manager, String resourceGroup, String accountName,
                                           String transformName, String jobName) {
-        final int SLEEP_INTERVAL = 60 * 1000;   // 1 minute.
-
-        Job job = null;
-        boolean exit = false;
-
-        do {
-            job = manager.jobs().get(resourceGroup, accountName, transformName, jobName);
-
-            if (job.state() == JobState.FINISHED || job.state() == JobState.ERROR || job.state() == JobState.CANCELED) {
-                exit = true;
-            } else {
-                System.out.println("Job is " + job.state());
-
-                int i = 0;
-                for (JobOutput output : job.outputs()) {
-                    System.out.print("\tJobOutput[" + i++ + "] is " + output.state() + ".");
-                    if (output.state() == JobState.PROCESSING) {
-                        System.out.print("  Progress: " + output.progress());
-                    }
-                    System.out.println();
-                }
-
-                try {
-                    Thread.sleep(SLEEP_INTERVAL);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        } while (!exit);
-
-        return job;
+        return new AdaptiveJobPoller(manager).waitForJob(resourceGroup, accountName, transformName, jobName);
     }
 
     /**
@@ -407,16 +482,26 @@ public class AudioAnalyzer {
      * @param jobName           The job name.
      * @param inputAssetName    The input asset name.
      * @param outputAssetName   The output asset name.
+     * @param keepOutputAsset   Keep the output asset if true, e.g. because it is in the encode cache.
+     * @param ledger            The job ledger, told about every job, asset and locator deleted.
+     * @param runName           The run owning them.
+     * @throws IOException If a deletion can't be recorded in the job ledger.
      */
     private static void cleanup(MediaServicesManager manager, String resourceGroupName, String accountName,
-                                String transformName, String jobName, String inputAssetName, String outputAssetName) {
+                                String transformName, String jobName, String inputAssetName, String outputAssetName,
+                                boolean keepOutputAsset, JobLedger ledger, String runName) throws IOException {
         if (manager == null) {
             return;
         }
 
         manager.jobs().delete(resourceGroupName, accountName, transformName, jobName);
+        ledger.record(JobLedger.Kind.JOB, jobName, runName, JobLedger.DELETED);
         manager.assets().delete(resourceGroupName, accountName, inputAssetName);
-        manager.assets().delete(resourceGroupName, accountName, outputAssetName);
+        ledger.record(JobLedger.Kind.ASSET, inputAssetName, runName, JobLedger.DELETED);
+        if (!keepOutputAsset) {
+            manager.assets().delete(resourceGroupName, accountName, outputAssetName);
+            ledger.record(JobLedger.Kind.ASSET, outputAssetName, runName, JobLedger.DELETED);
+        }
     }
 }
 
@@ -0,0 +1,87 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-drives the events kept in a dead-letter directory by
+ * MediaServicesEventProcessor through the decoder, outside of the processor.
+ *
+ * Usage: DeadLetterRedrive &lt;dead-letter directory&gt; &lt;output file&gt;
+ *
+ * Every event that decodes now is appended to the output file as one line, so
+ * it can be fed back with FileTailEventSource or EventReplay. Events that still
+ * fail are kept in the dead-letter directory. A processor keeps its dead letters
+ * in a directory per event source, e.g. deadletters/mynamespace.myhub.Default,
+ * and holds it while running; a running processor can re-drive its own dead
+ * letters with MediaServicesEventProcessor.redriveDeadLetters().
+ */
+public class DeadLetterRedrive {
+    private static final long SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final int SEGMENT_COUNT = 8;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: DeadLetterRedrive <dead-letter directory> <output file>");
+            return;
+        }
+        DeadLetterLog deadLetters = new DeadLetterLog(Paths.get(args[0]), SEGMENT_BYTES, SEGMENT_COUNT);
+        AtomicInteger decoded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        int total;
+        try (OutputStream output = Files.newOutputStream(Paths.get(args[1]), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            total = deadLetters.redrive(letter -> {
+                AtomicInteger events = new AtomicInteger();
+                try {
+                    MediaServicesEventDecoder.decode(letter.getBody(), event -> events.incrementAndGet());
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Partition " + letter.getPartitionId() + " offset " + letter.getOffset()
+                            + " still fails: " + e.getMessage());
+                    deadLetters.append(letter.getPartitionId(), letter.getOffset(), letter.getBody(), e.toString());
+                    failed.incrementAndGet();
+                    return;
+                }
+
+                try {
+                    output.write(toLine(letter.getBody()));
+                    output.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                System.out.println("Partition " + letter.getPartitionId() + " offset " + letter.getOffset()
+                        + " decoded into " + events.get() + " events (failed before with: " + letter.getError() + ")");
+                decoded.incrementAndGet();
+            });
+        } finally {
+            deadLetters.close();
+        }
+
+        System.out.println("Re-drove " + total + " dead letters: " + decoded.get() + " written to " + args[1]
+                + ", " + failed.get() + " kept in " + args[0] + ".");
+    }
+
+    /**
+     * A body as a single line. Line breaks can only be whitespace between JSON
+     * tokens, since JSON strings can't hold them unescaped.
+     */
+    private static byte[] toLine(byte[] body) {
+        byte[] line = Arrays.copyOf(body, body.length);
+        for (int i = 0; i < line.length; i++) {
+            if (line[i] == '\n' || line[i] == '\r') {
+                line[i] = ' ';
+            }
+        }
+        return line;
+    }
+}
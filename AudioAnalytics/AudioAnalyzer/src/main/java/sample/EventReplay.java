@@ -0,0 +1,283 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Replays recorded Event Grid payloads through MediaServicesEventProcessor
+ * without an Event Hub, and reports how fast they were handled.
+ *
+ * The input file holds one Event Hub event body per line: a JSON array of
+ * Event Grid events, or a single event, as delivered by the Media Services
+ * Event Grid subscription. Every job and live event found in the file is
+ * registered, and each line is published to a single-partition
+ * InMemoryEventSource, so it takes the same decode, deduplicate, dispatch and
+ * checkpoint path as Event Hub events.
+ *
+ * Usage: EventReplay &lt;file&gt; [events per second, 0 for full speed] [passes] [--print]
+ *
+ * Each pass runs on a fresh processor, so the earlier passes warm up the JIT
+ * for the later ones. Its state snapshot and dead letters go to a temporary
+ * directory deleted after the pass, so no pass starts from the states of the
+ * one before. Event messages are turned off unless --print is given, in which
+ * case they are written as configured in log4j.properties.
+ */
+public class EventReplay {
+    private static final int SOURCE_QUEUE_CAPACITY = 1024;
+    private static final long DRAIN_TIMEOUT_NANOS = 60_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: EventReplay <file> [events per second, 0 for full speed] [passes] [--print]");
+            return;
+        }
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean print = arguments.remove("--print");
+        List<byte[]> bodies = readBodies(arguments.get(0));
+        double rate = arguments.size() > 1 ? Double.parseDouble(arguments.get(1)) : 0;
+        int passes = arguments.size() > 2 ? Integer.parseInt(arguments.get(2)) : 3;
+
+        Recording recording = new Recording(bodies);
+        System.out.println("Replaying " + bodies.size() + " Event Hub events holding " + recording.eventCount
+                + " Media Services events of " + recording.entityNames.size() + " jobs and live events.");
+
+        if (!print) {
+            org.apache.log4j.Logger.getLogger("sample.events").setLevel(org.apache.log4j.Level.WARN);
+        }
+        for (int pass = 1; pass <= passes; pass++) {
+            System.out.println("Pass " + pass + ": " + replay(recording, rate));
+        }
+    }
+
+    /**
+     * Replay the recording once on a new processor.
+     *
+     * @param recording The decoded recording.
+     * @param rate      The Media Services events per second to feed, or 0 for
+     *                  full speed.
+     * @return The measurements.
+     */
+    private static Result replay(Recording recording, double rate) throws InterruptedException, IOException {
+        Path dataDirectory = Files.createTempDirectory("event-replay");
+        try {
+            return replay(recording, rate, dataDirectory);
+        } finally {
+            try (Stream<Path> paths = Files.walk(dataDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static Result replay(Recording recording, double rate, Path dataDirectory) throws InterruptedException {
+        InMemoryEventSource source = new InMemoryEventSource(1, SOURCE_QUEUE_CAPACITY);
+        MediaServicesEventProcessor processor = new MediaServicesEventProcessor(source, CheckpointPolicy.DEFAULT,
+                dataDirectory);
+
+        long[] latencies = new long[recording.idLines.size()];
+        AtomicInteger measured = new AtomicInteger();
+        AtomicInteger handled = new AtomicInteger();
+        long[] lineStartNanos = new long[recording.bodies.size()];
+        MediaServicesEventListener listener = event -> {
+            Integer line = event.id() == null ? null : recording.idLines.get(event.id());
+            if (line != null) {
+                int i = measured.getAndIncrement();
+                if (i < latencies.length) {
+                    latencies[i] = System.nanoTime() - lineStartNanos[line];
+                }
+            }
+            handled.incrementAndGet();
+        };
+        for (String name : recording.entityNames) {
+            processor.registerJob(name, listener);
+        }
+
+        AllocationCounter allocations = new AllocationCounter();
+        long startNanos = System.nanoTime();
+        long fed = 0;
+        for (int line = 0; line < recording.bodies.size(); line++) {
+            if (rate > 0) {
+                // Feed the line once its first event is due.
+                long dueNanos = startNanos + (long) (fed * 1_000_000_000L / rate);
+                long wait = dueNanos - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            lineStartNanos[line] = System.nanoTime();
+            source.publish(null, recording.bodies.get(line));
+            fed += recording.lineEventCounts[line];
+        }
+        // Wait for the lanes to drain before stopping the processor, since the
+        // allocation counts of the lane threads are gone once they exit.
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        while (handled.get() < recording.handledCount && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(100_000);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = allocations.allocatedBytes();
+        processor.stop();
+
+        long[] sorted = Arrays.copyOf(latencies, Math.min(measured.get(), latencies.length));
+        Arrays.sort(sorted);
+        return new Result(recording.eventCount, elapsedNanos, sorted, allocatedBytes,
+                processor.getBackpressureCount(), processor.getDuplicateCount(),
+                source.getCheckpointUpdateCount());
+    }
+
+    private static List<byte[]> readBodies(String file) throws IOException {
+        List<byte[]> bodies = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                bodies.add(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return bodies;
+    }
+
+    /**
+     * The recorded bodies and what they contain, found by decoding them once
+     * before the replay.
+     */
+    private static final class Recording {
+        private final List<byte[]> bodies;
+        private final int[] lineEventCounts;
+        private final Set<String> entityNames = new HashSet<>();
+        // The line of the first occurrence of each event id. Later occurrences
+        // are duplicates the processor drops.
+        private final Map<String, Integer> idLines = new HashMap<>();
+        private int eventCount;
+        // The events that reach the listeners: those with a type and subject,
+        // once per id.
+        private int handledCount;
+
+        Recording(List<byte[]> bodies) {
+            this.bodies = bodies;
+            this.lineEventCounts = new int[bodies.size()];
+            for (int line = 0; line < bodies.size(); line++) {
+                final int current = line;
+                try {
+                    MediaServicesEventDecoder.decode(bodies.get(line), event -> {
+                        lineEventCounts[current]++;
+                        if (event.entityName() != null) {
+                            entityNames.add(event.entityName());
+                        }
+                        boolean first = event.id() == null || idLines.putIfAbsent(event.id(), current) == null;
+                        if (first && event.eventType() != null && event.entityName() != null) {
+                            handledCount++;
+                        }
+                    });
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Line " + (line + 1) + " is replayed but not counted: " + e.getMessage());
+                }
+                eventCount += lineEventCounts[line];
+            }
+        }
+    }
+
+    /**
+     * The measurements of one pass.
+     */
+    private static final class Result {
+        private final int events;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+        private final long allocatedBytes;
+        private final long backpressure;
+        private final long duplicates;
+        private final long checkpoints;
+
+        Result(int events, long elapsedNanos, long[] sortedLatencies, long allocatedBytes, long backpressure,
+               long duplicates, long checkpoints) {
+            this.events = events;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = sortedLatencies;
+            this.allocatedBytes = allocatedBytes;
+            this.backpressure = backpressure;
+            this.duplicates = duplicates;
+            this.checkpoints = checkpoints;
+        }
+
+        private long percentileMicros(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, i)] / 1000;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            String allocation = allocatedBytes < 0 ? "n/a"
+                    : String.format("%.1f MB/s (%d bytes/event)", allocatedBytes / seconds / 1e6,
+                            events == 0 ? 0 : allocatedBytes / events);
+            return String.format("%d events in %.3f s, %.0f events/s, latency p50 %d us, p99 %d us,"
+                            + " allocation %s, backpressure %d, duplicates %d, checkpoints %d",
+                    events, seconds, events / seconds, percentileMicros(0.50), percentileMicros(0.99),
+                    allocation, backpressure, duplicates, checkpoints);
+        }
+    }
+
+    /**
+     * Counts the bytes allocated by all threads that live through a pass: the
+     * replay thread and the dispatch lanes. Needs a JVM whose ThreadMXBean
+     * reports allocation, such as HotSpot.
+     */
+    private static final class AllocationCounter {
+        private final com.sun.management.ThreadMXBean threads;
+        private final long[] threadIds;
+        private final long[] startBytes;
+
+        AllocationCounter() {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                threads = (com.sun.management.ThreadMXBean) bean;
+                threads.setThreadAllocatedMemoryEnabled(true);
+                threadIds = threads.getAllThreadIds();
+                startBytes = threads.getThreadAllocatedBytes(threadIds);
+            } else {
+                threads = null;
+                threadIds = null;
+                startBytes = null;
+            }
+        }
+
+        /**
+         * @return The bytes allocated since construction, or -1 if unsupported.
+         */
+        long allocatedBytes() {
+            if (threads == null) {
+                return -1;
+            }
+            long[] endBytes = threads.getThreadAllocatedBytes(threadIds);
+            long total = 0;
+            for (int i = 0; i < threadIds.length; i++) {
+                // -1 for threads that ended in between; their last counts are lost.
+                if (startBytes[i] >= 0 && endBytes[i] >= 0) {
+                    total += endBytes[i] - startBytes[i];
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Follows a local file of events the way "tail -f" does, as a single partition
+ * "0". Each line holds one body: a JSON array of Event Grid events or a single
+ * event, the format EventReplay reads. Lines are delivered once they end with a
+ * newline.
+ *
+ * The checkpoint is the byte offset after the last processed line, kept in a
+ * small file next to the events, so a restarted source resumes where the
+ * previous one stopped. If the file shrinks, or another file is renamed over it
+ * once every line of the old one was read, it is read again from the start.
+ * Without file keys, as on Windows, only a replacement shorter than the old
+ * file is noticed.
+ */
+public class FileTailEventSource implements MediaServicesEventSource {
+    private static final String PARTITION_ID = "0";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final String[] FILE_KEYS = {"file"};
+    private static final String[] FILE_ERROR_KEYS = {"file", "error"};
+
+    private final Path file;
+    private final Path checkpointFile;
+    private final long pollIntervalMillis;
+    // Separate from the instance lock, which stop() holds while waiting for the
+    // reading thread, since checkpoints are written from the dispatch lanes.
+    private final Object checkpointLock = new Object();
+    private long checkpointedOffset = -1;
+    // Counts the times the file shrank or was replaced; checkpoints of lines
+    // read before that are ignored.
+    private int generation;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Follow a file, keeping the checkpoint in the file name plus ".checkpoint"
+     * and looking for new lines every 200 milliseconds.
+     *
+     * @param file The file to follow. It does not need to exist yet.
+     */
+    public FileTailEventSource(Path file) {
+        this(file, Paths.get(file.toString() + ".checkpoint"), 200);
+    }
+
+    /**
+     * @param file               The file to follow. It does not need to exist yet.
+     * @param checkpointFile     Where to keep the checkpoint.
+     * @param pollIntervalMillis How long to wait for new lines at the end of the
+     *                           file before looking again.
+     */
+    public FileTailEventSource(Path file, Path checkpointFile, long pollIntervalMillis) {
+        this.file = file;
+        this.checkpointFile = checkpointFile;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    @Override
+    public synchronized void start(Handler handler) {
+        if (thread != null) {
+            throw new IllegalStateException("The source is already started");
+        }
+        long offset = readCheckpoint();
+        running = true;
+        thread = new Thread(() -> follow(handler, offset), "file-tail-event-source");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void follow(Handler handler, long startOffset) {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        byte[] line = new byte[1024];
+        int lineLength = 0;
+        long offset = startOffset;
+        int fileGeneration = currentGeneration();
+
+        while (running) {
+            try {
+                // Read before opening, so a replacement in between is noticed
+                // rather than missed.
+                Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    while (running) {
+                        if (channel.size() < offset) {
+                            EventLog.shared().log(EventLog.Level.INFO,
+                                    "Event file shrank, reading it again from the start", FILE_KEYS, file);
+                            fileGeneration = resetCheckpoint();
+                            offset = 0;
+                            lineLength = 0;
+                        }
+                        buffer.clear();
+                        int read = channel.read(buffer, offset + lineLength);
+                        if (read <= 0) {
+                            if (isReplaced(channel, fileKey)) {
+                                EventLog.shared().log(EventLog.Level.INFO,
+                                        "Event file replaced, reading the new one from the start", FILE_KEYS, file);
+                                fileGeneration = resetCheckpoint();
+                                offset = 0;
+                                lineLength = 0;
+                                break;
+                            }
+                            sleep();
+                            continue;
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            byte c = buffer.get();
+                            if (c != '\n') {
+                                if (lineLength == line.length) {
+                                    line = Arrays.copyOf(line, line.length * 2);
+                                }
+                                line[lineLength++] = c;
+                                continue;
+                            }
+                            offset += lineLength + 1;
+                            int length = lineLength;
+                            lineLength = 0;
+                            if (!isBlank(line, length)) {
+                                handler.onEvent(new FileEvent(Arrays.copyOf(line, length), offset, fileGeneration));
+                            }
+                        }
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                sleep();
+            } catch (IOException e) {
+                EventLog.shared().log(EventLog.Level.WARN, "Reading the event file failed", FILE_ERROR_KEYS, file,
+                        e.toString());
+                sleep();
+            } catch (Exception e) {
+                EventLog.shared().log(EventLog.Level.WARN, "Event handler failed", FILE_ERROR_KEYS, file,
+                        e.toString());
+            }
+        }
+    }
+
+    /**
+     * @return Whether the path now names another file than the open one, e.g.
+     *         because a new file was renamed over it. A path with no file is
+     *         not replaced yet, as the new file may follow.
+     */
+    private boolean isReplaced(FileChannel channel, Object fileKey) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (fileKey != null) {
+            return !fileKey.equals(attributes.fileKey());
+        }
+        // Appends only make the file at the path longer than the open one.
+        return attributes.size() < channel.size();
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(pollIntervalMillis);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    private static boolean isBlank(byte[] line, int length) {
+        for (int i = 0; i < length; i++) {
+            byte c = line[i];
+            if (c != ' ' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long readCheckpoint() {
+        synchronized (checkpointLock) {
+            try {
+                String text = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim();
+                checkpointedOffset = Long.parseLong(text);
+                return checkpointedOffset;
+            } catch (NoSuchFileException e) {
+                return 0;
+            } catch (IOException | NumberFormatException e) {
+                EventLog.shared().log(EventLog.Level.WARN, "Ignoring an unreadable checkpoint", FILE_ERROR_KEYS,
+                        checkpointFile, e.toString());
+                return 0;
+            }
+        }
+    }
+
+    private int currentGeneration() {
+        synchronized (checkpointLock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Start the checkpoint over at the start of a file that shrank or was
+     * replaced, so a restart does not resume from an offset of the old content.
+     *
+     * @return The generation of the lines read from now on.
+     */
+    private int resetCheckpoint() throws IOException {
+        synchronized (checkpointLock) {
+            generation++;
+            checkpointedOffset = -1;
+            storeCheckpoint(0);
+            return generation;
+        }
+    }
+
+    /**
+     * Store an offset, unless a later one is stored already or the line was
+     * read before the file shrank or was replaced.
+     */
+    private void writeCheckpoint(long offset, int lineGeneration) throws IOException {
+        synchronized (checkpointLock) {
+            if (lineGeneration != generation || offset <= checkpointedOffset) {
+                return;
+            }
+            storeCheckpoint(offset);
+        }
+    }
+
+    /**
+     * The file is replaced atomically so a crash leaves either the old or the
+     * new offset.
+     */
+    private void storeCheckpoint(long offset) throws IOException {
+        Path temp = Paths.get(checkpointFile.toString() + ".tmp");
+        Files.write(temp, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointedOffset = offset;
+    }
+
+    private final class FileEvent implements ReceivedEvent {
+        private final byte[] body;
+        private final long nextOffset;
+        private final int generation;
+
+        FileEvent(byte[] body, long nextOffset, int generation) {
+            this.body = body;
+            this.nextOffset = nextOffset;
+            this.generation = generation;
+        }
+
+        @Override
+        public String getPartitionId() {
+            return PARTITION_ID;
+        }
+
+        @Override
+        public long getOffset() {
+            // The byte offset of the line; the body is the line without its newline.
+            return nextOffset - body.length - 1;
+        }
+
+        @Override
+        public byte[] getBody() {
+            return body;
+        }
+
+        @Override
+        public CompletableFuture<Void> checkpoint() {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                writeCheckpoint(nextOffset, generation);
+                future.complete(null);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+    }
+}
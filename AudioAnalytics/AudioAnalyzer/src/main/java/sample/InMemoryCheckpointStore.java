@@ -0,0 +1,95 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.messaging.eventhubs.CheckpointStore;
+import com.azure.messaging.eventhubs.models.Checkpoint;
+import com.azure.messaging.eventhubs.models.PartitionOwnership;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A CheckpointStore kept in process memory. Use it instead of
+ * BlobCheckpointStore to run the event processor without a storage account,
+ * for example in local tests, and to observe when checkpoints are written.
+ */
+public class InMemoryCheckpointStore implements CheckpointStore {
+    private final ConcurrentHashMap<String, PartitionOwnership> ownerships = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+    private final AtomicInteger checkpointUpdates = new AtomicInteger();
+
+    @Override
+    public Flux<PartitionOwnership> listOwnership(String fullyQualifiedNamespace, String eventHubName,
+                                                  String consumerGroup) {
+        String prefix = prefix(fullyQualifiedNamespace, eventHubName, consumerGroup);
+        return Flux.fromStream(ownerships.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(prefix))
+                .map(entry -> entry.getValue()));
+    }
+
+    @Override
+    public Flux<PartitionOwnership> claimOwnership(List<PartitionOwnership> requestedPartitionOwnerships) {
+        List<PartitionOwnership> claimed = new ArrayList<>();
+        for (PartitionOwnership requested : requestedPartitionOwnerships) {
+            String key = prefix(requested.getFullyQualifiedNamespace(), requested.getEventHubName(),
+                    requested.getConsumerGroup()) + requested.getPartitionId();
+            PartitionOwnership updated = new PartitionOwnership()
+                    .setFullyQualifiedNamespace(requested.getFullyQualifiedNamespace())
+                    .setEventHubName(requested.getEventHubName())
+                    .setConsumerGroup(requested.getConsumerGroup())
+                    .setPartitionId(requested.getPartitionId())
+                    .setOwnerId(requested.getOwnerId())
+                    .setLastModifiedTime(System.currentTimeMillis())
+                    .setETag(UUID.randomUUID().toString());
+
+            // A claim only succeeds against the version of the ownership the
+            // claimant last saw, like the ETag check of the blob store.
+            PartitionOwnership result = ownerships.compute(key, (k, current) -> {
+                if (current != null && !current.getETag().equals(requested.getETag())) {
+                    return current;
+                }
+                return updated;
+            });
+            if (result == updated) {
+                claimed.add(updated);
+            }
+        }
+        return Flux.fromIterable(claimed);
+    }
+
+    @Override
+    public Flux<Checkpoint> listCheckpoints(String fullyQualifiedNamespace, String eventHubName,
+                                            String consumerGroup) {
+        String prefix = prefix(fullyQualifiedNamespace, eventHubName, consumerGroup);
+        return Flux.fromStream(checkpoints.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(prefix))
+                .map(entry -> entry.getValue()));
+    }
+
+    @Override
+    public Mono<Void> updateCheckpoint(Checkpoint checkpoint) {
+        return Mono.fromRunnable(() -> {
+            String key = prefix(checkpoint.getFullyQualifiedNamespace(), checkpoint.getEventHubName(),
+                    checkpoint.getConsumerGroup()) + checkpoint.getPartitionId();
+            checkpoints.put(key, checkpoint);
+            checkpointUpdates.incrementAndGet();
+        });
+    }
+
+    /**
+     * @return How many checkpoints were written since this store was created.
+     */
+    public int getCheckpointUpdateCount() {
+        return checkpointUpdates.get();
+    }
+
+    private static String prefix(String fullyQualifiedNamespace, String eventHubName, String consumerGroup) {
+        return fullyQualifiedNamespace + "/" + eventHubName + "/" + consumerGroup.toLowerCase() + "/";
+    }
+}
@@ -0,0 +1,202 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Delivers events published by the same process, for load tests and local
+ * runs without an Event Hub. Each partition is a bounded queue delivered by its
+ * own thread; publish blocks while the queue of its partition is full.
+ *
+ * Checkpoints are sequence numbers kept in memory. Events still queued when the
+ * source stops are delivered if it is started again.
+ */
+public class InMemoryEventSource implements MediaServicesEventSource {
+    // How often an idle partition thread checks whether the source was stopped.
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final String[] HANDLER_ERROR_KEYS = {"partition", "error"};
+
+    private final Partition[] partitions;
+    private final AtomicLongArray checkpoints;
+    private final AtomicInteger nextPartition = new AtomicInteger();
+    private final AtomicLong checkpointUpdateCount = new AtomicLong();
+
+    /**
+     * @param partitionCount The number of partitions.
+     * @param queueCapacity  The number of events each partition can hold before
+     *                       publish blocks.
+     */
+    public InMemoryEventSource(int partitionCount, int queueCapacity) {
+        if (partitionCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("partitionCount and queueCapacity must be at least 1");
+        }
+        partitions = new Partition[partitionCount];
+        checkpoints = new AtomicLongArray(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i, queueCapacity);
+            checkpoints.set(i, -1);
+        }
+    }
+
+    /**
+     * Publish an event body.
+     *
+     * @param partitionKey Bodies with equal keys go to the same partition and are
+     *                     delivered in order. Null spreads bodies round robin.
+     * @param body         The UTF-8 encoded JSON array or object of Event Grid
+     *                     events.
+     * @throws InterruptedException If interrupted while waiting for room.
+     */
+    public void publish(String partitionKey, byte[] body) throws InterruptedException {
+        int index;
+        if (partitionKey == null) {
+            index = (nextPartition.getAndIncrement() & 0x7fffffff) % partitions.length;
+        } else {
+            int h = partitionKey.hashCode();
+            index = ((h ^ (h >>> 16)) & 0x7fffffff) % partitions.length;
+        }
+        partitions[index].queue.put(body);
+    }
+
+    /**
+     * @param partitionId The partition, from "0" to partitionCount - 1.
+     * @return The sequence number of the last checkpointed event of the
+     *         partition, or -1 if none.
+     */
+    public long getCheckpoint(String partitionId) {
+        return checkpoints.get(Integer.parseInt(partitionId));
+    }
+
+    /**
+     * @return The number of checkpoints stored so far.
+     */
+    public long getCheckpointUpdateCount() {
+        return checkpointUpdateCount.get();
+    }
+
+    @Override
+    public synchronized void start(Handler handler) {
+        for (Partition partition : partitions) {
+            if (partition.thread != null) {
+                throw new IllegalStateException("The source is already started");
+            }
+        }
+        for (Partition partition : partitions) {
+            partition.start(handler);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        for (Partition partition : partitions) {
+            partition.stop();
+        }
+    }
+
+    private final class Partition implements Runnable {
+        private final int index;
+        private final String partitionId;
+        private final ArrayBlockingQueue<byte[]> queue;
+        private Thread thread;
+        private volatile boolean running;
+        private Handler handler;
+        private long sequenceNumber;
+
+        Partition(int index, int capacity) {
+            this.index = index;
+            this.partitionId = Integer.toString(index);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void start(Handler handler) {
+            this.handler = handler;
+            running = true;
+            thread = new Thread(this, "in-memory-event-source-" + partitionId);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            if (thread == null) {
+                return;
+            }
+            // Not interrupted, so a handler waiting on the processor finishes its event.
+            running = false;
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                byte[] body;
+                try {
+                    body = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (body == null) {
+                    continue;
+                }
+                try {
+                    handler.onEvent(new InMemoryEvent(this, sequenceNumber++, body));
+                } catch (Exception e) {
+                    EventLog.shared().log(EventLog.Level.WARN, "Event handler failed", HANDLER_ERROR_KEYS,
+                            partitionId, e.toString());
+                }
+            }
+        }
+    }
+
+    private final class InMemoryEvent implements ReceivedEvent {
+        private final Partition partition;
+        private final long sequenceNumber;
+        private final byte[] body;
+
+        InMemoryEvent(Partition partition, long sequenceNumber, byte[] body) {
+            this.partition = partition;
+            this.sequenceNumber = sequenceNumber;
+            this.body = body;
+        }
+
+        @Override
+        public String getPartitionId() {
+            return partition.partitionId;
+        }
+
+        @Override
+        public long getOffset() {
+            return sequenceNumber;
+        }
+
+        @Override
+        public byte[] getBody() {
+            return body;
+        }
+
+        @Override
+        public CompletableFuture<Void> checkpoint() {
+            // Keep the highest sequence number in case checkpoints race.
+            long current;
+            do {
+                current = checkpoints.get(partition.index);
+                if (current >= sequenceNumber) {
+                    return CompletableFuture.completedFuture(null);
+                }
+            } while (!checkpoints.compareAndSet(partition.index, current, sequenceNumber));
+            checkpointUpdateCount.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -3,207 +3,1038 @@
 
 package sample;
 
-import com.azure.messaging.eventhubs.EventProcessorClient;
-import com.azure.messaging.eventhubs.EventProcessorClientBuilder;
+import com.azure.messaging.eventhubs.CheckpointStore;
 import com.azure.messaging.eventhubs.checkpointstore.blob.BlobCheckpointStore;
-import com.azure.messaging.eventhubs.models.EventContext;
+import com.azure.messaging.eventhubs.models.EventPosition;
+import com.azure.resourcemanager.mediaservices.models.JobState;
 import com.azure.storage.blob.BlobContainerAsyncClient;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import sample.MediaServicesEvent.DataField;
+import sample.MediaServicesEventSource.ReceivedEvent;
+import sample.MediaServicesTypedEvent.JobStateChanged;
 
 /**
- * Implementation of IEventProcessor to handle events from Event Hub.
+ * Implementation of IEventProcessor to handle events from Event Hub, or from
+ * any other MediaServicesEventSource.
+ *
+ * One processor serves any number of jobs and live events. Callers register
+ * the names they are interested in at runtime; every event is routed by its
+ * normalized subject name to the listeners registered for it.
+ *
+ * The source callback only decodes and routes. Printing and listeners run
+ * on a StripedEventDispatcher, so a slow handler delays only the entities that
+ * share its lane, and a partition is checkpointed only up to the last event
+ * whose handlers all finished. Events delivered twice by Event Grid are
+ * dropped before dispatch. Events that fail to process are kept in a
+ * DeadLetterLog and can be re-driven.
+ *
+ * The latest state of every job, job output and live event in the stream,
+ * registered or not, is kept in a MediaServicesStateStore until it expires.
  */
 public class MediaServicesEventProcessor {
-    private final Object monitor;
-    private final String jobName;
-    private final String liveEventName;
-    private final String eventHubConnectionString;
-    private final String eventHubName;
-    private final BlobContainerAsyncClient blobContainer;
-
-    public MediaServicesEventProcessor(String jobName, Object monitor, String liveEventName,
-                                       String eventHubConnectionString, String eventHubName,
+    // One daemon thread fires the timeouts of every pending job future and the
+    // periodic checkpoints.
+    private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+    // Events are handled on one lane per core; the lane is picked by job or
+    // live event name so the events of one entity stay in order.
+    private static final int DISPATCH_LANE_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int DISPATCH_QUEUE_CAPACITY = 1024;
+
+    // Event Grid retries a delivery for minutes at most; remember that long,
+    // at up to 50,000 events a second. That is 15 million ids, about 270 MB at
+    // full rate; the deduplicator only grows that far if the rate gets there.
+    private static final int DEDUPLICATION_EVENTS_PER_SECOND = 50000;
+    private static final long DEDUPLICATION_WINDOW_MILLIS = 5 * 60 * 1000;
+
+    // Heartbeats arrive every 20 seconds per track; keep the last 10 minutes.
+    private static final int INGEST_HEALTH_WINDOW = 30;
+
+    // Job timelines kept for queries; the latency histograms cover every job.
+    private static final int JOB_LATENCY_CAPACITY = 4096;
+
+    // Publish at most one progress event per job output and second by default.
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    // The state store outlives a restart in a snapshot file per event source
+    // under the data directory, e.g. states/mynamespace.myhub.Default.snapshot.
+    private static final String STATE_SNAPSHOT_DIRECTORY = "states";
+
+    // Events that fail to process are kept in up to 8 segments of 4 MiB, in a
+    // directory per event source under the data directory, e.g.
+    // deadletters/mynamespace.myhub.Default.
+    private static final String DEAD_LETTER_DIRECTORY = "deadletters";
+    private static final long DEAD_LETTER_SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final int DEAD_LETTER_SEGMENT_COUNT = 8;
+
+    // The keys of the structured event log records, one array per record type.
+    private static final String[] JOB_STATE_KEYS = {"job", "previousState", "state"};
+    private static final String[] JOB_OUTPUT_STATE_KEYS = {"job", "output", "previousState", "state", "progress"};
+    private static final String[] JOB_OUTPUT_PROGRESS_KEYS = {"job", "output", "progress"};
+    private static final String[] ENCODER_KEYS = {"liveEvent", "ingestUrl", "streamId", "encoderIp", "encoderPort"};
+    private static final String[] CHUNK_DROPPED_KEYS = {"liveEvent", "trackName", "resultCode"};
+    private static final String[] STREAM_RECEIVED_KEYS = {"liveEvent", "ingestUrl", "encoderIp", "encoderPort"};
+    private static final String[] LIVE_EVENT_KEYS = {"liveEvent"};
+    private static final String[] HEARTBEAT_KEYS =
+            {"liveEvent", "trackType", "trackName", "incomingBitrate", "state", "healthy"};
+    private static final String[] DISCONTINUITY_KEYS = {"liveEvent", "trackType", "trackName", "discontinuityGap"};
+    private static final String[] ERROR_KEYS = {"partition", "offset", "error"};
+    private static final String[] LISTENER_ERROR_KEYS = {"entity", "error"};
+    private static final String[] CHECKPOINT_ERROR_KEYS = {"partition", "error"};
+    private static final String[] NO_KEYS = {};
+    private static final String[] EARLY_EVICTION_KEYS = {"rememberedMillis", "windowMillis"};
+    private static final String[] SNAPSHOT_KEYS = {"file", "states"};
+    private static final String[] SNAPSHOT_ERROR_KEYS = {"file", "error"};
+
+    private final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PartitionCheckpoint> partitionCheckpoints = new ConcurrentHashMap<>();
+    private final StripedEventDispatcher dispatcher = new StripedEventDispatcher(DISPATCH_LANE_COUNT,
+            DISPATCH_QUEUE_CAPACITY, "media-services-event-lane");
+    private final EventDeduplicator deduplicator = new EventDeduplicator(
+            EventDeduplicator.capacityFor(DEDUPLICATION_EVENTS_PER_SECOND, DEDUPLICATION_WINDOW_MILLIS),
+            DEDUPLICATION_WINDOW_MILLIS);
+    private final LiveIngestHealthTracker liveIngestHealth = new LiveIngestHealthTracker(INGEST_HEALTH_WINDOW);
+    private final JobLatencyTracker jobLatency = new JobLatencyTracker(JOB_LATENCY_CAPACITY);
+    private final MediaServicesStateStore stateStore = new MediaServicesStateStore();
+    private final EventLog eventLog = EventLog.shared();
+    private final DeadLetterLog deadLetters;
+    private final Path stateSnapshot;
+    private final ProgressCoalescer progressCoalescer = new ProgressCoalescer(PROGRESS_INTERVAL_MILLIS, SCHEDULER,
+            dispatcher::tryDispatch, this::publishEvent);
+    private final MediaServicesEventSource eventSource;
+    private final CheckpointPolicy checkpointPolicy;
+    private final ScheduledFuture<?> checkpointTask;
+    private final long startedNanos = System.nanoTime();
+    private final AtomicLong firstRelevantEventNanos = new AtomicLong();
+    private final AtomicLong eventsBeforeFirstRelevant = new AtomicLong();
+    // Only read and written by the scheduler thread.
+    private boolean earlyEvictionReported;
+
+    /**
+     * Create a processor that keeps its checkpoints in a blob container, using
+     * the default checkpoint policy.
+     *
+     * @param eventHubConnectionString The Event Hub connection string.
+     * @param eventHubName             The Event Hub name.
+     * @param container                The blob container for checkpoints and
+     *                                 partition ownership.
+     */
+    public MediaServicesEventProcessor(String eventHubConnectionString, String eventHubName,
                                        BlobContainerAsyncClient container) {
+        this(eventHubConnectionString, eventHubName, new BlobCheckpointStore(container), CheckpointPolicy.DEFAULT);
+    }
 
-        this.eventHubConnectionString = eventHubConnectionString;
-        this.eventHubName = eventHubName;
-        this.blobContainer = container;
+    /**
+     * Create a processor that keeps its checkpoints in a blob container, but
+     * starts each partition at a given position instead of its checkpoint, using
+     * the default checkpoint policy.
+     *
+     * @param eventHubConnectionString The Event Hub connection string.
+     * @param eventHubName             The Event Hub name.
+     * @param container                The blob container for checkpoints and
+     *                                 partition ownership.
+     * @param startPositions           The position to start each partition
+     *                                 without a checkpoint at, e.g.
+     *                                 EventHubEventSource.enqueuedAfter(the job
+     *                                 submission time).
+     */
+    public MediaServicesEventProcessor(String eventHubConnectionString, String eventHubName,
+                                       BlobContainerAsyncClient container,
+                                       Function<String, EventPosition> startPositions) {
+        this(new EventHubEventSource(eventHubConnectionString, eventHubName,
+                EventHubEventSource.DEFAULT_CONSUMER_GROUP, new BlobCheckpointStore(container), startPositions),
+                CheckpointPolicy.DEFAULT);
+    }
 
-        if (jobName != null) {
-            this.jobName = jobName.replaceAll("-", "");
-        } else {
-            this.jobName = null;
+    /**
+     * Create a processor with a custom checkpoint store and policy.
+     *
+     * @param eventHubConnectionString The Event Hub connection string.
+     * @param eventHubName             The Event Hub name.
+     * @param checkpointStore          The store for checkpoints and partition
+     *                                 ownership, e.g. an InMemoryCheckpointStore.
+     * @param checkpointPolicy         How often to checkpoint each partition.
+     */
+    public MediaServicesEventProcessor(String eventHubConnectionString, String eventHubName,
+                                       CheckpointStore checkpointStore, CheckpointPolicy checkpointPolicy) {
+        this(new EventHubEventSource(eventHubConnectionString, eventHubName,
+                EventHubEventSource.DEFAULT_CONSUMER_GROUP, checkpointStore), checkpointPolicy);
+    }
+
+    /**
+     * Create a processor that receives its events from any source and starts it,
+     * keeping its state snapshot and dead letters under the working directory.
+     *
+     * @param eventSource      The source, e.g. an EventHubEventSource,
+     *                         InMemoryEventSource or FileTailEventSource.
+     * @param checkpointPolicy How often to checkpoint each partition.
+     */
+    public MediaServicesEventProcessor(MediaServicesEventSource eventSource, CheckpointPolicy checkpointPolicy) {
+        this(eventSource, checkpointPolicy, Paths.get(""));
+    }
+
+    /**
+     * Create a processor that receives its events from any source and starts it.
+     *
+     * @param eventSource      The source, e.g. an EventHubEventSource,
+     *                         InMemoryEventSource or FileTailEventSource.
+     * @param checkpointPolicy How often to checkpoint each partition.
+     * @param dataDirectory    The directory of the state snapshot and dead
+     *                         letters, which are kept apart per source name.
+     *                         Processors of sources with the same name, such as
+     *                         two InMemoryEventSources, need different ones.
+     */
+    public MediaServicesEventProcessor(MediaServicesEventSource eventSource, CheckpointPolicy checkpointPolicy,
+                                       Path dataDirectory) {
+        this.eventSource = eventSource;
+        this.checkpointPolicy = checkpointPolicy;
+        this.deadLetters = new DeadLetterLog(
+                dataDirectory.resolve(DEAD_LETTER_DIRECTORY).resolve(eventSource.getName()),
+                DEAD_LETTER_SEGMENT_BYTES, DEAD_LETTER_SEGMENT_COUNT);
+        this.stateSnapshot = dataDirectory.resolve(STATE_SNAPSHOT_DIRECTORY)
+                .resolve(eventSource.getName() + ".snapshot");
+        readStateSnapshot();
+
+        // Partitions that went quiet are checkpointed from the scheduler, so the
+        // interval holds even when no further event arrives.
+        long period = Math.max(50, checkpointPolicy.getIntervalMillis() / 2);
+        this.checkpointTask = SCHEDULER.scheduleAtFixedRate(this::checkpointPartitions,
+                period, period, TimeUnit.MILLISECONDS);
+
+        this.eventSource.start(new MediaServicesEventSource.Handler() {
+            @Override
+            public void onEvent(ReceivedEvent event) {
+                processEvent(event);
+            }
+
+            @Override
+            public void onPartitionLost(String partitionId) {
+                closePartition(partitionId);
+            }
+        });
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "media-services-event-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Drop the timeout of a job as soon as its final event arrives, instead of
+        // keeping it queued until it would have fired.
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Stop receiving events, let the queued handlers finish, save the state
+     * store, then record the position of every partition that has unrecorded
+     * events, after the checkpoint it is writing, if any.
+     */
+    public void stop() {
+        this.checkpointTask.cancel(false);
+        this.eventSource.stop();
+        this.progressCoalescer.close();
+        try {
+            if (!dispatcher.shutdown(30, TimeUnit.SECONDS)) {
+                eventLog.log(EventLog.Level.WARN,
+                        "Event handlers did not finish in time, their events will be received again", NO_KEYS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deadLetters.close();
+        writeStateSnapshot();
+
+        for (PartitionCheckpoint partition : partitionCheckpoints.values()) {
+            ReceivedEvent pending = partition.takePending();
+            if (pending != null) {
+                try {
+                    pending.checkpoint().join();
+                } catch (Exception e) {
+                    eventLog.log(EventLog.Level.WARN, "Checkpoint failed", CHECKPOINT_ERROR_KEYS,
+                            pending.getPartitionId(), e.toString());
+                }
+            }
         }
+        eventLog.flush(5, TimeUnit.SECONDS);
+    }
 
-        this.monitor = buildEventProcessClient();
-        monitor = this.monitor;
+    /**
+     * Load the states the previous processor of the event source left, before
+     * the first event is applied.
+     */
+    private void readStateSnapshot() {
+        if (!Files.exists(stateSnapshot)) {
+            return;
+        }
+        try {
+            int count = stateStore.readSnapshot(stateSnapshot);
+            eventLog.log(EventLog.Level.INFO, "Read the state snapshot", SNAPSHOT_KEYS, stateSnapshot, count);
+        } catch (IOException e) {
+            eventLog.log(EventLog.Level.WARN, "Failed to read the state snapshot", SNAPSHOT_ERROR_KEYS,
+                    stateSnapshot, e.toString());
+        }
+    }
 
-        if (liveEventName != null) {
-            this.liveEventName = liveEventName.replaceAll("-", "");
-        } else {
-            this.liveEventName = null;
+    /**
+     * Save the states for the next processor of the event source, once the
+     * dispatch lanes applied every event.
+     */
+    private void writeStateSnapshot() {
+        try {
+            Files.createDirectories(stateSnapshot.getParent());
+            stateStore.writeSnapshot(stateSnapshot);
+            eventLog.log(EventLog.Level.INFO, "Wrote the state snapshot", SNAPSHOT_KEYS, stateSnapshot,
+                    stateStore.size());
+        } catch (IOException e) {
+            eventLog.log(EventLog.Level.WARN, "Failed to write the state snapshot", SNAPSHOT_ERROR_KEYS,
+                    stateSnapshot, e.toString());
         }
     }
 
-    public MediaServicesEventProcessor() {
-        this.jobName = null;
-        this.monitor = null;
-        this.liveEventName = null;
-        this.eventHubName = null;
-        this.eventHubConnectionString = null;
-        this.blobContainer = null;
+    /**
+     * @return How many times the source callback had to wait because a
+     *         dispatch lane was full.
+     */
+    public long getBackpressureCount() {
+        return dispatcher.getBackpressureCount();
     }
 
-    public void stop() {
-        ((EventProcessorClient) this.monitor).stop();
+    /**
+     * @return How many duplicate deliveries of an event were dropped.
+     */
+    public long getDuplicateCount() {
+        return deduplicator.getDuplicateCount();
+    }
+
+    /**
+     * @return How many event ids were forgotten before the end of the
+     *         deduplication window because more events arrived than it holds.
+     *         A duplicate of such an event is not dropped.
+     */
+    public long getDeduplicationEarlyEvictionCount() {
+        return deduplicator.getEarlyEvictionCount();
+    }
+
+    /**
+     * Set how often progress of a job output is passed on. JobOutputProgress
+     * events arriving faster are printed and passed to listeners only as the
+     * latest value per interval; state changes are always passed on at once.
+     *
+     * @param interval The minimum time between two progress events of one job
+     *                 output, or 0 to pass on every progress event.
+     * @param unit     The unit of the interval.
+     */
+    public void setProgressUpdateInterval(long interval, TimeUnit unit) {
+        progressCoalescer.setInterval(interval, unit);
     }
 
-    private EventProcessorClient buildEventProcessClient() {
-        return new EventProcessorClientBuilder()
-                .connectionString(this.eventHubConnectionString, this.eventHubName)
-                .checkpointStore(new BlobCheckpointStore(this.blobContainer))
-                .consumerGroup("$Default")
-                .processEvent(eventContext -> this.processEvent(eventContext))
-                .processError(errorContext -> System.out.println("Partition "
-                        + errorContext.getPartitionContext().getPartitionId()
-                        + " onError: " + errorContext.getThrowable().toString()))
-                .processPartitionInitialization(initializationContextConsumer -> System.out.println("Partition "
-                        + initializationContextConsumer.getPartitionContext().getPartitionId() + " is opening"))
-                .processPartitionClose(closeContext -> System.out.println("Partition "
-                        + closeContext.getPartitionContext().getPartitionId()
-                        + " is closing for reason " + closeContext.getCloseReason().toString()))
-                .buildEventProcessorClient();
+    /**
+     * @return How many progress events were skipped because a later one of the
+     *         same job output superseded them.
+     */
+    public long getCoalescedProgressCount() {
+        return progressCoalescer.getCoalescedCount();
+    }
+
+    /**
+     * Start printing events of a job and forward them to a listener.
+     *
+     * @param jobName  The name of the job.
+     * @param listener The listener, or null to only print the events.
+     */
+    public void registerJob(String jobName, MediaServicesEventListener listener) {
+        register(jobName, listener);
     }
 
     /**
-     * Parse and print Media Services events.
+     * Undo one registerJob call. The job is no longer tracked once every
+     * registration of it is undone, with or without a listener.
      *
-     * @param eventContext Event Hub event data context.
+     * @param jobName  The name of the job.
+     * @param listener The listener passed to registerJob, or null.
      */
-    private void processEvent(EventContext eventContext) {
+    public void unregisterJob(String jobName, MediaServicesEventListener listener) {
+        if (unregister(jobName, listener)) {
+            progressCoalescer.discardJob(MediaServicesEventDecoder.normalizeName(jobName));
+        }
+    }
+
+    /**
+     * Start printing events of a live event and forward them to a listener.
+     *
+     * @param liveEventName The name of the live event.
+     * @param listener      The listener, or null to only print the events.
+     */
+    public void registerLiveEvent(String liveEventName, MediaServicesEventListener listener) {
+        register(liveEventName, listener);
+    }
+
+    /**
+     * Undo one registerLiveEvent call. The live event is no longer tracked once
+     * every registration of it is undone, with or without a listener.
+     *
+     * @param liveEventName The name of the live event.
+     * @param listener      The listener passed to registerLiveEvent, or null.
+     */
+    public void unregisterLiveEvent(String liveEventName, MediaServicesEventListener listener) {
+        if (unregister(liveEventName, listener)) {
+            liveIngestHealth.remove(liveEventName);
+        }
+    }
+
+    /**
+     * Get the rolling ingest health of a registered live event, per track, over
+     * its last heartbeats.
+     *
+     * @param liveEventName The name of the live event.
+     * @return One entry per track, empty if no heartbeat was received yet.
+     */
+    public List<LiveIngestHealthTracker.TrackHealth> getLiveIngestHealth(String liveEventName) {
+        return liveIngestHealth.getHealth(liveEventName);
+    }
+
+    /**
+     * Get how long a job waited for encoder capacity, how long it processed and
+     * how late its events arrived, from the events received for it.
+     *
+     * @param jobName The name of the job.
+     * @return The job timeline, or null if no event of the job was received.
+     */
+    public JobLatencyTracker.JobLatency getJobLatency(String jobName) {
+        return jobLatency.getJobLatency(jobName);
+    }
+
+    /**
+     * @return The latency histograms across all jobs, and the timelines of recent
+     *         jobs for export.
+     */
+    public JobLatencyTracker getJobLatencyTracker() {
+        return jobLatency;
+    }
+
+    /**
+     * Get the latest job state received in the event stream, without a call to
+     * Media Services.
+     *
+     * @param transformName The name of the transform of the job.
+     * @param jobName       The name of the job.
+     * @return The job state, or null if no state event of the job was received.
+     */
+    public JobState getJobState(String transformName, String jobName) {
+        MediaServicesStateStore.EntityState state = stateStore.getJob(transformName, jobName);
+        return state == null || state.getState() == null ? null : JobState.fromString(state.getState());
+    }
+
+    /**
+     * @return The time from the creation of this processor to the first event of
+     *         a registered job or live event, or null if none was received yet.
+     */
+    public Duration getTimeToFirstEvent() {
+        long first = firstRelevantEventNanos.get();
+        return first == 0 ? null : Duration.ofNanos(first - startedNanos);
+    }
+
+    /**
+     * @return The number of events of other jobs and live events received before
+     *         the first one of a registered job or live event, i.e. how much
+     *         history the start position left to skip.
+     */
+    public long getEventsBeforeFirstEvent() {
+        return eventsBeforeFirstRelevant.get();
+    }
+
+    /**
+     * @return The latest states of all jobs, job outputs and live events received,
+     *         including those of the snapshot read at the start.
+     */
+    public MediaServicesStateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * Wait for a job to reach a final state without blocking a thread. The future
+     * is completed by the JobFinished, JobCanceled or JobErrored event of the job,
+     * or completed exceptionally with a TimeoutException if none arrives in time.
+     *
+     * @param transformName The name of the transform of the job.
+     * @param jobName       The name of the job.
+     * @param timeout       How long to wait for the final event.
+     * @param unit          The unit of the timeout.
+     * @return The final state of the job.
+     */
+    public CompletableFuture<JobState> waitForJob(String transformName, String jobName, long timeout,
+                                                  TimeUnit unit) {
+        CompletableFuture<JobState> future = new CompletableFuture<>();
+        String transform = MediaServicesEventDecoder.normalizeName(transformName);
+        MediaServicesTypedEventListener listener = new MediaServicesTypedEventListener() {
+            @Override
+            public void onJobStateChanged(JobStateChanged event) {
+                // Jobs of other transforms may have the same name.
+                if (event.isFinal()
+                        && transform.equals(MediaServicesStateStore.transformOf(event.getEvent().subject()))) {
+                    future.complete(event.getState());
+                }
+            }
+        };
+
+        registerJob(jobName, listener);
+
+        // The final event may have been received before the job was registered,
+        // e.g. when the partitions start before the job submission. The state
+        // store has seen it even so.
+        JobState known = getJobState(transformName, jobName);
+        if (known == JobState.FINISHED || known == JobState.ERROR || known == JobState.CANCELED) {
+            future.complete(known);
+        }
+
+        ScheduledFuture<?> timeoutTask = SCHEDULER.schedule(
+                () -> future.completeExceptionally(new TimeoutException("No final event for job " + jobName)),
+                timeout, unit);
+        future.whenComplete((state, error) -> {
+            timeoutTask.cancel(false);
+            unregisterJob(jobName, listener);
+        });
+
+        return future;
+    }
+
+    private void register(String name, MediaServicesEventListener listener) {
+        String key = MediaServicesEventDecoder.normalizeName(name);
+        subscriptions.compute(key, (k, subscription) -> {
+            if (subscription == null) {
+                subscription = new Subscription();
+            }
+            subscription.registrations++;
+            if (listener != null) {
+                subscription.listeners.add(listener);
+            }
+            return subscription;
+        });
+    }
+
+    /**
+     * @return true if the name is no longer tracked.
+     */
+    private boolean unregister(String name, MediaServicesEventListener listener) {
+        String key = MediaServicesEventDecoder.normalizeName(name);
+        return subscriptions.computeIfPresent(key, (k, subscription) -> {
+            if (listener != null) {
+                subscription.listeners.remove(listener);
+            }
+            // Returning null removes the entry. Registrations without a listener
+            // count too, so they keep the name tracked.
+            return --subscription.registrations == 0 ? null : subscription;
+        }) == null;
+    }
+
+    /**
+     * Checkpoint what was handled of a partition another consumer took over, and
+     * forget it.
+     *
+     * @param partitionId The partition.
+     */
+    private void closePartition(String partitionId) {
+        PartitionCheckpoint partition = partitionCheckpoints.remove(partitionId);
+        if (partition != null) {
+            partition.checkpoint(true);
+        }
+    }
+
+    /**
+     * Process the events kept in the dead-letter log again, e.g. once the cause
+     * of their failure is fixed. Events that fail again are kept for the next
+     * re-drive. Events of a body that were handled before it failed are dropped
+     * as duplicates if they are re-driven within the deduplication window.
+     *
+     * @return The number of Event Hub events re-driven.
+     * @throws IOException If the dead-letter log can't be read.
+     */
+    public int redriveDeadLetters() throws IOException {
+        // Re-driven events have nothing to checkpoint; track them apart from the
+        // partitions they came from.
+        PartitionCheckpoint redrive = new PartitionCheckpoint("redrive", checkpointPolicy);
+        return deadLetters.redrive(letter -> processEvent(new RedrivenEvent(letter), redrive));
+    }
+
+    /**
+     * @return The failed events kept for re-driving.
+     */
+    public DeadLetterLog getDeadLetterLog() {
+        return deadLetters;
+    }
+
+    /**
+     * Parse Media Services events and hand them to the dispatch lanes.
+     *
+     * @param receivedEvent The event as received from the source.
+     */
+    private void processEvent(ReceivedEvent receivedEvent) {
+        processEvent(receivedEvent, partitionCheckpoints.computeIfAbsent(receivedEvent.getPartitionId(),
+                id -> new PartitionCheckpoint(id, checkpointPolicy)));
+    }
+
+    /**
+     * Parse Media Services events and hand them to the dispatch lanes.
+     *
+     * @param receivedEvent The event.
+     * @param partition     The checkpoint bookkeeping the event counts towards.
+     */
+    private void processEvent(ReceivedEvent receivedEvent, PartitionCheckpoint partition) {
+        PendingEvent pending = partition.received(receivedEvent);
+
         try {
-            String data = new String(eventContext.getEventData().getBody(), "UTF8");
-            JSONParser parser = new JSONParser();
-            Object obj = parser.parse(data);
-            if (obj instanceof JSONArray) {
-                JSONArray jArr = (JSONArray) obj;
-                for (Object element : jArr) {
-                    if (element instanceof JSONObject) {
-                        JSONObject jObj = (JSONObject) element;
-                        String eventType = (String) jObj.get("eventType");
-                        String subject = (String) jObj.get("subject");
-                        String eventName = subject.replaceFirst("^.*/", "").replaceAll("-", "");
-
-                        // Only these events from registered job or live event.
-                        if (!eventName.equals(jobName) && !eventName.equals(liveEventName)) {
-                            return;
-                        }
-
-                        JSONObject jobOrLiveEventData = (JSONObject) jObj.get("data");
-                        switch (eventType) {
-                            // Job state change events
-                            case "Microsoft.Media.JobStateChange":
-                            case "Microsoft.Media.JobScheduled":
-                            case "Microsoft.Media.JobProcessing":
-                            case "Microsoft.Media.JobCanceling":
-                            case "Microsoft.Media.JobFinished":
-                            case "Microsoft.Media.JobCanceled":
-                            case "Microsoft.Media.JobErrored":
-                                System.out.println("Job state changed for JobId: " + eventName +
-                                        " PreviousState: " + jobOrLiveEventData.get("previousState") +
-                                        ", State: " + jobOrLiveEventData.get("state"));
-                                if (eventType.equals("Microsoft.Media.JobFinished") || eventType.equals("Microsoft.Media.JobCanceled") ||
-                                        eventType.equals("Microsoft.Media.JobErrored")) {
-                                    // Job finished, send a message.
-                                    if (monitor != null) {
-                                        synchronized (monitor) {
-                                            monitor.notify();
-                                        }
-                                    }
-                                }
-                                break;
-
-                            // Job output state change events
-                            case "Microsoft.Media.JobOutputStateChange":
-                            case "Microsoft.Media.JobOutputScheduled":
-                            case "Microsoft.Media.JobOutputProcessing":
-                            case "Microsoft.Media.JobOutputCanceling":
-                            case "Microsoft.Media.JobOutputFinished":
-                            case "Microsoft.Media.JobOutputCanceled":
-                            case "Microsoft.Media.JobOutputErrored":
-                                JSONObject outputObj = (JSONObject) jobOrLiveEventData.get("output");
-                                System.out.println("Job output state changed for JobId:" + eventName +
-                                        " PreviousState: " + jobOrLiveEventData.get("previousState") +
-                                        ", State: " + outputObj.get("state") + " Progress: " + outputObj.get("progress") + "%");
-                                break;
-
-                            // Job output progress event
-                            case "Microsoft.Media.JobOutputProgress":
-                                System.out.println("Job output progress changed for JobId: " + eventName +
-                                        " Progress: " + jobOrLiveEventData.get("progress") + "%");
-                                break;
-
-                            // LiveEvent Stream-level events
-                            case "Microsoft.Media.LiveEventConnectionRejected":
-                                System.out.println("LiveEvent connection rejected. IngestUrl: " + jobOrLiveEventData.get("ingestUrl") +
-                                        " StreamId: " + jobOrLiveEventData.get("streamId") +
-                                        " EncoderIp: " + jobOrLiveEventData.get("encoderIp") +
-                                        " EncoderPort: " + jobOrLiveEventData.get("encoderPort"));
-                                break;
-
-                            case "Microsoft.Media.LiveEventEncoderConnected":
-                                System.out.println("LiveEvent encoder connected. IngestUrl: " + jobOrLiveEventData.get("ingestUrl") +
-                                        " StreamId: " + jobOrLiveEventData.get("streamId") +
-                                        " EncoderIp: " + jobOrLiveEventData.get("encoderIp") +
-                                        " EncoderPort: " + jobOrLiveEventData.get("encoderPort"));
-                                break;
-
-                            case "Microsoft.Media.LiveEventEncoderDisconnected":
-                                System.out.println("LiveEvent encoder disconnected. IngestUrl: " + jobOrLiveEventData.get("ingestUrl") +
-                                        " StreamId: " + jobOrLiveEventData.get("streamId") +
-                                        " EncoderIp: " + jobOrLiveEventData.get("encoderIp") +
-                                        " EncoderPort: " + jobOrLiveEventData.get("encoderPort"));
-                                break;
-
-                            // LiveEvent Track-level events
-                            case "Microsoft.Media.LiveEventIncomingDataChunkDropped":
-                                System.out.println("LiveEvent data chunk dropped. LiveEventId: " + eventName +
-                                        " ResultCode: " + jobOrLiveEventData.get("resultCode"));
-                                break;
-
-                            case "Microsoft.Media.LiveEventIncomingStreamReceived":
-                                System.out.println("LiveEvent incoming stream received. IngestUrl: " + jobOrLiveEventData.get("ingestUrl") +
-                                        " EncoderIp: " + jobOrLiveEventData.get("encoderIp") +
-                                        " EncoderPort: " + jobOrLiveEventData.get("encoderPort"));
-                                break;
-
-                            case "Microsoft.Media.LiveEventIncomingStreamsOutOfSync":
-                                System.out.println("LiveEvent incoming audio and video streams are out of sync. LiveEventId: " + eventName);
-                                break;
-
-                            case "Microsoft.Media.LiveEventIncomingVideoStreamsOutOfSync":
-                                System.out.println("LiveEvent incoming video streams are out of sync. LiveEventId: " + eventName);
-                                break;
-
-                            case "Microsoft.Media.LiveEventIngestHeartbeat":
-                                System.out.println("LiveEvent ingest heart beat. TrackType: " + jobOrLiveEventData.get("trackType") +
-                                        " State: " + jobOrLiveEventData.get("state") +
-                                        " Healthy: " + jobOrLiveEventData.get("healthy"));
-                                break;
-
-                            case "Microsoft.Media.LiveEventTrackDiscontinuityDetected":
-                                System.out.println("LiveEvent discontinuity in the incoming track detected. LiveEventId: " + eventName +
-                                        " TrackType: " + jobOrLiveEventData.get("trackType") +
-                                        " Discontinuity gap: " + jobOrLiveEventData.get("discontinuityGap"));
-                                break;
-                        }
+            MediaServicesEventDecoder.decode(receivedEvent.getBody(),
+                    event -> this.dispatchEvent(event, pending));
+        } catch (Exception e) {
+            // Failed events count towards the checkpoint too; the dead-letter log
+            // keeps them, so they are not lost.
+            eventLog.log(EventLog.Level.WARN, "Processing failed for an event", ERROR_KEYS,
+                    receivedEvent.getPartitionId(), receivedEvent.getOffset(), e.toString());
+            deadLetters.append(receivedEvent.getPartitionId(), receivedEvent.getOffset(), receivedEvent.getBody(),
+                    e.toString());
+        } finally {
+            pending.release();
+        }
+    }
+
+    /**
+     * Record the state carried by a single decoded Media Services event, and
+     * queue the event on the lane of its job or live event if it is registered.
+     *
+     * @param event   The decoded event.
+     * @param pending The received event it was decoded from.
+     */
+    private void dispatchEvent(MediaServicesEvent event, PendingEvent pending) {
+        // Duplicates and out-of-order events leave the store as it is.
+        stateStore.apply(event);
+
+        String eventName = event.entityName();
+        if (event.eventType() == null || eventName == null || !subscriptions.containsKey(eventName)) {
+            if (firstRelevantEventNanos.get() == 0) {
+                eventsBeforeFirstRelevant.incrementAndGet();
+            }
+            return;
+        }
+        if (firstRelevantEventNanos.get() == 0) {
+            firstRelevantEventNanos.compareAndSet(0, System.nanoTime());
+        }
+
+        // Event Grid delivers at least once; drop an event whose id was seen before.
+        if (event.id() != null && !deduplicator.firstSeen(event.id())) {
+            return;
+        }
+
+        pending.retain();
+        boolean dispatched = false;
+        try {
+            dispatcher.dispatch(eventName, () -> {
+                try {
+                    handleEvent(event, pending.receivedMillis);
+                } finally {
+                    pending.release();
+                }
+            });
+            dispatched = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while dispatching an event", e);
+        } finally {
+            // Not queued, e.g. the dispatcher was shut down, so the task will never
+            // release it and the partition would never be checkpointed past it.
+            if (!dispatched) {
+                pending.release();
+            }
+        }
+    }
+
+    /**
+     * Handle a single decoded Media Services event of a registered job or live
+     * event. Runs on a dispatch lane.
+     *
+     * @param event          The decoded event.
+     * @param receivedMillis When the event was received, in epoch milliseconds.
+     */
+    private void handleEvent(MediaServicesEvent event, long receivedMillis) {
+        // The entity may have been unregistered while the event was queued.
+        if (!subscriptions.containsKey(event.entityName())) {
+            return;
+        }
+
+        liveIngestHealth.record(event);
+        jobLatency.record(event, receivedMillis);
+
+        if (event.type() == MediaServicesEventType.JOB_OUTPUT_PROGRESS) {
+            if (!progressCoalescer.offer(event)) {
+                // Held back; the coalescer publishes the latest value later.
+                return;
+            }
+        } else if (event.isJobFinalState()) {
+            progressCoalescer.discardJob(event.entityName());
+        } else if (event.isJobOutputFinalState()) {
+            progressCoalescer.discardOutput(event.entityName(), event.get(DataField.OUTPUT_LABEL));
+        }
+
+        publishEvent(event);
+    }
+
+    /**
+     * Print an event and pass it to the listeners registered for its job or live
+     * event. Runs on a dispatch lane.
+     *
+     * @param event The decoded event.
+     */
+    private void publishEvent(MediaServicesEvent event) {
+        String eventName = event.entityName();
+        Subscription subscription = subscriptions.get(eventName);
+        if (subscription == null) {
+            return;
+        }
+
+        printEvent(event);
+
+        for (MediaServicesEventListener listener : subscription.listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (Exception e) {
+                eventLog.log(EventLog.Level.WARN, "Event listener failed", LISTENER_ERROR_KEYS,
+                        eventName, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Checkpoint the partitions whose oldest unrecorded event is older than the
+     * policy interval, and report the first early eviction of the deduplicator.
+     */
+    private void checkpointPartitions() {
+        for (PartitionCheckpoint partition : partitionCheckpoints.values()) {
+            partition.checkpoint(false);
+        }
+        if (!earlyEvictionReported && deduplicator.getEarlyEvictionCount() > 0) {
+            earlyEvictionReported = true;
+            eventLog.log(EventLog.Level.WARN, "Event ids are forgotten before the end of the deduplication window,"
+                    + " raise the deduplication capacity to catch later duplicates.", EARLY_EVICTION_KEYS,
+                    deduplicator.getShortestWindowMillis(), DEDUPLICATION_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * Log a Media Services event of a registered job or live event.
+     *
+     * @param event The decoded event.
+     */
+    private void printEvent(MediaServicesEvent event) {
+        if (!eventLog.isEnabled(EventLog.Level.INFO)) {
+            return;
+        }
+        String eventName = event.entityName();
+
+        switch (event.type()) {
+            // Job state change events
+            case JOB_STATE_CHANGE:
+            case JOB_SCHEDULED:
+            case JOB_PROCESSING:
+            case JOB_CANCELING:
+            case JOB_FINISHED:
+            case JOB_CANCELED:
+            case JOB_ERRORED:
+                eventLog.log(EventLog.Level.INFO, "Job state changed", JOB_STATE_KEYS,
+                        eventName, event.get(DataField.PREVIOUS_STATE), event.get(DataField.STATE));
+                break;
+
+            // Job output state change events
+            case JOB_OUTPUT_STATE_CHANGE:
+            case JOB_OUTPUT_SCHEDULED:
+            case JOB_OUTPUT_PROCESSING:
+            case JOB_OUTPUT_CANCELING:
+            case JOB_OUTPUT_FINISHED:
+            case JOB_OUTPUT_CANCELED:
+            case JOB_OUTPUT_ERRORED:
+                eventLog.log(EventLog.Level.INFO, "Job output state changed", JOB_OUTPUT_STATE_KEYS,
+                        eventName, event.get(DataField.OUTPUT_LABEL), event.get(DataField.PREVIOUS_STATE),
+                        event.get(DataField.OUTPUT_STATE), event.get(DataField.OUTPUT_PROGRESS));
+                break;
+
+            // Job output progress event
+            case JOB_OUTPUT_PROGRESS:
+                eventLog.log(EventLog.Level.INFO, "Job output progress changed", JOB_OUTPUT_PROGRESS_KEYS,
+                        eventName, event.get(DataField.LABEL), event.get(DataField.PROGRESS));
+                break;
+
+            // LiveEvent Stream-level events
+            case LIVE_EVENT_CONNECTION_REJECTED:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent connection rejected", ENCODER_KEYS,
+                        eventName, event.get(DataField.INGEST_URL), event.get(DataField.STREAM_ID),
+                        event.get(DataField.ENCODER_IP), event.get(DataField.ENCODER_PORT));
+                break;
+
+            case LIVE_EVENT_ENCODER_CONNECTED:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent encoder connected", ENCODER_KEYS,
+                        eventName, event.get(DataField.INGEST_URL), event.get(DataField.STREAM_ID),
+                        event.get(DataField.ENCODER_IP), event.get(DataField.ENCODER_PORT));
+                break;
+
+            case LIVE_EVENT_ENCODER_DISCONNECTED:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent encoder disconnected", ENCODER_KEYS,
+                        eventName, event.get(DataField.INGEST_URL), event.get(DataField.STREAM_ID),
+                        event.get(DataField.ENCODER_IP), event.get(DataField.ENCODER_PORT));
+                break;
+
+            // LiveEvent Track-level events
+            case LIVE_EVENT_INCOMING_DATA_CHUNK_DROPPED:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent data chunk dropped", CHUNK_DROPPED_KEYS,
+                        eventName, event.get(DataField.TRACK_NAME), event.get(DataField.RESULT_CODE));
+                break;
+
+            case LIVE_EVENT_INCOMING_STREAM_RECEIVED:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent incoming stream received", STREAM_RECEIVED_KEYS,
+                        eventName, event.get(DataField.INGEST_URL), event.get(DataField.ENCODER_IP),
+                        event.get(DataField.ENCODER_PORT));
+                break;
+
+            case LIVE_EVENT_INCOMING_STREAMS_OUT_OF_SYNC:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent incoming audio and video streams are out of sync",
+                        LIVE_EVENT_KEYS, eventName);
+                break;
+
+            case LIVE_EVENT_INCOMING_VIDEO_STREAMS_OUT_OF_SYNC:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent incoming video streams are out of sync",
+                        LIVE_EVENT_KEYS, eventName);
+                break;
+
+            case LIVE_EVENT_INGEST_HEARTBEAT:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent ingest heart beat", HEARTBEAT_KEYS,
+                        eventName, event.get(DataField.TRACK_TYPE), event.get(DataField.TRACK_NAME),
+                        event.get(DataField.INCOMING_BITRATE), event.get(DataField.STATE),
+                        event.get(DataField.HEALTHY));
+                break;
+
+            case LIVE_EVENT_TRACK_DISCONTINUITY_DETECTED:
+                eventLog.log(EventLog.Level.INFO, "LiveEvent discontinuity in the incoming track detected",
+                        DISCONTINUITY_KEYS, eventName, event.get(DataField.TRACK_TYPE),
+                        event.get(DataField.TRACK_NAME), event.get(DataField.DISCONTINUITY_GAP));
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * A received event whose decoded Media Services events may still be queued
+     * or running on the dispatch lanes. It holds one reference for the decoding
+     * callback plus one per dispatched event, and is complete once all are
+     * released.
+     */
+    private static final class PendingEvent {
+        private final PartitionCheckpoint partition;
+        private final ReceivedEvent receivedEvent;
+        private final long receivedMillis = System.currentTimeMillis();
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        PendingEvent(PartitionCheckpoint partition, ReceivedEvent receivedEvent) {
+            this.partition = partition;
+            this.receivedEvent = receivedEvent;
+        }
+
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                partition.completed();
+            }
+        }
+
+        boolean isComplete() {
+            return references.get() == 0;
+        }
+    }
+
+    /**
+     * The registrations of one job or live event name. The count includes the
+     * registrations without a listener; the name is tracked until it drops to
+     * zero. Both are only changed inside a compute of the subscriptions map.
+     */
+    private static final class Subscription {
+        private final CopyOnWriteArrayList<MediaServicesEventListener> listeners = new CopyOnWriteArrayList<>();
+        private int registrations;
+    }
+
+    /**
+     * A dead-lettered event being re-driven. It reports the partition and offset
+     * it was originally received with.
+     */
+    private static final class RedrivenEvent implements ReceivedEvent {
+        private final DeadLetterLog.DeadLetter letter;
+
+        RedrivenEvent(DeadLetterLog.DeadLetter letter) {
+            this.letter = letter;
+        }
+
+        @Override
+        public String getPartitionId() {
+            return letter.getPartitionId();
+        }
+
+        @Override
+        public long getOffset() {
+            return letter.getOffset();
+        }
+
+        @Override
+        public byte[] getBody() {
+            return letter.getBody();
+        }
+
+        @Override
+        public CompletableFuture<Void> checkpoint() {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Checkpoint bookkeeping of one partition. Events complete on the dispatch
+     * lanes in any order; only the oldest run of completed events advances the
+     * checkpoint, so an event still being handled is never skipped over. The
+     * state is shared by the partition thread, the lanes and the scheduler and
+     * is guarded by the instance lock.
+     */
+    private static final class PartitionCheckpoint {
+        private final String partitionId;
+        private final CheckpointPolicy policy;
+        private final ArrayDeque<PendingEvent> inOrder = new ArrayDeque<>();
+        private ReceivedEvent latest;
+        private int pendingEvents;
+        private long firstPendingNanos;
+        // The write in flight, completed once its outcome is recorded, or null.
+        private CompletableFuture<Void> inFlight;
+
+        PartitionCheckpoint(String partitionId, CheckpointPolicy policy) {
+            this.partitionId = partitionId;
+            this.policy = policy;
+        }
+
+        /**
+         * Track an event received from the partition, in partition order.
+         */
+        synchronized PendingEvent received(ReceivedEvent receivedEvent) {
+            PendingEvent pending = new PendingEvent(this, receivedEvent);
+            inOrder.addLast(pending);
+            return pending;
+        }
+
+        /**
+         * Called when an event completed. Moves the checkpoint candidate past
+         * every completed event at the head of the partition and checkpoints if
+         * enough events are pending.
+         */
+        void completed() {
+            boolean ready;
+            synchronized (this) {
+                while (!inOrder.isEmpty() && inOrder.peekFirst().isComplete()) {
+                    if (pendingEvents == 0) {
+                        firstPendingNanos = System.nanoTime();
                     }
+                    pendingEvents++;
+                    latest = inOrder.pollFirst().receivedEvent;
                 }
+                ready = pendingEvents >= policy.getEventCount();
+            }
+            if (ready) {
+                checkpoint(false);
+            }
+        }
+
+        /**
+         * Write a checkpoint for the latest completed event without waiting for
+         * it. Nothing is written while a previous write of this partition is still
+         * in flight, so checkpoints can't land out of order.
+         *
+         * @param force Ignore the policy and write any pending event.
+         */
+        void checkpoint(boolean force) {
+            ReceivedEvent receivedEvent;
+            int takenEvents;
+            long takenNanos;
+            CompletableFuture<Void> written;
+            synchronized (this) {
+                if (latest == null || inFlight != null) {
+                    return;
+                }
+                long ageMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstPendingNanos);
+                if (!force && pendingEvents < policy.getEventCount() && ageMillis < policy.getIntervalMillis()) {
+                    return;
+                }
+                receivedEvent = latest;
+                takenEvents = pendingEvents;
+                takenNanos = firstPendingNanos;
+                latest = null;
+                pendingEvents = 0;
+                written = new CompletableFuture<>();
+                inFlight = written;
+            }
+
+            receivedEvent.checkpoint().whenComplete((result, error) -> {
+                synchronized (this) {
+                    inFlight = null;
+                    // Put a failed position back so the next periodic check
+                    // retries it, unless a newer event already replaced it.
+                    if (error != null && latest == null) {
+                        latest = receivedEvent;
+                        pendingEvents = takenEvents;
+                        firstPendingNanos = takenNanos;
+                    }
+                }
+                if (error != null) {
+                    EventLog.shared().log(EventLog.Level.WARN, "Checkpoint failed", CHECKPOINT_ERROR_KEYS,
+                            partitionId, error.toString());
+                }
+                written.complete(null);
+            });
+        }
+
+        /**
+         * Take the latest completed event for a final, synchronous checkpoint,
+         * once the write in flight, if any, is done, so the final one can't be
+         * overwritten by an older position. A position whose write failed is
+         * taken again.
+         *
+         * @return The event, or null if nothing is pending.
+         */
+        ReceivedEvent takePending() {
+            CompletableFuture<Void> writing;
+            synchronized (this) {
+                writing = inFlight;
+            }
+            if (writing != null) {
+                writing.join();
+            }
+            synchronized (this) {
+                ReceivedEvent receivedEvent = latest;
+                latest = null;
+                pendingEvents = 0;
+                return receivedEvent;
             }
-        } catch (Exception e) {
-            System.out.println("Processing failed for an event: " + e.toString());
         }
     }
 }
@@ -0,0 +1,175 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs event handlers on a fixed number of worker lanes. The lane of a task is
+ * chosen by the hash of its key (the job or live event name), so handlers of
+ * one entity run in submission order while handlers of different entities run
+ * in parallel.
+ *
+ * Each lane has a bounded queue. When a lane is full, dispatch blocks the
+ * caller until there is room again; for the Event Hub processor that is the
+ * partition thread, which then stops pulling events from that partition.
+ */
+public class StripedEventDispatcher {
+    private static final String[] HANDLER_ERROR_KEYS = {"lane", "error"};
+
+    private final Lane[] lanes;
+    private final AtomicLong backpressureCount = new AtomicLong();
+    private volatile boolean stopped;
+
+    /**
+     * @param laneCount        The number of worker threads.
+     * @param queueCapacity    The number of tasks each lane can hold before
+     *                         dispatch blocks.
+     * @param threadNamePrefix The prefix of the worker thread names.
+     */
+    public StripedEventDispatcher(int laneCount, int queueCapacity, String threadNamePrefix) {
+        if (laneCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("laneCount and queueCapacity must be at least 1");
+        }
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(queueCapacity, threadNamePrefix + "-" + i);
+            lanes[i].thread.start();
+        }
+    }
+
+    /**
+     * Queue a task on the lane of its key.
+     *
+     * @param key  The ordering key. Tasks with equal keys run one after another,
+     *             in the order they were dispatched.
+     * @param task The task.
+     * @throws InterruptedException If interrupted while waiting for room in a
+     *                              full lane.
+     */
+    public void dispatch(String key, Runnable task) throws InterruptedException {
+        if (stopped) {
+            throw new IllegalStateException("The dispatcher is shut down");
+        }
+        Lane lane = lanes[laneOf(key)];
+        if (!lane.queue.offer(task)) {
+            // The lane is full: count it so the receiving side can see it is
+            // being throttled, then wait for room.
+            backpressureCount.incrementAndGet();
+            lane.queue.put(task);
+        }
+        if (!accepted(lane, task)) {
+            throw new IllegalStateException("The dispatcher is shut down");
+        }
+    }
+
+    /**
+     * Queue a task on the lane of its key unless the lane is full.
+     *
+     * @param key  The ordering key.
+     * @param task The task.
+     * @return false if the lane is full or the dispatcher is shut down.
+     */
+    public boolean tryDispatch(String key, Runnable task) {
+        if (stopped) {
+            return false;
+        }
+        Lane lane = lanes[laneOf(key)];
+        return lane.queue.offer(task) && accepted(lane, task);
+    }
+
+    /**
+     * @return How many times dispatch had to wait for a full lane.
+     */
+    public long getBackpressureCount() {
+        return backpressureCount.get();
+    }
+
+    /**
+     * @return The number of tasks waiting in all lanes.
+     */
+    public int getQueuedCount() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stop accepting tasks and wait for the queued ones to finish.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return true if every lane finished its queue in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        stopped = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+        boolean drained = true;
+        for (Lane lane : lanes) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            lane.thread.join(Math.max(1, remaining));
+            drained &= !lane.thread.isAlive();
+        }
+        return drained;
+    }
+
+    /**
+     * Check a task just queued against a shutdown that started meanwhile. Its
+     * lane may already have drained and exited, so take the task back unless
+     * the lane got to it first.
+     *
+     * @return false if the task was taken back and will not run.
+     */
+    private boolean accepted(Lane lane, Runnable task) {
+        return !stopped || !lane.queue.remove(task);
+    }
+
+    private int laneOf(String key) {
+        int h = key.hashCode();
+        // Spread the high bits, names often differ only in their last characters.
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % lanes.length;
+    }
+
+    private final class Lane implements Runnable {
+        private final ArrayBlockingQueue<Runnable> queue;
+        private final Thread thread;
+
+        Lane(int capacity, String name) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = stopped ? queue.poll() : queue.take();
+                } catch (InterruptedException e) {
+                    // Shutdown: finish what is queued, then exit.
+                    continue;
+                }
+                if (task == null) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    EventLog.shared().log(EventLog.Level.WARN, "Event handler failed", HANDLER_ERROR_KEYS,
+                            thread.getName(), e.toString());
+                }
+            }
+        }
+    }
+}
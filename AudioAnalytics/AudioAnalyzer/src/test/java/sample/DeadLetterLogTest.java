@@ -0,0 +1,181 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeadLetterLogTest {
+    private Path directory;
+    private final List<DeadLetterLog> logs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("dead-letters");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (DeadLetterLog log : logs) {
+            log.close();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private DeadLetterLog open(int segmentCount) {
+        DeadLetterLog log = new DeadLetterLog(directory, 1024, segmentCount);
+        logs.add(log);
+        return log;
+    }
+
+    private static byte[] body(int n) {
+        // About 200 bytes, so a segment of 1024 bytes holds four records.
+        StringBuilder body = new StringBuilder("{\"n\":").append(n).append(",\"pad\":\"");
+        while (body.length() < 180) {
+            body.append('x');
+        }
+        return body.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int numberOf(DeadLetterLog.DeadLetter letter) {
+        String body = new String(letter.getBody(), StandardCharsets.UTF_8);
+        return Integer.parseInt(body.substring(5, body.indexOf(',')));
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.seg")) {
+            stream.forEach(segments::add);
+        }
+        return segments;
+    }
+
+    @Test
+    public void redriveHandsOverEveryFieldAndEmptiesTheLog() throws IOException {
+        DeadLetterLog log = open(8);
+        assertTrue(log.append("3", 42, body(1), "boom"));
+        assertTrue(log.append("0", -1, body(2), "again"));
+
+        List<DeadLetterLog.DeadLetter> letters = new ArrayList<>();
+        assertEquals(2, log.redrive(letters::add));
+
+        assertEquals("3", letters.get(0).getPartitionId());
+        assertEquals(42, letters.get(0).getOffset());
+        assertEquals("boom", letters.get(0).getError());
+        assertArrayEquals(body(1), letters.get(0).getBody());
+        assertTrue(letters.get(0).getFailedMillis() > 0);
+        assertEquals(2, numberOf(letters.get(1)));
+        assertTrue(segments().isEmpty());
+        assertEquals(0, log.redrive(letters::add));
+    }
+
+    @Test
+    public void rotationKeepsTheNewestSegments() throws IOException {
+        DeadLetterLog log = open(2);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(log.append("0", i, body(i), "error"));
+        }
+
+        assertEquals(2, segments().size());
+        List<Integer> numbers = new ArrayList<>();
+        log.redrive(letter -> numbers.add(numberOf(letter)));
+        assertEquals(Integer.valueOf(19), numbers.get(numbers.size() - 1));
+        assertTrue(numbers.size() < 20);
+        assertEquals(20, log.getWrittenCount());
+    }
+
+    @Test
+    public void eventsFailedAgainDuringARedriveDontRotateItAway() throws IOException {
+        DeadLetterLog log = open(2);
+        for (int i = 0; i < 8; i++) {
+            log.append("0", i, body(i), "error");
+        }
+        log.close();
+        assertEquals(2, segments().size());
+
+        // Every re-driven event fails again, and enough of them to rotate both
+        // segments kept away while the first is being re-driven.
+        List<Integer> redriven = new ArrayList<>();
+        assertEquals(8, log.redrive(letter -> {
+            redriven.add(numberOf(letter));
+            for (int i = 0; i < 4; i++) {
+                log.append("0", 100 + i, body(100 + i), "failed again");
+            }
+        }));
+
+        assertEquals(8, redriven.size());
+        assertEquals(Integer.valueOf(7), redriven.get(7));
+        assertEquals(2, segments().size());
+        List<Integer> kept = new ArrayList<>();
+        log.redrive(letter -> kept.add(numberOf(letter)));
+        assertTrue(kept.stream().allMatch(n -> n >= 100));
+    }
+
+    @Test
+    public void tooLargeEventsAreDropped() throws IOException {
+        DeadLetterLog log = open(2);
+
+        assertFalse(log.append("0", 1, new byte[1024], "error"));
+        assertEquals(1, log.getDroppedCount());
+        assertEquals(0, log.getWrittenCount());
+        assertTrue(segments().isEmpty());
+    }
+
+    @Test
+    public void aSecondLogOfTheDirectoryWaitsForTheFirst() throws IOException {
+        DeadLetterLog first = open(2);
+        DeadLetterLog second = open(2);
+        assertTrue(first.append("0", 1, body(1), "error"));
+
+        assertFalse(second.append("0", 2, body(2), "error"));
+        assertThrows(IOException.class, () -> second.redrive(letter -> { }));
+
+        first.close();
+        assertEquals(1, second.redrive(letter -> { }));
+    }
+
+    @Test
+    public void aRecordCutShortEndsTheSegment() throws IOException {
+        DeadLetterLog log = open(2);
+        log.append("0", 1, body(1), "error");
+        log.append("0", 2, body(2), "error");
+        log.close();
+
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+
+        List<Integer> numbers = new ArrayList<>();
+        assertEquals(1, log.redrive(letter -> numbers.add(numberOf(letter))));
+        assertEquals(Integer.valueOf(1), numbers.get(0));
+    }
+
+    @Test
+    public void tooSmallSegmentsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new DeadLetterLog(directory, 100, 2));
+        assertThrows(IllegalArgumentException.class, () -> new DeadLetterLog(directory, 1024, 0));
+    }
+}
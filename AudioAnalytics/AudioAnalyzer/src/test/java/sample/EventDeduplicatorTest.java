@@ -0,0 +1,95 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EventDeduplicatorTest {
+
+    @Test
+    public void duplicatesWithinTheWindowAreDropped() {
+        EventDeduplicator deduplicator = new EventDeduplicator(10000, 60000);
+
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(deduplicator.firstSeen("id-" + i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertFalse(deduplicator.firstSeen("id-" + i));
+        }
+
+        assertEquals(5000, deduplicator.getDuplicateCount());
+        assertEquals(5000, deduplicator.size());
+        assertEquals(0, deduplicator.getEarlyEvictionCount());
+        assertEquals(60000, deduplicator.getShortestWindowMillis());
+    }
+
+    @Test
+    public void idsAreRememberedForTheWholeWindow() throws Exception {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 400);
+        assertTrue(deduplicator.firstSeen("early"));
+
+        // Several generations rotate while the window lasts.
+        long deadline = System.nanoTime() + 300_000_000L;
+        int checks = 0;
+        while (System.nanoTime() < deadline) {
+            assertTrue(deduplicator.firstSeen("other-" + checks));
+            assertFalse(deduplicator.firstSeen("early"));
+            checks++;
+            Thread.sleep(10);
+        }
+        assertEquals(checks, deduplicator.getDuplicateCount());
+    }
+
+    @Test
+    public void idsAreForgottenAfterTheWindow() throws Exception {
+        EventDeduplicator deduplicator = new EventDeduplicator(1000, 40);
+        assertTrue(deduplicator.firstSeen("id"));
+        assertTrue(deduplicator.firstSeen("other"));
+
+        // The window plus the generation being filled.
+        Thread.sleep(40 + 40 / 8 + 20);
+
+        assertTrue(deduplicator.firstSeen("id"));
+        assertEquals(1, deduplicator.size());
+        assertEquals(0, deduplicator.getEarlyEvictionCount());
+    }
+
+    @Test
+    public void fullGenerationsCloseEarlyAndAreCounted() {
+        // 10 ids per generation, 8 generations plus the one being filled.
+        EventDeduplicator deduplicator = new EventDeduplicator(80, 60000);
+
+        for (int i = 0; i < 90; i++) {
+            assertTrue(deduplicator.firstSeen("id-" + i));
+        }
+        assertEquals(0, deduplicator.getEarlyEvictionCount());
+        assertFalse(deduplicator.firstSeen("id-0"));
+
+        assertTrue(deduplicator.firstSeen("id-90"));
+        assertEquals(10, deduplicator.getEarlyEvictionCount());
+        assertTrue(deduplicator.getShortestWindowMillis() < 60000);
+        assertEquals(81, deduplicator.size());
+
+        // The oldest generation is forgotten, the next one is not.
+        assertTrue(deduplicator.firstSeen("id-0"));
+        assertFalse(deduplicator.firstSeen("id-10"));
+    }
+
+    @Test
+    public void capacityFollowsRateAndWindow() {
+        assertEquals(15_000_000, EventDeduplicator.capacityFor(50000, 5 * 60 * 1000));
+        assertEquals(1, EventDeduplicator.capacityFor(1, 1));
+        assertEquals(1, EventDeduplicator.capacityFor(0, 60000));
+        assertEquals(1 << 28, EventDeduplicator.capacityFor(10_000_000, 5 * 60 * 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new EventDeduplicator(0, 60000);
+    }
+}
@@ -0,0 +1,81 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time an event handler spends logging one job state change at 10,000
+ * events a second: queued on an EventLog, written by log4j to logs/log.txt
+ * from the writer thread, against the System.out.println the handlers used
+ * before, writing to a file as a redirected console does. The pacing happens
+ * in the invocation setup, which the sample time leaves out.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventLogBenchmark {
+    private static final long EVENT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 10000;
+    private static final String[] KEYS = {"job", "previousState", "state"};
+
+    private EventLog eventLog;
+    private PrintStream console;
+    private File consoleFile;
+    private long nextNanos;
+    private int count;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        eventLog = new EventLog("sample.benchmark.events", 65536);
+        consoleFile = File.createTempFile("console", ".txt");
+        console = new PrintStream(new FileOutputStream(consoleFile), true);
+        nextNanos = System.nanoTime();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        eventLog.close(5, TimeUnit.SECONDS);
+        console.close();
+        consoleFile.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void pace() {
+        nextNanos += EVENT_INTERVAL_NANOS;
+        while (System.nanoTime() < nextNanos) {
+            // Spin; sleeping is far coarser than the interval.
+        }
+    }
+
+    @Benchmark
+    public void eventLog() {
+        eventLog.log(EventLog.Level.INFO, "Job state changed", KEYS, "job" + (count++ & 1023), "Processing",
+                "Finished");
+    }
+
+    @Benchmark
+    public void println() {
+        console.println("Job state changed for Job: job" + (count++ & 1023)
+                + " PreviousState: Processing, State: Finished");
+    }
+}
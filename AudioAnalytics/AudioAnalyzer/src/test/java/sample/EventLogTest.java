@@ -0,0 +1,144 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventLogTest {
+    private static final String LOGGER_NAME = "sample.test.eventlog";
+    private static final String[] KEYS = {"job", "state"};
+
+    private final List<String> lines = new CopyOnWriteArrayList<>();
+    private final CountDownLatch appending = new CountDownLatch(1);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final AppenderSkeleton appender = new AppenderSkeleton() {
+        @Override
+        protected void append(LoggingEvent event) {
+            appending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lines.add(event.getLevel() + " " + event.getRenderedMessage());
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+    };
+    private final Logger logger = Logger.getLogger(LOGGER_NAME);
+    private EventLog eventLog;
+
+    @Before
+    public void setUp() {
+        logger.setLevel(Level.INFO);
+        logger.setAdditivity(false);
+        logger.addAppender(appender);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (eventLog != null) {
+            eventLog.close(5, TimeUnit.SECONDS);
+        }
+        logger.removeAppender(appender);
+    }
+
+    @Test
+    public void recordsAreWrittenAsKeyValuePairs() {
+        eventLog = new EventLog(LOGGER_NAME, 16);
+        eventLog.log(EventLog.Level.INFO, "Job state changed", KEYS, "job1", "Finished");
+        eventLog.log(EventLog.Level.WARN, "Values are quoted", new String[] {"a", "b", "c", "d"},
+                "two words", "say \"hi\"", "", null);
+        eventLog.log(EventLog.Level.ERROR, "Missing values are left out", KEYS, "job1");
+
+        assertTrue(eventLog.flush(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(
+                "INFO Job state changed job=job1 state=Finished",
+                "WARN Values are quoted a=\"two words\" b=\"say \\\"hi\\\"\" c=\"\" d=null",
+                "ERROR Missing values are left out job=job1"), lines);
+    }
+
+    @Test
+    public void disabledLevelsAreNotQueued() {
+        eventLog = new EventLog(LOGGER_NAME, 16);
+        assertFalse(eventLog.isEnabled(EventLog.Level.DEBUG));
+        assertTrue(eventLog.isEnabled(EventLog.Level.INFO));
+
+        eventLog.log(EventLog.Level.DEBUG, "Not written", KEYS, "job1", "Processing");
+
+        assertTrue(eventLog.flush(5, TimeUnit.SECONDS));
+        assertEquals(0, lines.size());
+        assertEquals(0, eventLog.getDroppedCount());
+    }
+
+    @Test
+    public void recordsBeyondTheCapacityAreDropped() throws Exception {
+        release = new CountDownLatch(1);
+        eventLog = new EventLog(LOGGER_NAME, 2);
+
+        eventLog.log(EventLog.Level.INFO, "1", KEYS);
+        assertTrue(appending.await(5, TimeUnit.SECONDS));
+        // The writer is busy with the first record, which still counts.
+        eventLog.log(EventLog.Level.INFO, "2", KEYS);
+        eventLog.log(EventLog.Level.INFO, "3", KEYS);
+        assertFalse(eventLog.flush(50, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(eventLog.flush(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("INFO 1", "INFO 2"), lines);
+        assertEquals(1, eventLog.getDroppedCount());
+    }
+
+    @Test
+    public void flushWaitsForEveryQueuedRecord() {
+        eventLog = new EventLog(LOGGER_NAME, 10000);
+        for (int i = 0; i < 10000; i++) {
+            eventLog.log(EventLog.Level.INFO, "Record", KEYS, "job" + i, "Processing");
+        }
+
+        assertTrue(eventLog.flush(5, TimeUnit.SECONDS));
+        assertEquals(10000, lines.size());
+        assertEquals("INFO Record job=job9999 state=Processing", lines.get(9999));
+    }
+
+    @Test
+    public void closeWritesTheQueuedRecordsAndStopsLogging() {
+        eventLog = new EventLog(LOGGER_NAME, 16);
+        eventLog.log(EventLog.Level.INFO, "Before", KEYS);
+        eventLog.close(5, TimeUnit.SECONDS);
+        eventLog.log(EventLog.Level.INFO, "After", KEYS);
+
+        assertEquals(Arrays.asList("INFO Before"), lines);
+        assertTrue(eventLog.flush(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sharedLogIsOneInstance() {
+        assertSame(EventLog.shared(), EventLog.shared());
+    }
+}
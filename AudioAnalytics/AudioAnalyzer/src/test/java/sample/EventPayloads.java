@@ -0,0 +1,99 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Builds Event Grid payloads the way the Media Services subscription delivers
+ * them through Event Hub, for the tests.
+ */
+final class EventPayloads {
+    static final String TRANSFORM = "MyTransform";
+
+    private EventPayloads() {
+    }
+
+    /**
+     * @return An Event Grid event as a JSON object.
+     */
+    static String event(String id, String eventType, String subject, String data) {
+        return "{\"id\":\"" + id + "\",\"topic\":\"/subscriptions/0000/resourceGroups/rg/providers"
+                + "/Microsoft.Media/mediaservices/account\",\"subject\":\"" + subject + "\",\"eventType\":\""
+                + eventType + "\",\"eventTime\":\"2021-05-12T10:00:00.0000000Z\",\"data\":" + data
+                + ",\"dataVersion\":\"1.0\",\"metadataVersion\":\"1\"}";
+    }
+
+    /**
+     * @return A job state event of a job of TRANSFORM.
+     */
+    static String jobState(String id, String jobName, String type, String previousState, String state) {
+        return event(id, "Microsoft.Media." + type, "transforms/" + TRANSFORM + "/jobs/" + jobName,
+                "{\"previousState\":\"" + previousState + "\",\"state\":\"" + state
+                        + "\",\"correlationData\":{}}");
+    }
+
+    /**
+     * @return A JobOutputProgress event of a job of TRANSFORM.
+     */
+    static String jobOutputProgress(String id, String jobName, String label, int progress) {
+        return event(id, "Microsoft.Media.JobOutputProgress", "transforms/" + TRANSFORM + "/jobs/" + jobName,
+                "{\"jobCorrelationData\":{},\"label\":\"" + label + "\",\"progress\":" + progress + "}");
+    }
+
+    /**
+     * @return A LiveEventIngestHeartbeat event of one video track.
+     */
+    static String heartbeat(String id, String liveEventName, long bitrate, boolean healthy) {
+        return event(id, "Microsoft.Media.LiveEventIngestHeartbeat", "liveEvent/" + liveEventName,
+                "{\"trackType\":\"video\",\"trackName\":\"video\",\"bitrate\":3000000,\"incomingBitrate\":"
+                        + bitrate + ",\"lastTimestamp\":\"100\",\"timescale\":\"1000\",\"overlapCount\":0,"
+                        + "\"discontinuityCount\":0,\"nonincreasingCount\":0,\"unexpectedBitrate\":false,"
+                        + "\"state\":\"Running\",\"healthy\":" + healthy + "}");
+    }
+
+    /**
+     * @return A live event track event of the video track, such as
+     *         LiveEventTrackDiscontinuityDetected.
+     */
+    static String trackEvent(String id, String liveEventName, String type) {
+        return event(id, "Microsoft.Media." + type, "liveEvent/" + liveEventName,
+                "{\"trackType\":\"video\",\"trackName\":\"video\",\"bitrate\":3000000}");
+    }
+
+    /**
+     * @return The UTF-8 body of an Event Hub event holding the events as a JSON
+     *         array.
+     */
+    static byte[] body(String... events) {
+        return ("[" + String.join(",", events) + "]").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The one event of a JSON object.
+     */
+    static MediaServicesEvent decode(String event) {
+        MediaServicesEvent[] decoded = new MediaServicesEvent[1];
+        MediaServicesEventDecoder.decode(event.getBytes(StandardCharsets.UTF_8), e -> decoded[0] = e);
+        return decoded[0];
+    }
+
+    /**
+     * Wait for a condition set by another thread.
+     *
+     * @return false if it did not hold within the timeout.
+     */
+    static boolean await(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
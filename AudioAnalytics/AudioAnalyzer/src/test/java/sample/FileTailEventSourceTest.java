@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sample.MediaServicesEventSource.ReceivedEvent;
+
+public class FileTailEventSourceTest {
+    private Path directory;
+    private Path file;
+    private Path checkpointFile;
+    private FileTailEventSource source;
+    private final List<ReceivedEvent> received = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-tail");
+        file = directory.resolve("events.jsonl");
+        checkpointFile = directory.resolve("events.jsonl.checkpoint");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (source != null) {
+            source.stop();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void start() {
+        source = new FileTailEventSource(file, checkpointFile, 10);
+        source.start(new MediaServicesEventSource.Handler() {
+            @Override
+            public void onEvent(ReceivedEvent event) {
+                received.add(event);
+            }
+
+            @Override
+            public void onPartitionLost(String partitionId) {
+            }
+        });
+    }
+
+    private void append(Path to, String text) throws IOException {
+        Files.write(to, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private List<String> bodies() {
+        String[] bodies = new String[received.size()];
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = new String(received.get(i).getBody(), StandardCharsets.UTF_8);
+        }
+        return Arrays.asList(bodies);
+    }
+
+    private boolean awaitReceived(int count) throws InterruptedException {
+        return EventPayloads.await(() -> received.size() >= count, 5, TimeUnit.SECONDS);
+    }
+
+    private String checkpoint() throws IOException {
+        return new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void completeLinesAreDeliveredWithTheirOffsets() throws Exception {
+        start();
+        append(file, "first\n\nsecond\nthi");
+        assertTrue(awaitReceived(2));
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("first", "second"), bodies());
+        assertEquals(0, received.get(0).getOffset());
+        assertEquals(7, received.get(1).getOffset());
+
+        append(file, "rd\n");
+        assertTrue(awaitReceived(3));
+        assertEquals("third", bodies().get(2));
+    }
+
+    @Test
+    public void aRestartResumesAfterTheCheckpoint() throws Exception {
+        append(file, "first\nsecond\n");
+        start();
+        assertTrue(awaitReceived(2));
+        received.get(0).checkpoint().get();
+        source.stop();
+        assertEquals("6", checkpoint());
+
+        received.clear();
+        start();
+        assertTrue(awaitReceived(1));
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("second"), bodies());
+    }
+
+    @Test
+    public void aFileRenamedOverTheOldOneIsReadFromTheStart() throws Exception {
+        append(file, "old-1\nold-2\n");
+        start();
+        assertTrue(awaitReceived(2));
+        ReceivedEvent old = received.get(1);
+        old.checkpoint().get();
+
+        // Longer than the lines read, so it does not look like a shrunk file.
+        Path replacement = directory.resolve("events.jsonl.new");
+        append(replacement, "new-1\nnew-2\nnew-3\n");
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        assertTrue(awaitReceived(5));
+        assertEquals(Arrays.asList("old-1", "old-2", "new-1", "new-2", "new-3"), bodies());
+        assertEquals(0, received.get(2).getOffset());
+
+        // The checkpoint of a line of the old file no longer counts.
+        old.checkpoint().get();
+        assertEquals("0", checkpoint());
+        received.get(2).checkpoint().get();
+        assertEquals("6", checkpoint());
+    }
+}
@@ -0,0 +1,112 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.Test;
+import sample.JobLatencyTracker.JobLatency;
+
+public class JobLatencyTrackerTest {
+    private static final String START = "2021-05-12T10:00:00Z";
+    private static final long START_MILLIS = Instant.parse(START).toEpochMilli();
+
+    private final JobLatencyTracker tracker = new JobLatencyTracker(2);
+    private int ids;
+
+    /**
+     * Record a job state event stamped seconds after START, received a given
+     * time after that.
+     */
+    private void record(String jobName, String type, String state, long seconds, long lagMillis) {
+        String event = EventPayloads.jobState(Integer.toString(++ids), jobName, type, "Queued", state);
+        record(event, seconds, lagMillis);
+    }
+
+    private void record(String event, long seconds, long lagMillis) {
+        Instant eventTime = Instant.parse(START).plusSeconds(seconds);
+        tracker.record(EventPayloads.decode(event.replace("2021-05-12T10:00:00.0000000Z", eventTime.toString())),
+                eventTime.toEpochMilli() + lagMillis);
+    }
+
+    @Test
+    public void aJobIsBrokenDownByState() {
+        record("job-1", "JobScheduled", "Scheduled", 0, 100);
+        record("job-1", "JobProcessing", "Processing", 30, 200);
+        record(EventPayloads.jobOutputProgress("p", "job-1", "output", 50), 60, 50);
+        record("job-1", "JobFinished", "Finished", 90, 400);
+
+        JobLatency latency = tracker.getJobLatency("job-1");
+        assertEquals("job1", latency.getJobName());
+        assertEquals("Finished", latency.getState());
+        assertEquals(Instant.ofEpochMilli(START_MILLIS), latency.getScheduledTime());
+        assertEquals(Duration.ofSeconds(30), latency.getQueueWait());
+        assertEquals(Duration.ofSeconds(60), latency.getProcessingDuration());
+        assertEquals(400, latency.getMaxDeliveryLagMillis());
+        assertEquals(4, latency.getEventCount());
+
+        assertEquals(1, tracker.getQueueWait().getCount());
+        assertEquals(30_000, tracker.getQueueWait().getMaxMillis());
+        assertEquals(1, tracker.getProcessingTime().getCount());
+        assertEquals(60_000, tracker.getProcessingTime().getMaxMillis());
+        assertEquals(4, tracker.getDeliveryLag().getCount());
+        assertEquals(400, tracker.getDeliveryLag().getMaxMillis());
+    }
+
+    @Test
+    public void theFirstTimeOfEachStateIsKept() {
+        record("job-1", "JobScheduled", "Scheduled", 0, 0);
+        record("job-1", "JobStateChange", "Scheduled", 5, 0);
+        record("job-1", "JobProcessing", "Processing", 10, 0);
+        record("job-1", "JobStateChange", "Processing", 12, 0);
+
+        JobLatency latency = tracker.getJobLatency("job-1");
+        assertEquals(Duration.ofSeconds(10), latency.getQueueWait());
+        assertNull(latency.getProcessingDuration());
+        // Recorded in the histogram once.
+        assertEquals(1, tracker.getQueueWait().getCount());
+        assertEquals(0, tracker.getProcessingTime().getCount());
+    }
+
+    @Test
+    public void theOldestTimelineIsForgottenButStillCounted() {
+        record("job-1", "JobScheduled", "Scheduled", 0, 0);
+        record("job-1", "JobProcessing", "Processing", 1, 0);
+        record("job-2", "JobScheduled", "Scheduled", 2, 0);
+        record("job-3", "JobScheduled", "Scheduled", 3, 0);
+
+        assertNull(tracker.getJobLatency("job-1"));
+        assertNotNull(tracker.getJobLatency("job-2"));
+        assertNotNull(tracker.getJobLatency("job-3"));
+        assertEquals(1, tracker.getQueueWait().getCount());
+        assertEquals(4, tracker.getDeliveryLag().getCount());
+    }
+
+    @Test
+    public void otherEventsAreIgnored() {
+        tracker.record(EventPayloads.decode(EventPayloads.heartbeat("1", "live-1", 2_500_000, true)),
+                START_MILLIS);
+        assertEquals(0, tracker.getDeliveryLag().getCount());
+    }
+
+    @Test
+    public void timelinesAreExportedOldestFirst() throws Exception {
+        record("job-1", "JobScheduled", "Scheduled", 0, 20);
+        record("job-1", "JobProcessing", "Processing", 30, 10);
+        record("job-1", "JobFinished", "Finished", 90, 0);
+        record("job-2", "JobScheduled", "Scheduled", 60, 5);
+
+        StringWriter csv = new StringWriter();
+        tracker.exportCsv(csv);
+        assertEquals("job,state,scheduled,processing,finished,queue_wait_ms,processing_ms,"
+                + "max_delivery_lag_ms,events\n"
+                + "job1,Finished,2021-05-12T10:00:00Z,2021-05-12T10:00:30Z,2021-05-12T10:01:30Z,30000,60000,20,3\n"
+                + "job2,Scheduled,2021-05-12T10:01:00Z,,,,,5,1\n", csv.toString());
+    }
+}
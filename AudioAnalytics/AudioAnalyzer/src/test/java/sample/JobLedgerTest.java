@@ -0,0 +1,186 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobLedgerTest {
+    private static final String TRANSFORM = "MyTransform";
+
+    private Path directory;
+    private JobLedger ledger;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("job-ledger");
+        ledger = new JobLedger(directory, 4096);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ledger.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void reopen() throws IOException {
+        ledger.close();
+        ledger = new JobLedger(directory, 4096);
+    }
+
+    private void recordRun(String run) throws IOException {
+        ledger.record(JobLedger.Kind.RUN, run, TRANSFORM, JobLedger.CREATED);
+        ledger.record(JobLedger.Kind.ASSET, "input-" + run, run, JobLedger.CREATED);
+        ledger.record(JobLedger.Kind.JOB, "job-" + run, run, JobLedger.SUBMITTING);
+        ledger.record(JobLedger.Kind.JOB, "job-" + run, run, "Processing");
+    }
+
+    private List<Path> generations() throws IOException {
+        List<Path> generations = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "ledger-*.log")) {
+            stream.forEach(generations::add);
+        }
+        return generations;
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws IOException {
+        recordRun("run1");
+        reopen();
+
+        assertEquals("run1", ledger.getOpenRun(TRANSFORM).getName());
+        assertEquals("Processing", ledger.get(JobLedger.Kind.JOB, "job-run1").getState());
+        assertEquals(2, ledger.getResources("run1").size());
+        assertEquals(3, ledger.size());
+        assertEquals(4, ledger.getRecordCount());
+    }
+
+    @Test
+    public void updatesKeepTheCreationTime() throws Exception {
+        ledger.record(JobLedger.Kind.JOB, "job", "run", JobLedger.SUBMITTING);
+        long created = ledger.get(JobLedger.Kind.JOB, "job").getCreatedMillis();
+        Thread.sleep(5);
+        ledger.record(JobLedger.Kind.JOB, "job", "run", "Finished");
+        reopen();
+
+        JobLedger.Entry job = ledger.get(JobLedger.Kind.JOB, "job");
+        assertEquals(created, job.getCreatedMillis());
+        assertTrue(job.getUpdatedMillis() > created);
+    }
+
+    @Test
+    public void deletedResourcesLeaveTheRunOpen() throws IOException {
+        recordRun("run1");
+        ledger.record(JobLedger.Kind.JOB, "job-run1", "run1", JobLedger.DELETED);
+        reopen();
+
+        assertNull(ledger.get(JobLedger.Kind.JOB, "job-run1"));
+        assertEquals("run1", ledger.getOpenRun(TRANSFORM).getName());
+        assertEquals(1, ledger.getResources("run1").size());
+        assertEquals("input-run1", ledger.getResources("run1").get(0).getName());
+    }
+
+    @Test
+    public void deletingARunDeletesItsResources() throws IOException {
+        recordRun("run1");
+        recordRun("run2");
+        ledger.record(JobLedger.Kind.RUN, "run1", TRANSFORM, JobLedger.DELETED);
+
+        assertEquals("run2", ledger.getOpenRun(TRANSFORM).getName());
+        assertEquals(0, ledger.getResources("run1").size());
+        reopen();
+        assertEquals(3, ledger.size());
+        assertNull(ledger.get(JobLedger.Kind.ASSET, "input-run1"));
+        assertNull(ledger.getOpenRun("OtherTransform"));
+    }
+
+    @Test
+    public void aTornRecordEndsTheReplay() throws IOException {
+        recordRun("run1");
+        ledger.record(JobLedger.Kind.LOCATOR, "locator-run1", "run1", JobLedger.CREATED);
+        ledger.close();
+
+        // Damage the last byte of the last record, as a crash in the middle of
+        // writing it would.
+        Path generation = generations().get(0);
+        try (FileChannel channel = FileChannel.open(generation, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            byte[] bytes = Files.readAllBytes(generation);
+            int last = bytes.length - 1;
+            while (bytes[last] == 0) {
+                last--;
+            }
+            channel.write(java.nio.ByteBuffer.wrap(new byte[] {(byte) (bytes[last] ^ 1)}), last);
+        }
+
+        ledger = new JobLedger(directory, 4096);
+        assertNull(ledger.get(JobLedger.Kind.LOCATOR, "locator-run1"));
+        assertEquals(4, ledger.getRecordCount());
+
+        // The next record takes the place of the damaged one.
+        ledger.record(JobLedger.Kind.LOCATOR, "locator-run1", "run1", "Again");
+        reopen();
+        assertEquals("Again", ledger.get(JobLedger.Kind.LOCATOR, "locator-run1").getState());
+        assertEquals(5, ledger.getRecordCount());
+    }
+
+    @Test
+    public void compactionKeepsTheLatestStatesInOneGeneration() throws IOException {
+        recordRun("run1");
+        for (int i = 0; i < 2000; i++) {
+            ledger.record(JobLedger.Kind.JOB, "job-run1", "run1", "Progress " + i);
+            ledger.record(JobLedger.Kind.ASSET, "temp-" + i, "run1", JobLedger.CREATED);
+            ledger.record(JobLedger.Kind.ASSET, "temp-" + i, "run1", JobLedger.DELETED);
+        }
+
+        assertTrue(ledger.getCompactionCount() > 0);
+        assertEquals(3, ledger.size());
+        assertEquals(1, generations().size());
+        reopen();
+        assertEquals("Progress 1999", ledger.get(JobLedger.Kind.JOB, "job-run1").getState());
+        assertEquals(3, ledger.size());
+        assertTrue(ledger.getRecordCount() < 1024);
+    }
+
+    @Test
+    public void theMappingGrowsWithTheLiveEntries() throws IOException {
+        for (int i = 0; i < 500; i++) {
+            ledger.record(JobLedger.Kind.ASSET, "asset-" + i, "run1", JobLedger.CREATED);
+        }
+        reopen();
+
+        assertEquals(500, ledger.size());
+        assertTrue(Files.size(generations().get(0)) > 4096);
+    }
+
+    @Test
+    public void aLedgerInUseCannotBeOpenedAgain() {
+        assertThrows(IOException.class, () -> new JobLedger(directory, 4096));
+    }
+
+    @Test
+    public void recordsAfterCloseFail() {
+        ledger.close();
+        assertThrows(IOException.class,
+                () -> ledger.record(JobLedger.Kind.RUN, "run1", TRANSFORM, JobLedger.CREATED));
+    }
+}
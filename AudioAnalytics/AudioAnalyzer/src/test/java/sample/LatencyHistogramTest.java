@@ -0,0 +1,76 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private static LatencyHistogram.Snapshot of(long... values) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value : values) {
+            histogram.record(value);
+        }
+        return histogram.snapshot();
+    }
+
+    @Test
+    public void anEmptyHistogramReportsZero() {
+        LatencyHistogram.Snapshot snapshot = of();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMinMillis());
+        assertEquals(0, snapshot.getMaxMillis());
+        assertEquals(0, snapshot.getMeanMillis());
+        assertEquals(0, snapshot.getPercentileMillis(50));
+    }
+
+    @Test
+    public void smallDurationsAreExact() {
+        LatencyHistogram.Snapshot snapshot = of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
+        assertEquals(15, snapshot.getCount());
+        assertEquals(8, snapshot.getMeanMillis());
+        assertEquals(3, snapshot.getPercentileMillis(20));
+        assertEquals(8, snapshot.getPercentileMillis(50));
+        assertEquals(14, snapshot.getPercentileMillis(90));
+        assertEquals(15, snapshot.getPercentileMillis(100));
+    }
+
+    @Test
+    public void aPercentileReportsTheMiddleOfItsBucket() {
+        // 100 falls in the bucket of 96 to 103.
+        LatencyHistogram.Snapshot snapshot = of(0, 100, 2000);
+        assertEquals(99, snapshot.getPercentileMillis(50));
+        // 16 and 17 share a bucket.
+        assertEquals(16, of(0, 16, 2000).getPercentileMillis(50));
+        assertEquals(16, of(0, 17, 2000).getPercentileMillis(50));
+    }
+
+    @Test
+    public void aPercentileStaysWithinTheRecordedRange() {
+        LatencyHistogram.Snapshot snapshot = of(100, 1000);
+        assertEquals(100, snapshot.getPercentileMillis(1));
+        // The bucket of 1000 runs from 960 to 1023.
+        assertEquals(991, snapshot.getPercentileMillis(100));
+        assertEquals(1000, of(1000).getPercentileMillis(50));
+    }
+
+    @Test
+    public void aPercentileIsOffByAtMostAnEighth() {
+        for (long value = 16; value < 1L << 40; value = value * 3 / 2 + 1) {
+            long reported = of(0, value, Long.MAX_VALUE).getPercentileMillis(50);
+            assertTrue(value + " reported as " + reported, Math.abs(reported - value) <= value / 8);
+        }
+    }
+
+    @Test
+    public void outOfRangeDurationsAreClamped() {
+        LatencyHistogram.Snapshot snapshot = of(-5, Long.MAX_VALUE);
+        assertEquals(0, snapshot.getMinMillis());
+        assertEquals((1L << 40) - 1, snapshot.getMaxMillis());
+        assertEquals(0, snapshot.getPercentileMillis(50));
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import org.junit.Test;
+import sample.LiveIngestHealthTracker.TrackHealth;
+
+public class LiveIngestHealthTrackerTest {
+    private static final String LIVE_EVENT = "live-1";
+
+    private final LiveIngestHealthTracker tracker = new LiveIngestHealthTracker(3);
+    private int ids;
+
+    private void heartbeat(long bitrate, boolean healthy) {
+        tracker.record(EventPayloads.decode(EventPayloads.heartbeat(id(), LIVE_EVENT, bitrate, healthy)));
+    }
+
+    private void discontinuity() {
+        tracker.record(EventPayloads.decode(
+                EventPayloads.trackEvent(id(), LIVE_EVENT, "LiveEventTrackDiscontinuityDetected")));
+    }
+
+    private void droppedChunk() {
+        tracker.record(EventPayloads.decode(
+                EventPayloads.trackEvent(id(), LIVE_EVENT, "LiveEventIncomingDataChunkDropped")));
+    }
+
+    private String id() {
+        return Integer.toString(++ids);
+    }
+
+    private TrackHealth video() {
+        List<TrackHealth> health = tracker.getHealth(LIVE_EVENT);
+        assertEquals(1, health.size());
+        assertEquals("video", health.get(0).getTrackName());
+        return health.get(0);
+    }
+
+    @Test
+    public void theWindowKeepsTheLastHeartbeats() {
+        heartbeat(1000, true);
+        heartbeat(2000, false);
+        TrackHealth health = video();
+        assertEquals(2, health.getHeartbeats());
+        assertEquals(1500, health.getAverageIncomingBitrate());
+        assertEquals(2000, health.getLastIncomingBitrate());
+        assertEquals(0.5, health.getHealthyRatio(), 0);
+
+        heartbeat(3000, true);
+        heartbeat(4000, true);
+        heartbeat(5000, true);
+        health = video();
+        assertEquals(3, health.getHeartbeats());
+        assertEquals(4000, health.getAverageIncomingBitrate());
+        assertEquals(5000, health.getLastIncomingBitrate());
+        assertEquals(1.0, health.getHealthyRatio(), 0);
+    }
+
+    @Test
+    public void countsLeaveTheWindowWithTheirHeartbeat() {
+        heartbeat(1000, true);
+        discontinuity();
+        droppedChunk();
+        heartbeat(1000, true);
+        droppedChunk();
+        heartbeat(1000, true);
+        assertEquals(1, video().getDiscontinuities());
+        assertEquals(2, video().getDroppedChunks());
+
+        // Reuses the slot of the first heartbeat.
+        heartbeat(1000, true);
+        assertEquals(0, video().getDiscontinuities());
+        assertEquals(1, video().getDroppedChunks());
+
+        heartbeat(1000, true);
+        assertEquals(0, video().getDroppedChunks());
+    }
+
+    @Test
+    public void countsBeforeTheFirstHeartbeatStayUntilItsSlotIsReused() {
+        discontinuity();
+        droppedChunk();
+        assertEquals(0, video().getHeartbeats());
+        assertEquals(1, video().getDiscontinuities());
+        assertEquals(1, video().getDroppedChunks());
+
+        heartbeat(1000, true);
+        discontinuity();
+        assertEquals(2, video().getDiscontinuities());
+        assertEquals(1, video().getDroppedChunks());
+
+        heartbeat(1000, true);
+        heartbeat(1000, true);
+        assertEquals(2, video().getDiscontinuities());
+
+        heartbeat(1000, true);
+        assertEquals(0, video().getDiscontinuities());
+        assertEquals(0, video().getDroppedChunks());
+    }
+
+    @Test
+    public void otherEventsAndLiveEventsAreIgnored() {
+        tracker.record(EventPayloads.decode(EventPayloads.jobState("1", "job-1", "JobFinished", "Processing",
+                "Finished")));
+        assertEquals(0, tracker.getHealth(LIVE_EVENT).size());
+
+        heartbeat(1000, true);
+        tracker.remove(LIVE_EVENT);
+        assertEquals(0, tracker.getHealth(LIVE_EVENT).size());
+    }
+}
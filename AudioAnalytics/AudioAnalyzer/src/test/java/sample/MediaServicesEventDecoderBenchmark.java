@@ -0,0 +1,62 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decodes an Event Hub body of a job state change and a progress event with
+ * MediaServicesEventDecoder and with the json-simple tree the processor built
+ * before, reading the same fields from both.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MediaServicesEventDecoderBenchmark {
+    private final byte[] body = EventPayloads.body(
+            EventPayloads.jobState("1", "job-1", "JobStateChange", "Scheduled", "Processing"),
+            EventPayloads.jobOutputProgress("2", "job-1", "out", 40));
+
+    @Benchmark
+    public void decoder(Blackhole blackhole) {
+        MediaServicesEventDecoder.decode(body, event -> {
+            blackhole.consume(event.type());
+            blackhole.consume(event.entityName());
+            blackhole.consume(event.get(MediaServicesEvent.DataField.STATE));
+            blackhole.consume(event.get(MediaServicesEvent.DataField.PROGRESS));
+        });
+    }
+
+    @Benchmark
+    public void jsonSimple(Blackhole blackhole) throws ParseException {
+        JSONArray events = (JSONArray) new JSONParser().parse(new String(body, StandardCharsets.UTF_8));
+        for (Object element : events) {
+            JSONObject event = (JSONObject) element;
+            String subject = (String) event.get("subject");
+            JSONObject data = (JSONObject) event.get("data");
+            blackhole.consume(event.get("eventType"));
+            blackhole.consume(subject.substring(subject.lastIndexOf('/') + 1).replace("-", ""));
+            blackhole.consume(data.get("state"));
+            blackhole.consume(data.get("progress"));
+        }
+    }
+}
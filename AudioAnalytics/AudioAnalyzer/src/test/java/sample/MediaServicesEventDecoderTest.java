@@ -0,0 +1,161 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import sample.MediaServicesEvent.DataField;
+
+public class MediaServicesEventDecoderTest {
+
+    private static List<MediaServicesEvent> decode(String body) {
+        List<MediaServicesEvent> events = new ArrayList<>();
+        MediaServicesEventDecoder.decode(body.getBytes(StandardCharsets.UTF_8), events::add);
+        return events;
+    }
+
+    @Test
+    public void arrayIsDecodedInPayloadOrder() {
+        List<MediaServicesEvent> events = decode(new String(EventPayloads.body(
+                EventPayloads.jobState("1", "job-1", "JobProcessing", "Scheduled", "Processing"),
+                EventPayloads.jobOutputProgress("2", "job-1", "out", 40),
+                EventPayloads.heartbeat("3", "live-1", 2500000, true)), StandardCharsets.UTF_8));
+
+        assertEquals(3, events.size());
+
+        MediaServicesEvent state = events.get(0);
+        assertEquals("1", state.id());
+        assertSame(MediaServicesEventType.JOB_PROCESSING, state.type());
+        assertEquals("Microsoft.Media.JobProcessing", state.eventType());
+        assertEquals("transforms/MyTransform/jobs/job-1", state.subject());
+        assertEquals("job1", state.entityName());
+        assertEquals("2021-05-12T10:00:00.0000000Z", state.eventTime());
+        assertEquals(1620813600000L, state.eventTimeMillis());
+        assertEquals("Scheduled", state.get(DataField.PREVIOUS_STATE));
+        assertEquals("Processing", state.get(DataField.STATE));
+
+        MediaServicesEvent progress = events.get(1);
+        assertSame(MediaServicesEventType.JOB_OUTPUT_PROGRESS, progress.type());
+        assertEquals("out", progress.get(DataField.LABEL));
+        assertEquals("40", progress.get(DataField.PROGRESS));
+
+        MediaServicesEvent heartbeat = events.get(2);
+        assertSame(MediaServicesEventType.LIVE_EVENT_INGEST_HEARTBEAT, heartbeat.type());
+        assertEquals("live1", heartbeat.entityName());
+        assertEquals("2500000", heartbeat.get(DataField.INCOMING_BITRATE));
+        assertEquals("true", heartbeat.get(DataField.HEALTHY));
+        assertEquals("video", heartbeat.get(DataField.TRACK_TYPE));
+    }
+
+    @Test
+    public void singleObjectIsDecoded() {
+        List<MediaServicesEvent> events = decode(
+                " \n" + EventPayloads.jobState("1", "job-1", "JobFinished", "Processing", "Finished") + "\n");
+
+        assertEquals(1, events.size());
+        assertSame(MediaServicesEventType.JOB_FINISHED, events.get(0).type());
+        assertTrue(events.get(0).isJobFinalState());
+    }
+
+    @Test
+    public void emptyArrayAndNonObjectElementsYieldNoEvents() {
+        assertEquals(0, decode("[]").size());
+        assertEquals(0, decode(" [ ] ").size());
+        assertEquals(1, decode("[1, \"text\", null, [{}], "
+                + EventPayloads.jobOutputProgress("1", "job-1", "out", 5) + "]").size());
+    }
+
+    @Test
+    public void nestedOutputFieldsAreRead() {
+        MediaServicesEvent event = decode(EventPayloads.event("1", "Microsoft.Media.JobOutputStateChange",
+                "transforms/MyTransform/jobs/job-1",
+                "{\"previousState\":\"Processing\",\"output\":{\"@odata.type\":\"#Microsoft.Media.JobOutputAsset\","
+                        + "\"assetName\":\"output-job-1\",\"error\":null,\"label\":\"out\",\"progress\":100,"
+                        + "\"state\":\"Finished\"},\"jobCorrelationData\":{\"a\":\"{not}[a container]\"}}")).get(0);
+
+        assertEquals("Processing", event.get(DataField.PREVIOUS_STATE));
+        assertNull(event.get(DataField.STATE));
+        assertEquals("Finished", event.get(DataField.OUTPUT_STATE));
+        assertEquals("100", event.get(DataField.OUTPUT_PROGRESS));
+        assertEquals("out", event.get(DataField.OUTPUT_LABEL));
+        assertTrue(event.isJobOutputFinalState());
+    }
+
+    @Test
+    public void escapedStringsAreUnescaped() {
+        MediaServicesEvent event = decode(EventPayloads.event("id\\\"1",
+                "Microsoft.Media.JobOutputProgress", "transforms\\/MyTransform\\/jobs\\/job-1",
+                "{\"label\":\"caf\\u00e9 \\\\ \\t\\n\",\"progress\":10}")).get(0);
+
+        assertEquals("id\"1", event.id());
+        assertEquals("transforms/MyTransform/jobs/job-1", event.subject());
+        assertEquals("job1", event.entityName());
+        assertEquals("caf\u00e9 \\ \t\n", event.get(DataField.LABEL));
+    }
+
+    @Test
+    public void escapedEventTypeStillResolves() {
+        MediaServicesEvent event = decode(EventPayloads.event("1", "Microsoft.Media.Job\\u0046inished",
+                "transforms/MyTransform/jobs/job-1", "{}")).get(0);
+
+        assertSame(MediaServicesEventType.JOB_FINISHED, event.type());
+        assertEquals("Microsoft.Media.JobFinished", event.eventType());
+    }
+
+    @Test
+    public void unknownEventTypeKeepsItsName() {
+        MediaServicesEvent event = decode(EventPayloads.event("1", "Microsoft.Storage.BlobCreated",
+                "/blobServices/default/containers/input/blobs/movie.mp4", "{\"api\":\"PutBlob\"}")).get(0);
+
+        assertSame(MediaServicesEventType.UNKNOWN, event.type());
+        assertEquals("Microsoft.Storage.BlobCreated", event.eventType());
+        assertEquals("movie.mp4", event.entityName());
+    }
+
+    @Test
+    public void missingFieldsAreNull() {
+        MediaServicesEvent empty = decode("{}").get(0);
+        assertNull(empty.id());
+        assertNull(empty.eventType());
+        assertSame(MediaServicesEventType.UNKNOWN, empty.type());
+        assertNull(empty.subject());
+        assertNull(empty.entityName());
+        assertEquals(-1, empty.eventTimeMillis());
+
+        MediaServicesEvent noData = decode("{\"id\":\"1\",\"eventType\":\"Microsoft.Media.JobErrored\","
+                + "\"data\":null}").get(0);
+        assertSame(MediaServicesEventType.JOB_ERRORED, noData.type());
+        for (DataField field : DataField.values()) {
+            assertNull(field.name(), noData.get(field));
+        }
+    }
+
+    @Test
+    public void malformedBodiesAreRejected() {
+        String event = EventPayloads.jobOutputProgress("1", "job-1", "out", 5);
+        assertThrows(IllegalArgumentException.class, () -> decode(""));
+        assertThrows(IllegalArgumentException.class, () -> decode("\"text\""));
+        assertThrows(IllegalArgumentException.class, () -> decode("[" + event));
+        assertThrows(IllegalArgumentException.class, () -> decode(event.substring(0, event.length() - 1)));
+        assertThrows(IllegalArgumentException.class, () -> decode(event + "}"));
+        assertThrows(IllegalArgumentException.class, () -> decode("[" + event + " " + event + "]"));
+        assertThrows(IllegalArgumentException.class, () -> decode("{\"id\":\"1}"));
+    }
+
+    @Test
+    public void namesAreNormalizedLikeSubjects() {
+        assertEquals("job1", MediaServicesEventDecoder.normalizeName("job-1"));
+        assertEquals("job1", MediaServicesEventDecoder.normalizeName("transforms/t/jobs/job-1"));
+        assertEquals("live", MediaServicesEventDecoder.normalizeName("liveEvent/live"));
+        assertEquals("", MediaServicesEventDecoder.normalizeName("liveEvent/"));
+    }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MediaServicesEventMultiplexerTest {
+    private final InMemoryEventSource source = new InMemoryEventSource(2, 64);
+    private Path directory;
+    private final MediaServicesEventMultiplexer multiplexer = new MediaServicesEventMultiplexer(
+            () -> new MediaServicesEventProcessor(source, CheckpointPolicy.DEFAULT, directory));
+    private MediaServicesEventMultiplexer.Subscription first;
+    private MediaServicesEventMultiplexer.Subscription second;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("event-multiplexer");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (first != null) {
+            first.close();
+        }
+        if (second != null) {
+            second.close();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void subscriptionsShareOneProcessor() {
+        first = multiplexer.subscribeJob("job-1");
+        second = multiplexer.subscribeLiveEvent("live-1");
+
+        assertSame(first.getProcessor(), second.getProcessor());
+        assertEquals(2, multiplexer.getSubscriptionCount());
+    }
+
+    @Test
+    public void lastCloseStopsTheProcessorAndTheNextSubscriptionStartsAnother() {
+        first = multiplexer.subscribeJob("job-1");
+        MediaServicesEventProcessor processor = first.getProcessor();
+        first.close();
+        first.close();
+        assertEquals(0, multiplexer.getSubscriptionCount());
+
+        second = multiplexer.subscribeJob("job-1");
+        assertNotSame(processor, second.getProcessor());
+        assertEquals(1, multiplexer.getSubscriptionCount());
+    }
+
+    @Test
+    public void aSubscriptionWaitsForTheLastProcessorToStop() throws Exception {
+        CountDownLatch stopping = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MediaServicesEventMultiplexer slowToStop = new MediaServicesEventMultiplexer(
+                () -> new MediaServicesEventProcessor(source, CheckpointPolicy.DEFAULT, directory) {
+                    @Override
+                    public void stop() {
+                        stopping.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        super.stop();
+                    }
+                });
+        MediaServicesEventMultiplexer.Subscription last = slowToStop.subscribeJob("job-1");
+        Thread closing = new Thread(last::close);
+        closing.start();
+        assertTrue(stopping.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<MediaServicesEventMultiplexer.Subscription> next =
+                CompletableFuture.supplyAsync(() -> slowToStop.subscribeJob("job-2"));
+        Thread.sleep(100);
+        assertFalse(next.isDone());
+
+        release.countDown();
+        second = next.get(10, TimeUnit.SECONDS);
+        closing.join();
+        assertNotSame(last.getProcessor(), second.getProcessor());
+    }
+
+    @Test
+    public void closingOneSubscriptionKeepsTheOthersOfTheSameName() throws Exception {
+        first = multiplexer.subscribeLiveEvent("live-1");
+        second = multiplexer.subscribeLiveEvent("live-1");
+        MediaServicesEventProcessor processor = first.getProcessor();
+        first.close();
+
+        source.publish("live-1", EventPayloads.body(EventPayloads.heartbeat("1", "live-1", 2_500_000, true)));
+
+        assertTrue(EventPayloads.await(() -> !processor.getLiveIngestHealth("live-1").isEmpty(),
+                10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void aListenerLeavingKeepsTheRegistrationsWithoutOne() throws Exception {
+        first = multiplexer.subscribeLiveEvent("live-1");
+        MediaServicesEventProcessor processor = first.getProcessor();
+        MediaServicesTypedEventListener listener = new MediaServicesTypedEventListener() {
+        };
+        processor.registerLiveEvent("live-1", listener);
+        source.publish("live-1", EventPayloads.body(EventPayloads.heartbeat("1", "live-1", 2_500_000, true)));
+        assertTrue(EventPayloads.await(() -> !processor.getLiveIngestHealth("live-1").isEmpty(),
+                10, TimeUnit.SECONDS));
+
+        // The subscription still holds the live event, so its health is kept and
+        // its events are still handled.
+        processor.unregisterLiveEvent("live-1", listener);
+        assertFalse(processor.getLiveIngestHealth("live-1").isEmpty());
+        source.publish("live-1", EventPayloads.body(EventPayloads.heartbeat("2", "live-1", 2_500_000, true)));
+        assertTrue(EventPayloads.await(() -> heartbeats(processor, "live-1") == 2, 10, TimeUnit.SECONDS));
+
+        // Once the subscription is gone too, the live event is forgotten.
+        first.close();
+        first = null;
+        assertTrue(processor.getLiveIngestHealth("live-1").isEmpty());
+    }
+
+    private static int heartbeats(MediaServicesEventProcessor processor, String liveEventName) {
+        List<LiveIngestHealthTracker.TrackHealth> tracks = processor.getLiveIngestHealth(liveEventName);
+        return tracks.isEmpty() ? 0 : tracks.get(0).getHeartbeats();
+    }
+}
@@ -0,0 +1,261 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MediaServicesEventProcessorTest {
+    private static final String SOURCE_NAME = "MediaServicesEventProcessorTest";
+
+    private final ScriptedSource scripted = new ScriptedSource();
+    private Path directory;
+    private Path snapshot;
+    private MediaServicesEventProcessor processor;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("event-processor");
+        snapshot = directory.resolve("states").resolve(SOURCE_NAME + ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (processor != null) {
+            processor.stop();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void start(CheckpointPolicy policy) {
+        processor = new MediaServicesEventProcessor(scripted, policy, directory);
+    }
+
+    private void receive(long offset, String jobName) {
+        scripted.receive(offset, EventPayloads.body(
+                EventPayloads.jobState("e" + offset, jobName, "JobProcessing", "Scheduled", "Processing")));
+    }
+
+    private static InMemoryEventSource source() {
+        return new InMemoryEventSource(1, 64) {
+            @Override
+            public String getName() {
+                return SOURCE_NAME;
+            }
+        };
+    }
+
+    @Test
+    public void statesSurviveARestart() throws Exception {
+        InMemoryEventSource source = source();
+        MediaServicesEventProcessor processor = new MediaServicesEventProcessor(source, CheckpointPolicy.DEFAULT,
+                directory);
+        source.publish(null, EventPayloads.body(
+                EventPayloads.jobState("1", "job-1", "JobFinished", "Processing", "Finished")));
+        assertTrue(EventPayloads.await(() -> processor.getJobState(EventPayloads.TRANSFORM, "job-1") != null,
+                5, TimeUnit.SECONDS));
+        processor.stop();
+        assertTrue(Files.exists(snapshot));
+
+        MediaServicesEventProcessor restarted = new MediaServicesEventProcessor(source(), CheckpointPolicy.DEFAULT,
+                directory);
+        try {
+            assertEquals(JobState.FINISHED, restarted.getJobState(EventPayloads.TRANSFORM, "job-1"));
+            assertEquals(JobState.FINISHED,
+                    restarted.waitForJob(EventPayloads.TRANSFORM, "job-1", 1, TimeUnit.SECONDS).get());
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    public void aDamagedSnapshotIsIgnored() throws Exception {
+        Files.createDirectories(snapshot.getParent());
+        Files.write(snapshot, "not a snapshot\n".getBytes("UTF-8"));
+
+        MediaServicesEventProcessor processor = new MediaServicesEventProcessor(source(), CheckpointPolicy.DEFAULT,
+                directory);
+        try {
+            assertNull(processor.getJobState(EventPayloads.TRANSFORM, "job-1"));
+        } finally {
+            processor.stop();
+        }
+        // Stopping replaced it with a valid, empty one.
+        assertEquals(0, new MediaServicesStateStore().readSnapshot(snapshot));
+    }
+
+    @Test
+    public void checkpointsWaitForTheListenersOfEarlierEvents() throws Exception {
+        start(new CheckpointPolicy(1, 60_000));
+        CountDownLatch release = new CountDownLatch(1);
+        processor.registerJob("job-1", event -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        receive(0, "job-1");
+        // Not registered, so done at once, but behind the event still handled.
+        receive(1, "job-2");
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), scripted.checkpoints);
+
+        release.countDown();
+        assertTrue(EventPayloads.await(() -> !scripted.checkpoints.isEmpty(), 5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L), scripted.checkpoints);
+    }
+
+    @Test
+    public void checkpointsAfterTheEventCount() {
+        start(new CheckpointPolicy(3, 60_000));
+
+        receive(0, "job-1");
+        receive(1, "job-1");
+        assertEquals(Collections.emptyList(), scripted.checkpoints);
+        receive(2, "job-1");
+        assertEquals(Arrays.asList(2L), scripted.checkpoints);
+    }
+
+    @Test
+    public void aQuietPartitionIsCheckpointedAfterTheInterval() throws Exception {
+        start(new CheckpointPolicy(100, 100));
+
+        receive(0, "job-1");
+        assertTrue(EventPayloads.await(() -> !scripted.checkpoints.isEmpty(), 5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0L), scripted.checkpoints);
+    }
+
+    @Test
+    public void aFailedCheckpointIsRetried() throws Exception {
+        start(new CheckpointPolicy(1, 100));
+        scripted.failCheckpoints = true;
+
+        receive(0, "job-1");
+        assertTrue(EventPayloads.await(() -> scripted.failedCount.get() >= 2, 5, TimeUnit.SECONDS));
+        scripted.failCheckpoints = false;
+        assertTrue(EventPayloads.await(() -> !scripted.checkpoints.isEmpty(), 5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0L), scripted.checkpoints);
+    }
+
+    @Test
+    public void stoppingAndLosingAPartitionCheckpointWhatIsPending() {
+        start(new CheckpointPolicy(100, 60_000));
+
+        receive(0, "job-1");
+        receive(1, "job-1");
+        scripted.handler.onPartitionLost("0");
+        assertEquals(Arrays.asList(1L), scripted.checkpoints);
+
+        receive(2, "job-1");
+        processor.stop();
+        processor = null;
+        assertEquals(Arrays.asList(1L, 2L), scripted.checkpoints);
+    }
+
+    @Test
+    public void stoppingWaitsForTheCheckpointInFlight() throws Exception {
+        start(new CheckpointPolicy(1, 60_000));
+        scripted.holdCheckpoints = true;
+
+        receive(0, "job-1");
+        // Completed while the checkpoint of the first event is still being written.
+        receive(1, "job-1");
+        scripted.holdCheckpoints = false;
+        MediaServicesEventProcessor stopping = processor;
+        processor = null;
+        CompletableFuture<Void> stopped = CompletableFuture.runAsync(stopping::stop);
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), scripted.checkpoints);
+
+        scripted.heldCheckpoints.forEach(Runnable::run);
+        stopped.get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(0L, 1L), scripted.checkpoints);
+    }
+
+    /**
+     * A one-partition source whose events are received on the calling thread.
+     */
+    private static final class ScriptedSource implements MediaServicesEventSource {
+        private final List<Long> checkpoints = new CopyOnWriteArrayList<>();
+        private final AtomicInteger failedCount = new AtomicInteger();
+        private final List<Runnable> heldCheckpoints = new CopyOnWriteArrayList<>();
+        private volatile boolean failCheckpoints;
+        private volatile boolean holdCheckpoints;
+        private volatile Handler handler;
+
+        @Override
+        public void start(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public String getName() {
+            return SOURCE_NAME;
+        }
+
+        void receive(long offset, byte[] body) {
+            handler.onEvent(new ReceivedEvent() {
+                @Override
+                public String getPartitionId() {
+                    return "0";
+                }
+
+                @Override
+                public long getOffset() {
+                    return offset;
+                }
+
+                @Override
+                public byte[] getBody() {
+                    return body;
+                }
+
+                @Override
+                public CompletableFuture<Void> checkpoint() {
+                    CompletableFuture<Void> result = new CompletableFuture<>();
+                    if (holdCheckpoints) {
+                        heldCheckpoints.add(() -> {
+                            checkpoints.add(offset);
+                            result.complete(null);
+                        });
+                    } else if (failCheckpoints) {
+                        failedCount.incrementAndGet();
+                        result.completeExceptionally(new IOException("checkpoint store unavailable"));
+                    } else {
+                        checkpoints.add(offset);
+                        result.complete(null);
+                    }
+                    return result;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,87 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import sample.MediaServicesEventType.Category;
+
+public class MediaServicesEventTypeTest {
+
+    @Test
+    public void everyTypeResolvesByName() {
+        for (MediaServicesEventType type : MediaServicesEventType.values()) {
+            if (type == MediaServicesEventType.UNKNOWN) {
+                continue;
+            }
+            assertSame(type.typeName(), type, MediaServicesEventType.fromName(type.typeName()));
+
+            // The decoder looks names up in place, inside the payload.
+            byte[] buf = ("{\"eventType\":\"" + type.typeName() + "\"}").getBytes(StandardCharsets.UTF_8);
+            int start = 14;
+            assertSame(type.typeName(), type,
+                    MediaServicesEventType.lookup(buf, start, start + type.typeName().length()));
+        }
+    }
+
+    @Test
+    public void namesDifferingInAnyByteAreUnknown() {
+        for (MediaServicesEventType type : MediaServicesEventType.values()) {
+            if (type == MediaServicesEventType.UNKNOWN) {
+                continue;
+            }
+            String name = type.typeName();
+            for (int i = 0; i < name.length(); i++) {
+                char[] changed = name.toCharArray();
+                changed[i] = changed[i] == 'x' ? 'y' : 'x';
+                assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName(new String(changed)));
+            }
+            assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName(name + "s"));
+            assertSame(MediaServicesEventType.UNKNOWN,
+                    MediaServicesEventType.fromName(name.substring(0, name.length() - 1)));
+            assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName(name.toLowerCase()));
+        }
+    }
+
+    @Test
+    public void otherNamesAreUnknown() {
+        assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName(null));
+        assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName(""));
+        assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName("Microsoft.Media."));
+        assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName("Microsoft.Media.Job"));
+        assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName("Microsoft.Storage.BlobCreated"));
+        assertSame(MediaServicesEventType.UNKNOWN,
+                MediaServicesEventType.fromName("Microsoft.Media.LiveEventChannelArchiveHeartbeat"));
+        assertSame(MediaServicesEventType.UNKNOWN, MediaServicesEventType.fromName("UNKNOWN"));
+        assertNull(MediaServicesEventType.UNKNOWN.typeName());
+    }
+
+    @Test
+    public void categoriesAndFinalTypes() {
+        for (MediaServicesEventType type : MediaServicesEventType.values()) {
+            String name = type.typeName();
+            if (name == null) {
+                assertSame(Category.OTHER, type.category());
+            } else if (name.startsWith("Microsoft.Media.JobOutput")) {
+                assertSame(name, Category.JOB_OUTPUT, type.category());
+            } else if (name.startsWith("Microsoft.Media.Job")) {
+                assertSame(name, Category.JOB, type.category());
+            } else {
+                assertSame(name, Category.LIVE_EVENT, type.category());
+            }
+            boolean ends = name != null && (name.endsWith("Finished") || name.endsWith("Canceled")
+                    || name.endsWith("Errored"));
+            assertEquals(name, ends && type.category() == Category.JOB, type.isJobFinal());
+            assertEquals(name, ends && type.category() == Category.JOB_OUTPUT, type.isJobOutputFinal());
+        }
+        assertFalse(MediaServicesEventType.JOB_STATE_CHANGE.isJobFinal());
+        assertTrue(MediaServicesEventType.JOB_OUTPUT_ERRORED.isJobOutputFinal());
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import sample.MediaServicesTypedEvent.JobOutputProgress;
+import sample.MediaServicesTypedEvent.JobStateChanged;
+
+public class MediaServicesTypedEventTest {
+
+    @Test
+    public void listenersShareOneTypedEvent() {
+        MediaServicesEvent event = EventPayloads.decode(
+                EventPayloads.jobOutputProgress("1", "job1", "out", 40));
+        List<JobOutputProgress> received = new ArrayList<>();
+        MediaServicesTypedEventListener listener = new MediaServicesTypedEventListener() {
+            @Override
+            public void onJobOutputProgress(JobOutputProgress progress) {
+                received.add(progress);
+            }
+        };
+
+        listener.onEvent(event);
+        listener.onEvent(event);
+
+        assertEquals(2, received.size());
+        assertSame(received.get(0), received.get(1));
+        assertSame(event.typed(), received.get(0));
+        assertEquals("out", received.get(0).getLabel());
+        assertEquals(40, received.get(0).getProgress());
+    }
+
+    @Test
+    public void unknownEventsReachTheirOwnCallback() {
+        MediaServicesEvent event = EventPayloads.decode(
+                EventPayloads.event("1", "Microsoft.Storage.BlobCreated", "blobs/file", "{}"));
+        List<MediaServicesEvent> unknown = new ArrayList<>();
+        MediaServicesTypedEventListener listener = new MediaServicesTypedEventListener() {
+            @Override
+            public void onUnknownEvent(MediaServicesEvent e) {
+                unknown.add(e);
+            }
+        };
+
+        listener.onEvent(event);
+
+        assertNull(event.typed());
+        assertEquals(1, unknown.size());
+        assertSame(event, unknown.get(0));
+    }
+
+    @Test
+    public void jobStateChangeToAFinalStateIsFinal() {
+        MediaServicesEvent finished = EventPayloads.decode(
+                EventPayloads.jobState("1", "job1", "JobStateChange", "Processing", "Finished"));
+        MediaServicesEvent processing = EventPayloads.decode(
+                EventPayloads.jobState("2", "job1", "JobStateChange", "Scheduled", "Processing"));
+
+        JobStateChanged typed = (JobStateChanged) finished.typed();
+        assertTrue(typed.isFinal());
+        assertSame(JobState.FINISHED, typed.getState());
+        assertTrue(finished.isJobFinalState());
+        assertFalse(((JobStateChanged) processing.typed()).isFinal());
+        assertFalse(processing.isJobFinalState());
+    }
+
+    @Test
+    public void finalJobEventsAreFinal() {
+        MediaServicesEvent errored = EventPayloads.decode(
+                EventPayloads.jobState("1", "job1", "JobErrored", "Processing", "Error"));
+
+        assertTrue(((JobStateChanged) errored.typed()).isFinal());
+        assertTrue(errored.isJobFinalState());
+    }
+}
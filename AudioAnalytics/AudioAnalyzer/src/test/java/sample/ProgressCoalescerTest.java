@@ -0,0 +1,144 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class ProgressCoalescerTest {
+    private static final long INTERVAL_MILLIS = 50;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<MediaServicesEvent> published = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static MediaServicesEvent progress(String id, String label, int progress) {
+        return EventPayloads.decode(EventPayloads.jobOutputProgress(id, "job-1", label, progress));
+    }
+
+    private boolean awaitPublished(String id) throws InterruptedException {
+        return EventPayloads.await(() -> !published.isEmpty() && published.get(published.size() - 1).id().equals(id),
+                5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void firstProgressPassesAndTheLastOfTheIntervalIsPublishedLater() throws Exception {
+        ProgressCoalescer coalescer = new ProgressCoalescer(INTERVAL_MILLIS, scheduler,
+                (key, task) -> { task.run(); return true; }, published::add);
+
+        assertTrue(coalescer.offer(progress("1", "out", 10)));
+        assertFalse(coalescer.offer(progress("2", "out", 20)));
+        assertFalse(coalescer.offer(progress("3", "out", 30)));
+
+        assertTrue(awaitPublished("3"));
+        assertEquals(1, published.size());
+        assertEquals(1, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void outputsAreThinnedOutSeparately() {
+        ProgressCoalescer coalescer = new ProgressCoalescer(INTERVAL_MILLIS, scheduler,
+                (key, task) -> { task.run(); return true; }, published::add);
+
+        assertTrue(coalescer.offer(progress("1", "first", 10)));
+        assertTrue(coalescer.offer(progress("2", "second", 10)));
+        assertFalse(coalescer.offer(progress("3", "first", 20)));
+    }
+
+    @Test
+    public void zeroIntervalPublishesEverything() {
+        ProgressCoalescer coalescer = new ProgressCoalescer(0, scheduler,
+                (key, task) -> { task.run(); return true; }, published::add);
+
+        assertTrue(coalescer.offer(progress("1", "out", 10)));
+        assertTrue(coalescer.offer(progress("2", "out", 20)));
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void progressOfferedWhileTheFlushIsQueuedIsPublished() throws Exception {
+        ProgressCoalescer[] coalescer = new ProgressCoalescer[1];
+        // The lane takes one more progress event before it runs the queued flush.
+        coalescer[0] = new ProgressCoalescer(INTERVAL_MILLIS, scheduler, (key, task) -> {
+            coalescer[0].offer(progress("3", "out", 30));
+            task.run();
+            return true;
+        }, published::add);
+
+        assertTrue(coalescer[0].offer(progress("1", "out", 10)));
+        assertFalse(coalescer[0].offer(progress("2", "out", 20)));
+
+        assertTrue(awaitPublished("3"));
+    }
+
+    @Test
+    public void progressOfferedRightAfterTheFlushRanIsPublished() throws Exception {
+        ProgressCoalescer[] coalescer = new ProgressCoalescer[1];
+        // The lane runs the flush and takes the next progress event before
+        // tryDispatch has returned to the scheduler.
+        coalescer[0] = new ProgressCoalescer(INTERVAL_MILLIS, scheduler, (key, task) -> {
+            task.run();
+            if (published.size() == 1) {
+                coalescer[0].offer(progress("3", "out", 30));
+            }
+            return true;
+        }, published::add);
+
+        assertTrue(coalescer[0].offer(progress("1", "out", 10)));
+        assertFalse(coalescer[0].offer(progress("2", "out", 20)));
+
+        assertTrue(awaitPublished("3"));
+        assertEquals("2", published.get(0).id());
+    }
+
+    @Test
+    public void fullLaneIsRetried() throws Exception {
+        int[] attempts = new int[1];
+        ProgressCoalescer coalescer = new ProgressCoalescer(INTERVAL_MILLIS, scheduler, (key, task) -> {
+            if (++attempts[0] < 3) {
+                return false;
+            }
+            task.run();
+            return true;
+        }, published::add);
+
+        assertTrue(coalescer.offer(progress("1", "out", 10)));
+        assertFalse(coalescer.offer(progress("2", "out", 20)));
+
+        assertTrue(awaitPublished("2"));
+        assertEquals(3, attempts[0]);
+    }
+
+    @Test
+    public void finalStateDiscardsTheHeldBackProgress() throws Exception {
+        ProgressCoalescer coalescer = new ProgressCoalescer(INTERVAL_MILLIS, scheduler,
+                (key, task) -> { task.run(); return true; }, published::add);
+
+        assertTrue(coalescer.offer(progress("1", "first", 10)));
+        assertTrue(coalescer.offer(progress("2", "second", 10)));
+        assertFalse(coalescer.offer(progress("3", "first", 20)));
+        assertFalse(coalescer.offer(progress("4", "second", 20)));
+        coalescer.discardOutput("job1", "first");
+
+        assertTrue(awaitPublished("4"));
+        assertFalse(coalescer.offer(progress("5", "second", 30)));
+        coalescer.discardJob("job1");
+
+        Thread.sleep(2 * INTERVAL_MILLIS);
+        assertEquals(1, published.size());
+    }
+}
@@ -0,0 +1,190 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class StripedEventDispatcherTest {
+    private StripedEventDispatcher dispatcher;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() throws InterruptedException {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return A task that holds its lane until release is counted down.
+     */
+    private Runnable blocker(CountDownLatch started) {
+        return () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Test
+    public void tasksOfOneKeyRunInOrder() throws InterruptedException {
+        dispatcher = new StripedEventDispatcher(4, 16, "test-lane");
+        Map<String, List<Integer>> runs = new HashMap<>();
+        for (int k = 0; k < 8; k++) {
+            runs.put("job" + k, new ArrayList<>());
+        }
+        for (int i = 0; i < 2000; i++) {
+            String key = "job" + (i % 8);
+            int n = i;
+            // Each key stays on one lane, so its list is only touched by one thread.
+            dispatcher.dispatch(key, () -> runs.get(key).add(n));
+        }
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+
+        for (int k = 0; k < 8; k++) {
+            List<Integer> run = runs.get("job" + k);
+            assertEquals(250, run.size());
+            for (int i = 1; i < run.size(); i++) {
+                assertTrue(run.get(i - 1) < run.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void aFullLaneHoldsTheCallerBack() throws Exception {
+        dispatcher = new StripedEventDispatcher(1, 1, "test-lane");
+        CountDownLatch started = new CountDownLatch(1);
+        dispatcher.dispatch("job1", blocker(started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch("job1", () -> { });
+        assertFalse(dispatcher.tryDispatch("job2", () -> { }));
+
+        AtomicBoolean dispatched = new AtomicBoolean();
+        Thread caller = new Thread(() -> {
+            try {
+                dispatcher.dispatch("job2", () -> { });
+                dispatched.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        caller.start();
+        assertTrue(EventPayloads.await(() -> dispatcher.getBackpressureCount() == 1, 5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertFalse(dispatched.get());
+        assertEquals(1, dispatcher.getQueuedCount());
+
+        release.countDown();
+        caller.join(5000);
+        assertTrue(dispatched.get());
+        assertEquals(1, dispatcher.getBackpressureCount());
+    }
+
+    @Test
+    public void shutdownRunsTheQueuedTasksAndRefusesNewOnes() throws InterruptedException {
+        dispatcher = new StripedEventDispatcher(2, 64, "test-lane");
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        dispatcher.dispatch("job1", blocker(started));
+        for (int i = 0; i < 50; i++) {
+            dispatcher.dispatch("job1", ran::incrementAndGet);
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        release.countDown();
+
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(50, ran.get());
+        assertFalse(dispatcher.tryDispatch("job1", ran::incrementAndGet));
+        assertThrows(IllegalStateException.class, () -> dispatcher.dispatch("job1", ran::incrementAndGet));
+        assertEquals(50, ran.get());
+    }
+
+    @Test
+    public void aTaskDispatchedDuringShutdownRunsOrIsRefused() throws Exception {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            StripedEventDispatcher lanes = new StripedEventDispatcher(1, 1, "test-lane");
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch hold = new CountDownLatch(1);
+            lanes.dispatch("job1", () -> {
+                started.countDown();
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    // The shutdown; let the queued task run.
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            lanes.dispatch("job1", () -> { });
+
+            AtomicBoolean ran = new AtomicBoolean();
+            AtomicBoolean refused = new AtomicBoolean();
+            Thread caller = new Thread(() -> {
+                try {
+                    lanes.dispatch("job1", () -> ran.set(true));
+                } catch (IllegalStateException e) {
+                    refused.set(true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            caller.start();
+            assertTrue(EventPayloads.await(() -> lanes.getBackpressureCount() == 1, 5, TimeUnit.SECONDS));
+
+            assertTrue(lanes.shutdown(5, TimeUnit.SECONDS));
+            caller.join(5000);
+            assertTrue(ran.get() != refused.get());
+        }
+    }
+
+    @Test
+    public void shutdownReportsALaneThatDidNotFinish() throws InterruptedException {
+        dispatcher = new StripedEventDispatcher(1, 4, "test-lane");
+        CountDownLatch started = new CountDownLatch(1);
+        dispatcher.dispatch("job1", () -> {
+            started.countDown();
+            // Ignores the interrupt of the shutdown.
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Keep waiting.
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertFalse(dispatcher.shutdown(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void aFailingTaskKeepsItsLaneRunning() throws InterruptedException {
+        dispatcher = new StripedEventDispatcher(1, 4, "test-lane");
+        AtomicInteger ran = new AtomicInteger();
+        dispatcher.dispatch("job1", () -> {
+            throw new IllegalStateException("handler failed");
+        });
+        dispatcher.dispatch("job1", ran::incrementAndGet);
+
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(1, ran.get());
+    }
+}
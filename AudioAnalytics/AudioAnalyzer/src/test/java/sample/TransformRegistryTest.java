@@ -0,0 +1,73 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.junit.Test;
+
+public class TransformRegistryTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Transform outputs as serialized for Media Services.
+    private static final String OUTPUTS = "[{\"onError\":\"StopProcessingJob\",\"relativePriority\":\"Normal\","
+            + "\"preset\":{\"@odata.type\":\"#Microsoft.Media.AudioAnalyzerPreset\",\"audioLanguage\":\"en-US\","
+            + "\"mode\":\"Standard\",\"experimentalOptions\":null}}]";
+
+    private static JsonNode canonical(String json) throws IOException {
+        return TransformRegistry.canonicalize(MAPPER.readTree(json));
+    }
+
+    private static String fingerprint(String json) throws IOException {
+        return TransformRegistry.fingerprint(canonical(json));
+    }
+
+    @Test
+    public void propertyOrderAndNullsDoNotChangeTheFingerprint() throws IOException {
+        String reordered = "[{\"preset\":{\"mode\":\"Standard\",\"audioLanguage\":\"en-US\","
+                + "\"@odata.type\":\"#Microsoft.Media.AudioAnalyzerPreset\"},"
+                + "\"relativePriority\":\"Normal\",\"onError\":\"StopProcessingJob\"}]";
+        assertEquals(fingerprint(OUTPUTS), fingerprint(reordered));
+        assertEquals(64, fingerprint(OUTPUTS).length());
+    }
+
+    @Test
+    public void aChangedPresetSettingChangesTheFingerprint() throws IOException {
+        assertNotEquals(fingerprint(OUTPUTS), fingerprint(OUTPUTS.replace("en-US", "en-GB")));
+        assertNotEquals(fingerprint(OUTPUTS), fingerprint(OUTPUTS.replace("\"Standard\"", "\"Basic\"")));
+    }
+
+    @Test
+    public void settingsFilledInByTheServiceStillMatch() throws IOException {
+        JsonNode found = canonical("[{\"onError\":\"StopProcessingJob\",\"relativePriority\":\"Normal\","
+                + "\"preset\":{\"@odata.type\":\"#Microsoft.Media.AudioAnalyzerPreset\",\"audioLanguage\":\"en-US\","
+                + "\"mode\":\"Standard\",\"experimentalOptions\":{}}}]");
+        assertTrue(TransformRegistry.covers(found, canonical(OUTPUTS)));
+        assertFalse(TransformRegistry.covers(canonical(OUTPUTS), found));
+    }
+
+    @Test
+    public void numbersMatchWhateverTheirForm() throws IOException {
+        assertTrue(TransformRegistry.covers(canonical("{\"bitrate\":128000.0}"), canonical("{\"bitrate\":128000}")));
+        assertFalse(TransformRegistry.covers(canonical("{\"bitrate\":96000}"), canonical("{\"bitrate\":128000}")));
+    }
+
+    @Test
+    public void aChangedSettingOrArrayLengthIsDrift() throws IOException {
+        JsonNode wanted = canonical(OUTPUTS);
+        assertFalse(TransformRegistry.covers(canonical(OUTPUTS.replace("en-US", "en-GB")), wanted));
+
+        String output = OUTPUTS.substring(1, OUTPUTS.length() - 1);
+        JsonNode twoOutputs = canonical("[" + output + "," + output + "]");
+        assertFalse(TransformRegistry.covers(twoOutputs, wanted));
+        assertFalse(TransformRegistry.covers(wanted, twoOutputs));
+        assertFalse(TransformRegistry.covers(canonical("[]"), wanted));
+    }
+}
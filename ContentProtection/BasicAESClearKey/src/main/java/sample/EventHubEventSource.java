@@ -0,0 +1,233 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.messaging.eventhubs.CheckpointStore;
+import com.azure.messaging.eventhubs.EventHubClientBuilder;
+import com.azure.messaging.eventhubs.EventHubConsumerAsyncClient;
+import com.azure.messaging.eventhubs.EventHubProperties;
+import com.azure.messaging.eventhubs.EventProcessorClient;
+import com.azure.messaging.eventhubs.EventProcessorClientBuilder;
+import com.azure.messaging.eventhubs.models.CloseContext;
+import com.azure.messaging.eventhubs.models.CloseReason;
+import com.azure.messaging.eventhubs.models.EventContext;
+import com.azure.messaging.eventhubs.models.EventPosition;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Receives events from an Azure Event Hub with an EventProcessorClient, which
+ * balances the partitions across every process using the same checkpoint store.
+ *
+ * Every partition resumes after its checkpoint, so a restart picks up the
+ * events that arrived while it was down. A partition without a checkpoint starts at
+ * the latest event, or at its start position if it has one, e.g. the events
+ * enqueued after a job was submitted.
+ */
+public class EventHubEventSource implements MediaServicesEventSource {
+    public static final String DEFAULT_CONSUMER_GROUP = "$Default";
+
+    private static final String[] PARTITION_KEYS = {"partition"};
+    private static final String[] PARTITION_ERROR_KEYS = {"partition", "error"};
+    private static final String[] PARTITION_CLOSE_KEYS = {"partition", "reason"};
+    private static final String[] ERROR_KEYS = {"error"};
+    private static final Duration PROPERTIES_TIMEOUT = Duration.ofSeconds(30);
+
+    private final String eventHubConnectionString;
+    private final String eventHubName;
+    private final String consumerGroup;
+    private final CheckpointStore checkpointStore;
+    private final Function<String, EventPosition> startPositions;
+    private EventProcessorClient eventProcessorClient;
+
+    /**
+     * @param eventHubConnectionString The Event Hub connection string.
+     * @param eventHubName             The Event Hub name.
+     * @param consumerGroup            The consumer group, e.g. DEFAULT_CONSUMER_GROUP.
+     * @param checkpointStore          The store for checkpoints and partition
+     *                                 ownership.
+     */
+    public EventHubEventSource(String eventHubConnectionString, String eventHubName, String consumerGroup,
+                               CheckpointStore checkpointStore) {
+        this(eventHubConnectionString, eventHubName, consumerGroup, checkpointStore, null);
+    }
+
+    /**
+     * @param eventHubConnectionString The Event Hub connection string.
+     * @param eventHubName             The Event Hub name.
+     * @param consumerGroup            The consumer group, e.g. DEFAULT_CONSUMER_GROUP.
+     * @param checkpointStore          The store for checkpoints and partition
+     *                                 ownership.
+     * @param startPositions           The position to start each partition at,
+     *                                 by partition id, e.g. enqueuedAfter(time).
+     *                                 Only used by partitions without a
+     *                                 checkpoint; a partition without either
+     *                                 starts at the latest event.
+     */
+    public EventHubEventSource(String eventHubConnectionString, String eventHubName, String consumerGroup,
+                               CheckpointStore checkpointStore, Function<String, EventPosition> startPositions) {
+        this.eventHubConnectionString = eventHubConnectionString;
+        this.eventHubName = eventHubName;
+        this.consumerGroup = consumerGroup;
+        this.checkpointStore = checkpointStore;
+        this.startPositions = startPositions;
+    }
+
+    /**
+     * @param time The earliest enqueued time of interest. Allow for the clock
+     *             skew between this machine and Event Hubs.
+     * @return Start positions that skip the events enqueued before a time.
+     */
+    public static Function<String, EventPosition> enqueuedAfter(Instant time) {
+        EventPosition position = EventPosition.fromEnqueuedTime(time);
+        return partitionId -> position;
+    }
+
+    /**
+     * @return Start positions that skip every event enqueued before the source
+     *         starts.
+     */
+    public static Function<String, EventPosition> latest() {
+        return partitionId -> EventPosition.latest();
+    }
+
+    /**
+     * @return The namespace, Event Hub and consumer group, e.g.
+     *         "mynamespace.myhub.Default".
+     */
+    @Override
+    public String getName() {
+        String name = eventHubName + '.' + consumerGroup;
+        String endpoint = "Endpoint=sb://";
+        int start = eventHubConnectionString.indexOf(endpoint);
+        if (start >= 0) {
+            start += endpoint.length();
+            int end = start;
+            while (end < eventHubConnectionString.length() && eventHubConnectionString.charAt(end) != '.'
+                    && eventHubConnectionString.charAt(end) != '/' && eventHubConnectionString.charAt(end) != ';') {
+                end++;
+            }
+            name = eventHubConnectionString.substring(start, end) + '.' + name;
+        }
+        return name.replaceAll("[^A-Za-z0-9._-]", "");
+    }
+
+    @Override
+    public void start(Handler handler) {
+        // Listing the partitions takes a round trip to Event Hubs, so it runs
+        // before taking the lock that stop() waits for.
+        Map<String, EventPosition> positions = resolveStartPositions();
+        synchronized (this) {
+            if (eventProcessorClient != null) {
+                throw new IllegalStateException("The source is already started");
+            }
+            eventProcessorClient = buildEventProcessorClient(handler, positions);
+            eventProcessorClient.start();
+        }
+    }
+
+    private EventProcessorClient buildEventProcessorClient(Handler handler, Map<String, EventPosition> positions) {
+        return new EventProcessorClientBuilder()
+                .connectionString(this.eventHubConnectionString, this.eventHubName)
+                .checkpointStore(this.checkpointStore)
+                .initialPartitionEventPosition(positions)
+                .consumerGroup(this.consumerGroup)
+                .processEvent(eventContext -> handler.onEvent(new EventHubEvent(eventContext)))
+                .processError(errorContext -> EventLog.shared().log(EventLog.Level.WARN, "Partition error",
+                        PARTITION_ERROR_KEYS, errorContext.getPartitionContext().getPartitionId(),
+                        errorContext.getThrowable().toString()))
+                .processPartitionInitialization(initializationContext -> EventLog.shared().log(EventLog.Level.INFO,
+                        "Partition is opening", PARTITION_KEYS,
+                        initializationContext.getPartitionContext().getPartitionId()))
+                .processPartitionClose(closeContext -> closePartition(closeContext, handler))
+                .buildEventProcessorClient();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (eventProcessorClient != null) {
+            eventProcessorClient.stop();
+            eventProcessorClient = null;
+        }
+    }
+
+    /**
+     * The EventProcessorClient takes the initial positions by partition id, so
+     * the ids are read from the Event Hub properties first.
+     *
+     * @return The start position of every partition that has one; none if the
+     *         partitions can't be listed, leaving the partitions without a
+     *         checkpoint to start at the latest event.
+     */
+    private Map<String, EventPosition> resolveStartPositions() {
+        Map<String, EventPosition> positions = new HashMap<>();
+        if (startPositions == null) {
+            return positions;
+        }
+        EventHubConsumerAsyncClient client = new EventHubClientBuilder()
+                .connectionString(eventHubConnectionString, eventHubName)
+                .consumerGroup(consumerGroup)
+                .buildAsyncConsumerClient();
+        try {
+            EventHubProperties properties = client.getEventHubProperties().block(PROPERTIES_TIMEOUT);
+            for (String partitionId : properties.getPartitionIds()) {
+                EventPosition position = startPositions.apply(partitionId);
+                if (position != null) {
+                    positions.put(partitionId, position);
+                }
+            }
+        } catch (RuntimeException e) {
+            EventLog.shared().log(EventLog.Level.WARN, "Failed to list the partitions, ignoring the start positions",
+                    ERROR_KEYS, e.toString());
+            positions.clear();
+        } finally {
+            client.close();
+        }
+        return positions;
+    }
+
+    private static void closePartition(CloseContext closeContext, Handler handler) {
+        String partitionId = closeContext.getPartitionContext().getPartitionId();
+        EventLog.shared().log(EventLog.Level.INFO, "Partition is closing", PARTITION_CLOSE_KEYS, partitionId,
+                closeContext.getCloseReason());
+
+        // On shutdown the processor writes the final checkpoints itself.
+        if (closeContext.getCloseReason() == CloseReason.LOST_PARTITION_OWNERSHIP) {
+            handler.onPartitionLost(partitionId);
+        }
+    }
+
+    private static final class EventHubEvent implements ReceivedEvent {
+        private final EventContext eventContext;
+
+        EventHubEvent(EventContext eventContext) {
+            this.eventContext = eventContext;
+        }
+
+        @Override
+        public String getPartitionId() {
+            return eventContext.getPartitionContext().getPartitionId();
+        }
+
+        @Override
+        public long getOffset() {
+            Long offset = eventContext.getEventData().getOffset();
+            return offset == null ? -1 : offset;
+        }
+
+        @Override
+        public byte[] getBody() {
+            return eventContext.getEventData().getBody();
+        }
+
+        @Override
+        public CompletableFuture<Void> checkpoint() {
+            return eventContext.updateCheckpointAsync().toFuture();
+        }
+    }
+}
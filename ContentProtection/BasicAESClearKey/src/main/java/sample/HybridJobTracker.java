@@ -0,0 +1,272 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.resourcemanager.mediaservices.models.Job;
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import sample.MediaServicesTypedEvent.JobOutputProgress;
+import sample.MediaServicesTypedEvent.JobOutputStateChanged;
+import sample.MediaServicesTypedEvent.JobStateChanged;
+
+/**
+ * Waits for jobs through their events, and catches the final events that get
+ * lost with a low-rate reconciliation sweep, so a job is never stuck behind a
+ * long timeout and a switch to polling.
+ *
+ * Every event of a job, including progress, marks it as heard from. Every
+ * sweep interval, the jobs not heard from for longer than the stale threshold
+ * are read from Media Services: one GET each when there are a few, otherwise
+ * one list of the jobs of the transform that ended since. A job found in a
+ * final state completes as if its event had arrived; the others count as
+ * heard from again. A sweep with no stale jobs makes no request, so jobs whose
+ * events arrive cost nothing beyond the event stream.
+ */
+public class HybridJobTracker {
+    private static final Duration DEFAULT_STALE_AFTER = Duration.ofMinutes(2);
+    private static final Duration DEFAULT_SWEEP_INTERVAL = Duration.ofSeconds(30);
+    private static final Duration LOOK_BACK = Duration.ofMinutes(1);
+    private static final int MAX_GETS_PER_SWEEP = 3;
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "job-reconciliation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MediaServicesEventProcessor processor;
+    private final MediaServicesManager manager;
+    private final String resourceGroup;
+    private final String accountName;
+    private final String transformName;
+    private final long staleAfterMillis;
+    private final long sweepIntervalMillis;
+    private final ConcurrentHashMap<String, TrackedJob> jobs = new ConcurrentHashMap<>();
+    private boolean sweeping;
+    private int sweepCount;
+    private int reconciledCount;
+
+    /**
+     * Create a tracker that sweeps every 30 seconds for jobs not heard from
+     * for 2 minutes.
+     *
+     * @param processor     The event processor, started.
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform of the jobs.
+     */
+    public HybridJobTracker(MediaServicesEventProcessor processor, MediaServicesManager manager,
+                            String resourceGroup, String accountName, String transformName) {
+        this(processor, manager, resourceGroup, accountName, transformName, DEFAULT_STALE_AFTER,
+                DEFAULT_SWEEP_INTERVAL);
+    }
+
+    /**
+     * @param processor     The event processor, started.
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform of the jobs.
+     * @param staleAfter    How long a job may go without events before it is
+     *                      read from Media Services.
+     * @param sweepInterval The time between sweeps.
+     */
+    public HybridJobTracker(MediaServicesEventProcessor processor, MediaServicesManager manager,
+                            String resourceGroup, String accountName, String transformName,
+                            Duration staleAfter, Duration sweepInterval) {
+        this.processor = processor;
+        this.manager = manager;
+        this.resourceGroup = resourceGroup;
+        this.accountName = accountName;
+        this.transformName = transformName;
+        this.staleAfterMillis = staleAfter.toMillis();
+        this.sweepIntervalMillis = sweepInterval.toMillis();
+    }
+
+    /**
+     * Wait for a job to finish, error or be canceled.
+     *
+     * @param jobName The name of the job.
+     * @return A future completed with the final state of the job. It completes
+     *         exceptionally if the job doesn't exist or can't be read.
+     */
+    public CompletableFuture<JobState> waitForJob(String jobName) {
+        TrackedJob job = new TrackedJob(MediaServicesEventDecoder.normalizeName(transformName), jobName);
+        TrackedJob existing = jobs.putIfAbsent(jobName, job);
+        if (existing != null) {
+            return existing.future;
+        }
+
+        processor.registerJob(jobName, job);
+        job.future.whenComplete((state, error) -> {
+            processor.unregisterJob(jobName, job);
+            jobs.remove(jobName, job);
+        });
+
+        // The final event may have come before the job was registered.
+        JobState known = processor.getJobState(transformName, jobName);
+        if (AdaptiveJobPoller.isFinal(known)) {
+            job.future.complete(known);
+        }
+
+        synchronized (this) {
+            if (!sweeping) {
+                sweeping = true;
+                SCHEDULER.schedule(this::sweep, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return job.future;
+    }
+
+    /**
+     * @return The number of sweeps that read jobs from Media Services.
+     */
+    public synchronized int getSweepCount() {
+        return sweepCount;
+    }
+
+    /**
+     * @return The number of jobs whose final state was found by a sweep
+     *         instead of an event.
+     */
+    public synchronized int getReconciledCount() {
+        return reconciledCount;
+    }
+
+    /**
+     * Read the stale jobs. Runs on the scheduler thread and schedules the next
+     * sweep while there are jobs.
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        List<TrackedJob> stale = new ArrayList<>();
+        long oldestHeard = now;
+        for (TrackedJob job : jobs.values()) {
+            if (now - job.lastHeardMillis > staleAfterMillis) {
+                stale.add(job);
+                oldestHeard = Math.min(oldestHeard, job.lastHeardMillis);
+            }
+        }
+
+        if (!stale.isEmpty()) {
+            synchronized (this) {
+                sweepCount++;
+            }
+            try {
+                if (stale.size() <= MAX_GETS_PER_SWEEP) {
+                    for (TrackedJob job : stale) {
+                        reconcile(job, get(job));
+                    }
+                } else {
+                    Instant since = Instant.ofEpochMilli(oldestHeard).minus(LOOK_BACK);
+                    for (Job found : BulkJobStatusTracker.forTransform(manager, resourceGroup, accountName,
+                            transformName).listJobs(since, true)) {
+                        TrackedJob job = jobs.get(found.name());
+                        if (job != null) {
+                            reconcile(job, found);
+                        }
+                    }
+                }
+                // The rest are still running, and have no final event to miss yet.
+                for (TrackedJob job : stale) {
+                    job.lastHeardMillis = now;
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Job reconciliation failed, retrying in the next sweep: " + e.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            if (jobs.isEmpty()) {
+                sweeping = false;
+                return;
+            }
+            SCHEDULER.schedule(this::sweep, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return The job, or null if it doesn't exist, in which case its waiter
+     *         is failed.
+     */
+    private Job get(TrackedJob job) {
+        try {
+            return manager.jobs().get(resourceGroup, accountName, transformName, job.name);
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                job.future.completeExceptionally(e);
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private void reconcile(TrackedJob job, Job found) {
+        if (found != null && AdaptiveJobPoller.isFinal(found.state()) && job.future.complete(found.state())) {
+            synchronized (this) {
+                reconciledCount++;
+            }
+            System.out.println("Job " + job.name + " is " + found.state()
+                    + " according to Media Services; its final event was not received.");
+        }
+    }
+
+    /**
+     * A job and when it was last heard from. It is the listener of its events.
+     */
+    private static final class TrackedJob implements MediaServicesTypedEventListener {
+        private final String transform;
+        private final String name;
+        private final CompletableFuture<JobState> future = new CompletableFuture<>();
+        private volatile long lastHeardMillis = System.currentTimeMillis();
+
+        TrackedJob(String transform, String name) {
+            this.transform = transform;
+            this.name = name;
+        }
+
+        @Override
+        public void onJobStateChanged(JobStateChanged event) {
+            if (heard(event) && event.isFinal()) {
+                future.complete(event.getState());
+            }
+        }
+
+        @Override
+        public void onJobOutputStateChanged(JobOutputStateChanged event) {
+            heard(event);
+        }
+
+        @Override
+        public void onJobOutputProgress(JobOutputProgress event) {
+            heard(event);
+        }
+
+        /**
+         * @return Whether the event is about this job, and not a job of the
+         *         same name in another transform.
+         */
+        private boolean heard(MediaServicesTypedEvent event) {
+            if (!transform.equals(MediaServicesStateStore.transformOf(event.getEvent().subject()))) {
+                return false;
+            }
+            lastHeardMillis = System.currentTimeMillis();
+            return true;
+        }
+    }
+}
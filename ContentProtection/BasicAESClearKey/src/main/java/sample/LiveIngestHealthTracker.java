@@ -0,0 +1,308 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import sample.MediaServicesEvent.DataField;
+
+/**
+ * Rolling ingest health of live events, per track, built from
+ * LiveEventIngestHeartbeat, LiveEventTrackDiscontinuityDetected and
+ * LiveEventIncomingDataChunkDropped events.
+ *
+ * Each track keeps the last N heartbeats in fixed-size primitive ring buffers.
+ * Discontinuities and dropped chunks are counted against the heartbeat they
+ * follow, so the window covers the same period for every figure. Recording an
+ * event allocates nothing once its track has been seen; a track costs about
+ * 17 bytes per heartbeat slot.
+ */
+public class LiveIngestHealthTracker {
+    private final int windowSize;
+    private final ConcurrentHashMap<String, LiveEventHealth> liveEvents = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowSize The number of heartbeats per track the rolling window
+     *                   covers. Live events send a heartbeat every 20 seconds, so
+     *                   30 covers the last 10 minutes.
+     */
+    public LiveIngestHealthTracker(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Record a live event track event. Other events are ignored.
+     *
+     * @param event The decoded event.
+     */
+    public void record(MediaServicesEvent event) {
+        int kind;
+        switch (event.type()) {
+            case LIVE_EVENT_INGEST_HEARTBEAT:
+                kind = TrackWindow.HEARTBEAT;
+                break;
+            case LIVE_EVENT_TRACK_DISCONTINUITY_DETECTED:
+                kind = TrackWindow.DISCONTINUITY;
+                break;
+            case LIVE_EVENT_INCOMING_DATA_CHUNK_DROPPED:
+                kind = TrackWindow.DROPPED_CHUNK;
+                break;
+            default:
+                return;
+        }
+
+        String trackName = event.get(DataField.TRACK_NAME);
+        if (trackName == null) {
+            trackName = event.get(DataField.TRACK_TYPE);
+        }
+        if (trackName == null) {
+            return;
+        }
+
+        LiveEventHealth liveEvent = liveEvents.get(event.entityName());
+        if (liveEvent == null) {
+            liveEvent = liveEvents.computeIfAbsent(event.entityName(), name -> new LiveEventHealth());
+        }
+        TrackWindow track = liveEvent.track(trackName, event.get(DataField.TRACK_TYPE), windowSize);
+
+        if (kind == TrackWindow.HEARTBEAT) {
+            track.heartbeat(parseLong(event.get(DataField.INCOMING_BITRATE)),
+                    "true".equalsIgnoreCase(event.get(DataField.HEALTHY)));
+        } else {
+            track.count(kind);
+        }
+    }
+
+    /**
+     * Get the rolling health of every track of a live event.
+     *
+     * @param liveEventName The name of the live event.
+     * @return One entry per track, empty if no track event was seen.
+     */
+    public List<TrackHealth> getHealth(String liveEventName) {
+        LiveEventHealth liveEvent = liveEvents.get(MediaServicesEventDecoder.normalizeName(liveEventName));
+        if (liveEvent == null) {
+            return Collections.emptyList();
+        }
+        List<TrackHealth> result = new ArrayList<>();
+        for (TrackWindow track : liveEvent.tracks) {
+            result.add(track.snapshot());
+        }
+        return result;
+    }
+
+    /**
+     * Forget a live event.
+     *
+     * @param liveEventName The name of the live event.
+     */
+    public void remove(String liveEventName) {
+        liveEvents.remove(MediaServicesEventDecoder.normalizeName(liveEventName));
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Rolling health of one track, as of the time it was queried.
+     */
+    public static final class TrackHealth {
+        private final String trackName;
+        private final String trackType;
+        private final int heartbeats;
+        private final long averageIncomingBitrate;
+        private final long lastIncomingBitrate;
+        private final double healthyRatio;
+        private final int discontinuities;
+        private final int droppedChunks;
+
+        TrackHealth(String trackName, String trackType, int heartbeats, long averageIncomingBitrate,
+                    long lastIncomingBitrate, double healthyRatio, int discontinuities, int droppedChunks) {
+            this.trackName = trackName;
+            this.trackType = trackType;
+            this.heartbeats = heartbeats;
+            this.averageIncomingBitrate = averageIncomingBitrate;
+            this.lastIncomingBitrate = lastIncomingBitrate;
+            this.healthyRatio = healthyRatio;
+            this.discontinuities = discontinuities;
+            this.droppedChunks = droppedChunks;
+        }
+
+        public String getTrackName() {
+            return trackName;
+        }
+
+        public String getTrackType() {
+            return trackType;
+        }
+
+        /**
+         * @return The number of heartbeats in the window.
+         */
+        public int getHeartbeats() {
+            return heartbeats;
+        }
+
+        /**
+         * @return The average incoming bitrate over the window, in bits per second.
+         */
+        public long getAverageIncomingBitrate() {
+            return averageIncomingBitrate;
+        }
+
+        /**
+         * @return The incoming bitrate of the latest heartbeat, in bits per second.
+         */
+        public long getLastIncomingBitrate() {
+            return lastIncomingBitrate;
+        }
+
+        /**
+         * @return The share of heartbeats in the window that reported healthy,
+         *         from 0 to 1.
+         */
+        public double getHealthyRatio() {
+            return healthyRatio;
+        }
+
+        /**
+         * @return The number of discontinuities detected in the window.
+         */
+        public int getDiscontinuities() {
+            return discontinuities;
+        }
+
+        /**
+         * @return The number of incoming data chunks dropped in the window.
+         */
+        public int getDroppedChunks() {
+            return droppedChunks;
+        }
+
+        @Override
+        public String toString() {
+            return "Track " + trackName + " (" + trackType + "): heartbeats " + heartbeats
+                    + ", avg bitrate " + averageIncomingBitrate
+                    + ", last bitrate " + lastIncomingBitrate
+                    + ", healthy " + Math.round(healthyRatio * 100) + "%"
+                    + ", discontinuities " + discontinuities
+                    + ", dropped chunks " + droppedChunks;
+        }
+    }
+
+    /**
+     * The tracks of one live event. A live event has a handful of tracks, so a
+     * copy-on-write array searched linearly beats a map.
+     */
+    private static final class LiveEventHealth {
+        private volatile TrackWindow[] tracks = new TrackWindow[0];
+
+        TrackWindow track(String trackName, String trackType, int windowSize) {
+            for (TrackWindow track : tracks) {
+                if (track.trackName.equals(trackName)) {
+                    return track;
+                }
+            }
+            synchronized (this) {
+                for (TrackWindow track : tracks) {
+                    if (track.trackName.equals(trackName)) {
+                        return track;
+                    }
+                }
+                TrackWindow[] grown = new TrackWindow[tracks.length + 1];
+                System.arraycopy(tracks, 0, grown, 0, tracks.length);
+                TrackWindow track = new TrackWindow(trackName, trackType, windowSize);
+                grown[tracks.length] = track;
+                tracks = grown;
+                return track;
+            }
+        }
+    }
+
+    /**
+     * Ring buffers of one track, one slot per heartbeat.
+     */
+    private static final class TrackWindow {
+        static final int HEARTBEAT = 0;
+        static final int DISCONTINUITY = 1;
+        static final int DROPPED_CHUNK = 2;
+
+        private final String trackName;
+        private final String trackType;
+        private final long[] incomingBitrates;
+        private final boolean[] healthy;
+        private final int[] discontinuities;
+        private final int[] droppedChunks;
+        private long heartbeats;
+
+        // Running sums over the window, updated as slots are overwritten.
+        private long bitrateSum;
+        private int healthySum;
+        private int discontinuitySum;
+        private int droppedChunkSum;
+
+        TrackWindow(String trackName, String trackType, int windowSize) {
+            this.trackName = trackName;
+            this.trackType = trackType;
+            this.incomingBitrates = new long[windowSize];
+            this.healthy = new boolean[windowSize];
+            this.discontinuities = new int[windowSize];
+            this.droppedChunks = new int[windowSize];
+        }
+
+        synchronized void heartbeat(long incomingBitrate, boolean isHealthy) {
+            int slot = (int) (heartbeats % incomingBitrates.length);
+            if (heartbeats >= incomingBitrates.length) {
+                // Drop the oldest heartbeat and its counts from the running sums.
+                bitrateSum -= incomingBitrates[slot];
+                healthySum -= healthy[slot] ? 1 : 0;
+                discontinuitySum -= discontinuities[slot];
+                droppedChunkSum -= droppedChunks[slot];
+                discontinuities[slot] = 0;
+                droppedChunks[slot] = 0;
+            }
+            incomingBitrates[slot] = incomingBitrate;
+            healthy[slot] = isHealthy;
+            bitrateSum += incomingBitrate;
+            healthySum += isHealthy ? 1 : 0;
+            heartbeats++;
+        }
+
+        synchronized void count(int kind) {
+            // Counted against the latest heartbeat; before the first one, against
+            // slot 0, so they leave the window with the first heartbeat.
+            int slot = heartbeats == 0 ? 0 : (int) ((heartbeats - 1) % incomingBitrates.length);
+            if (kind == DISCONTINUITY) {
+                discontinuities[slot]++;
+                discontinuitySum++;
+            } else {
+                droppedChunks[slot]++;
+                droppedChunkSum++;
+            }
+        }
+
+        synchronized TrackHealth snapshot() {
+            int inWindow = (int) Math.min(heartbeats, incomingBitrates.length);
+            long last = heartbeats == 0 ? 0 : incomingBitrates[(int) ((heartbeats - 1) % incomingBitrates.length)];
+            return new TrackHealth(trackName, trackType, inWindow,
+                    inWindow == 0 ? 0 : bitrateSum / inWindow,
+                    last,
+                    inWindow == 0 ? 0 : (double) healthySum / inWindow,
+                    discontinuitySum, droppedChunkSum);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Streaming decoder for Event Grid payloads delivered through Event Hub.
+ *
+ * The body is scanned once, directly from the UTF-8 bytes. Only the envelope
+ * fields (id, eventType, subject, eventTime) and the data fields listed in
+ * {@link MediaServicesEvent.DataField} are turned into strings; every other
+ * value is skipped without building a tree.
+ */
+public final class MediaServicesEventDecoder {
+    private static final byte[] ID = bytes("id");
+    private static final byte[] EVENT_TYPE = bytes("eventType");
+    private static final byte[] SUBJECT = bytes("subject");
+    private static final byte[] EVENT_TIME = bytes("eventTime");
+    private static final byte[] DATA = bytes("data");
+
+    private static final MediaServicesEvent.DataField[] FIELDS = MediaServicesEvent.DataField.values();
+    private static final byte[][] FIELD_NAMES = new byte[FIELDS.length][];
+    private static final byte[][] FIELD_PARENTS = new byte[FIELDS.length][];
+
+    static {
+        for (MediaServicesEvent.DataField field : FIELDS) {
+            int i = field.ordinal();
+            FIELD_NAMES[i] = bytes(field.fieldName());
+            if (field.parent() != null) {
+                // Fields sharing a parent share one array, so readData() can match
+                // the current parent by identity.
+                for (int j = 0; j < i; j++) {
+                    if (field.parent().equals(FIELDS[j].parent())) {
+                        FIELD_PARENTS[i] = FIELD_PARENTS[j];
+                        break;
+                    }
+                }
+                if (FIELD_PARENTS[i] == null) {
+                    FIELD_PARENTS[i] = bytes(field.parent());
+                }
+            }
+        }
+    }
+
+    private MediaServicesEventDecoder() {
+    }
+
+    /**
+     * Decodes an Event Hub body holding either a JSON array of events or a single
+     * event object.
+     *
+     * @param body     The UTF-8 encoded body.
+     * @param consumer Receives every decoded event, in payload order.
+     * @throws IllegalArgumentException If the body is not well formed.
+     */
+    public static void decode(byte[] body, Consumer<MediaServicesEvent> consumer) {
+        Reader reader = new Reader(body);
+        byte first = reader.peekToken();
+        if (first == '[') {
+            reader.pos++;
+            if (reader.peekToken() == ']') {
+                reader.pos++;
+            } else {
+                while (true) {
+                    if (reader.peekToken() == '{') {
+                        consumer.accept(reader.readEvent());
+                    } else {
+                        reader.skipValue();
+                    }
+                    if (reader.nextSeparator(']')) {
+                        break;
+                    }
+                }
+            }
+        } else if (first == '{') {
+            consumer.accept(reader.readEvent());
+        } else {
+            throw reader.error("expected '[' or '{'");
+        }
+        if (reader.peekToken() != 0) {
+            throw reader.error("unexpected trailing content");
+        }
+    }
+
+    /**
+     * Normalizes a job or live event name the way subjects are matched: the last
+     * path segment with all dashes removed.
+     *
+     * @param name The job name, live event name or event subject.
+     * @return The normalized name.
+     */
+    public static String normalizeName(String name) {
+        int start = name.lastIndexOf('/') + 1;
+        StringBuilder builder = null;
+        for (int i = start; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '-') {
+                if (builder == null) {
+                    builder = new StringBuilder(name.length() - start);
+                    builder.append(name, start, i);
+                }
+            } else if (builder != null) {
+                builder.append(c);
+            }
+        }
+        if (builder != null) {
+            return builder.toString();
+        }
+        return start == 0 ? name : name.substring(start);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Cursor over the body. One instance is used per decode call so the decoder
+     * can be used from several partition threads at once.
+     */
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        // Bounds of the last key read by readKey().
+        private int keyStart;
+        private int keyEnd;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+            this.end = buf.length;
+            this.pos = 0;
+        }
+
+        MediaServicesEvent readEvent() {
+            String id = null;
+            String eventType = null;
+            MediaServicesEventType type = MediaServicesEventType.UNKNOWN;
+            String subject = null;
+            String eventTime = null;
+            String[] data = new String[FIELDS.length];
+
+            expect('{');
+            if (peekToken() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    readKey();
+                    if (keyEquals(EVENT_TYPE)) {
+                        type = readEventType();
+                        if (type == MediaServicesEventType.UNKNOWN) {
+                            // Not a known type, or one written with escapes.
+                            eventType = readScalar();
+                            type = MediaServicesEventType.fromName(eventType);
+                        } else {
+                            eventType = type.typeName();
+                        }
+                    } else if (keyEquals(SUBJECT)) {
+                        subject = readScalar();
+                    } else if (keyEquals(ID)) {
+                        id = readScalar();
+                    } else if (keyEquals(EVENT_TIME)) {
+                        eventTime = readScalar();
+                    } else if (keyEquals(DATA) && peekToken() == '{') {
+                        readData(null, data);
+                    } else {
+                        skipValue();
+                    }
+                    if (nextSeparator('}')) {
+                        break;
+                    }
+                }
+            }
+
+            String entityName = subject == null ? null : normalizeName(subject);
+            return new MediaServicesEvent(id, eventType, type, subject, eventTime, entityName, data);
+        }
+
+        /**
+         * Resolve the event type from the raw bytes of its string. A known type
+         * is consumed; otherwise the cursor is left on the value for readScalar().
+         */
+        private MediaServicesEventType readEventType() {
+            if (peekToken() != '"') {
+                return MediaServicesEventType.UNKNOWN;
+            }
+            int quote = pos;
+            pos++;
+            skipStringBody();
+            MediaServicesEventType type = MediaServicesEventType.lookup(buf, quote + 1, pos - 1);
+            if (type != MediaServicesEventType.UNKNOWN) {
+                return type;
+            }
+            pos = quote;
+            return MediaServicesEventType.UNKNOWN;
+        }
+
+        private void readData(byte[] parent, String[] data) {
+            expect('{');
+            if (peekToken() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                readKey();
+                int match = -1;
+                byte[] nested = null;
+                for (int i = 0; i < FIELDS.length; i++) {
+                    byte[] fieldParent = FIELD_PARENTS[i];
+                    if (fieldParent == parent && keyEquals(FIELD_NAMES[i])) {
+                        match = i;
+                        break;
+                    }
+                    if (parent == null && fieldParent != null && keyEquals(fieldParent)) {
+                        nested = fieldParent;
+                        break;
+                    }
+                }
+
+                if (nested != null && peekToken() == '{') {
+                    readData(nested, data);
+                } else if (match >= 0) {
+                    data[match] = readScalar();
+                } else {
+                    skipValue();
+                }
+                if (nextSeparator('}')) {
+                    break;
+                }
+            }
+        }
+
+        private void readKey() {
+            if (peekToken() != '"') {
+                throw error("expected a property name");
+            }
+            pos++;
+            keyStart = pos;
+            skipStringBody();
+            keyEnd = pos - 1;
+            expect(':');
+        }
+
+        private boolean keyEquals(byte[] name) {
+            return rangeEquals(keyStart, keyEnd, name);
+        }
+
+        private boolean rangeEquals(int start, int stop, byte[] name) {
+            if (stop - start != name.length) {
+                return false;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (buf[start + i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads a string, number, boolean or null. Objects and arrays are skipped
+         * and reported as null.
+         */
+        private String readScalar() {
+            byte c = peekToken();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                skipValue();
+                return null;
+            }
+            int start = pos;
+            skipLiteral();
+            if (pos - start == 4 && buf[start] == 'n') {
+                return null;
+            }
+            return new String(buf, start, pos - start, StandardCharsets.ISO_8859_1);
+        }
+
+        private String readString() {
+            pos++;
+            int start = pos;
+            boolean escaped = false;
+            while (true) {
+                if (pos >= end) {
+                    throw error("unterminated string");
+                }
+                byte c = buf[pos++];
+                if (c == '"') {
+                    break;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+            }
+            if (!escaped) {
+                return new String(buf, start, pos - 1 - start, StandardCharsets.UTF_8);
+            }
+            return unescape(start, pos - 1);
+        }
+
+        private String unescape(int start, int stop) {
+            StringBuilder builder = new StringBuilder(stop - start);
+            int runStart = start;
+            int i = start;
+            while (i < stop) {
+                if (buf[i] != '\\') {
+                    i++;
+                    continue;
+                }
+                builder.append(new String(buf, runStart, i - runStart, StandardCharsets.UTF_8));
+                byte c = buf[i + 1];
+                switch (c) {
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        if (i + 6 > stop) {
+                            throw error("truncated unicode escape");
+                        }
+                        builder.append((char) Integer.parseInt(
+                                new String(buf, i + 2, 4, StandardCharsets.ISO_8859_1), 16));
+                        i += 4;
+                        break;
+                    default:
+                        builder.append((char) c);
+                        break;
+                }
+                i += 2;
+                runStart = i;
+            }
+            builder.append(new String(buf, runStart, stop - runStart, StandardCharsets.UTF_8));
+            return builder.toString();
+        }
+
+        private void skipValue() {
+            byte c = peekToken();
+            switch (c) {
+                case '"':
+                    pos++;
+                    skipStringBody();
+                    break;
+                case '{':
+                case '[':
+                    skipContainer();
+                    break;
+                case 0:
+                    throw error("unexpected end of payload");
+                default:
+                    skipLiteral();
+                    break;
+            }
+        }
+
+        /**
+         * Skips a whole object or array by tracking nesting depth only.
+         */
+        private void skipContainer() {
+            int depth = 0;
+            while (pos < end) {
+                byte c = buf[pos++];
+                if (c == '"') {
+                    skipStringBody();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw error("unterminated object or array");
+        }
+
+        private void skipStringBody() {
+            while (pos < end) {
+                byte c = buf[pos++];
+                if (c == '"') {
+                    return;
+                }
+                if (c == '\\') {
+                    pos++;
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private void skipLiteral() {
+            int start = pos;
+            while (pos < end) {
+                byte c = buf[pos];
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error("expected a value");
+            }
+        }
+
+        /**
+         * Consumes either a ',' or the given closing character.
+         *
+         * @return true if the container was closed.
+         */
+        private boolean nextSeparator(char close) {
+            byte c = peekToken();
+            if (c == ',') {
+                pos++;
+                return false;
+            }
+            if (c == close) {
+                pos++;
+                return true;
+            }
+            throw error("expected ',' or '" + close + "'");
+        }
+
+        private void expect(char c) {
+            if (peekToken() != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        /**
+         * Skips whitespace and returns the next byte without consuming it, or 0 at
+         * the end of the body.
+         */
+        private byte peekToken() {
+            while (pos < end) {
+                byte c = buf[pos];
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return c;
+                }
+                pos++;
+            }
+            return 0;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Malformed event payload at offset " + pos + ": " + message);
+        }
+    }
+}
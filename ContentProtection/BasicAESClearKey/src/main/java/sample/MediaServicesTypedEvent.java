@@ -0,0 +1,503 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import sample.MediaServicesEvent.DataField;
+
+/**
+ * A Media Services event with its data fields parsed into typed values, one
+ * immutable subclass per shape of event data. Use MediaServicesEvent.typed()
+ * to convert a decoded event, or implement MediaServicesTypedEventListener to
+ * receive them.
+ *
+ * Numbers that are missing or malformed in the payload read as -1, flags as
+ * false and states as null.
+ */
+public abstract class MediaServicesTypedEvent {
+    private final MediaServicesEvent event;
+
+    MediaServicesTypedEvent(MediaServicesEvent event) {
+        this.event = event;
+    }
+
+    /**
+     * Convert a decoded event to its typed form. MediaServicesEvent.typed()
+     * calls this once per event.
+     *
+     * @param event The decoded event.
+     * @return The typed event, or null if its type is UNKNOWN.
+     */
+    static MediaServicesTypedEvent of(MediaServicesEvent event) {
+        switch (event.type()) {
+            case JOB_STATE_CHANGE:
+            case JOB_SCHEDULED:
+            case JOB_PROCESSING:
+            case JOB_CANCELING:
+            case JOB_FINISHED:
+            case JOB_CANCELED:
+            case JOB_ERRORED:
+                return new JobStateChanged(event);
+
+            case JOB_OUTPUT_STATE_CHANGE:
+            case JOB_OUTPUT_SCHEDULED:
+            case JOB_OUTPUT_PROCESSING:
+            case JOB_OUTPUT_CANCELING:
+            case JOB_OUTPUT_FINISHED:
+            case JOB_OUTPUT_CANCELED:
+            case JOB_OUTPUT_ERRORED:
+                return new JobOutputStateChanged(event);
+
+            case JOB_OUTPUT_PROGRESS:
+                return new JobOutputProgress(event);
+
+            case LIVE_EVENT_CONNECTION_REJECTED:
+            case LIVE_EVENT_ENCODER_CONNECTED:
+            case LIVE_EVENT_ENCODER_DISCONNECTED:
+                return new EncoderConnection(event);
+
+            case LIVE_EVENT_INCOMING_STREAM_RECEIVED:
+                return new IncomingStreamReceived(event);
+
+            case LIVE_EVENT_INCOMING_DATA_CHUNK_DROPPED:
+                return new DataChunkDropped(event);
+
+            case LIVE_EVENT_INCOMING_STREAMS_OUT_OF_SYNC:
+            case LIVE_EVENT_INCOMING_VIDEO_STREAMS_OUT_OF_SYNC:
+                return new StreamsOutOfSync(event);
+
+            case LIVE_EVENT_INGEST_HEARTBEAT:
+                return new IngestHeartbeat(event);
+
+            case LIVE_EVENT_TRACK_DISCONTINUITY_DETECTED:
+                return new TrackDiscontinuity(event);
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Call the callback of a listener for this kind of event.
+     *
+     * @param listener The listener.
+     */
+    abstract void dispatchTo(MediaServicesTypedEventListener listener);
+
+    /**
+     * @return The event type.
+     */
+    public MediaServicesEventType type() {
+        return event.type();
+    }
+
+    /**
+     * @return The normalized job or live event name.
+     */
+    public String getEntityName() {
+        return event.entityName();
+    }
+
+    /**
+     * @return The decoded event, for the envelope fields and event time.
+     */
+    public MediaServicesEvent getEvent() {
+        return event;
+    }
+
+    @Override
+    public String toString() {
+        return event.eventType() + " " + event.entityName();
+    }
+
+    private static JobState parseState(String state) {
+        return state == null ? null : JobState.fromString(state);
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * JobStateChange and the JobScheduled to JobErrored events.
+     */
+    public static final class JobStateChanged extends MediaServicesTypedEvent {
+        private final JobState previousState;
+        private final JobState state;
+
+        JobStateChanged(MediaServicesEvent event) {
+            super(event);
+            this.previousState = parseState(event.get(DataField.PREVIOUS_STATE));
+            this.state = parseState(event.get(DataField.STATE));
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onJobStateChanged(this);
+        }
+
+        public JobState getPreviousState() {
+            return previousState;
+        }
+
+        public JobState getState() {
+            return state;
+        }
+
+        /**
+         * @return true if the job ended: finished, canceled or errored, whether
+         *         by a JobFinished to JobErrored event or a JobStateChange.
+         */
+        public boolean isFinal() {
+            return state == JobState.FINISHED || state == JobState.CANCELED || state == JobState.ERROR
+                    || type().isJobFinal();
+        }
+    }
+
+    /**
+     * JobOutputStateChange and the JobOutputScheduled to JobOutputErrored events.
+     */
+    public static final class JobOutputStateChanged extends MediaServicesTypedEvent {
+        private final String label;
+        private final JobState previousState;
+        private final JobState state;
+        private final int progress;
+
+        JobOutputStateChanged(MediaServicesEvent event) {
+            super(event);
+            this.label = event.get(DataField.OUTPUT_LABEL);
+            this.previousState = parseState(event.get(DataField.PREVIOUS_STATE));
+            this.state = parseState(event.get(DataField.OUTPUT_STATE));
+            this.progress = parseInt(event.get(DataField.OUTPUT_PROGRESS));
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onJobOutputStateChanged(this);
+        }
+
+        /**
+         * @return The output label, or null for an output without one.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        public JobState getPreviousState() {
+            return previousState;
+        }
+
+        public JobState getState() {
+            return state;
+        }
+
+        /**
+         * @return The progress in percent, or -1 if unknown.
+         */
+        public int getProgress() {
+            return progress;
+        }
+
+        /**
+         * @return true if the output ended: finished, canceled or errored.
+         */
+        public boolean isFinal() {
+            return getEvent().isJobOutputFinalState();
+        }
+    }
+
+    /**
+     * JobOutputProgress.
+     */
+    public static final class JobOutputProgress extends MediaServicesTypedEvent {
+        private final String label;
+        private final int progress;
+
+        JobOutputProgress(MediaServicesEvent event) {
+            super(event);
+            this.label = event.get(DataField.LABEL);
+            this.progress = parseInt(event.get(DataField.PROGRESS));
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onJobOutputProgress(this);
+        }
+
+        /**
+         * @return The output label, or null for an output without one.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return The progress in percent, or -1 if unknown.
+         */
+        public int getProgress() {
+            return progress;
+        }
+    }
+
+    /**
+     * LiveEventEncoderConnected, LiveEventEncoderDisconnected and
+     * LiveEventConnectionRejected; type() tells which.
+     */
+    public static final class EncoderConnection extends MediaServicesTypedEvent {
+        private final String ingestUrl;
+        private final String streamId;
+        private final String encoderIp;
+        private final int encoderPort;
+        private final String resultCode;
+
+        EncoderConnection(MediaServicesEvent event) {
+            super(event);
+            this.ingestUrl = event.get(DataField.INGEST_URL);
+            this.streamId = event.get(DataField.STREAM_ID);
+            this.encoderIp = event.get(DataField.ENCODER_IP);
+            this.encoderPort = parseInt(event.get(DataField.ENCODER_PORT));
+            this.resultCode = event.get(DataField.RESULT_CODE);
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onEncoderConnection(this);
+        }
+
+        public String getIngestUrl() {
+            return ingestUrl;
+        }
+
+        public String getStreamId() {
+            return streamId;
+        }
+
+        public String getEncoderIp() {
+            return encoderIp;
+        }
+
+        /**
+         * @return The encoder port, or -1 if unknown.
+         */
+        public int getEncoderPort() {
+            return encoderPort;
+        }
+
+        /**
+         * @return The result code of a rejected or dropped connection, or null.
+         */
+        public String getResultCode() {
+            return resultCode;
+        }
+    }
+
+    /**
+     * LiveEventIncomingStreamReceived.
+     */
+    public static final class IncomingStreamReceived extends MediaServicesTypedEvent {
+        private final String ingestUrl;
+        private final String trackType;
+        private final String trackName;
+        private final String encoderIp;
+        private final int encoderPort;
+
+        IncomingStreamReceived(MediaServicesEvent event) {
+            super(event);
+            this.ingestUrl = event.get(DataField.INGEST_URL);
+            this.trackType = event.get(DataField.TRACK_TYPE);
+            this.trackName = event.get(DataField.TRACK_NAME);
+            this.encoderIp = event.get(DataField.ENCODER_IP);
+            this.encoderPort = parseInt(event.get(DataField.ENCODER_PORT));
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onIncomingStreamReceived(this);
+        }
+
+        public String getIngestUrl() {
+            return ingestUrl;
+        }
+
+        /**
+         * @return The track type, e.g. "video", or null.
+         */
+        public String getTrackType() {
+            return trackType;
+        }
+
+        public String getTrackName() {
+            return trackName;
+        }
+
+        public String getEncoderIp() {
+            return encoderIp;
+        }
+
+        /**
+         * @return The encoder port, or -1 if unknown.
+         */
+        public int getEncoderPort() {
+            return encoderPort;
+        }
+    }
+
+    /**
+     * LiveEventIncomingDataChunkDropped.
+     */
+    public static final class DataChunkDropped extends MediaServicesTypedEvent {
+        private final String trackType;
+        private final String trackName;
+        private final String resultCode;
+
+        DataChunkDropped(MediaServicesEvent event) {
+            super(event);
+            this.trackType = event.get(DataField.TRACK_TYPE);
+            this.trackName = event.get(DataField.TRACK_NAME);
+            this.resultCode = event.get(DataField.RESULT_CODE);
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onDataChunkDropped(this);
+        }
+
+        public String getTrackType() {
+            return trackType;
+        }
+
+        public String getTrackName() {
+            return trackName;
+        }
+
+        /**
+         * @return Why the chunk was dropped, e.g. "FragmentDrop_OverlapTimestamp".
+         */
+        public String getResultCode() {
+            return resultCode;
+        }
+    }
+
+    /**
+     * LiveEventIncomingStreamsOutOfSync and
+     * LiveEventIncomingVideoStreamsOutOfSync; type() tells which.
+     */
+    public static final class StreamsOutOfSync extends MediaServicesTypedEvent {
+        StreamsOutOfSync(MediaServicesEvent event) {
+            super(event);
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onStreamsOutOfSync(this);
+        }
+    }
+
+    /**
+     * LiveEventIngestHeartbeat, sent every 20 seconds for every track.
+     */
+    public static final class IngestHeartbeat extends MediaServicesTypedEvent {
+        private final String trackType;
+        private final String trackName;
+        private final long incomingBitrate;
+        private final String state;
+        private final boolean healthy;
+
+        IngestHeartbeat(MediaServicesEvent event) {
+            super(event);
+            this.trackType = event.get(DataField.TRACK_TYPE);
+            this.trackName = event.get(DataField.TRACK_NAME);
+            this.incomingBitrate = parseLong(event.get(DataField.INCOMING_BITRATE));
+            this.state = event.get(DataField.STATE);
+            this.healthy = "true".equalsIgnoreCase(event.get(DataField.HEALTHY));
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onIngestHeartbeat(this);
+        }
+
+        public String getTrackType() {
+            return trackType;
+        }
+
+        public String getTrackName() {
+            return trackName;
+        }
+
+        /**
+         * @return The bitrate received in the last interval in bits per
+         *         second, or -1 if unknown.
+         */
+        public long getIncomingBitrate() {
+            return incomingBitrate;
+        }
+
+        /**
+         * @return The live event state, e.g. "Running".
+         */
+        public String getState() {
+            return state;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+    }
+
+    /**
+     * LiveEventTrackDiscontinuityDetected.
+     */
+    public static final class TrackDiscontinuity extends MediaServicesTypedEvent {
+        private final String trackType;
+        private final String trackName;
+        private final long discontinuityGap;
+
+        TrackDiscontinuity(MediaServicesEvent event) {
+            super(event);
+            this.trackType = event.get(DataField.TRACK_TYPE);
+            this.trackName = event.get(DataField.TRACK_NAME);
+            this.discontinuityGap = parseLong(event.get(DataField.DISCONTINUITY_GAP));
+        }
+
+        @Override
+        void dispatchTo(MediaServicesTypedEventListener listener) {
+            listener.onTrackDiscontinuity(this);
+        }
+
+        public String getTrackType() {
+            return trackType;
+        }
+
+        public String getTrackName() {
+            return trackName;
+        }
+
+        /**
+         * @return The gap between the last and the new fragment, in the track
+         *         timescale, or -1 if unknown.
+         */
+        public long getDiscontinuityGap() {
+            return discontinuityGap;
+        }
+    }
+}
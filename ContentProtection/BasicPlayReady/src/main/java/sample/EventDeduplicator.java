@@ -0,0 +1,278 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.util.Arrays;
+
+/**
+ * Remembers recently seen event ids so that events delivered more than once by
+ * Event Grid are only handled once.
+ *
+ * Ids are kept as 64-bit hashes in coarse time buckets: the window is split in
+ * 8 generations, each an open-addressing table of the hashes first seen during
+ * its span, plus the generation being filled. When a span ends the oldest
+ * generation is forgotten as a whole, so an id is remembered for at least the
+ * window and at most one span longer, and no time is kept per id. A table is
+ * kept at most three quarters full and is sized for the ids of the last
+ * generation when reused, so memory follows the event rate at 8 bytes per
+ * slot, about 11 to 16 bytes per id. Size the capacity with
+ * {@link #capacityFor(long, long)}. A generation that reaches its share of the
+ * capacity before its span ends is closed early, and the ids of the oldest
+ * generation are then forgotten before the end of the window; a duplicate
+ * arriving after that is no longer caught, and those early evictions are
+ * counted. At a million remembered ids the chance of two different ids sharing
+ * a hash is below one in ten million, so no exact copy of the ids is kept.
+ */
+public class EventDeduplicator {
+    private static final int MAX_CAPACITY = 1 << 28;
+    private static final int GENERATIONS = 8;
+    private static final int INITIAL_TABLE_SIZE = 256;
+
+    private final long windowNanos;
+    private final long spanNanos;
+    private final int maxPerGeneration;
+    private final int maxTableSize;
+    // One more table than generations: the window plus the one being filled.
+    private final long[][] tables = new long[GENERATIONS + 1][];
+    private final int[] counts = new int[GENERATIONS + 1];
+    private final long[] startNanos = new long[GENERATIONS + 1];
+    private int current;
+    private long duplicates;
+    private long earlyEvictions;
+    private long shortestWindowNanos = Long.MAX_VALUE;
+
+    /**
+     * @param capacity     The maximum number of ids remembered for the whole
+     *                     window.
+     * @param windowMillis How long an id is remembered, in milliseconds.
+     */
+    public EventDeduplicator(int capacity, long windowMillis) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^28");
+        }
+        this.windowNanos = windowMillis * 1_000_000L;
+        this.spanNanos = Math.max(1, windowNanos / GENERATIONS);
+        this.maxPerGeneration = (capacity + GENERATIONS - 1) / GENERATIONS;
+        this.maxTableSize = tableSizeFor(maxPerGeneration, Integer.MAX_VALUE);
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = new long[Math.min(INITIAL_TABLE_SIZE, maxTableSize)];
+        }
+        startNanos[current] = System.nanoTime();
+    }
+
+    /**
+     * @param eventsPerSecond The highest rate of ids expected.
+     * @param windowMillis    How long an id must be remembered, in milliseconds.
+     * @return The capacity that remembers every id for the whole window at that
+     *         rate, at most 2^28.
+     */
+    public static int capacityFor(long eventsPerSecond, long windowMillis) {
+        long ids = (eventsPerSecond * windowMillis + 999) / 1000;
+        return (int) Math.max(1, Math.min(ids, MAX_CAPACITY));
+    }
+
+    /**
+     * Record an event id.
+     *
+     * @param id The Event Grid event id.
+     * @return true the first time an id is seen within the window, false for a
+     *         duplicate.
+     */
+    public synchronized boolean firstSeen(String id) {
+        long now = System.nanoTime();
+        advance(now);
+
+        long hash = hash(id);
+        // Newest first, where a redelivery most likely is.
+        for (int i = 0, generation = current; i < tables.length; i++) {
+            if (counts[generation] > 0 && contains(tables[generation], hash)) {
+                duplicates++;
+                return false;
+            }
+            generation = generation == 0 ? tables.length - 1 : generation - 1;
+        }
+
+        if (counts[current] == maxPerGeneration) {
+            // Full before its span ended: start the next generation early.
+            rotate(now);
+        }
+        insert(hash);
+        return true;
+    }
+
+    /**
+     * @return The number of duplicates detected so far.
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * @return The number of ids forgotten before the end of the window because
+     *         a generation filled up before its span ended.
+     */
+    public synchronized long getEarlyEvictionCount() {
+        return earlyEvictions;
+    }
+
+    /**
+     * @return The shortest time ids were remembered for, in milliseconds: the
+     *         window until the first early eviction.
+     */
+    public synchronized long getShortestWindowMillis() {
+        return Math.min(shortestWindowNanos, windowNanos) / 1_000_000L;
+    }
+
+    /**
+     * @return The number of ids currently remembered.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (int count : counts) {
+            size += count;
+        }
+        return size;
+    }
+
+    /**
+     * @return The memory held by the tables, in bytes.
+     */
+    public synchronized long getTableBytes() {
+        long bytes = 0;
+        for (long[] table : tables) {
+            bytes += 8L * table.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Close the generations whose span has ended.
+     */
+    private void advance(long now) {
+        long steps = (now - startNanos[current]) / spanNanos;
+        if (steps > GENERATIONS) {
+            // Nothing was seen for longer than the window: forget everything.
+            for (int i = 0; i < tables.length; i++) {
+                clear(i);
+            }
+            startNanos[current] = now;
+            return;
+        }
+        for (long i = 0; i < steps; i++) {
+            rotate(startNanos[current] + spanNanos);
+        }
+    }
+
+    /**
+     * Start the next generation, forgetting the oldest one.
+     *
+     * @param start When the new generation starts.
+     */
+    private void rotate(long start) {
+        int next = (current + 1) % tables.length;
+        if (counts[next] > 0) {
+            // The oldest generation took ids until the one after it started.
+            long endNanos = startNanos[(next + 1) % tables.length];
+            if (start - endNanos < windowNanos) {
+                earlyEvictions += counts[next];
+                shortestWindowNanos = Math.min(shortestWindowNanos, start - endNanos);
+            }
+        }
+        clear(next);
+        startNanos[next] = start;
+        current = next;
+    }
+
+    /**
+     * Empty a table, resizing it for the ids of the generation that just ended.
+     */
+    private void clear(int generation) {
+        int size = tableSizeFor(counts[current], maxTableSize);
+        if (tables[generation].length != size) {
+            tables[generation] = new long[size];
+        } else if (counts[generation] > 0) {
+            Arrays.fill(tables[generation], 0);
+        }
+        counts[generation] = 0;
+    }
+
+    private void insert(long hash) {
+        long[] table = tables[current];
+        if ((counts[current] + 1) * 4L > table.length * 3L) {
+            table = grow(table);
+            tables[current] = table;
+        }
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+        counts[current]++;
+    }
+
+    /**
+     * Double a table. Only the generation being filled grows, so the copy is
+     * bounded by one generation.
+     */
+    private static long[] grow(long[] table) {
+        long[] grown = new long[table.length * 2];
+        int mask = grown.length - 1;
+        for (long hash : table) {
+            if (hash != 0) {
+                int slot = (int) hash & mask;
+                while (grown[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = hash;
+            }
+        }
+        return grown;
+    }
+
+    private static boolean contains(long[] table, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        long found;
+        while ((found = table[slot]) != 0) {
+            if (found == hash) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return The power of two that holds the ids at most three quarters full,
+     *         at least the initial size and at most the maximum.
+     */
+    private static int tableSizeFor(int ids, int maxSize) {
+        long needed = ids * 4L / 3 + 1;
+        long size = INITIAL_TABLE_SIZE;
+        while (size < needed && size < maxSize) {
+            size *= 2;
+        }
+        return (int) Math.min(size, maxSize);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the id, followed by the MurmurHash3
+     * finalizer so the low bits used for the tables are well mixed. Zero marks
+     * a free slot, so it is mapped to one.
+     */
+    private static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,322 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import sample.MediaServicesEvent.DataField;
+import sample.MediaServicesEventType.Category;
+
+/**
+ * Breaks the time a job takes down by where it was spent, using the event
+ * times Media Services stamps on job events and the local time each event was
+ * received:
+ *
+ * - queue wait: from Scheduled to Processing, i.e. waiting for encoder
+ *   capacity (reserved units);
+ * - processing time: from Processing to the final state, i.e. the encode itself;
+ * - delivery lag: from the event time of any job event to its receipt here,
+ *   i.e. Event Grid, Event Hub and this consumer.
+ *
+ * Each is kept in a LatencyHistogram across jobs, and per job in a timeline
+ * that can be queried or exported as CSV. The clocks of Media Services and this
+ * machine are not synchronized, so delivery lags within the clock skew read as
+ * zero.
+ */
+public class JobLatencyTracker {
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram processingTime = new LatencyHistogram();
+    private final LatencyHistogram deliveryLag = new LatencyHistogram();
+    private final Map<String, Timeline> timelines;
+
+    /**
+     * @param jobCapacity The number of job timelines kept; the oldest job is
+     *                    forgotten when a new one would exceed it. The histograms
+     *                    keep counting regardless.
+     */
+    public JobLatencyTracker(int jobCapacity) {
+        if (jobCapacity < 1) {
+            throw new IllegalArgumentException("jobCapacity must be at least 1");
+        }
+        this.timelines = new LinkedHashMap<String, Timeline>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Timeline> eldest) {
+                return size() > jobCapacity;
+            }
+        };
+    }
+
+    /**
+     * Record a job or job output event. Other events are ignored.
+     *
+     * @param event          The decoded event.
+     * @param receivedMillis When the event was received, in epoch milliseconds.
+     */
+    public void record(MediaServicesEvent event, long receivedMillis) {
+        Category category = event.type().category();
+        if (category != Category.JOB && category != Category.JOB_OUTPUT || event.entityName() == null) {
+            return;
+        }
+        long eventMillis = event.eventTimeMillis();
+        if (eventMillis < 0) {
+            return;
+        }
+        deliveryLag.record(receivedMillis - eventMillis);
+
+        Timeline timeline;
+        synchronized (timelines) {
+            timeline = timelines.get(event.entityName());
+            if (timeline == null) {
+                timeline = new Timeline(event.entityName());
+                timelines.put(event.entityName(), timeline);
+            }
+        }
+
+        // Job output events carry the output state, not the job state.
+        String state = category == Category.JOB_OUTPUT ? null : event.get(DataField.STATE);
+        timeline.record(state, eventMillis, receivedMillis - eventMillis);
+    }
+
+    /**
+     * @param jobName The name of the job.
+     * @return The timeline of the job, or null if no event of it was recorded.
+     */
+    public JobLatency getJobLatency(String jobName) {
+        Timeline timeline;
+        synchronized (timelines) {
+            timeline = timelines.get(MediaServicesEventDecoder.normalizeName(jobName));
+        }
+        return timeline == null ? null : timeline.snapshot();
+    }
+
+    /**
+     * @return The time jobs waited from Scheduled to Processing.
+     */
+    public LatencyHistogram.Snapshot getQueueWait() {
+        return queueWait.snapshot();
+    }
+
+    /**
+     * @return The time jobs took from Processing to their final state.
+     */
+    public LatencyHistogram.Snapshot getProcessingTime() {
+        return processingTime.snapshot();
+    }
+
+    /**
+     * @return The time from the event time of job events to their receipt.
+     */
+    public LatencyHistogram.Snapshot getDeliveryLag() {
+        return deliveryLag.snapshot();
+    }
+
+    /**
+     * Write the timeline of every tracked job as CSV, oldest job first. Times
+     * are ISO 8601, durations milliseconds; unknown values are left empty.
+     *
+     * @param writer Where to write to. It is not closed.
+     * @throws IOException If writing fails.
+     */
+    public void exportCsv(Writer writer) throws IOException {
+        List<Timeline> snapshot;
+        synchronized (timelines) {
+            snapshot = new ArrayList<>(timelines.values());
+        }
+        writer.write("job,state,scheduled,processing,finished,queue_wait_ms,processing_ms,max_delivery_lag_ms,events\n");
+        for (Timeline timeline : snapshot) {
+            JobLatency latency = timeline.snapshot();
+            writer.write(latency.getJobName() + ','
+                    + orEmpty(latency.getState()) + ','
+                    + orEmpty(latency.getScheduledTime()) + ','
+                    + orEmpty(latency.getProcessingTime()) + ','
+                    + orEmpty(latency.getFinishedTime()) + ','
+                    + (latency.getQueueWait() == null ? "" : latency.getQueueWait().toMillis()) + ','
+                    + (latency.getProcessingDuration() == null ? "" : latency.getProcessingDuration().toMillis()) + ','
+                    + latency.getMaxDeliveryLagMillis() + ','
+                    + latency.getEventCount() + '\n');
+        }
+        writer.flush();
+    }
+
+    private static String orEmpty(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    /**
+     * What is known of one job so far. Events of a job are recorded from its
+     * dispatch lane, queries come from any thread.
+     */
+    private final class Timeline {
+        private final String jobName;
+        private String state;
+        private long scheduledMillis = -1;
+        private long processingMillis = -1;
+        private long finishedMillis = -1;
+        private long maxDeliveryLagMillis;
+        private int eventCount;
+
+        Timeline(String jobName) {
+            this.jobName = jobName;
+        }
+
+        synchronized void record(String newState, long eventMillis, long lagMillis) {
+            eventCount++;
+            maxDeliveryLagMillis = Math.max(maxDeliveryLagMillis, lagMillis);
+            if (newState == null) {
+                return;
+            }
+
+            // Both JobStateChange and the specific event of a state may arrive;
+            // keep the first time of each state.
+            boolean queueWaitKnown = scheduledMillis >= 0 && processingMillis >= 0;
+            boolean processingKnown = processingMillis >= 0 && finishedMillis >= 0;
+            switch (newState) {
+                case "Scheduled":
+                    if (scheduledMillis < 0) {
+                        scheduledMillis = eventMillis;
+                    }
+                    break;
+                case "Processing":
+                    if (processingMillis < 0) {
+                        processingMillis = eventMillis;
+                    }
+                    break;
+                case "Finished":
+                case "Canceled":
+                case "Error":
+                    if (finishedMillis < 0) {
+                        finishedMillis = eventMillis;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            state = newState;
+
+            if (!queueWaitKnown && scheduledMillis >= 0 && processingMillis >= 0) {
+                queueWait.record(processingMillis - scheduledMillis);
+            }
+            if (!processingKnown && processingMillis >= 0 && finishedMillis >= 0) {
+                processingTime.record(finishedMillis - processingMillis);
+            }
+        }
+
+        synchronized JobLatency snapshot() {
+            return new JobLatency(jobName, state, instant(scheduledMillis), instant(processingMillis),
+                    instant(finishedMillis), maxDeliveryLagMillis, eventCount);
+        }
+
+        private Instant instant(long millis) {
+            return millis < 0 ? null : Instant.ofEpochMilli(millis);
+        }
+    }
+
+    /**
+     * The timeline of one job as of the time it was queried.
+     */
+    public static final class JobLatency {
+        private final String jobName;
+        private final String state;
+        private final Instant scheduledTime;
+        private final Instant processingTime;
+        private final Instant finishedTime;
+        private final long maxDeliveryLagMillis;
+        private final int eventCount;
+
+        JobLatency(String jobName, String state, Instant scheduledTime, Instant processingTime,
+                   Instant finishedTime, long maxDeliveryLagMillis, int eventCount) {
+            this.jobName = jobName;
+            this.state = state;
+            this.scheduledTime = scheduledTime;
+            this.processingTime = processingTime;
+            this.finishedTime = finishedTime;
+            this.maxDeliveryLagMillis = maxDeliveryLagMillis;
+            this.eventCount = eventCount;
+        }
+
+        /**
+         * @return The normalized job name.
+         */
+        public String getJobName() {
+            return jobName;
+        }
+
+        /**
+         * @return The latest job state received, or null if only output events were.
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * @return The event time of the Scheduled state, or null if not received.
+         */
+        public Instant getScheduledTime() {
+            return scheduledTime;
+        }
+
+        /**
+         * @return The event time of the Processing state, or null if not received.
+         */
+        public Instant getProcessingTime() {
+            return processingTime;
+        }
+
+        /**
+         * @return The event time of the final state, or null if not received.
+         */
+        public Instant getFinishedTime() {
+            return finishedTime;
+        }
+
+        /**
+         * @return The time from Scheduled to Processing, or null if either is unknown.
+         */
+        public Duration getQueueWait() {
+            return scheduledTime == null || processingTime == null
+                    ? null : Duration.between(scheduledTime, processingTime);
+        }
+
+        /**
+         * @return The time from Processing to the final state, or null if either is
+         *         unknown.
+         */
+        public Duration getProcessingDuration() {
+            return processingTime == null || finishedTime == null
+                    ? null : Duration.between(processingTime, finishedTime);
+        }
+
+        /**
+         * @return The largest delay between the event time of an event of the job
+         *         and its receipt, in milliseconds.
+         */
+        public long getMaxDeliveryLagMillis() {
+            return maxDeliveryLagMillis;
+        }
+
+        /**
+         * @return The number of job and job output events received for the job.
+         */
+        public int getEventCount() {
+            return eventCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Job " + jobName + " (" + state + "): queue wait " + seconds(getQueueWait())
+                    + ", processing " + seconds(getProcessingDuration())
+                    + ", max event delivery lag " + maxDeliveryLagMillis + " ms over " + eventCount + " events";
+        }
+
+        private static String seconds(Duration duration) {
+            return duration == null ? "unknown" : String.format("%.1f s", duration.toMillis() / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,582 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A local journal of the jobs, assets and locators a workflow created, so a
+ * process that dies mid-run can re-attach to its job after a restart instead
+ * of orphaning it or encoding the same input again.
+ *
+ * The entries of one run of a workflow are owned by a RUN entry named by the
+ * unique suffix the run builds its resource names from. A run that is not
+ * deleted by the end of the workflow was interrupted, and deleting a run
+ * deletes the entries it owns.
+ *
+ * Every state transition is appended as one record to a memory-mapped file.
+ * An append is a few stores into the mapping, with no system call; the
+ * records survive a crash of the process as soon as they are written, and a
+ * power loss unless they are younger than the last force(). On open, the file
+ * is replayed into a map of the latest state of every entry, which takes
+ * milliseconds even for thousands of records. A record cut short by a crash
+ * fails its checksum and ends the replay; the next append overwrites it.
+ *
+ * When the mapping is full, or holds more than four records per live entry,
+ * the ledger is compacted: the live entries are written to the next
+ * generation file, which is forced and renamed into place before the previous
+ * one is deleted, so a crash at any point leaves one complete generation.
+ * Entries recorded as DELETED are dropped by compaction.
+ *
+ * Generation files are named ledger-NNNNNNNNNN.log and hold a header of magic
+ * (int) and version (int), then records of: magic (int), body length (int),
+ * CRC-32 of the body (int), and the body: created time (long, epoch
+ * milliseconds), updated time (long), kind (byte), name, owner and state
+ * (each length-prefixed UTF-8). A lock file keeps a second process from
+ * opening the same ledger.
+ */
+public class JobLedger {
+    /**
+     * The state of a run, asset or locator that was created.
+     */
+    public static final String CREATED = "Created";
+
+    /**
+     * The state of an entry that was deleted, and is dropped by compaction.
+     */
+    public static final String DELETED = "Deleted";
+
+    /**
+     * The state of a job recorded right before it is submitted, so a crash
+     * during submission leaves a trace.
+     */
+    public static final String SUBMITTING = "Submitting";
+
+    public enum Kind {
+        RUN, JOB, ASSET, LOCATOR
+    }
+
+    private static final String GENERATION_PREFIX = "ledger-";
+    private static final String GENERATION_SUFFIX = ".log";
+    private static final String LOCK_FILE = "ledger.lock";
+    private static final int FILE_MAGIC = 0x4A4C4447;
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int RECORD_MAGIC = 0x4A524543;
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final int MIN_RECORDS_TO_COMPACT = 1024;
+    private static final int RECORDS_PER_ENTRY_TO_COMPACT = 4;
+
+    private final Path directory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    // Latest state by kind and name, in the order first recorded.
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer body = ByteBuffer.allocate(1024);
+    private long generation;
+    private int capacity;
+    private MappedByteBuffer mapped;
+    private int recordCount;
+    private int compactionCount;
+    private final long replayMillis;
+
+    /**
+     * Open the ledger of a directory with a mapping of 1 MB, replaying it.
+     *
+     * @param directory The directory of the ledger files, created if missing.
+     * @throws IOException If the ledger can't be read or is in use by another
+     *                     process.
+     */
+    public JobLedger(Path directory) throws IOException {
+        this(directory, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Open the ledger of a directory, replaying it.
+     *
+     * @param directory The directory of the ledger files, created if missing.
+     * @param capacity  The size of the mapping in bytes. It grows when the live
+     *                  entries fill more than half of it.
+     * @throws IOException If the ledger can't be read or is in use by another
+     *                     process.
+     */
+    public JobLedger(Path directory, int capacity) throws IOException {
+        if (capacity < 4096) {
+            throw new IllegalArgumentException("capacity must be at least 4096");
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another ledger of this process.
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("Job ledger " + directory + " is in use");
+        }
+        lock = acquired;
+
+        long startMillis = System.currentTimeMillis();
+        try {
+            List<Path> generations = listGenerations();
+            if (generations.isEmpty()) {
+                writeGeneration(1);
+            } else {
+                Path latest = generations.get(generations.size() - 1);
+                generation = indexOf(latest);
+                this.capacity = (int) Math.max(capacity, Files.size(latest));
+                map(latest);
+                replay(latest);
+            }
+            deleteOlderGenerations();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        replayMillis = System.currentTimeMillis() - startMillis;
+    }
+
+    /**
+     * Record the state of a run, job, asset or locator.
+     *
+     * @param kind  What the entry is.
+     * @param name  Its name.
+     * @param owner For a run, its transform; for the others, their run.
+     * @param state Its new state, e.g. a JobState, CREATED or DELETED.
+     * @throws IOException If the ledger is closed or can't be compacted.
+     */
+    public synchronized void record(Kind kind, String name, String owner, String state) throws IOException {
+        if (mapped == null) {
+            throw new IOException("Job ledger " + directory + " is closed");
+        }
+        long now = System.currentTimeMillis();
+        String key = keyOf(kind, name);
+        Entry current = entries.get(key);
+        Entry entry = new Entry(kind, name, owner, state, current == null ? now : current.createdMillis, now);
+
+        encode(entry);
+        boolean full = mapped.remaining() < RECORD_HEADER_BYTES + body.remaining();
+        if (full || recordCount >= Math.max(MIN_RECORDS_TO_COMPACT,
+                RECORDS_PER_ENTRY_TO_COMPACT * entries.size())) {
+            // The new generation is written from the entries, this one included.
+            apply(entry);
+            try {
+                compact();
+                return;
+            } catch (IOException e) {
+                if (current == null) {
+                    entries.remove(key);
+                } else {
+                    entries.put(key, current);
+                }
+                if (full) {
+                    throw e;
+                }
+            }
+            encode(entry);
+        }
+        append();
+        apply(entry);
+    }
+
+    /**
+     * @param kind What the entry is.
+     * @param name Its name.
+     * @return The latest state of the entry, or null if it was never recorded
+     *         or was deleted.
+     */
+    public synchronized Entry get(Kind kind, String name) {
+        return entries.get(keyOf(kind, name));
+    }
+
+    /**
+     * @param transformName The transform of the runs.
+     * @return The oldest run of the transform that was not deleted, i.e. one
+     *         that was interrupted, or null if there is none.
+     */
+    public synchronized Entry getOpenRun(String transformName) {
+        for (Entry entry : entries.values()) {
+            if (entry.kind == Kind.RUN && transformName.equals(entry.owner)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param runName The name of a run.
+     * @return The jobs, assets and locators recorded for the run and not
+     *         deleted.
+     */
+    public synchronized List<Entry> getResources(String runName) {
+        List<Entry> resources = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.kind != Kind.RUN && runName.equals(entry.owner)) {
+                resources.add(entry);
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Write the live entries to a new generation and delete the previous one.
+     *
+     * @throws IOException If the new generation can't be written; the previous
+     *                     one stays in use.
+     */
+    public synchronized void compact() throws IOException {
+        int liveBytes = FILE_HEADER_BYTES;
+        for (Entry entry : entries.values()) {
+            encode(entry);
+            liveBytes += RECORD_HEADER_BYTES + body.remaining();
+        }
+        if (liveBytes > capacity / 2) {
+            capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(2L * capacity, 2L * liveBytes));
+        }
+        writeGeneration(generation + 1);
+        compactionCount++;
+        deleteOlderGenerations();
+    }
+
+    /**
+     * Force the records to disk, so they survive a power loss too.
+     */
+    public synchronized void force() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    /**
+     * @return The number of live entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of records in the current generation.
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return The number of compactions since the ledger was opened.
+     */
+    public synchronized int getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * @return How long opening and replaying the ledger took, in milliseconds.
+     */
+    public long getReplayMillis() {
+        return replayMillis;
+    }
+
+    /**
+     * Force the records to disk and release the ledger. Later records fail.
+     */
+    public synchronized void close() {
+        if (mapped != null) {
+            mapped.force();
+            mapped = null;
+        }
+        try {
+            if (lock.isValid()) {
+                lock.release();
+            }
+            lockChannel.close();
+        } catch (IOException e) {
+            // The lock goes with the process anyway.
+        }
+    }
+
+    /**
+     * Put the encoded body at the end of the mapping. The magic goes last, so
+     * a record cut short never looks complete.
+     */
+    private void append() {
+        int start = mapped.position();
+        int length = body.remaining();
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        mapped.position(start + 4);
+        mapped.putInt(length).putInt((int) crc.getValue()).put(body);
+        mapped.putInt(start, RECORD_MAGIC);
+        recordCount++;
+    }
+
+    /**
+     * Encode an entry as a record body into the reused buffer, flipped.
+     */
+    private void encode(Entry entry) {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        byte[] owner = entry.owner == null ? new byte[0] : entry.owner.getBytes(StandardCharsets.UTF_8);
+        byte[] state = entry.state.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 1 + 2 + name.length + 2 + owner.length + 2 + state.length;
+        if (name.length > Short.MAX_VALUE || owner.length > Short.MAX_VALUE || state.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Name, owner and state must be shorter than 32 KB");
+        }
+        if (body.capacity() < length) {
+            body = ByteBuffer.allocate(length);
+        }
+        body.clear();
+        body.putLong(entry.createdMillis).putLong(entry.updatedMillis).put((byte) entry.kind.ordinal())
+                .putShort((short) name.length).put(name)
+                .putShort((short) owner.length).put(owner)
+                .putShort((short) state.length).put(state);
+        body.flip();
+    }
+
+    private void apply(Entry entry) {
+        String key = keyOf(entry.kind, entry.name);
+        if (DELETED.equals(entry.state)) {
+            entries.remove(key);
+            if (entry.kind == Kind.RUN) {
+                entries.values().removeIf(owned -> owned.kind != Kind.RUN && entry.name.equals(owned.owner));
+            }
+        } else {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Read the records of the mapped generation into the entries, and leave
+     * the mapping positioned after the last complete one.
+     */
+    private void replay(Path path) throws IOException {
+        if (mapped.getInt(0) != FILE_MAGIC || mapped.getInt(4) != FILE_VERSION) {
+            throw new IOException("Not a job ledger: " + path);
+        }
+        int position = FILE_HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= capacity && mapped.getInt(position) == RECORD_MAGIC) {
+            int length = mapped.getInt(position + 4);
+            int start = position + RECORD_HEADER_BYTES;
+            if (length < 0 || length > capacity - start) {
+                break;
+            }
+            ByteBuffer record = mapped.duplicate();
+            record.position(start).limit(start + length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != mapped.getInt(position + 8)) {
+                break;
+            }
+            apply(decode(record, path));
+            recordCount++;
+            position = start + length;
+        }
+        // Clear a record cut short by a crash, so it is not mistaken for one
+        // when the records written over it are shorter.
+        if (position + 4 <= capacity) {
+            mapped.putInt(position, 0);
+        }
+        mapped.position(position);
+    }
+
+    private static Entry decode(ByteBuffer record, Path path) throws IOException {
+        long createdMillis = record.getLong();
+        long updatedMillis = record.getLong();
+        int kind = record.get();
+        if (kind < 0 || kind >= Kind.values().length) {
+            throw new IOException("Unknown entry kind " + kind + " in job ledger " + path);
+        }
+        String name = readString(record);
+        String owner = readString(record);
+        String state = readString(record);
+        return new Entry(Kind.values()[kind], name, owner.isEmpty() ? null : owner, state, createdMillis,
+                updatedMillis);
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the live entries to a generation file through a temporary file,
+     * and map it for appends.
+     */
+    private void writeGeneration(long index) throws IOException {
+        Path path = directory.resolve(String.format("%s%010d%s", GENERATION_PREFIX, index, GENERATION_SUFFIX));
+        Path temp = directory.resolve(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(FILE_MAGIC).putInt(FILE_VERSION);
+            header.flip();
+            channel.write(header);
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+            for (Entry entry : entries.values()) {
+                encode(entry);
+                crc.reset();
+                crc.update(body.array(), 0, body.remaining());
+                recordHeader.clear();
+                recordHeader.putInt(RECORD_MAGIC).putInt(body.remaining()).putInt((int) crc.getValue());
+                recordHeader.flip();
+                channel.write(new ByteBuffer[] {recordHeader, body});
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (mapped != null) {
+            mapped.force();
+        }
+        generation = index;
+        recordCount = 0;
+        map(path);
+        replay(path);
+    }
+
+    /**
+     * Map a generation file at the capacity, growing it to the capacity.
+     */
+    private void map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed.
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    /**
+     * Delete the generations before the current one and left-over temporary
+     * files. A file that can't be deleted, e.g. because it is still mapped on
+     * Windows, is deleted on the next open.
+     */
+    private void deleteOlderGenerations() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, GENERATION_PREFIX + "*")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(".tmp") || (name.endsWith(GENERATION_SUFFIX) && indexOf(path) < generation)) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        // Retried on the next open.
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The generation files, oldest first.
+     */
+    private List<Path> listGenerations() throws IOException {
+        List<Path> generations = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                GENERATION_PREFIX + "*" + GENERATION_SUFFIX)) {
+            for (Path path : stream) {
+                generations.add(path);
+            }
+        }
+        // The index is zero-padded, so names sort by index.
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static long indexOf(Path generation) {
+        String name = generation.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(GENERATION_PREFIX.length(),
+                    name.length() - GENERATION_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    private static String keyOf(Kind kind, String name) {
+        return kind.name() + '/' + name;
+    }
+
+    /**
+     * The latest recorded state of a job, asset or locator.
+     */
+    public static final class Entry {
+        private final Kind kind;
+        private final String name;
+        private final String owner;
+        private final String state;
+        private final long createdMillis;
+        private final long updatedMillis;
+
+        Entry(Kind kind, String name, String owner, String state, long createdMillis, long updatedMillis) {
+            this.kind = kind;
+            this.name = name;
+            this.owner = owner;
+            this.state = state;
+            this.createdMillis = createdMillis;
+            this.updatedMillis = updatedMillis;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return For a run, its transform; for the others, their run.
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * @return The latest state, e.g. "Processing" or CREATED.
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * @return When the entry was first recorded, in epoch milliseconds.
+         */
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        /**
+         * @return When the latest state was recorded, in epoch milliseconds.
+         */
+        public long getUpdatedMillis() {
+            return updatedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name + ": " + state;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A Media Services event decoded from an Event Grid payload. Only the envelope
+ * fields and the data fields listed in {@link DataField} are kept, everything
+ * else in the payload is skipped by {@link MediaServicesEventDecoder}.
+ */
+public final class MediaServicesEvent {
+
+    /**
+     * The data fields the event processor reads. Nested fields are addressed
+     * with their parent object name, e.g. "output.progress".
+     */
+    public enum DataField {
+        PREVIOUS_STATE(null, "previousState"),
+        STATE(null, "state"),
+        PROGRESS(null, "progress"),
+        LABEL(null, "label"),
+        OUTPUT_STATE("output", "state"),
+        OUTPUT_PROGRESS("output", "progress"),
+        OUTPUT_LABEL("output", "label"),
+        INGEST_URL(null, "ingestUrl"),
+        STREAM_ID(null, "streamId"),
+        ENCODER_IP(null, "encoderIp"),
+        ENCODER_PORT(null, "encoderPort"),
+        RESULT_CODE(null, "resultCode"),
+        TRACK_TYPE(null, "trackType"),
+        TRACK_NAME(null, "trackName"),
+        INCOMING_BITRATE(null, "incomingBitrate"),
+        HEALTHY(null, "healthy"),
+        DISCONTINUITY_GAP(null, "discontinuityGap");
+
+        private final String parent;
+        private final String name;
+
+        DataField(String parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        /**
+         * @return The name of the enclosing object inside "data", or null for
+         *         top-level data fields.
+         */
+        public String parent() {
+            return parent;
+        }
+
+        /**
+         * @return The JSON property name.
+         */
+        public String fieldName() {
+            return name;
+        }
+    }
+
+    private final String id;
+    private final String eventType;
+    private final MediaServicesEventType type;
+    private final String subject;
+    private final String eventTime;
+    private final String entityName;
+    private final String[] data;
+    // Converted on the dispatch lane of the entity, where all its listeners run;
+    // typed events are immutable, so a second conversion elsewhere is harmless.
+    private MediaServicesTypedEvent typed;
+
+    MediaServicesEvent(String id, String eventType, MediaServicesEventType type, String subject, String eventTime,
+                       String entityName, String[] data) {
+        this.id = id;
+        this.eventType = eventType;
+        this.type = type;
+        this.subject = subject;
+        this.eventTime = eventTime;
+        this.entityName = entityName;
+        this.data = data;
+    }
+
+    /**
+     * @return The Event Grid event id.
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return The event type, e.g. "Microsoft.Media.JobFinished".
+     */
+    public String eventType() {
+        return eventType;
+    }
+
+    /**
+     * @return The event type as an enum, UNKNOWN for types the samples don't
+     *         handle. Prefer it over eventType() for dispatching.
+     */
+    public MediaServicesEventType type() {
+        return type;
+    }
+
+    /**
+     * @return The event subject, e.g. "transforms/MyTransform/jobs/job-1".
+     */
+    public String subject() {
+        return subject;
+    }
+
+    /**
+     * @return The event time as sent by Event Grid (ISO 8601).
+     */
+    public String eventTime() {
+        return eventTime;
+    }
+
+    /**
+     * Parses the event time. It is parsed on every call, so callers that need
+     * it more than once should keep the result.
+     *
+     * @return The event time in epoch milliseconds, or -1 if it is missing or
+     *         not ISO 8601.
+     */
+    public long eventTimeMillis() {
+        if (eventTime == null) {
+            return -1;
+        }
+        try {
+            return OffsetDateTime.parse(eventTime).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The last segment of the subject with all dashes removed. This is
+     *         the name the processor matches registered jobs and live events on.
+     */
+    public String entityName() {
+        return entityName;
+    }
+
+    /**
+     * @return true for the events that end a job: JobFinished, JobCanceled,
+     *         JobErrored, and JobStateChange to one of those states.
+     */
+    public boolean isJobFinalState() {
+        if (type == MediaServicesEventType.JOB_STATE_CHANGE) {
+            return isFinalState(get(DataField.STATE));
+        }
+        return type.isJobFinal();
+    }
+
+    /**
+     * @return true for the events that end a job output: JobOutputFinished,
+     *         JobOutputCanceled, JobOutputErrored, and JobOutputStateChange to one
+     *         of those states.
+     */
+    public boolean isJobOutputFinalState() {
+        if (type == MediaServicesEventType.JOB_OUTPUT_STATE_CHANGE) {
+            return isFinalState(get(DataField.OUTPUT_STATE));
+        }
+        return type.isJobOutputFinal();
+    }
+
+    private static boolean isFinalState(String state) {
+        return "Finished".equals(state) || "Canceled".equals(state) || "Error".equals(state);
+    }
+
+    /**
+     * The typed form of the event, converted on first use and shared by every
+     * listener of the event.
+     *
+     * @return The typed event, or null if its type is UNKNOWN.
+     */
+    public MediaServicesTypedEvent typed() {
+        MediaServicesTypedEvent converted = typed;
+        if (converted == null) {
+            converted = MediaServicesTypedEvent.of(this);
+            typed = converted;
+        }
+        return converted;
+    }
+
+    /**
+     * Gets a data field as text. Strings are unescaped, numbers and booleans are
+     * returned as they appear in the payload.
+     *
+     * @param field The data field.
+     * @return The value, or null if the field is absent, null or not a scalar.
+     */
+    public String get(DataField field) {
+        return data[field.ordinal()];
+    }
+}
@@ -0,0 +1,18 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+/**
+ * Callback for Media Services events of a job or live event registered with
+ * {@link MediaServicesEventProcessor}.
+ */
+@FunctionalInterface
+public interface MediaServicesEventListener {
+    /**
+     * Called for every event whose subject matches the registered name.
+     *
+     * @param event The decoded event.
+     */
+    void onEvent(MediaServicesEvent event);
+}
@@ -3,6 +3,10 @@
 
 package sample;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
@@ -11,11 +15,7 @@ import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
 import java.util.stream.Collectors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.Callable;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import javax.crypto.SecretKey;
 
@@ -27,6 +27,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import javax.naming.AuthenticationException;
 import com.azure.core.credential.TokenCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
 import com.azure.core.http.policy.HttpLogDetailLevel;
 import com.azure.core.http.policy.HttpLogOptions;
 import com.azure.core.management.exception.ManagementException;
@@ -45,6 +47,8 @@ import io.jsonwebtoken.security.Keys;
 
 public class BasicWidevine {
     private static final String TRANSFORM_NAME = "MyTransform";
+    private static final String JOB_LEDGER_DIRECTORY = "job-ledger";
+    private static final String TRANSFORM_REGISTRY_FILE = "transform-registry.txt";
     private static final String ISSUER = "myIssuer";
     private static final String AUDIENCE = "myAudience";
     private static final String CONTENT_KEY_POLICY_NAME = "WidevineContentKeyPolicy";
@@ -90,33 +94,50 @@ public class BasicWidevine {
                 .authenticate(credential, profile);
         // Signed in.
 
+        // Runs are recorded in a local ledger until they are cleaned up. If an earlier
+        // run was interrupted, e.g. because the process died, resume it and re-attach
+        // to its job instead of encoding the same input again.
+        JobLedger ledger;
+        try {
+            ledger = new JobLedger(Paths.get(JOB_LEDGER_DIRECTORY));
+        } catch (IOException e) {
+            System.out.println("Failed to open the job ledger: " + e.getMessage());
+            return;
+        }
+        JobLedger.Entry resumedRun = ledger.getOpenRun(TRANSFORM_NAME);
+
         // Create a unique suffix so that we don't have name collisions if you run the
         // sample multiple times without cleaning up.
-        UUID uuid = UUID.randomUUID();
-        String uniqueness = uuid.toString();
+        String uniqueness = resumedRun != null ? resumedRun.getName() : UUID.randomUUID().toString();
         String jobName = "job-" + uniqueness;
         String outputAssetName = "output-" + uniqueness;
         String locatorName = "locator-" + uniqueness;
         MediaServicesEventProcessor eventProcessorHost = null;
+        MediaServicesEventMultiplexer.Subscription eventSubscription = null;
         boolean stopEndpoint = false;
 
         Scanner scanner = new Scanner(System.in);
 
         try {
+            if (resumedRun == null) {
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.CREATED);
+            } else {
+                System.out.println("Resuming the run interrupted at " + new Date(resumedRun.getUpdatedMillis())
+                        + ": " + ledger.getResources(uniqueness));
+            }
+
             // Ensure that you have the desired encoding Transform. This is really a one
             // time setup operation.
             List<TransformOutput> outputs = new ArrayList<>();
             outputs.add(new TransformOutput().withPreset(
                     new BuiltInStandardEncoderPreset().withPresetName(EncoderNamedPreset.CONTENT_AWARE_ENCODING)));
 
-            // Create the transform.
-            System.out.println("Creating a transform...");
-            Transform transform = manager.transforms()
-                    .define(TRANSFORM_NAME)
-                    .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
-                    .withOutputs(outputs)
-                    .create();
-            System.out.println("Transform created");
+            // Make sure the transform exists with these outputs. A local registry skips the
+            // request if the transform was checked within the last hour, and updates it only
+            // if its outputs differ.
+            TransformRegistry transformRegistry = new TransformRegistry(Paths.get(TRANSFORM_REGISTRY_FILE));
+            transformRegistry.ensure(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME,
+                    outputs);
 
             // Output from the encoding Job must be written to an Asset, so let's create
             // one. Note that we are using a unique asset name, there should not be a name
@@ -126,11 +147,33 @@ public class BasicWidevine {
                     .define(outputAssetName)
                     .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
                     .create();
-
-            Job job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
-                    transform.name(), outputAsset.name(), jobName);
+            ledger.record(JobLedger.Kind.ASSET, outputAssetName, uniqueness, JobLedger.CREATED);
+
+            // Events enqueued before the job was submitted can't be about it.
+            Instant jobSubmittedTime;
+            Job job = null;
+            JobLedger.Entry recordedJob = ledger.get(JobLedger.Kind.JOB, jobName);
+            if (recordedJob != null && JobLedger.SUBMITTING.equals(recordedJob.getState())
+                    && !jobExists(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME, jobName)) {
+                // Interrupted before the job was created, so submit it again.
+                System.out.println("Job " + jobName + " was never created, submitting it again.");
+                recordedJob = null;
+            }
+            if (recordedJob == null) {
+                jobSubmittedTime = Instant.now();
+                ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, JobLedger.SUBMITTING);
+                job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
+                        TRANSFORM_NAME, outputAsset.name(), jobName);
+                ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, job.state().toString());
+            } else {
+                // Submitted before the interruption, so only wait for it.
+                jobSubmittedTime = Instant.ofEpochMilli(recordedJob.getCreatedMillis());
+                System.out.println("Re-attaching to job " + jobName + ", last recorded as "
+                        + recordedJob.getState() + ".");
+            }
 
             long startedTime = System.currentTimeMillis();
+            JobState jobState;
 
             try {
                 // First we will try to process Job events through Event Hub in real-time. If
@@ -143,58 +186,43 @@ public class BasicWidevine {
                         config.getStorageAccountName() +
                         ";AccountKey=" + config.getStorageAccountKey() + ";EndpointSuffix=core.windows.net";
 
-                // Cleanup storage container. We will config Event Hub to use the storage
-                // container configured in appsettings.json.
-                // All the blobs in <The container configured in appsettings.json> will be
-                // deleted.
+                // Event Hub keeps its checkpoints and partition ownership in the storage
+                // container configured in appsettings.json. A partition resumes after its
+                // checkpoint, or without one starts at the job submission time, less a minute
+                // for clock skew, so the retention window is not replayed.
                 BlobServiceAsyncClient client = new BlobServiceClientBuilder()
                         .connectionString(storageConnectionString)
                         .buildAsyncClient();
                 BlobContainerAsyncClient container = client
                         .getBlobContainerAsyncClient(config.getStorageContainerName());
-                container.listBlobs().subscribe(blobItem -> {
-                    container.getBlobAsyncClient(blobItem.getName()).delete();
-                });
-
-                // Create a new host to process events from an Event Hub.
-                Object monitor = new Object();
-                eventProcessorHost = new MediaServicesEventProcessor(jobName, monitor, null,
-                        config.getEventHubConnectionString(), config.getEventHubName(),
-                        container);
-
-                // Define a task to wait for the job to finish.
-                Callable<String> jobTask = () -> {
-                    synchronized (monitor) {
-                        monitor.wait();
-                    }
-                    return "Job";
-                };
-
-                // Define another task
-                Callable<String> timeoutTask = () -> {
-                    TimeUnit.MINUTES.sleep(30);
-                    return "Timeout";
-                };
-
-                ExecutorService executor = Executors.newFixedThreadPool(2);
-                List<Callable<String>> tasks = Arrays.asList(jobTask, timeoutTask);
-
-                String result = executor.invokeAny(tasks);
-                if (result.equalsIgnoreCase("Job")) {
-                    // Job finished. Shutdown timeout.
-                    executor.shutdownNow();
-                } else {
-                    // Timeout happened. Switch to polling method.
-                    synchronized (monitor) {
-                        monitor.notify();
-                    }
 
-                    throw new Exception("Timeout happened.");
+                // Subscribe through the Event Hub consumer shared by all workflows of this
+                // process. The subscription keeps it running until it is closed.
+                eventSubscription = MediaServicesEventMultiplexer.forEventHub(config.getEventHubConnectionString(),
+                        config.getEventHubName(), container,
+                        EventHubEventSource.enqueuedAfter(jobSubmittedTime.minusSeconds(60)))
+                        .subscribeJob(jobName);
+                eventProcessorHost = eventSubscription.getProcessor();
+
+                // Wait for the job to finish. The future is completed by the final job
+                // event. Should that event get lost, a background sweep reads the jobs not
+                // heard from for two minutes from Media Services instead, so the wait
+                // never stalls until a timeout.
+                HybridJobTracker jobTracker = new HybridJobTracker(eventProcessorHost, manager,
+                        config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME);
+                CompletableFuture<JobState> jobCompletion = jobTracker.waitForJob(jobName);
+                // The final state comes with the event, so the job needn't be fetched again.
+                jobState = jobCompletion.get();
+
+                // Break the elapsed time down into queueing, encoding and event delivery.
+                System.out.println(eventProcessorHost.getJobLatency(jobName));
+
+                Duration firstEvent = eventProcessorHost.getTimeToFirstEvent();
+                if (firstEvent != null) {
+                    System.out.println("First job event received " + firstEvent.toMillis()
+                            + " ms after the event processor started, after "
+                            + eventProcessorHost.getEventsBeforeFirstEvent() + " events of other jobs.");
                 }
-
-                // Get the latest status of the job.
-                job = manager.jobs()
-                        .get(config.getResourceGroup(), config.getAccountName(), transform.name(), jobName);
             } catch (Exception e) {
                 System.out.println(
                         "Warning: Failed to connect to Event Hub, please refer README for Event Hub and storage settings.");
@@ -206,13 +234,15 @@ public class BasicWidevine {
                 // Event Grid.
                 System.out.println("Failed to start Event Grid monitoring, will use polling job status instead...");
                 job = waitForJobToFinish(manager, config.getResourceGroup(), config.getAccountName(),
-                        transform.name(), jobName);
+                        TRANSFORM_NAME, jobName);
+                jobState = job.state();
             }
 
             long elapsed = (System.currentTimeMillis() - startedTime) / 1000; // Elapsed time in seconds
             System.out.println("Job elapsed time: " + elapsed + " second(s).");
+            ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, jobState.toString());
 
-            if (job.state() == JobState.FINISHED) {
+            if (jobState == JobState.FINISHED) {
                 // Set a token signing key that you want to use
                 TOKEN_SIGNING_KEY = Base64.decodeBase64(config.getSymmetricKey());
 
@@ -231,6 +261,7 @@ public class BasicWidevine {
                         .withStreamingPolicyName(MULTI_DRM_CENC_STREAMING)
                         .withDefaultContentKeyPolicyName(policy.name())
                         .create();
+                ledger.record(JobLedger.Kind.LOCATOR, locatorName, uniqueness, JobLedger.CREATED);
 
                 String keyIdentifier = null;
                 List<StreamingLocatorContentKey> keys = locator.contentKeys()
@@ -292,20 +323,29 @@ public class BasicWidevine {
         } finally {
             System.out.println("Cleaning up...");
 
-            cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME,
-                    jobName,
-                    outputAssetName, locatorName, CONTENT_KEY_POLICY_NAME, stopEndpoint,
-                    DEFAULT_STREAMING_ENDPOINT_NAME);
+            // The ledger drops every resource as it is deleted, and the run once nothing of
+            // it is left, so a failed cleanup leaves the rest to the next run.
+            try {
+                cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME,
+                        jobName,
+                        outputAssetName, locatorName, CONTENT_KEY_POLICY_NAME, stopEndpoint,
+                        DEFAULT_STREAMING_ENDPOINT_NAME, ledger, uniqueness);
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.DELETED);
+            } catch (Exception e) {
+                System.out.println("Cleanup failed, the next run resumes it: " + e);
+            } finally {
+                ledger.close();
+            }
 
             if (scanner != null) {
                 scanner.close();
             }
 
-            if (eventProcessorHost != null) {
+            if (eventSubscription != null) {
                 System.out.println("Unregistering event processor...");
 
-                // Disposes of the Event Processor Host.
-                eventProcessorHost.stop();
+                // Stops the shared event processor, unless another workflow still uses it.
+                eventSubscription.close();
                 System.out.println();
             }
         }
@@ -373,7 +413,31 @@ public class BasicWidevine {
     }
 
     /**
-     * Polls Media Services for the status of the Job.
+     * Check whether a job exists, e.g. one whose submission was interrupted.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param jobName       The name of the job.
+     * @return Whether the job exists.
+     */
+    private static boolean jobExists(MediaServicesManager manager, String resourceGroup, String accountName,
+                                     String transformName, String jobName) {
+        try {
+            return manager.jobs().get(resourceGroup, accountName, transformName, jobName) != null;
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Polls Media Services for the status of the Job, at intervals adapted to
+     * its progress and to throttling.
      *
      * @param manager       This is the entry point of Azure Media resource
      *                      management.
@@ -386,37 +450,7 @@ public class BasicWidevine {
      */
     private static Job waitForJobToFinish(MediaServicesManager manager, String resourceGroup, String accountName,
                                           String transformName, String jobName) {
-        final int SLEEP_INTERVAL = 60 * 1000;
-
-        Job job = null;
-        boolean exit = false;
-
-        do {
-            job = manager.jobs().get(resourceGroup, accountName, transformName, jobName);
-
-            if (job.state() == JobState.FINISHED || job.state() == JobState.ERROR || job.state() == JobState.CANCELED) {
-                exit = true;
-            } else {
-                System.out.println("Job is " + job.state());
-
-                int i = 0;
-                for (JobOutput output : job.outputs()) {
-                    System.out.print("\tJobOutput[" + i++ + "] is " + output.state() + ".");
-                    if (output.state() == JobState.PROCESSING) {
-                        System.out.print("  Progress: " + output.progress());
-                    }
-                    System.out.println();
-                }
-
-                try {
-                    Thread.sleep(SLEEP_INTERVAL);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        } while (!exit);
-
-        return job;
+        return new AdaptiveJobPoller(manager).waitForJob(resourceGroup, accountName, transformName, jobName);
     }
 
     /**
@@ -631,20 +665,26 @@ public class BasicWidevine {
      * @param contentKeyPolicyName  The content key policy name.
      * @param stopEndpoint          Stop endpoint if true, otherwise keep endpoint running.
      * @param streamingEndpointName The endpoint name.
+     * @param ledger                The job ledger, told about every job, asset and locator deleted.
+     * @param runName               The run owning them.
+     * @throws IOException If a deletion can't be recorded in the job ledger.
      */
     public static void cleanup(MediaServicesManager manager, String resourceGroup, String accountName,
                                String transformName,
                                String jobName,
                                String assetName, String locatorName, String contentKeyPolicyName, boolean stopEndpoint,
-                               String streamingEndpointName) {
+                               String streamingEndpointName, JobLedger ledger, String runName) throws IOException {
         if (manager == null) {
             return;
         }
 
         manager.jobs().delete(resourceGroup, accountName, transformName, jobName);
+        ledger.record(JobLedger.Kind.JOB, jobName, runName, JobLedger.DELETED);
         manager.assets().delete(resourceGroup, accountName, assetName);
+        ledger.record(JobLedger.Kind.ASSET, assetName, runName, JobLedger.DELETED);
 
         manager.streamingLocators().delete(resourceGroup, accountName, locatorName);
+        ledger.record(JobLedger.Kind.LOCATOR, locatorName, runName, JobLedger.DELETED);
         manager.contentKeyPolicies().delete(resourceGroup, accountName, contentKeyPolicyName);
 
         if (stopEndpoint) {
@@ -0,0 +1,45 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+/**
+ * Controls how often {@link MediaServicesEventProcessor} records its position
+ * in each Event Hub partition. A checkpoint is written after a number of events
+ * or after an interval, whichever comes first, so a restarted processor resumes
+ * close to where it stopped without a blob write for every event.
+ */
+public final class CheckpointPolicy {
+    /**
+     * Checkpoint every 100 events or every 10 seconds per partition.
+     */
+    public static final CheckpointPolicy DEFAULT = new CheckpointPolicy(100, 10_000);
+
+    private final int eventCount;
+    private final long intervalMillis;
+
+    /**
+     * @param eventCount     Checkpoint once this many events of a partition were
+     *                       processed since the last checkpoint.
+     * @param intervalMillis Checkpoint once the oldest unrecorded event of a
+     *                       partition is this old, in milliseconds.
+     */
+    public CheckpointPolicy(int eventCount, long intervalMillis) {
+        if (eventCount < 1) {
+            throw new IllegalArgumentException("eventCount must be at least 1");
+        }
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("intervalMillis must be at least 1");
+        }
+        this.eventCount = eventCount;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+}
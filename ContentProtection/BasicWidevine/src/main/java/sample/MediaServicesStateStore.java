@@ -0,0 +1,451 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import sample.MediaServicesEvent.DataField;
+
+/**
+ * The latest known state of every job, job output and live event seen in the
+ * event stream, so the current state is a map lookup instead of an ARM GET.
+ *
+ * Each entity maps to one small immutable EntityState that is replaced on
+ * every change. An event older than the state already held, by event time, is
+ * ignored, since Event Grid does not guarantee delivery order.
+ *
+ * The store can be written to and read back from a local snapshot file, so a
+ * restarted process knows the states from before. The processor reads the
+ * snapshot of its event source when it starts and writes it when it stops.
+ * Reading after events were applied is fine too, as the newer of two states
+ * wins either way.
+ *
+ * Jobs are keyed by transform and name, as job names are only unique within
+ * their transform. So the store does not grow with everything a shared Event
+ * Hub carries, a job or output is forgotten 10 minutes after its final state
+ * was stored, and any entry not updated for a day is forgotten too.
+ *
+ * The store only knows what the events said. It can lag behind Media Services
+ * and misses whatever happened while no consumer was running, so a GET is
+ * still the way to reconcile.
+ */
+public class MediaServicesStateStore {
+    private static final String SNAPSHOT_HEADER = "# Media Services state snapshot v2";
+    private static final String SNAPSHOT_HEADER_V1 = "# Media Services state snapshot v1";
+    private static final long DEFAULT_FINAL_STATE_TTL_MILLIS = 10 * 60 * 1000;
+    private static final long DEFAULT_IDLE_TTL_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long SWEEP_INTERVAL_MILLIS = 60 * 1000;
+    private static final String[] SNAPSHOT_KEYS = {"file"};
+
+    public enum Kind {
+        JOB, JOB_OUTPUT, LIVE_EVENT
+    }
+
+    private final ConcurrentHashMap<String, EntityState> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EntityState> jobOutputs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EntityState> liveEvents = new ConcurrentHashMap<>();
+    private final long finalStateTtlMillis;
+    private final long idleTtlMillis;
+    private final AtomicLong nextSweepMillis = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    /**
+     * Create a store that forgets final states after 10 minutes, and other
+     * states not updated for a day.
+     */
+    public MediaServicesStateStore() {
+        this(DEFAULT_FINAL_STATE_TTL_MILLIS, DEFAULT_IDLE_TTL_MILLIS);
+    }
+
+    /**
+     * @param finalStateTtlMillis How long to keep a job or job output after its
+     *                            Finished, Canceled or Error state was stored.
+     * @param idleTtlMillis       How long to keep any other state that is not
+     *                            updated.
+     */
+    public MediaServicesStateStore(long finalStateTtlMillis, long idleTtlMillis) {
+        this.finalStateTtlMillis = finalStateTtlMillis;
+        this.idleTtlMillis = idleTtlMillis;
+    }
+
+    /**
+     * Apply an event. Events that carry no job, output or live event state are
+     * ignored.
+     *
+     * @param event The decoded event.
+     */
+    public void apply(MediaServicesEvent event) {
+        String name = event.entityName();
+        if (name == null) {
+            return;
+        }
+        sweepIfDue();
+        String transform = transformOf(event.subject());
+
+        switch (event.type()) {
+            case JOB_STATE_CHANGE:
+            case JOB_SCHEDULED:
+            case JOB_PROCESSING:
+            case JOB_CANCELING:
+            case JOB_FINISHED:
+            case JOB_CANCELED:
+            case JOB_ERRORED:
+                put(jobs, jobKey(transform, name), new EntityState(Kind.JOB, transform, name, null,
+                        event.get(DataField.STATE), -1, event.eventTimeMillis()));
+                break;
+
+            case JOB_OUTPUT_STATE_CHANGE:
+            case JOB_OUTPUT_SCHEDULED:
+            case JOB_OUTPUT_PROCESSING:
+            case JOB_OUTPUT_CANCELING:
+            case JOB_OUTPUT_FINISHED:
+            case JOB_OUTPUT_CANCELED:
+            case JOB_OUTPUT_ERRORED: {
+                String label = labelOf(event.get(DataField.OUTPUT_LABEL));
+                put(jobOutputs, outputKey(transform, name, label), new EntityState(Kind.JOB_OUTPUT, transform,
+                        name, label, event.get(DataField.OUTPUT_STATE),
+                        parseProgress(event.get(DataField.OUTPUT_PROGRESS)), event.eventTimeMillis()));
+                break;
+            }
+
+            case JOB_OUTPUT_PROGRESS: {
+                // Progress events carry no state; keep the one already known.
+                String label = labelOf(event.get(DataField.LABEL));
+                String key = outputKey(transform, name, label);
+                EntityState current = jobOutputs.get(key);
+                put(jobOutputs, key, new EntityState(Kind.JOB_OUTPUT, transform, name, label,
+                        current == null ? "Processing" : current.state, parseProgress(event.get(DataField.PROGRESS)),
+                        event.eventTimeMillis()));
+                break;
+            }
+
+            case LIVE_EVENT_ENCODER_CONNECTED:
+                putLiveEvent(name, "EncoderConnected", event);
+                break;
+
+            case LIVE_EVENT_ENCODER_DISCONNECTED:
+                putLiveEvent(name, "EncoderDisconnected", event);
+                break;
+
+            case LIVE_EVENT_CONNECTION_REJECTED:
+                putLiveEvent(name, "ConnectionRejected", event);
+                break;
+
+            case LIVE_EVENT_INCOMING_STREAM_RECEIVED:
+                putLiveEvent(name, "StreamReceived", event);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param transformName The name of the transform of the job.
+     * @param jobName       The job name.
+     * @return The latest known state of the job, or null if none is known.
+     */
+    public EntityState getJob(String transformName, String jobName) {
+        return jobs.get(jobKey(MediaServicesEventDecoder.normalizeName(transformName),
+                MediaServicesEventDecoder.normalizeName(jobName)));
+    }
+
+    /**
+     * @param transformName The name of the transform of the job.
+     * @param jobName       The job name.
+     * @param label         The output label, or null for an output without one.
+     * @return The latest known state of the job output, or null if none is known.
+     */
+    public EntityState getJobOutput(String transformName, String jobName, String label) {
+        return jobOutputs.get(outputKey(MediaServicesEventDecoder.normalizeName(transformName),
+                MediaServicesEventDecoder.normalizeName(jobName), labelOf(label)));
+    }
+
+    /**
+     * @param liveEventName The live event name.
+     * @return The latest known encoder connection state of the live event, or
+     *         null if none is known.
+     */
+    public EntityState getLiveEvent(String liveEventName) {
+        return liveEvents.get(MediaServicesEventDecoder.normalizeName(liveEventName));
+    }
+
+    /**
+     * @return The number of entities with a known state.
+     */
+    public int size() {
+        return jobs.size() + jobOutputs.size() + liveEvents.size();
+    }
+
+    /**
+     * @return The number of states forgotten because they expired.
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Forget the states that expired. Runs at most once a minute, on the thread
+     * that applies an event.
+     */
+    private void sweepIfDue() {
+        long now = System.currentTimeMillis();
+        long next = nextSweepMillis.get();
+        if (now < next || !nextSweepMillis.compareAndSet(next, now + SWEEP_INTERVAL_MILLIS)) {
+            return;
+        }
+        sweep(jobs, now);
+        sweep(jobOutputs, now);
+        sweep(liveEvents, now);
+    }
+
+    private void sweep(ConcurrentHashMap<String, EntityState> states, long now) {
+        Iterator<EntityState> iterator = states.values().iterator();
+        while (iterator.hasNext()) {
+            EntityState state = iterator.next();
+            long ttl = state.isFinal() ? finalStateTtlMillis : idleTtlMillis;
+            if (now - state.storedMillis > ttl) {
+                iterator.remove();
+                evictedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Write every known state to a file, replacing it atomically.
+     *
+     * @param file The snapshot file.
+     * @throws IOException If writing fails.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        Path temp = Paths.get(file.toString() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(SNAPSHOT_HEADER);
+            writer.newLine();
+            writeStates(writer, jobs);
+            writeStates(writer, jobOutputs);
+            writeStates(writer, liveEvents);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Merge the states of a snapshot file into the store. A state from the file
+     * replaces a known one only if it is newer. A v1 snapshot, which doesn't
+     * tell the transform of its jobs, is skipped.
+     *
+     * @param file The snapshot file.
+     * @return The number of states read.
+     * @throws IOException If the file can't be read or is not a snapshot.
+     */
+    public int readSnapshot(Path file) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (SNAPSHOT_HEADER_V1.equals(header)) {
+                EventLog.shared().log(EventLog.Level.WARN, "Skipping a state snapshot written by an older"
+                        + " version, without the transforms of its jobs", SNAPSHOT_KEYS, file);
+                return 0;
+            }
+            if (!SNAPSHOT_HEADER.equals(header)) {
+                throw new IOException("Not a state snapshot: " + file);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 7) {
+                    throw new IOException("Malformed state snapshot line: " + line);
+                }
+                EntityState state;
+                try {
+                    Kind kind = Kind.valueOf(fields[0]);
+                    state = new EntityState(kind, kind == Kind.LIVE_EVENT ? null : fields[1], fields[2],
+                            unfield(fields[3]), unfield(fields[4]), Integer.parseInt(fields[5]),
+                            Long.parseLong(fields[6]));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed state snapshot line: " + line, e);
+                }
+                switch (state.kind) {
+                    case JOB:
+                        put(jobs, jobKey(state.transform, state.name), state);
+                        break;
+                    case JOB_OUTPUT:
+                        put(jobOutputs, outputKey(state.transform, state.name, state.output), state);
+                        break;
+                    default:
+                        put(liveEvents, state.name, state);
+                        break;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeStates(BufferedWriter writer, Map<String, EntityState> states) throws IOException {
+        for (EntityState state : states.values()) {
+            writer.write(state.kind.name() + '\t' + field(state.transform) + '\t' + state.name + '\t'
+                    + field(state.output) + '\t' + field(state.state) + '\t' + state.progress + '\t'
+                    + state.eventTimeMillis);
+            writer.newLine();
+        }
+    }
+
+    private void putLiveEvent(String name, String state, MediaServicesEvent event) {
+        put(liveEvents, name, new EntityState(Kind.LIVE_EVENT, null, name, null, state, -1,
+                event.eventTimeMillis()));
+    }
+
+    /**
+     * Store a state unless the one held is newer.
+     */
+    private static void put(ConcurrentHashMap<String, EntityState> states, String key, EntityState state) {
+        states.merge(key, state, (current, update) ->
+                update.eventTimeMillis >= 0 && update.eventTimeMillis < current.eventTimeMillis ? current : update);
+    }
+
+    private static String jobKey(String transform, String jobName) {
+        return transform + '/' + jobName;
+    }
+
+    private static String outputKey(String transform, String jobName, String label) {
+        return transform + '/' + jobName + '/' + label;
+    }
+
+    /**
+     * @return The normalized transform name in a job subject, e.g. "MyTransform"
+     *         in "transforms/MyTransform/jobs/job-1", or empty if there is none.
+     */
+    static String transformOf(String subject) {
+        int start = subject == null ? -1 : subject.indexOf("transforms/");
+        if (start < 0) {
+            return "";
+        }
+        start += "transforms/".length();
+        int end = subject.indexOf('/', start);
+        return MediaServicesEventDecoder.normalizeName(subject.substring(start, end < 0 ? subject.length() : end));
+    }
+
+    private static String labelOf(String label) {
+        return label == null ? "" : label;
+    }
+
+    private static int parseProgress(String progress) {
+        if (progress == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(progress);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String field(String value) {
+        // Names and states never hold tabs or line breaks; an output label
+        // could, so they are replaced rather than breaking the file.
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String unfield(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * The latest known state of one entity.
+     */
+    public static final class EntityState {
+        private final Kind kind;
+        private final String transform;
+        private final String name;
+        private final String output;
+        private final String state;
+        private final int progress;
+        private final long eventTimeMillis;
+        private final long storedMillis = System.currentTimeMillis();
+
+        EntityState(Kind kind, String transform, String name, String output, String state, int progress,
+                    long eventTimeMillis) {
+            this.kind = kind;
+            this.transform = transform;
+            this.name = name;
+            this.output = output;
+            this.state = state;
+            this.progress = progress;
+            this.eventTimeMillis = eventTimeMillis;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return The normalized transform name of a job or job output; null for
+         *         live events.
+         */
+        public String getTransform() {
+            return transform;
+        }
+
+        /**
+         * @return The normalized job or live event name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The output label of a job output, empty if it has none; null
+         *         for jobs and live events.
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        /**
+         * @return The job or output state, e.g. "Processing", or the encoder
+         *         connection state of a live event, e.g. "EncoderConnected".
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * @return The progress of a job output in percent, or -1 if unknown.
+         */
+        public int getProgress() {
+            return progress;
+        }
+
+        /**
+         * @return The event time of the event the state came from, in epoch
+         *         milliseconds, or -1 if unknown.
+         */
+        public long getEventTimeMillis() {
+            return eventTimeMillis;
+        }
+
+        boolean isFinal() {
+            return kind != Kind.LIVE_EVENT
+                    && ("Finished".equals(state) || "Canceled".equals(state) || "Error".equals(state));
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + (transform == null ? "" : transform + "/") + name
+                    + (output == null ? "" : "/" + output) + ": " + state
+                    + (progress < 0 ? "" : " " + progress + "%");
+        }
+    }
+}
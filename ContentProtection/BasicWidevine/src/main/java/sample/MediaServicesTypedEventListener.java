@@ -0,0 +1,72 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import sample.MediaServicesTypedEvent.DataChunkDropped;
+import sample.MediaServicesTypedEvent.EncoderConnection;
+import sample.MediaServicesTypedEvent.IncomingStreamReceived;
+import sample.MediaServicesTypedEvent.IngestHeartbeat;
+import sample.MediaServicesTypedEvent.JobOutputProgress;
+import sample.MediaServicesTypedEvent.JobOutputStateChanged;
+import sample.MediaServicesTypedEvent.JobStateChanged;
+import sample.MediaServicesTypedEvent.StreamsOutOfSync;
+import sample.MediaServicesTypedEvent.TrackDiscontinuity;
+
+/**
+ * A MediaServicesEventListener with one callback per kind of event, each
+ * receiving the typed event. Override the ones of interest; the others do
+ * nothing. It registers like any listener, e.g.
+ * processor.registerJob(jobName, new MediaServicesTypedEventListener() {...}).
+ *
+ * Each event is converted once on the dispatch lane of its job or live event,
+ * and the immutable typed event is shared by all its listeners; a callback
+ * sees the events of one entity in order.
+ */
+public interface MediaServicesTypedEventListener extends MediaServicesEventListener {
+
+    default void onJobStateChanged(JobStateChanged event) {
+    }
+
+    default void onJobOutputStateChanged(JobOutputStateChanged event) {
+    }
+
+    default void onJobOutputProgress(JobOutputProgress event) {
+    }
+
+    default void onEncoderConnection(EncoderConnection event) {
+    }
+
+    default void onIncomingStreamReceived(IncomingStreamReceived event) {
+    }
+
+    default void onDataChunkDropped(DataChunkDropped event) {
+    }
+
+    default void onStreamsOutOfSync(StreamsOutOfSync event) {
+    }
+
+    default void onIngestHeartbeat(IngestHeartbeat event) {
+    }
+
+    default void onTrackDiscontinuity(TrackDiscontinuity event) {
+    }
+
+    /**
+     * Called for events of types the samples don't handle.
+     *
+     * @param event The decoded event.
+     */
+    default void onUnknownEvent(MediaServicesEvent event) {
+    }
+
+    @Override
+    default void onEvent(MediaServicesEvent event) {
+        MediaServicesTypedEvent typed = event.typed();
+        if (typed == null) {
+            onUnknownEvent(event);
+        } else {
+            typed.dispatchTo(this);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Structured, asynchronous log for the event processing path.
+ *
+ * A record is a message plus key/value pairs, written as
+ * "message key=value key=value". Callers only check the level and queue the
+ * record, unformatted, on a lock-free queue; a background thread formats it and
+ * hands it to slf4j (log4j, configured in log4j.properties). Callers never wait
+ * for the console or a log file. When the writer falls behind by more than the
+ * queue capacity, records are dropped and counted rather than blocking event
+ * handling.
+ *
+ * The event processing classes share one log, {@link #shared()}, so a warning
+ * from a partition thread or a dispatch lane doesn't wait for the console
+ * either.
+ */
+public class EventLog {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    // How long the writer sleeps when the queue is empty, unless woken earlier.
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // The shared log writes to this logger, configured in log4j.properties.
+    private static final String SHARED_LOGGER_NAME = "sample.events";
+    private static final int SHARED_CAPACITY = 65536;
+
+    private final Logger logger;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean writerIdle;
+    private volatile boolean closed;
+
+    /**
+     * @param loggerName The slf4j logger the records are written to.
+     * @param capacity   The number of records that may wait for the writer.
+     */
+    public EventLog(String loggerName, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.logger = LoggerFactory.getLogger(loggerName);
+        this.capacity = capacity;
+        this.writer = new Thread(this::write, "event-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return The log of the event processing classes, on the logger
+     *         "sample.events". It is never closed; {@link #flush(long, TimeUnit)}
+     *         it before the process exits.
+     */
+    public static EventLog shared() {
+        return Shared.LOG;
+    }
+
+    /**
+     * @param level The level.
+     * @return true if records of the level are written. Check this before
+     *         collecting values that are costly to get.
+     */
+    public boolean isEnabled(Level level) {
+        switch (level) {
+            case DEBUG:
+                return logger.isDebugEnabled();
+            case INFO:
+                return logger.isInfoEnabled();
+            case WARN:
+                return logger.isWarnEnabled();
+            default:
+                return logger.isErrorEnabled();
+        }
+    }
+
+    /**
+     * Queue a record if its level is enabled.
+     *
+     * @param level   The level.
+     * @param message The message, without values.
+     * @param keys    The keys, usually a constant array per call site.
+     * @param values  One value per key; null values are written as "null".
+     */
+    public void log(Level level, String message, String[] keys, Object... values) {
+        if (closed || !isEnabled(level)) {
+            return;
+        }
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new Record(level, message, keys, values));
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * @return The number of records dropped because the writer fell behind.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Wait until the records queued so far are written.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return false if records were still queued when the time ran out.
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (queued.get() > 0 && writer.isAlive()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return queued.get() == 0;
+    }
+
+    /**
+     * Write the queued records and stop the writer.
+     *
+     * @param timeout The maximum time to wait for the queue to drain.
+     * @param unit    The unit of the timeout.
+     */
+    public void close(long timeout, TimeUnit unit) {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(Math.max(1, unit.toMillis(timeout)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            Record record = queue.poll();
+            if (record == null) {
+                if (closed) {
+                    return;
+                }
+                writerIdle = true;
+                // Check again so a record queued just before the flag was set is not
+                // left waiting for the full park.
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerIdle = false;
+                continue;
+            }
+            line.setLength(0);
+            record.format(line);
+            try {
+                switch (record.level) {
+                    case DEBUG:
+                        logger.debug(line.toString());
+                        break;
+                    case INFO:
+                        logger.info(line.toString());
+                        break;
+                    case WARN:
+                        logger.warn(line.toString());
+                        break;
+                    default:
+                        logger.error(line.toString());
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // A failing appender must not stop the writer.
+                dropped.incrementAndGet();
+            }
+            // Only now, so flush() also waits for the record being written.
+            queued.decrementAndGet();
+        }
+    }
+
+    private static final class Shared {
+        private static final EventLog LOG = new EventLog(SHARED_LOGGER_NAME, SHARED_CAPACITY);
+    }
+
+    private static final class Record {
+        private final Level level;
+        private final String message;
+        private final String[] keys;
+        private final Object[] values;
+
+        Record(Level level, String message, String[] keys, Object[] values) {
+            this.level = level;
+            this.message = message;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        void format(StringBuilder line) {
+            line.append(message);
+            int count = Math.min(keys.length, values.length);
+            for (int i = 0; i < count; i++) {
+                line.append(' ').append(keys[i]).append('=');
+                appendValue(line, values[i]);
+            }
+        }
+
+        /**
+         * Values with spaces, quotes or equals signs are quoted so lines stay
+         * parseable as key=value pairs.
+         */
+        private static void appendValue(StringBuilder line, Object value) {
+            String text = String.valueOf(value);
+            boolean quote = text.isEmpty();
+            for (int i = 0; i < text.length() && !quote; i++) {
+                char c = text.charAt(i);
+                quote = c == ' ' || c == '"' || c == '=';
+            }
+            if (!quote) {
+                line.append(text);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\');
+                }
+                line.append(c);
+            }
+            line.append('"');
+        }
+    }
+}
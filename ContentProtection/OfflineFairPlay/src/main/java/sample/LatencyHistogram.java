@@ -0,0 +1,131 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+/**
+ * A histogram of durations in milliseconds with logarithmic buckets: exact up
+ * to 16 ms, then eight buckets per doubling, so a percentile is off by at most
+ * 12.5%. It covers zero to about 35 years in 304 counters, whatever the number
+ * of values recorded.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Doublings from 16 ms up to 2^40 ms.
+    private static final int OCTAVES = 36;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + OCTAVES * SUB_BUCKETS;
+    private static final long MAX_VALUE = bucketLowerBound(BUCKET_COUNT) - 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Record a duration. Negative durations, caused by clock skew between Media
+     * Services and this machine, are recorded as zero.
+     *
+     * @param millis The duration in milliseconds.
+     */
+    public synchronized void record(long millis) {
+        long value = Math.min(Math.max(millis, 0), MAX_VALUE);
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * @return A copy of the current counts.
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(counts.clone(), count, sum, count == 0 ? 0 : min, max);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (msb - 4) * SUB_BUCKETS + sub;
+    }
+
+    private static long bucketLowerBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int msb = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (1L << msb) + ((long) sub << (msb - SUB_BUCKET_BITS));
+    }
+
+    /**
+     * The counts of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMinMillis() {
+            return min;
+        }
+
+        public long getMaxMillis() {
+            return max;
+        }
+
+        public long getMeanMillis() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @param percentile The percentile, from 0 to 100.
+         * @return The duration in milliseconds below which the given percentage of
+         *         values fall, or 0 if nothing was recorded.
+         */
+        public long getPercentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    // Report the middle of the bucket, within the recorded range.
+                    long lower = bucketLowerBound(bucket);
+                    long upper = bucketLowerBound(bucket + 1) - 1;
+                    return Math.min(Math.max(lower + (upper - lower) / 2, min), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count " + count + ", mean " + getMeanMillis() + " ms, p50 " + getPercentileMillis(50)
+                    + " ms, p90 " + getPercentileMillis(90) + " ms, p99 " + getPercentileMillis(99)
+                    + " ms, max " + max + " ms";
+        }
+    }
+}
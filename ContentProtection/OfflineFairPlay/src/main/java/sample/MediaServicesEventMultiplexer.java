@@ -0,0 +1,195 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.messaging.eventhubs.models.EventPosition;
+import com.azure.storage.blob.BlobContainerAsyncClient;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Shares one MediaServicesEventProcessor, and so one Event Hub consumer, among
+ * all the workflows of a process that watch the same Event Hub, instead of each
+ * running its own consumer that competes with the others for the partitions.
+ *
+ * Workflows subscribe to the job or live event notifications they need. The
+ * processor is started by the first subscription and stopped when the last one
+ * is closed; a later subscription starts a new one. A subscription opened
+ * while the last processor still stops waits until it stopped, as the new
+ * processor takes over its checkpoints, state snapshot and dead letters.
+ */
+public class MediaServicesEventMultiplexer {
+    // The multiplexer of each Event Hub, by connection string and hub name.
+    private static final ConcurrentHashMap<String, MediaServicesEventMultiplexer> EVENT_HUBS =
+            new ConcurrentHashMap<>();
+
+    private Supplier<MediaServicesEventProcessor> processorFactory;
+    private MediaServicesEventProcessor processor;
+    private int subscriptionCount;
+    // Completed once the last processor stopped.
+    private CompletableFuture<Void> stopped = CompletableFuture.completedFuture(null);
+
+    /**
+     * Create a multiplexer of its own, e.g. over an InMemoryEventSource. Use
+     * forEventHub() to share one per Event Hub across the process.
+     *
+     * @param processorFactory Creates and starts a processor when the first
+     *                         subscription opens.
+     */
+    public MediaServicesEventMultiplexer(Supplier<MediaServicesEventProcessor> processorFactory) {
+        this.processorFactory = processorFactory;
+    }
+
+    /**
+     * Get the multiplexer of an Event Hub, shared by the whole process.
+     *
+     * @param eventHubConnectionString The Event Hub connection string.
+     * @param eventHubName             The Event Hub name.
+     * @param container                The blob container for checkpoints and
+     *                                 partition ownership.
+     * @param startPositions           The position to start each partition
+     *                                 without a checkpoint at, or null for the
+     *                                 latest event.
+     *                                 Only used when the processor is not
+     *                                 running yet; a running one keeps its
+     *                                 position.
+     * @return The multiplexer.
+     */
+    public static MediaServicesEventMultiplexer forEventHub(String eventHubConnectionString, String eventHubName,
+                                                            BlobContainerAsyncClient container,
+                                                            Function<String, EventPosition> startPositions) {
+        Supplier<MediaServicesEventProcessor> factory = () -> startPositions == null
+                ? new MediaServicesEventProcessor(eventHubConnectionString, eventHubName, container)
+                : new MediaServicesEventProcessor(eventHubConnectionString, eventHubName, container, startPositions);
+        MediaServicesEventMultiplexer multiplexer = EVENT_HUBS.computeIfAbsent(
+                eventHubConnectionString + '\n' + eventHubName, key -> new MediaServicesEventMultiplexer(factory));
+        synchronized (multiplexer) {
+            // A running processor keeps the position and container it was started with.
+            if (multiplexer.processor == null) {
+                multiplexer.processorFactory = factory;
+            }
+        }
+        return multiplexer;
+    }
+
+    /**
+     * Subscribe to the events of a job and its outputs. The processor prints
+     * them; register listeners on getProcessor() of the subscription, e.g.
+     * through waitForJob or a HybridJobTracker, to act on them.
+     *
+     * @param jobName The name of the job.
+     * @return The subscription. Close it when done.
+     */
+    public Subscription subscribeJob(String jobName) {
+        return subscribe(jobName, false);
+    }
+
+    /**
+     * Subscribe to the events of a live event: encoder connections, incoming
+     * streams, ingest heartbeats and the like. The processor prints them and
+     * keeps the ingest health of the live event.
+     *
+     * @param liveEventName The name of the live event.
+     * @return The subscription. Close it when done.
+     */
+    public Subscription subscribeLiveEvent(String liveEventName) {
+        return subscribe(liveEventName, true);
+    }
+
+    /**
+     * @return The number of open subscriptions.
+     */
+    public synchronized int getSubscriptionCount() {
+        return subscriptionCount;
+    }
+
+    private synchronized Subscription subscribe(String name, boolean liveEvent) {
+        if (processor == null) {
+            // The last processor writes its state snapshot and releases its dead
+            // letters when it stops, so the new one must not start before.
+            stopped.join();
+            processor = processorFactory.get();
+        }
+        if (liveEvent) {
+            processor.registerLiveEvent(name, null);
+        } else {
+            processor.registerJob(name, null);
+        }
+        subscriptionCount++;
+        return new Subscription(processor, name, liveEvent);
+    }
+
+    /**
+     * @return The processor to stop if this was the last subscription, or null.
+     */
+    private MediaServicesEventProcessor release(Subscription subscription) {
+        if (subscription.liveEvent) {
+            subscription.processor.unregisterLiveEvent(subscription.name, null);
+        } else {
+            subscription.processor.unregisterJob(subscription.name, null);
+        }
+        subscriptionCount--;
+        if (subscriptionCount > 0) {
+            return null;
+        }
+        MediaServicesEventProcessor stopping = processor;
+        processor = null;
+        stopped = new CompletableFuture<>();
+        return stopping;
+    }
+
+    /**
+     * An open subscription. Closing it from a listener would deadlock when it is
+     * the last one, as stopping the processor waits for the listeners; so would
+     * subscribing from a listener of a processor that stops.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final MediaServicesEventProcessor processor;
+        private final String name;
+        private final boolean liveEvent;
+        private boolean closed;
+
+        private Subscription(MediaServicesEventProcessor processor, String name, boolean liveEvent) {
+            this.processor = processor;
+            this.name = name;
+            this.liveEvent = liveEvent;
+        }
+
+        /**
+         * @return The shared processor, for waiting on jobs and for statistics.
+         *         It stays readable after it stopped.
+         */
+        public MediaServicesEventProcessor getProcessor() {
+            return processor;
+        }
+
+        /**
+         * Unsubscribe, and stop the processor if this was the last subscription.
+         */
+        @Override
+        public void close() {
+            MediaServicesEventProcessor stopping;
+            CompletableFuture<Void> done;
+            synchronized (MediaServicesEventMultiplexer.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                stopping = release(this);
+                done = stopped;
+            }
+            // Stopping drains the lanes and writes the checkpoints, which can
+            // take a while, so it runs outside the lock.
+            if (stopping != null) {
+                try {
+                    stopping.stop();
+                } finally {
+                    done.complete(null);
+                }
+            }
+        }
+    }
+}
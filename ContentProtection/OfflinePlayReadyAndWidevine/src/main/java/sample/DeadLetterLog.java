@@ -0,0 +1,428 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the Event Hub events that failed to process, so they can be looked at
+ * and re-driven instead of being lost.
+ *
+ * Each failed event is appended, with its partition, offset, time and error,
+ * to the current segment file of a directory. A record is assembled in a
+ * reused buffer and written to the file channel in one call. Records are not
+ * batched on purpose: failed events are rare, and each one is then in the file
+ * as soon as append returns. The file is not forced to disk, so a power loss
+ * may drop the last records, but a crashed process does not. When a segment is
+ * full the next one is started, and the
+ * oldest segments are deleted so the directory never holds more than the
+ * configured number, except for segments being re-driven, which are only
+ * deleted once re-driven. An event that can't be written, e.g. because the
+ * disk is full, is counted and dropped; the caller is never failed or held up
+ * by it.
+ *
+ * A lock file keeps a second log, in this process or another, from using the
+ * same directory: its events are dropped and a re-drive fails until this log
+ * is closed.
+ *
+ * Segment files are named deadletter-NNNNNNNNNN.seg and hold records of:
+ * magic (int), record length (int), failure time (long, epoch milliseconds),
+ * offset (long), partition id, error (length-prefixed UTF-8) and body
+ * (length-prefixed bytes).
+ */
+public class DeadLetterLog {
+    private static final String SEGMENT_PREFIX = "deadletter-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_MAGIC = 0x444C5452;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_ERROR_LENGTH = 1024;
+    private static final String LOCK_FILE = "deadletter.lock";
+    private static final String[] DIRECTORY_KEYS = {"directory"};
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int segmentCount;
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private FileChannel segment;
+    private long segmentSize;
+    private long segmentIndex = -1;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private boolean lockWarned;
+    // Segments up to this index are being re-driven and are not rotated away.
+    private long redrivingThroughIndex = -1;
+    private boolean redriving;
+
+    /**
+     * @param directory    The directory of the segment files. It is created on
+     *                     the first failed event.
+     * @param segmentBytes The size at which a segment is closed and the next one
+     *                     started; larger events are dropped.
+     * @param segmentCount The number of segments kept.
+     */
+    public DeadLetterLog(Path directory, long segmentBytes, int segmentCount) {
+        if (segmentBytes < 1024) {
+            throw new IllegalArgumentException("segmentBytes must be at least 1024");
+        }
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be at least 1");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * Append a failed event.
+     *
+     * @param partitionId The partition it was received from.
+     * @param offset      Its offset in the partition, or -1 if unknown.
+     * @param body        Its body.
+     * @param error       Why it failed.
+     * @return false if it was dropped instead.
+     */
+    public synchronized boolean append(String partitionId, long offset, byte[] body, String error) {
+        byte[] partition = partitionId.getBytes(StandardCharsets.UTF_8);
+        byte[] message = (error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error)
+                .getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 4 + partition.length + 4 + message.length + 4 + body.length;
+        if (RECORD_HEADER_BYTES + length > segmentBytes) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+
+        if (buffer.capacity() < RECORD_HEADER_BYTES + length) {
+            buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        }
+        buffer.clear();
+        buffer.putInt(RECORD_MAGIC).putInt(length).putLong(System.currentTimeMillis()).putLong(offset)
+                .putInt(partition.length).put(partition)
+                .putInt(message.length).put(message)
+                .putInt(body.length).put(body);
+        buffer.flip();
+
+        try {
+            if (segment == null || segmentSize + buffer.remaining() > segmentBytes) {
+                if (!lock()) {
+                    if (!lockWarned) {
+                        lockWarned = true;
+                        EventLog.shared().log(EventLog.Level.WARN,
+                                "Dead letter log is in use by another process, failed events are dropped",
+                                DIRECTORY_KEYS, directory);
+                    }
+                    droppedCount.incrementAndGet();
+                    return false;
+                }
+                rotate();
+            }
+            while (buffer.hasRemaining()) {
+                segmentSize += segment.write(buffer);
+            }
+            writtenCount.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            droppedCount.incrementAndGet();
+            closeSegment();
+            return false;
+        }
+    }
+
+    /**
+     * Hand every kept event to a consumer, oldest first, and delete the segments
+     * once all their events were handed over. Events appended meanwhile, e.g.
+     * because the consumer failed them again, go to a new segment and are kept
+     * for the next re-drive. Those appends never rotate away a segment that is
+     * still to be re-driven.
+     *
+     * @param consumer Receives the events.
+     * @return The number of events handed over.
+     * @throws IOException If a segment can't be read, or the directory is in
+     *                     use by another log.
+     */
+    public int redrive(Consumer<DeadLetter> consumer) throws IOException {
+        List<Path> segments;
+        synchronized (this) {
+            if (redriving) {
+                throw new IllegalStateException("A re-drive of " + directory + " is already running");
+            }
+            if (!lock()) {
+                throw new IOException("Dead letter log " + directory + " is in use by another process");
+            }
+            closeSegment();
+            segments = listSegments();
+            redriving = true;
+            redrivingThroughIndex = segments.isEmpty() ? -1 : indexOf(segments.get(segments.size() - 1));
+        }
+
+        int count = 0;
+        try {
+            for (Path path : segments) {
+                List<DeadLetter> letters;
+                try {
+                    letters = readSegment(path);
+                } catch (NoSuchFileException e) {
+                    // Deleted by someone else since it was listed.
+                    continue;
+                }
+                for (DeadLetter letter : letters) {
+                    consumer.accept(letter);
+                    count++;
+                }
+                Files.deleteIfExists(path);
+            }
+        } finally {
+            synchronized (this) {
+                redriving = false;
+                redrivingThroughIndex = -1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of events written since this log was created.
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * @return The number of events that were too large or could not be written.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Close the current segment and release the directory. A later append
+     * starts a new segment.
+     */
+    public synchronized void close() {
+        closeSegment();
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                // The lock goes with the process anyway.
+            }
+            lockChannel = null;
+            lock = null;
+        }
+    }
+
+    /**
+     * Take the lock of the directory, unless it is held already.
+     *
+     * @return false if another log holds it.
+     */
+    private boolean lock() throws IOException {
+        if (lock != null) {
+            return true;
+        }
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another log of this process.
+            acquired = null;
+        }
+        if (acquired == null) {
+            channel.close();
+            return false;
+        }
+        lockChannel = channel;
+        lock = acquired;
+        return true;
+    }
+
+    /**
+     * Start the next segment and delete the oldest ones beyond the count kept,
+     * leaving the segments being re-driven alone.
+     */
+    private void rotate() throws IOException {
+        closeSegment();
+        Files.createDirectories(directory);
+        List<Path> segments = listSegments();
+        if (segmentIndex < 0) {
+            // Continue after the segments of an earlier run.
+            segmentIndex = segments.isEmpty() ? 0 : indexOf(segments.get(segments.size() - 1));
+        }
+        segmentIndex++;
+        List<Path> rotatable = new ArrayList<>();
+        for (Path path : segments) {
+            if (indexOf(path) > redrivingThroughIndex) {
+                rotatable.add(path);
+            }
+        }
+        for (int i = 0; i <= rotatable.size() - segmentCount; i++) {
+            Files.deleteIfExists(rotatable.get(i));
+        }
+        segment = FileChannel.open(directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segmentIndex,
+                SEGMENT_SUFFIX)), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = segment.size();
+    }
+
+    private void closeSegment() {
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                // Nothing was buffered; the written records stay readable.
+            }
+            segment = null;
+        }
+    }
+
+    /**
+     * @return The segment files, oldest first.
+     */
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        // The index is zero-padded, so names sort by index.
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Read the records of a segment. A record cut short by a crash, or with a
+     * field running past its end, ends the segment.
+     */
+    private static List<DeadLetter> readSegment(Path path) throws IOException {
+        List<DeadLetter> letters = new ArrayList<>();
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (data.remaining() >= RECORD_HEADER_BYTES) {
+            if (data.getInt() != RECORD_MAGIC) {
+                throw new IOException("Corrupt dead letter segment " + path + " at byte " + (data.position() - 4));
+            }
+            int length = data.getInt();
+            if (length < 16 || length > data.remaining()) {
+                break;
+            }
+            ByteBuffer record = data.slice();
+            record.limit(length);
+            data.position(data.position() + length);
+
+            long failedMillis = record.getLong();
+            long offset = record.getLong();
+            byte[] partitionId = readBytes(record);
+            byte[] error = partitionId == null ? null : readBytes(record);
+            byte[] body = error == null ? null : readBytes(record);
+            if (body == null) {
+                break;
+            }
+            letters.add(new DeadLetter(new String(partitionId, StandardCharsets.UTF_8), offset, failedMillis,
+                    new String(error, StandardCharsets.UTF_8), body));
+        }
+        return letters;
+    }
+
+    /**
+     * @return The length-prefixed bytes at the position of a record, or null
+     *         if the length runs past its end.
+     */
+    private static byte[] readBytes(ByteBuffer record) {
+        if (record.remaining() < 4) {
+            return null;
+        }
+        int length = record.getInt();
+        if (length < 0 || length > record.remaining()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * An event that failed to process.
+     */
+    public static final class DeadLetter {
+        private final String partitionId;
+        private final long offset;
+        private final long failedMillis;
+        private final String error;
+        private final byte[] body;
+
+        DeadLetter(String partitionId, long offset, long failedMillis, String error, byte[] body) {
+            this.partitionId = partitionId;
+            this.offset = offset;
+            this.failedMillis = failedMillis;
+            this.error = error;
+            this.body = body;
+        }
+
+        /**
+         * @return The partition the event was received from.
+         */
+        public String getPartitionId() {
+            return partitionId;
+        }
+
+        /**
+         * @return The offset of the event in its partition, or -1 if unknown.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return When the event failed, in epoch milliseconds.
+         */
+        public long getFailedMillis() {
+            return failedMillis;
+        }
+
+        /**
+         * @return Why the event failed.
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return The body of the event.
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
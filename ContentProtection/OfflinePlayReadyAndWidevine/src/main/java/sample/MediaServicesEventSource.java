@@ -0,0 +1,92 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where MediaServicesEventProcessor receives its events from. A source delivers
+ * Event Hub style bodies, each holding a JSON array of Event Grid events or a
+ * single event, split into partitions that are delivered independently.
+ *
+ * Implementations: EventHubEventSource for Azure Event Hubs, InMemoryEventSource
+ * for events published by the same process, and FileTailEventSource for events
+ * appended to a local file.
+ */
+public interface MediaServicesEventSource {
+
+    /**
+     * Start delivering events. The events of one partition are delivered one
+     * at a time and in order; different partitions may be delivered at once on
+     * different threads.
+     *
+     * @param handler Receives the events.
+     */
+    void start(Handler handler);
+
+    /**
+     * Stop delivering events. Returns once no handler call is running.
+     */
+    void stop();
+
+    /**
+     * @return A name telling the events of this source apart from those of
+     *         other sources, usable in a file name, to keep the local files of
+     *         their processors, such as dead letters and state snapshots, apart.
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Receives the events of a source.
+     */
+    interface Handler {
+
+        /**
+         * Handle an event. Blocking here holds back the partition of the event.
+         *
+         * @param event The event.
+         */
+        void onEvent(ReceivedEvent event);
+
+        /**
+         * Called when the source stops delivering a partition to this process
+         * while still running, e.g. because another Event Hub consumer claimed it.
+         *
+         * @param partitionId The partition.
+         */
+        void onPartitionLost(String partitionId);
+    }
+
+    /**
+     * An event delivered by a source.
+     */
+    interface ReceivedEvent {
+
+        /**
+         * @return The partition the event was delivered from.
+         */
+        String getPartitionId();
+
+        /**
+         * @return The position of the event in its partition, e.g. the Event Hub
+         *         offset, or -1 if the source has none.
+         */
+        long getOffset();
+
+        /**
+         * @return The UTF-8 encoded body.
+         */
+        byte[] getBody();
+
+        /**
+         * Record this event as the last one processed in its partition, so that
+         * a restarted source resumes after it.
+         *
+         * @return Completes once the checkpoint is stored.
+         */
+        CompletableFuture<Void> checkpoint();
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Media Services event types the samples handle, so handlers switch on an
+ * enum instead of comparing type strings.
+ *
+ * MediaServicesEventDecoder resolves the type of each event straight from the
+ * bytes of the payload through a perfect hash of the name length and two of
+ * its bytes, so a known type costs three byte reads and one comparison of the
+ * name, and the event keeps the constant's name string instead of a copy.
+ * Types not listed here resolve to UNKNOWN and keep their name as a plain
+ * string.
+ */
+public enum MediaServicesEventType {
+    JOB_STATE_CHANGE("Microsoft.Media.JobStateChange", Category.JOB),
+    JOB_SCHEDULED("Microsoft.Media.JobScheduled", Category.JOB),
+    JOB_PROCESSING("Microsoft.Media.JobProcessing", Category.JOB),
+    JOB_CANCELING("Microsoft.Media.JobCanceling", Category.JOB),
+    JOB_FINISHED("Microsoft.Media.JobFinished", Category.JOB),
+    JOB_CANCELED("Microsoft.Media.JobCanceled", Category.JOB),
+    JOB_ERRORED("Microsoft.Media.JobErrored", Category.JOB),
+
+    JOB_OUTPUT_STATE_CHANGE("Microsoft.Media.JobOutputStateChange", Category.JOB_OUTPUT),
+    JOB_OUTPUT_SCHEDULED("Microsoft.Media.JobOutputScheduled", Category.JOB_OUTPUT),
+    JOB_OUTPUT_PROCESSING("Microsoft.Media.JobOutputProcessing", Category.JOB_OUTPUT),
+    JOB_OUTPUT_CANCELING("Microsoft.Media.JobOutputCanceling", Category.JOB_OUTPUT),
+    JOB_OUTPUT_FINISHED("Microsoft.Media.JobOutputFinished", Category.JOB_OUTPUT),
+    JOB_OUTPUT_CANCELED("Microsoft.Media.JobOutputCanceled", Category.JOB_OUTPUT),
+    JOB_OUTPUT_ERRORED("Microsoft.Media.JobOutputErrored", Category.JOB_OUTPUT),
+    JOB_OUTPUT_PROGRESS("Microsoft.Media.JobOutputProgress", Category.JOB_OUTPUT),
+
+    LIVE_EVENT_CONNECTION_REJECTED("Microsoft.Media.LiveEventConnectionRejected", Category.LIVE_EVENT),
+    LIVE_EVENT_ENCODER_CONNECTED("Microsoft.Media.LiveEventEncoderConnected", Category.LIVE_EVENT),
+    LIVE_EVENT_ENCODER_DISCONNECTED("Microsoft.Media.LiveEventEncoderDisconnected", Category.LIVE_EVENT),
+    LIVE_EVENT_INCOMING_DATA_CHUNK_DROPPED("Microsoft.Media.LiveEventIncomingDataChunkDropped",
+            Category.LIVE_EVENT),
+    LIVE_EVENT_INCOMING_STREAM_RECEIVED("Microsoft.Media.LiveEventIncomingStreamReceived", Category.LIVE_EVENT),
+    LIVE_EVENT_INCOMING_STREAMS_OUT_OF_SYNC("Microsoft.Media.LiveEventIncomingStreamsOutOfSync",
+            Category.LIVE_EVENT),
+    LIVE_EVENT_INCOMING_VIDEO_STREAMS_OUT_OF_SYNC("Microsoft.Media.LiveEventIncomingVideoStreamsOutOfSync",
+            Category.LIVE_EVENT),
+    LIVE_EVENT_INGEST_HEARTBEAT("Microsoft.Media.LiveEventIngestHeartbeat", Category.LIVE_EVENT),
+    LIVE_EVENT_TRACK_DISCONTINUITY_DETECTED("Microsoft.Media.LiveEventTrackDiscontinuityDetected",
+            Category.LIVE_EVENT),
+
+    /**
+     * Any other event type, including a missing one.
+     */
+    UNKNOWN(null, Category.OTHER);
+
+    /**
+     * The entity an event type is about.
+     */
+    public enum Category {
+        JOB, JOB_OUTPUT, LIVE_EVENT, OTHER
+    }
+
+    // Indexed by hash(); a new type whose hash collides fails the class
+    // initialization, and then needs other byte positions in hash().
+    private static final int TABLE_SIZE = 64;
+    private static final int MIN_NAME_LENGTH = 18;
+    private static final MediaServicesEventType[] TABLE = new MediaServicesEventType[TABLE_SIZE];
+
+    static {
+        for (MediaServicesEventType type : values()) {
+            if (type.nameBytes == null) {
+                continue;
+            }
+            int slot = hash(type.nameBytes, 0, type.nameBytes.length);
+            if (TABLE[slot] != null) {
+                throw new IllegalStateException(type + " collides with " + TABLE[slot]);
+            }
+            TABLE[slot] = type;
+        }
+    }
+
+    private final String typeName;
+    private final byte[] nameBytes;
+    private final Category category;
+
+    MediaServicesEventType(String typeName, Category category) {
+        this.typeName = typeName;
+        this.nameBytes = typeName == null ? null : typeName.getBytes(StandardCharsets.US_ASCII);
+        this.category = category;
+    }
+
+    /**
+     * @return The Event Grid event type, e.g. "Microsoft.Media.JobFinished", or
+     *         null for UNKNOWN.
+     */
+    public String typeName() {
+        return typeName;
+    }
+
+    /**
+     * @return The entity the event type is about.
+     */
+    public Category category() {
+        return category;
+    }
+
+    /**
+     * @return true for the events that end a job: JobFinished, JobCanceled and
+     *         JobErrored.
+     */
+    public boolean isJobFinal() {
+        return this == JOB_FINISHED || this == JOB_CANCELED || this == JOB_ERRORED;
+    }
+
+    /**
+     * @return true for the events that end a job output: JobOutputFinished,
+     *         JobOutputCanceled and JobOutputErrored. A JobOutputStateChange can
+     *         end it too, depending on its state.
+     */
+    public boolean isJobOutputFinal() {
+        return this == JOB_OUTPUT_FINISHED || this == JOB_OUTPUT_CANCELED || this == JOB_OUTPUT_ERRORED;
+    }
+
+    /**
+     * Look up an event type by name.
+     *
+     * @param typeName The Event Grid event type, may be null.
+     * @return The event type, or UNKNOWN.
+     */
+    public static MediaServicesEventType fromName(String typeName) {
+        if (typeName == null) {
+            return UNKNOWN;
+        }
+        byte[] name = typeName.getBytes(StandardCharsets.UTF_8);
+        return lookup(name, 0, name.length);
+    }
+
+    /**
+     * Look up an event type by the raw bytes of its name, without unescaping.
+     *
+     * @param buf   The buffer holding the name.
+     * @param start The index of the first byte of the name.
+     * @param stop  The index after the last byte of the name.
+     * @return The event type, or UNKNOWN.
+     */
+    static MediaServicesEventType lookup(byte[] buf, int start, int stop) {
+        if (stop - start < MIN_NAME_LENGTH) {
+            return UNKNOWN;
+        }
+        MediaServicesEventType type = TABLE[hash(buf, start, stop)];
+        return type != null && matches(type.nameBytes, buf, start, stop) ? type : UNKNOWN;
+    }
+
+    /**
+     * The name length, the second byte after "Microsoft.Media." and the third
+     * byte from the end tell all the names apart.
+     */
+    private static int hash(byte[] buf, int start, int stop) {
+        return (stop - start + buf[start + 17] + 3 * buf[stop - 3]) & (TABLE_SIZE - 1);
+    }
+
+    private static boolean matches(byte[] name, byte[] buf, int start, int stop) {
+        if (name.length != stop - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,16 +3,17 @@
 
 package sample;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.Callable;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import com.azure.core.management.exception.ManagementException;
 import com.azure.storage.blob.BlobContainerAsyncClient;
@@ -23,6 +24,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import javax.naming.AuthenticationException;
 import com.azure.core.credential.TokenCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
 import com.azure.core.http.policy.HttpLogDetailLevel;
 import com.azure.core.http.policy.HttpLogOptions;
 import com.azure.core.management.profile.AzureProfile;
@@ -32,6 +35,7 @@ import com.azure.identity.ClientSecretCredentialBuilder;
 
 public class OfflinePlayReadyAndWidevine {
     private static final String TRANSFORM_NAME = "MyTransform";
+    private static final String JOB_LEDGER_DIRECTORY = "job-ledger";
     private static final String CONTENT_KEY_POLICY_NAME = "DRMContentKeyPolicy";
     private static final String BASE_URI = "https://nimbuscdn-nimbuspm.streaming.mediaservices.windows.net/2b533311-b215-4409-80af-529c3e853622/";
     private static final String MP4_FILE_NAME = "Ignite-short.mp4";
@@ -69,19 +73,38 @@ public class OfflinePlayReadyAndWidevine {
                 .authenticate(credential, profile);
         // Signed in.
 
+        // Runs are recorded in a local ledger until they are cleaned up. If an earlier
+        // run was interrupted, e.g. because the process died, resume it and re-attach
+        // to its job instead of encoding the same input again.
+        JobLedger ledger;
+        try {
+            ledger = new JobLedger(Paths.get(JOB_LEDGER_DIRECTORY));
+        } catch (IOException e) {
+            System.out.println("Failed to open the job ledger: " + e.getMessage());
+            return;
+        }
+        JobLedger.Entry resumedRun = ledger.getOpenRun(TRANSFORM_NAME);
+
         // Create a unique suffix so that we don't have name collisions if you run the
         // sample multiple times without cleaning up.
-        UUID uuid = UUID.randomUUID();
-        String uniqueness = uuid.toString();
+        String uniqueness = resumedRun != null ? resumedRun.getName() : UUID.randomUUID().toString();
         String jobName = "job-" + uniqueness;
         String outputAssetName = "output-" + uniqueness;
         String locatorName = "locator-" + uniqueness;
         MediaServicesEventProcessor eventProcessorHost = null;
+        MediaServicesEventMultiplexer.Subscription eventSubscription = null;
         boolean stopEndpoint = false;
 
         Scanner scanner = new Scanner(System.in);
 
         try {
+            if (resumedRun == null) {
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.CREATED);
+            } else {
+                System.out.println("Resuming the run interrupted at " + new Date(resumedRun.getUpdatedMillis())
+                        + ": " + ledger.getResources(uniqueness));
+            }
+
             // Ensure that you have the desired encoding Transform. This is really a one
             // time setup operation.
             List<TransformOutput> outputs = new ArrayList<>();
@@ -105,11 +128,33 @@ public class OfflinePlayReadyAndWidevine {
                     .define(outputAssetName)
                     .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
                     .create();
-
-            Job job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
-                    transform.name(), outputAsset.name(), jobName);
+            ledger.record(JobLedger.Kind.ASSET, outputAssetName, uniqueness, JobLedger.CREATED);
+
+            // Events enqueued before the job was submitted can't be about it.
+            Instant jobSubmittedTime;
+            Job job = null;
+            JobLedger.Entry recordedJob = ledger.get(JobLedger.Kind.JOB, jobName);
+            if (recordedJob != null && JobLedger.SUBMITTING.equals(recordedJob.getState())
+                    && !jobExists(manager, config.getResourceGroup(), config.getAccountName(), transform.name(), jobName)) {
+                // Interrupted before the job was created, so submit it again.
+                System.out.println("Job " + jobName + " was never created, submitting it again.");
+                recordedJob = null;
+            }
+            if (recordedJob == null) {
+                jobSubmittedTime = Instant.now();
+                ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, JobLedger.SUBMITTING);
+                job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
+                        transform.name(), outputAsset.name(), jobName);
+                ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, job.state().toString());
+            } else {
+                // Submitted before the interruption, so only wait for it.
+                jobSubmittedTime = Instant.ofEpochMilli(recordedJob.getCreatedMillis());
+                System.out.println("Re-attaching to job " + jobName + ", last recorded as "
+                        + recordedJob.getState() + ".");
+            }
 
             long startedTime = System.currentTimeMillis();
+            JobState jobState;
 
             try {
                 // First we will try to process Job events through Event Hub in real-time. If this fails for any reason,
@@ -122,56 +167,43 @@ public class OfflinePlayReadyAndWidevine {
                         config.getStorageAccountName() +
                         ";AccountKey=" + config.getStorageAccountKey() + ";EndpointSuffix=core.windows.net";
 
-                // Cleanup storage container. We will config Event Hub to use the storage container configured in appsettings.json.
-                // All the blobs in <The container configured in appsettings.json> will be deleted.
+                // Event Hub keeps its checkpoints and partition ownership in the storage
+                // container configured in appsettings.json. A partition resumes after its
+                // checkpoint, or without one starts at the job submission time, less a minute
+                // for clock skew, so the retention window is not replayed.
                 BlobServiceAsyncClient client = new BlobServiceClientBuilder()
                         .connectionString(storageConnectionString)
                         .buildAsyncClient();
                 BlobContainerAsyncClient container = client
                         .getBlobContainerAsyncClient(config.getStorageContainerName());
-                container.listBlobs().subscribe(blobItem -> {
-                    container.getBlobAsyncClient(blobItem.getName()).delete();
-                });
-
-                // Create a new host to process events from an Event Hub.
-                Object monitor = new Object();
-                eventProcessorHost = new MediaServicesEventProcessor(jobName, monitor, null,
-                        config.getEventHubConnectionString(), config.getEventHubName(),
-                        container);
-
-                // Define a task to wait for the job to finish.
-                Callable<String> jobTask = () -> {
-                    synchronized (monitor) {
-                        monitor.wait();
-                    }
-                    return "Job";
-                };
-
-                // Define another task
-                Callable<String> timeoutTask = () -> {
-                    TimeUnit.MINUTES.sleep(30);
-                    return "Timeout";
-                };
-
-                ExecutorService executor = Executors.newFixedThreadPool(2);
-                List<Callable<String>> tasks = Arrays.asList(jobTask, timeoutTask);
-
-                String result = executor.invokeAny(tasks);
-                if (result.equalsIgnoreCase("Job")) {
-                    // Job finished. Shutdown timeout.
-                    executor.shutdownNow();
-                } else {
-                    // Timeout happened. Switch to polling method.
-                    synchronized (monitor) {
-                        monitor.notify();
-                    }
 
-                    throw new Exception("Timeout happened.");
+                // Subscribe through the Event Hub consumer shared by all workflows of this
+                // process. The subscription keeps it running until it is closed.
+                eventSubscription = MediaServicesEventMultiplexer.forEventHub(config.getEventHubConnectionString(),
+                        config.getEventHubName(), container,
+                        EventHubEventSource.enqueuedAfter(jobSubmittedTime.minusSeconds(60)))
+                        .subscribeJob(jobName);
+                eventProcessorHost = eventSubscription.getProcessor();
+
+                // Wait for the job to finish. The future is completed by the final job
+                // event. Should that event get lost, a background sweep reads the jobs not
+                // heard from for two minutes from Media Services instead, so the wait
+                // never stalls until a timeout.
+                HybridJobTracker jobTracker = new HybridJobTracker(eventProcessorHost, manager,
+                        config.getResourceGroup(), config.getAccountName(), transform.name());
+                CompletableFuture<JobState> jobCompletion = jobTracker.waitForJob(jobName);
+                // The final state comes with the event, so the job needn't be fetched again.
+                jobState = jobCompletion.get();
+
+                // Break the elapsed time down into queueing, encoding and event delivery.
+                System.out.println(eventProcessorHost.getJobLatency(jobName));
+
+                Duration firstEvent = eventProcessorHost.getTimeToFirstEvent();
+                if (firstEvent != null) {
+                    System.out.println("First job event received " + firstEvent.toMillis()
+                            + " ms after the event processor started, after "
+                            + eventProcessorHost.getEventsBeforeFirstEvent() + " events of other jobs.");
                 }
-
-                // Get the latest status of the job.
-                job = manager.jobs()
-                        .get(config.getResourceGroup(), config.getAccountName(), transform.name(), jobName);
             } catch (Exception e) {
                 System.out.println(
                         "Warning: Failed to connect to Event Hub, please refer README for Event Hub and storage settings.");
@@ -184,12 +216,14 @@ public class OfflinePlayReadyAndWidevine {
                 System.out.println("Failed to start Event Grid monitoring, will use polling job status instead...");
                 job = waitForJobToFinish(manager, config.getResourceGroup(), config.getAccountName(),
                         transform.name(), jobName);
+                jobState = job.state();
             }
 
             long elapsed = (System.currentTimeMillis() - startedTime) / 1000; // Elapsed time in seconds
             System.out.println("Job elapsed time: " + elapsed + " second(s).");
+            ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, jobState.toString());
 
-            if (job.state() == JobState.FINISHED) {
+            if (jobState == JobState.FINISHED) {
                 // Create the content key policy that configures how the content key is delivered
                 // to end clients via the Key Delivery component of Azure Media Services.
                 ContentKeyPolicy policy = ensureContentKeyPolicyExists(manager, config.getResourceGroup(),
@@ -201,6 +235,7 @@ public class OfflinePlayReadyAndWidevine {
                         .withStreamingPolicyName(MULTI_DRM_CENC_STREAMING)
                         .withDefaultContentKeyPolicyName(policy.name())
                         .create();
+                ledger.record(JobLedger.Kind.LOCATOR, locatorName, uniqueness, JobLedger.CREATED);
 
                 StreamingEndpoint streamingEndpoint = manager.streamingEndpoints()
                         .get(config.getResourceGroup(), config.getAccountName(), DEFAULT_STREAMING_ENDPOINT_NAME);
@@ -252,15 +287,24 @@ public class OfflinePlayReadyAndWidevine {
                 scanner.close();
             }
 
-            if (eventProcessorHost != null) {
-                eventProcessorHost.stop();
-                eventProcessorHost = null;
+            if (eventSubscription != null) {
+                eventSubscription.close();
+                eventSubscription = null;
             }
 
-            cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME,
-                    jobName,
-                    outputAssetName, locatorName, CONTENT_KEY_POLICY_NAME, stopEndpoint,
-                    DEFAULT_STREAMING_ENDPOINT_NAME);
+            // The ledger drops every resource as it is deleted, and the run once nothing of
+            // it is left, so a failed cleanup leaves the rest to the next run.
+            try {
+                cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME,
+                        jobName,
+                        outputAssetName, locatorName, CONTENT_KEY_POLICY_NAME, stopEndpoint,
+                        DEFAULT_STREAMING_ENDPOINT_NAME, ledger, uniqueness);
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.DELETED);
+            } catch (Exception e) {
+                System.out.println("Cleanup failed, the next run resumes it: " + e);
+            } finally {
+                ledger.close();
+            }
         }
     }
 
@@ -305,7 +349,31 @@ public class OfflinePlayReadyAndWidevine {
     }
 
     /**
-     * Polls Media Services for the status of the Job.
+     * Check whether a job exists, e.g. one whose submission was interrupted.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param jobName       The name of the job.
+     * @return Whether the job exists.
+     */
+    private static boolean jobExists(MediaServicesManager manager, String resourceGroup, String accountName,
+                                     String transformName, String jobName) {
+        try {
+            return manager.jobs().get(resourceGroup, accountName, transformName, jobName) != null;
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Polls Media Services for the status of the Job, at intervals adapted to
+     * its progress and to throttling.
      *
      * @param manager       This is the entry point of Azure Media resource management.
      * @param resourceGroup The name of the resource group within the Azure subscription.
@@ -316,37 +384,7 @@ public class OfflinePlayReadyAndWidevine {
      */
     private static Job waitForJobToFinish(MediaServicesManager manager, String resourceGroup, String accountName,
                                           String transformName, String jobName) {
-        final int SLEEP_INTERVAL = 60 * 1000;
-
-        Job job = null;
-        boolean exit = false;
-
-        do {
-            job = manager.jobs().get(resourceGroup, accountName, transformName, jobName);
-
-            if (job.state() == JobState.FINISHED || job.state() == JobState.ERROR || job.state() == JobState.CANCELED) {
-                exit = true;
-            } else {
-                System.out.println("Job is " + job.state());
-
-                int i = 0;
-                for (JobOutput output : job.outputs()) {
-                    System.out.print("\tJobOutput[" + i++ + "] is " + output.state() + ".");
-                    if (output.state() == JobState.PROCESSING) {
-                        System.out.print("  Progress: " + output.progress());
-                    }
-                    System.out.println();
-                }
-
-                try {
-                    Thread.sleep(SLEEP_INTERVAL);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        } while (!exit);
-
-        return job;
+        return new AdaptiveJobPoller(manager).waitForJob(resourceGroup, accountName, transformName, jobName);
     }
 
     /**
@@ -471,20 +509,26 @@ public class OfflinePlayReadyAndWidevine {
      * @param contentKeyPolicyName  The content key policy name.
      * @param stopEndpoint          Stop endpoint if true, otherwise keep endpoint running.
      * @param streamingEndpointName The endpoint name.
+     * @param ledger                The job ledger, told about every job, asset and locator deleted.
+     * @param runName               The run owning them.
+     * @throws IOException If a deletion can't be recorded in the job ledger.
      */
     public static void cleanup(MediaServicesManager manager, String resourceGroup, String accountName,
                                String transformName,
                                String jobName,
                                String assetName, String locatorName, String contentKeyPolicyName, boolean stopEndpoint,
-                               String streamingEndpointName) {
+                               String streamingEndpointName, JobLedger ledger, String runName) throws IOException {
         if (manager == null) {
             return;
         }
 
         manager.jobs().delete(resourceGroup, accountName, transformName, jobName);
+        ledger.record(JobLedger.Kind.JOB, jobName, runName, JobLedger.DELETED);
         manager.assets().delete(resourceGroup, accountName, assetName);
+        ledger.record(JobLedger.Kind.ASSET, assetName, runName, JobLedger.DELETED);
 
         manager.streamingLocators().delete(resourceGroup, accountName, locatorName);
+        ledger.record(JobLedger.Kind.LOCATOR, locatorName, runName, JobLedger.DELETED);
         manager.contentKeyPolicies().delete(resourceGroup, accountName, contentKeyPolicyName);
 
         if (stopEndpoint) {
@@ -0,0 +1,223 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import sample.MediaServicesEvent.DataField;
+
+/**
+ * Thins out JobOutputProgress events to at most one per job output and
+ * interval. The first progress event of an output is published right away;
+ * later ones within the interval only replace the held-back value, which is
+ * published when the interval ends. Nothing but progress events passes through
+ * here, so state changes are never delayed; a final state of an output or job
+ * discards its held-back progress instead of letting it arrive after the end.
+ *
+ * Held-back events are published on the dispatch lane of their job, so they
+ * stay in order with the other events of the job.
+ */
+public class ProgressCoalescer {
+
+    /**
+     * Queues a task on the dispatch lane of a key without waiting.
+     */
+    @FunctionalInterface
+    public interface LaneDispatcher {
+
+        /**
+         * @return false if the task could not be queued right now.
+         */
+        boolean tryDispatch(String key, Runnable task);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final LaneDispatcher dispatcher;
+    private final Consumer<MediaServicesEvent> publisher;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, OutputProgress>> jobs =
+            new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile long intervalNanos;
+    private volatile boolean closed;
+
+    /**
+     * @param intervalMillis The minimum time between two published progress
+     *                       events of one job output; 0 publishes all.
+     * @param scheduler      Runs the delayed publishing.
+     * @param dispatcher     Queues delayed events on the lane of their job.
+     * @param publisher      Publishes an event, on its lane.
+     */
+    public ProgressCoalescer(long intervalMillis, ScheduledExecutorService scheduler, LaneDispatcher dispatcher,
+                             Consumer<MediaServicesEvent> publisher) {
+        setInterval(intervalMillis, TimeUnit.MILLISECONDS);
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+        this.publisher = publisher;
+    }
+
+    /**
+     * @param interval The minimum time between two published progress events of
+     *                 one job output; 0 publishes all.
+     * @param unit     The unit of the interval.
+     */
+    public void setInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval must not be negative");
+        }
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Offer a progress event. Call from the dispatch lane of its job.
+     *
+     * @param event A JobOutputProgress event.
+     * @return true if the caller should publish the event now, false if it was
+     *         held back.
+     */
+    public boolean offer(MediaServicesEvent event) {
+        long interval = intervalNanos;
+        if (interval == 0) {
+            return true;
+        }
+        String label = event.get(DataField.LABEL);
+        OutputProgress output = jobs.computeIfAbsent(event.entityName(), name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(label == null ? "" : label, key -> new OutputProgress(event.entityName()));
+
+        long now = System.nanoTime();
+        synchronized (output) {
+            if (output.pending == null && now - output.publishedNanos >= interval) {
+                output.publishedNanos = now;
+                return true;
+            }
+            if (output.pending != null) {
+                coalescedCount.incrementAndGet();
+            }
+            output.pending = event;
+            if (!output.flushScheduled) {
+                output.flushScheduled = true;
+                long delay = Math.max(0, output.publishedNanos + interval - now);
+                scheduler.schedule(() -> flush(output), delay, TimeUnit.NANOSECONDS);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Discard the held-back progress of every output of a job that reached a
+     * final state or is no longer tracked. Call from the dispatch lane of the job.
+     *
+     * @param jobName The normalized job name.
+     */
+    public void discardJob(String jobName) {
+        ConcurrentHashMap<String, OutputProgress> outputs = jobs.remove(jobName);
+        if (outputs != null) {
+            for (OutputProgress output : outputs.values()) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Discard the held-back progress of a job output that reached a final state.
+     * Call from the dispatch lane of its job.
+     *
+     * @param jobName The normalized job name.
+     * @param label   The output label.
+     */
+    public void discardOutput(String jobName, String label) {
+        ConcurrentHashMap<String, OutputProgress> outputs = jobs.get(jobName);
+        if (outputs != null) {
+            OutputProgress output = outputs.remove(label == null ? "" : label);
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * @return The number of progress events replaced by a later one before they
+     *         were published.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Stop publishing held-back events.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Runs on the scheduler when the interval of an output ends: hands the
+     * output to the job's lane, or tries again a little later if the lane is
+     * full. The flush stays scheduled until the lane has taken the held-back
+     * event, so an event offered meanwhile is published by that lane task
+     * instead of waiting for a flush that nobody schedules.
+     */
+    private void flush(OutputProgress output) {
+        synchronized (output) {
+            if (closed || output.closed || output.pending == null) {
+                output.flushScheduled = false;
+                return;
+            }
+        }
+
+        boolean queued = dispatcher.tryDispatch(output.jobName, () -> publishPending(output));
+
+        if (!queued) {
+            synchronized (output) {
+                if (closed) {
+                    output.flushScheduled = false;
+                } else {
+                    scheduler.schedule(() -> flush(output), Math.max(intervalNanos / 10, 1_000_000L),
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs on the job's lane: publishes the latest held-back event of an output,
+     * which may be newer than the one the flush found.
+     */
+    private void publishPending(OutputProgress output) {
+        MediaServicesEvent event;
+        synchronized (output) {
+            output.flushScheduled = false;
+            // A final state may have been handled since the flush was queued.
+            if (closed || output.closed || output.pending == null) {
+                return;
+            }
+            event = output.pending;
+            output.pending = null;
+            output.publishedNanos = System.nanoTime();
+        }
+        publisher.accept(event);
+    }
+
+    /**
+     * The publishing state of one job output.
+     */
+    private static final class OutputProgress {
+        private final String jobName;
+        private MediaServicesEvent pending;
+        private long publishedNanos = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+        private boolean flushScheduled;
+        private boolean closed;
+
+        OutputProgress(String jobName) {
+            this.jobName = jobName;
+        }
+
+        synchronized void close() {
+            closed = true;
+            pending = null;
+        }
+    }
+}
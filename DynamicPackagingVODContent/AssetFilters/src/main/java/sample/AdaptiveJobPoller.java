@@ -0,0 +1,279 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.rest.Response;
+import com.azure.core.util.Context;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.resourcemanager.mediaservices.models.Job;
+import com.azure.resourcemanager.mediaservices.models.JobOutput;
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Polls a job until it reaches a final state, for when Event Grid is not
+ * available. Polling is not a recommended best practice for production
+ * applications because of the latency it introduces; this keeps that latency
+ * low without spending more ARM reads than needed.
+ *
+ * - While the job makes no measurable progress, e.g. while it is queued, the
+ *   interval starts short and grows by half after every poll up to a maximum.
+ * - Once the progress of the outputs moves, the remaining time is estimated
+ *   from the rate so far, and the next poll is half of it away, so polls
+ *   thin out on long jobs and close in on the predicted finish.
+ * - Every interval gets up to 20% of random jitter, so jobs submitted together
+ *   don't poll together.
+ * - A throttled read (429 or 503) waits at least the Retry-After the service
+ *   asked for, and a nearly exhausted subscription read quota slows polling to
+ *   the maximum interval.
+ */
+public class AdaptiveJobPoller {
+    private static final Duration DEFAULT_MIN_INTERVAL = Duration.ofSeconds(2);
+    private static final Duration DEFAULT_MAX_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration DEFAULT_MAX_ESTIMATED_INTERVAL = Duration.ofMinutes(5);
+    static final String REMAINING_READS_HEADER = "x-ms-ratelimit-remaining-subscription-reads";
+    private static final int LOW_REMAINING_READS = 100;
+    private static final double JITTER = 0.2;
+
+    private final MediaServicesManager manager;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long maxEstimatedIntervalMillis;
+    private int pollCount;
+    private int throttledCount;
+
+    /**
+     * Create a poller that starts at 2 seconds, backs off to 1 minute, and
+     * waits up to 5 minutes while the estimated finish is far away.
+     *
+     * @param manager The entry point of Azure Media resource management.
+     */
+    public AdaptiveJobPoller(MediaServicesManager manager) {
+        this(manager, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_MAX_ESTIMATED_INTERVAL);
+    }
+
+    /**
+     * @param manager              The entry point of Azure Media resource
+     *                             management.
+     * @param minInterval          The first and shortest interval.
+     * @param maxInterval          The longest interval while the job makes no
+     *                             progress.
+     * @param maxEstimatedInterval The longest interval while the estimated
+     *                             finish is far away.
+     */
+    public AdaptiveJobPoller(MediaServicesManager manager, Duration minInterval, Duration maxInterval,
+                             Duration maxEstimatedInterval) {
+        if (minInterval.isNegative() || minInterval.isZero()) {
+            throw new IllegalArgumentException("minInterval must be positive");
+        }
+        if (maxInterval.compareTo(minInterval) < 0 || maxEstimatedInterval.compareTo(minInterval) < 0) {
+            throw new IllegalArgumentException("maxInterval and maxEstimatedInterval must be at least minInterval");
+        }
+        this.manager = manager;
+        this.minIntervalMillis = minInterval.toMillis();
+        this.maxIntervalMillis = maxInterval.toMillis();
+        this.maxEstimatedIntervalMillis = maxEstimatedInterval.toMillis();
+    }
+
+    /**
+     * Poll a job until it is finished, errored or canceled, printing its state
+     * and the progress of its outputs on every poll.
+     *
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param jobName       The name of the job.
+     * @return The job in its final state, or as last read if the thread was
+     *         interrupted.
+     */
+    public Job waitForJob(String resourceGroup, String accountName, String transformName, String jobName) {
+        ProgressEstimate estimate = new ProgressEstimate();
+        long backoffMillis = minIntervalMillis;
+        Job job = null;
+
+        while (true) {
+            long delayMillis;
+            try {
+                Response<Job> response = manager.jobs().getWithResponse(resourceGroup, accountName, transformName,
+                        jobName, Context.NONE);
+                pollCount++;
+                job = response.getValue();
+                if (isFinal(job.state())) {
+                    return job;
+                }
+                printJob(job);
+
+                long remainingMillis = estimate.update(System.currentTimeMillis(), progressOf(job.outputs()));
+                if (remainingMillis >= 0) {
+                    delayMillis = clamp(remainingMillis / 2, minIntervalMillis, maxEstimatedIntervalMillis);
+                } else {
+                    delayMillis = backoffMillis;
+                    backoffMillis = Math.min(backoffMillis + backoffMillis / 2, maxIntervalMillis);
+                }
+                if (isLow(response.getHeaders().getValue(REMAINING_READS_HEADER))) {
+                    delayMillis = Math.max(delayMillis, maxIntervalMillis);
+                }
+                delayMillis = jitter(delayMillis);
+            } catch (HttpResponseException e) {
+                HttpResponse response = e.getResponse();
+                int status = response == null ? 0 : response.getStatusCode();
+                if (status != 429 && status != 503) {
+                    throw e;
+                }
+                throttledCount++;
+                // Jitter only the backoff; never retry before the Retry-After.
+                delayMillis = Math.max(jitter(backoffMillis), retryAfterMillis(response));
+                backoffMillis = Math.min(backoffMillis * 2, maxIntervalMillis);
+                System.out.println("Job status read was throttled, retrying in " + delayMillis / 1000 + " s.");
+            }
+
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return job;
+            }
+        }
+    }
+
+    /**
+     * @return The number of job reads made by this poller.
+     */
+    public int getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * @return The number of job reads that were throttled.
+     */
+    public int getThrottledCount() {
+        return throttledCount;
+    }
+
+    static boolean isFinal(JobState state) {
+        return state == JobState.FINISHED || state == JobState.ERROR || state == JobState.CANCELED;
+    }
+
+    private static void printJob(Job job) {
+        System.out.println("Job is " + job.state());
+
+        int i = 0;
+        for (JobOutput output : job.outputs()) {
+            System.out.print("\tJobOutput[" + i++ + "] is " + output.state() + ".");
+            if (output.state() == JobState.PROCESSING) {
+                System.out.print("  Progress: " + output.progress());
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return The average progress of the outputs in percent, finished ones
+     *         counting as 100.
+     */
+    private static double progressOf(List<JobOutput> outputs) {
+        if (outputs == null || outputs.isEmpty()) {
+            return 0;
+        }
+        double total = 0;
+        for (JobOutput output : outputs) {
+            if (isFinal(output.state())) {
+                total += 100;
+            } else {
+                Integer progress = output.progress();
+                total += progress == null ? 0 : progress;
+            }
+        }
+        return total / outputs.size();
+    }
+
+    static boolean isLow(String remainingReads) {
+        if (remainingReads == null) {
+            return false;
+        }
+        try {
+            return Integer.parseInt(remainingReads.trim()) < LOW_REMAINING_READS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The delay asked for by a throttled response, or 0 if none. Azure
+     *         sends it in milliseconds, or as Retry-After in seconds or as an
+     *         HTTP date.
+     */
+    static long retryAfterMillis(HttpResponse response) {
+        for (String header : new String[] {"retry-after-ms", "x-ms-retry-after-ms"}) {
+            String value = response.getHeaderValue(header);
+            if (value != null) {
+                try {
+                    return Math.max(0, Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    // Try the next header.
+                }
+            }
+        }
+
+        String value = response.getHeaderValue("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException e2) {
+                return 0;
+            }
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    static long jitter(long millis) {
+        return (long) (millis * (1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+    }
+
+    /**
+     * Estimates the time remaining from the progress rate since progress was
+     * first seen.
+     */
+    private static final class ProgressEstimate {
+        private long firstMillis = -1;
+        private double firstProgress;
+
+        /**
+         * @return The estimated time remaining in milliseconds, or -1 while the
+         *         rate is unknown.
+         */
+        long update(long nowMillis, double progress) {
+            if (progress <= 0) {
+                return -1;
+            }
+            if (firstMillis < 0) {
+                firstMillis = nowMillis;
+                firstProgress = progress;
+                return -1;
+            }
+            if (progress <= firstProgress || nowMillis <= firstMillis) {
+                return -1;
+            }
+            double rate = (progress - firstProgress) / (nowMillis - firstMillis);
+            return (long) ((100 - progress) / rate);
+        }
+    }
+}
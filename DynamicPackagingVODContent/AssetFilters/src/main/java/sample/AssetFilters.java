@@ -5,16 +5,22 @@ package sample;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Paths;
 import java.time.OffsetDateTime;
 
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobContainerClientBuilder;
 import com.azure.core.credential.TokenCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
 import com.azure.core.http.policy.HttpLogDetailLevel;
 import com.azure.core.http.policy.HttpLogOptions;
 import com.azure.core.management.exception.ManagementException;
@@ -27,6 +33,9 @@ import javax.naming.AuthenticationException;
 
 public class AssetFilters {
     private static final String TRANSFORM_NAME = "MyTransformWithAdaptiveStreamingPreset";
+    private static final String JOB_LEDGER_DIRECTORY = "job-ledger";
+    private static final String TRANSFORM_REGISTRY_FILE = "transform-registry.txt";
+    private static final String ENCODE_CACHE_FILE = "encode-cache.txt";
     private static final String INPUT_MP4_RESOURCE = "video/ignite.mp4";
 
     // Please change this to your endpoint name
@@ -64,10 +73,31 @@ public class AssetFilters {
                 .authenticate(credential, profile);
         // Signed in.
 
+        // Encodes are cached locally, and their output assets kept, so the same input is
+        // never encoded twice with the same transform.
+        EncodeCache encodeCache;
+        try {
+            encodeCache = new EncodeCache(Paths.get(ENCODE_CACHE_FILE));
+        } catch (IOException e) {
+            System.out.println("Failed to open the encode cache: " + e.getMessage());
+            return;
+        }
+
+        // Runs are recorded in a local ledger until they are cleaned up. If an earlier
+        // run was interrupted, e.g. because the process died, resume it and re-attach
+        // to its job instead of uploading and encoding the same input again.
+        JobLedger ledger;
+        try {
+            ledger = new JobLedger(Paths.get(JOB_LEDGER_DIRECTORY));
+        } catch (IOException e) {
+            System.out.println("Failed to open the job ledger: " + e.getMessage());
+            return;
+        }
+        JobLedger.Entry resumedRun = ledger.getOpenRun(TRANSFORM_NAME);
+
         // Creating a unique suffix so that we don't have name collisions if you run the sample
         // multiple times without cleaning up.
-        UUID uuid = UUID.randomUUID();
-        String uniqueness = uuid.toString();
+        String uniqueness = resumedRun != null ? resumedRun.getName() : UUID.randomUUID().toString();
         String jobName = "job-" + uniqueness.substring(0, 13);
         String locatorName = "locator-" + uniqueness;
         String outputAssetName = "output-" + uniqueness;
@@ -78,6 +108,13 @@ public class AssetFilters {
 
         Scanner scanner = new Scanner(System.in);
         try {
+            if (resumedRun == null) {
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.CREATED);
+            } else {
+                System.out.println("Resuming the run interrupted at " + new Date(resumedRun.getUpdatedMillis())
+                        + ": " + ledger.getResources(uniqueness));
+            }
+
             // Ensure that you have customized encoding Transform with builtin preset. This is really a one time
             // setup operation.
             // Create a new Transform using a preset name from the list of built in encoding
@@ -92,44 +129,87 @@ public class AssetFilters {
             outputs.add(new TransformOutput().withPreset(
                     new BuiltInStandardEncoderPreset().withPresetName(EncoderNamedPreset.CONTENT_AWARE_ENCODING)));
 
-            // Create the transform.
-            System.out.println("Creating a transform...");
-            Transform transform = manager.transforms()
-                    .define(TRANSFORM_NAME)
-                    .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
-                    .withOutputs(outputs)
-                    .create();
-            System.out.println("Transform created");
-
-            // Create a new input Asset and upload the specified local video file into it.
-            Asset inputAsset = createInputAssetAndUploadVideo(manager, config.getResourceGroup(), config.getAccountName(), inputAssetName,
-                    INPUT_MP4_RESOURCE);
-
-            // Output from the encoding Job must be written to an Asset, so let's create one. Note that we
-            // are using a unique asset name, there should not be a name collision.
-            Asset outputAsset = manager.assets()
-                    .define(outputAssetName)
-                    .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
-                    .create();
-
-            Job job = submitJob(manager, config.getResourceGroup(),
-                    config.getAccountName(), transform.name(), jobName,
-                    inputAsset.name(), outputAsset.name());
-
-            long startedTime = System.currentTimeMillis();
+            // Make sure the transform exists with these outputs. A local registry skips the
+            // request if the transform was checked within the last hour, and updates it only
+            // if its outputs differ.
+            TransformRegistry transformRegistry = new TransformRegistry(Paths.get(TRANSFORM_REGISTRY_FILE));
+            String presetFingerprint = transformRegistry.ensure(manager, config.getResourceGroup(),
+                    config.getAccountName(), TRANSFORM_NAME, outputs);
+
+            // Encoding the same input with the same presets again gives the same output, so
+            // reuse the output of an earlier run instead of uploading and encoding again.
+            String contentHash;
+            try (InputStream content = AssetFilters.class.getClassLoader()
+                    .getResourceAsStream(INPUT_MP4_RESOURCE)) {
+                contentHash = EncodeCache.hashContent(content);
+            }
+            String cachedOutputAssetName = encodeCache.find(manager, config.getResourceGroup(),
+                    config.getAccountName(), contentHash, presetFingerprint);
+
+            Job job = null;
+            JobState jobState;
+            if (cachedOutputAssetName != null) {
+                System.out.println("This input was already encoded with this transform into "
+                        + cachedOutputAssetName + ", skipping the upload and the job.");
+                outputAssetName = cachedOutputAssetName;
+                jobState = JobState.FINISHED;
+            } else {
+                // Create a new input Asset and upload the specified local video file into it.
+                // The input of a resumed run was uploaded before the interruption.
+                if (ledger.get(JobLedger.Kind.ASSET, inputAssetName) == null) {
+                    createInputAssetAndUploadVideo(manager, config.getResourceGroup(), config.getAccountName(), inputAssetName,
+                            INPUT_MP4_RESOURCE);
+                    ledger.record(JobLedger.Kind.ASSET, inputAssetName, uniqueness, JobLedger.CREATED);
+                }
 
-            // In this demo code, we will poll for Job status. Polling is not a recommended best practice for production
-            // applications because of the latency it introduces. Overuse of this API may trigger throttling. Developers
-            // should instead use Event Grid. To see how to implement the event grid, see the sample
-            // https://github.com/Azure-Samples/media-services-v3-java/tree/master/ContentProtection/BasicAESClearKey.
-            job = waitForJobToFinish(manager, config.getResourceGroup(),
-                    config.getAccountName(), transform.name(),
-                    jobName);
+                // Output from the encoding Job must be written to an Asset, so let's create one. Note that we
+                // are using a unique asset name, there should not be a name collision.
+                Asset outputAsset = manager.assets()
+                        .define(outputAssetName)
+                        .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
+                        .create();
+                ledger.record(JobLedger.Kind.ASSET, outputAssetName, uniqueness, JobLedger.CREATED);
+
+                JobLedger.Entry recordedJob = ledger.get(JobLedger.Kind.JOB, jobName);
+                if (recordedJob != null && JobLedger.SUBMITTING.equals(recordedJob.getState())
+                        && !jobExists(manager, config.getResourceGroup(), config.getAccountName(), transform.name(), jobName)) {
+                    // Interrupted before the job was created, so submit it again.
+                    System.out.println("Job " + jobName + " was never created, submitting it again.");
+                    recordedJob = null;
+                }
+                if (recordedJob == null) {
+                    ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, JobLedger.SUBMITTING);
+                    job = submitJob(manager, config.getResourceGroup(),
+                            config.getAccountName(), TRANSFORM_NAME, jobName,
+                            inputAssetName, outputAsset.name());
+                    ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, job.state().toString());
+                } else {
+                    // Submitted before the interruption, so only wait for it.
+                    System.out.println("Re-attaching to job " + jobName + ", last recorded as "
+                            + recordedJob.getState() + ".");
+                }
 
-            long elapsed = (System.currentTimeMillis() - startedTime) / 1000; // Elapsed time in seconds
-            System.out.println("Job elapsed time: " + elapsed + " second(s).");
+                long startedTime = System.currentTimeMillis();
+
+                // In this demo code, we will poll for Job status. Polling is not a recommended best practice for production
+                // applications because of the latency it introduces. Overuse of this API may trigger throttling. Developers
+                // should instead use Event Grid. To see how to implement the event grid, see the sample
+                // https://github.com/Azure-Samples/media-services-v3-java/tree/master/ContentProtection/BasicAESClearKey.
+                job = waitForJobToFinish(manager, config.getResourceGroup(),
+                        config.getAccountName(), TRANSFORM_NAME,
+                        jobName);
+                ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, job.state().toString());
+
+                long elapsed = (System.currentTimeMillis() - startedTime) / 1000; // Elapsed time in seconds
+                System.out.println("Job elapsed time: " + elapsed + " second(s).");
+                jobState = job.state();
+                if (jobState == JobState.FINISHED) {
+                    encodeCache.put(config.getResourceGroup(), config.getAccountName(), contentHash,
+                            presetFingerprint, outputAssetName);
+                }
+            }
 
-            if (job.state() == JobState.FINISHED) {
+            if (jobState == JobState.FINISHED) {
                 System.out.println("Job finished.");
                 System.out.println();
 
@@ -141,6 +221,7 @@ public class AssetFilters {
                         .withAssetName(outputAssetName)
                         .withStreamingPolicyName("Predefined_ClearStreamingOnly")
                         .create();
+                ledger.record(JobLedger.Kind.LOCATOR, locatorName, uniqueness, JobLedger.CREATED);
 
                 StreamingEndpoint streamingEndpoint = manager.streamingEndpoints()
                         .get(config.getResourceGroup(), config.getAccountName(),
@@ -165,7 +246,7 @@ public class AssetFilters {
                 System.out.println("Creating an asset filter...\n");
                 AssetFilter assetFilter = manager.assetFilters()
                         .define(assetFilterName)
-                        .withExistingAsset(config.getResourceGroup(), config.getAccountName(), outputAsset.name())
+                        .withExistingAsset(config.getResourceGroup(), config.getAccountName(), outputAssetName)
                         .withPresentationTimeRange(new PresentationTimeRange()
                                 .withStartTimestamp(100000000L)     // Starts at 10 seconds.
                                 .withEndTimestamp(300000000L))      // Ends at 30 seconds.
@@ -218,7 +299,7 @@ public class AssetFilters {
                 System.out.println("When finished, press ENTER to continue.");
                 System.out.flush();
                 scanner.nextLine();
-            } else if (job.state() == JobState.ERROR) {
+            } else if (jobState == JobState.ERROR) {
                 System.out.println("ERROR: Job finished with error message: " + job.outputs().get(0).error().message());
                 System.out.println("ERROR:                   error details: "
                         + job.outputs().get(0).error().details().get(0).message());
@@ -244,8 +325,19 @@ public class AssetFilters {
             if (scanner != null) {
                 scanner.close();
             }
-            cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME, jobName,
-                    inputAssetName, outputAssetName, accountFilterName, locatorName, stopEndpoint, STREAMING_ENDPOINT_NAME);
+            // The ledger drops every resource as it is deleted, and the run once nothing of
+            // it is left, so a failed cleanup leaves the rest to the next run.
+            try {
+                cleanup(manager, config.getResourceGroup(), config.getAccountName(), TRANSFORM_NAME, jobName,
+                        inputAssetName, outputAssetName, encodeCache.isCached(outputAssetName), assetFilterName,
+                        accountFilterName, locatorName, stopEndpoint, STREAMING_ENDPOINT_NAME, ledger,
+                        uniqueness);
+                ledger.record(JobLedger.Kind.RUN, uniqueness, TRANSFORM_NAME, JobLedger.DELETED);
+            } catch (Exception e) {
+                System.out.println("Cleanup failed, the next run resumes it: " + e);
+            } finally {
+                ledger.close();
+            }
             System.out.println("Done.");
         }
     }
@@ -341,7 +433,31 @@ public class AssetFilters {
     }
 
     /**
-     * Polls Media Services for the status of the Job.
+     * Check whether a job exists, e.g. one whose submission was interrupted.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param jobName       The name of the job.
+     * @return Whether the job exists.
+     */
+    private static boolean jobExists(MediaServicesManager manager, String resourceGroup, String accountName,
+                                     String transformName, String jobName) {
+        try {
+            return manager.jobs().get(resourceGroup, accountName, transformName, jobName) != null;
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Polls Media Services for the status of the Job, at intervals adapted to
+     * its progress and to throttling.
      *
      * @param manager       This is the entry point of Azure Media resource management.
      * @param resourceGroup The name of the resource group within the Azure subscription.
@@ -352,37 +468,7 @@ public class AssetFilters {
      */
     private static Job waitForJobToFinish(MediaServicesManager manager, String resourceGroup, String accountName,
                                           String transformName, String jobName) {
-        final int SLEEP_INTERVAL = 10 * 1000;
-
-        Job job = null;
-        boolean exit = false;
-
-        do {
-            job = manager.jobs().get(resourceGroup, accountName, transformName, jobName);
-
-            if (job.state() == JobState.FINISHED || job.state() == JobState.ERROR || job.state() == JobState.CANCELED) {
-                exit = true;
-            } else {
-                System.out.println("Job is " + job.state());
-
-                int i = 0;
-                for (JobOutput output : job.outputs()) {
-                    System.out.print("\tJobOutput[" + i++ + "] is " + output.state() + ".");
-                    if (output.state() == JobState.PROCESSING) {
-                        System.out.print("  Progress: " + output.progress());
-                    }
-                    System.out.println();
-                }
-
-                try {
-                    Thread.sleep(SLEEP_INTERVAL);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        } while (!exit);
-
-        return job;
+        return new AdaptiveJobPoller(manager).waitForJob(resourceGroup, accountName, transformName, jobName);
     }
 
     /**
@@ -425,23 +511,37 @@ public class AssetFilters {
      * @param jobName               The job name.
      * @param inputAssetName        The input asset name.
      * @param outputAssetName       The output asset name.
+     * @param keepOutputAsset       Keep the output asset if true, e.g. because it is in the encode cache.
+     * @param assetFilterName       The AssetFilter name, deleted with the output asset unless that is kept.
      * @param accountFilterName     The AccountFilter name.
      * @param streamingLocatorName  The streaming locator name.
      * @param stopEndpoint          Stop endpoint if true, otherwise keep endpoint running.
      * @param streamingEndpointName The endpoint name.
+     * @param ledger                The job ledger, told about every job, asset and locator deleted.
+     * @param runName               The run owning them.
+     * @throws IOException If a deletion can't be recorded in the job ledger.
      */
     private static void cleanup(MediaServicesManager manager, String resourceGroupName, String accountName, String transformName, String jobName,
-                                String inputAssetName, String outputAssetName, String accountFilterName, String streamingLocatorName, boolean stopEndpoint,
-                                String streamingEndpointName) {
+                                String inputAssetName, String outputAssetName, boolean keepOutputAsset, String assetFilterName,
+                                String accountFilterName, String streamingLocatorName, boolean stopEndpoint, String streamingEndpointName,
+                                JobLedger ledger, String runName) throws IOException {
         if (manager == null) {
             return;
         }
 
         manager.jobs().delete(resourceGroupName, accountName, transformName, jobName);
+        ledger.record(JobLedger.Kind.JOB, jobName, runName, JobLedger.DELETED);
         manager.assets().delete(resourceGroupName, accountName, inputAssetName);
-        manager.assets().delete(resourceGroupName, accountName, outputAssetName);
+        ledger.record(JobLedger.Kind.ASSET, inputAssetName, runName, JobLedger.DELETED);
+        if (keepOutputAsset) {
+            manager.assetFilters().delete(resourceGroupName, accountName, outputAssetName, assetFilterName);
+        } else {
+            manager.assets().delete(resourceGroupName, accountName, outputAssetName);
+            ledger.record(JobLedger.Kind.ASSET, outputAssetName, runName, JobLedger.DELETED);
+        }
         manager.accountFilters().delete(resourceGroupName, accountName, accountFilterName);
         manager.streamingLocators().delete(resourceGroupName, accountName, streamingLocatorName);
+        ledger.record(JobLedger.Kind.LOCATOR, streamingLocatorName, runName, JobLedger.DELETED);
 
         if (stopEndpoint) {
             // Because we started the endpoint, we'll stop it.
@@ -0,0 +1,230 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.rest.Response;
+import com.azure.core.util.Context;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.resourcemanager.mediaservices.fluent.models.AssetInner;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the output asset of every encode, keyed by the SHA-256 of the
+ * input bytes and the fingerprint of the transform outputs, so encoding a file
+ * that already went through the same transform reuses the earlier output
+ * instead of uploading and encoding it again.
+ *
+ * Entries are kept in a text file that is replaced atomically on every change.
+ * An entry whose output asset was deleted is dropped when it is looked up.
+ *
+ * Output assets in the cache must outlive the run that created them; check
+ * {@link #isCached(String)} before deleting one.
+ */
+public class EncodeCache {
+    private static final String FILE_HEADER = "# Media Services encode cache v1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Open a cache, reading its file if it exists.
+     *
+     * @param file The cache file.
+     * @throws IOException If the file can't be read or is not an encode cache.
+     */
+    public EncodeCache(Path file) throws IOException {
+        this.file = file;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!FILE_HEADER.equals(reader.readLine())) {
+                throw new IOException("Not an encode cache: " + file);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 3) {
+                    throw new IOException("Malformed encode cache line: " + line);
+                }
+                try {
+                    entries.put(fields[0], new Entry(fields[1], Long.parseLong(fields[2])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed encode cache line: " + line, e);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing encoded yet.
+        }
+    }
+
+    /**
+     * Hash the content of a stream, reading it to the end without holding it
+     * in memory.
+     *
+     * @param content The content, closed by the caller.
+     * @return The SHA-256 of the content, in hex.
+     * @throws IOException If reading fails.
+     */
+    public static String hashContent(InputStream content) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Find the output asset of an earlier encode of the same content with the
+     * same transform outputs. An entry whose asset no longer exists is removed.
+     *
+     * @param manager           The entry point of Azure Media resource management.
+     * @param resourceGroup     The name of the resource group within the Azure
+     *                          subscription.
+     * @param accountName       The Media Services account name.
+     * @param contentHash       The hash of the input, see {@link #hashContent(InputStream)}.
+     * @param presetFingerprint The fingerprint of the transform outputs, see
+     *                          {@link TransformRegistry#fingerprint(java.util.List)}.
+     * @return The name of the output asset, or null if there is none.
+     * @throws IOException If removing an entry fails.
+     */
+    public synchronized String find(MediaServicesManager manager, String resourceGroup, String accountName,
+                                    String contentHash, String presetFingerprint) throws IOException {
+        String key = key(resourceGroup, accountName, contentHash, presetFingerprint);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (assetExists(manager, resourceGroup, accountName, entry.outputAssetName)) {
+            return entry.outputAssetName;
+        }
+        System.out.println("The cached output asset " + entry.outputAssetName + " was deleted, encoding again.");
+        entries.remove(key);
+        save();
+        return null;
+    }
+
+    /**
+     * Remember the output asset of a finished encode.
+     *
+     * @param resourceGroup     The name of the resource group within the Azure
+     *                          subscription.
+     * @param accountName       The Media Services account name.
+     * @param contentHash       The hash of the input.
+     * @param presetFingerprint The fingerprint of the transform outputs.
+     * @param outputAssetName   The name of the output asset.
+     * @throws IOException If writing the cache file fails.
+     */
+    public synchronized void put(String resourceGroup, String accountName, String contentHash,
+                                 String presetFingerprint, String outputAssetName) throws IOException {
+        entries.put(key(resourceGroup, accountName, contentHash, presetFingerprint),
+                new Entry(outputAssetName, System.currentTimeMillis()));
+        save();
+    }
+
+    /**
+     * @param outputAssetName The name of an asset.
+     * @return Whether the asset is the output of a cached encode, and so must
+     *         be kept.
+     */
+    public synchronized boolean isCached(String outputAssetName) {
+        for (Entry entry : entries.values()) {
+            if (entry.outputAssetName.equals(outputAssetName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of cached encodes.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Write every entry to the cache file, replacing it atomically.
+     */
+    private void save() throws IOException {
+        Path temp = Paths.get(file.toString() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(FILE_HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(entry.getKey() + '\t' + entry.getValue().outputAssetName + '\t'
+                        + entry.getValue().createdMillis);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean assetExists(MediaServicesManager manager, String resourceGroup, String accountName,
+                                       String assetName) {
+        try {
+            Response<AssetInner> response = manager.serviceClient().getAssets()
+                    .getWithResponse(resourceGroup, accountName, assetName, Context.NONE);
+            return response.getValue() != null;
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The same encode in another account has its own output asset.
+     */
+    private static String key(String resourceGroup, String accountName, String contentHash,
+                              String presetFingerprint) {
+        return resourceGroup + '/' + accountName + '/' + contentHash + '/' + presetFingerprint;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static final class Entry {
+        private final String outputAssetName;
+        private final long createdMillis;
+
+        Entry(String outputAssetName, long createdMillis) {
+            this.outputAssetName = outputAssetName;
+            this.createdMillis = createdMillis;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.rest.Response;
+import com.azure.core.util.Context;
+import com.azure.core.util.serializer.JacksonAdapter;
+import com.azure.core.util.serializer.SerializerEncoding;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.resourcemanager.mediaservices.fluent.models.TransformInner;
+import com.azure.resourcemanager.mediaservices.models.TransformOutput;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes sure a transform exists with the outputs a sample needs, without a PUT
+ * on every run, and usually without any request at all.
+ *
+ * The registry remembers, in a local file, the fingerprint of the outputs each
+ * transform was last found or made with, the version Media Services reported
+ * for it, and when that was. {@link #ensure} then
+ *
+ * - returns right away if the fingerprint matches and the transform was
+ *   checked within the last hour;
+ * - otherwise reads the transform, and keeps it if its version is the one
+ *   recorded, or its outputs hold every setting asked for (the service fills
+ *   in defaults, so it may hold more);
+ * - otherwise reports the drift and updates the transform.
+ *
+ * The version is the ETag of the response if there is one, else the last
+ * modification time of the transform. The fingerprint is the SHA-256 of the
+ * outputs serialized as JSON with the keys of every object sorted and nulls
+ * left out, so it changes with any setting of a preset but not with the order
+ * properties are written in.
+ */
+public class TransformRegistry {
+    private static final String FILE_HEADER = "# Media Services transform registry v1";
+    private static final Duration DEFAULT_MAX_AGE = Duration.ofHours(1);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper();
+
+    private final Path file;
+    private final long maxAgeMillis;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private int requestCount;
+    private int driftCount;
+
+    /**
+     * Open a registry that trusts a transform for an hour after checking it.
+     *
+     * @param file The registry file, read if it exists.
+     * @throws IOException If the file can't be read or is not a registry.
+     */
+    public TransformRegistry(Path file) throws IOException {
+        this(file, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param file   The registry file, read if it exists.
+     * @param maxAge How long a transform is trusted without reading it again.
+     *               Zero reads it on every call.
+     * @throws IOException If the file can't be read or is not a registry.
+     */
+    public TransformRegistry(Path file, Duration maxAge) throws IOException {
+        this.file = file;
+        this.maxAgeMillis = maxAge.toMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!FILE_HEADER.equals(reader.readLine())) {
+                throw new IOException("Not a transform registry: " + file);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4) {
+                    throw new IOException("Malformed transform registry line: " + line);
+                }
+                try {
+                    entries.put(fields[0], new Entry(fields[1], fields[2], Long.parseLong(fields[3])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed transform registry line: " + line, e);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No transform known yet.
+        }
+    }
+
+    /**
+     * Make sure a transform exists with the given outputs.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param outputs       The outputs the transform must have.
+     * @return The fingerprint of the outputs.
+     * @throws IOException If writing the registry file fails.
+     */
+    public String ensure(MediaServicesManager manager, String resourceGroup, String accountName,
+                         String transformName, List<TransformOutput> outputs) throws IOException {
+        return ensure(manager, resourceGroup, accountName, transformName, null, outputs);
+    }
+
+    /**
+     * Make sure a transform exists with the given outputs.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param description   The description of the transform if it is created
+     *                      or updated, or null.
+     * @param outputs       The outputs the transform must have.
+     * @return The fingerprint of the outputs.
+     * @throws IOException If writing the registry file fails.
+     */
+    public synchronized String ensure(MediaServicesManager manager, String resourceGroup, String accountName,
+                                      String transformName, String description, List<TransformOutput> outputs)
+            throws IOException {
+        String key = resourceGroup + '/' + accountName + '/' + transformName;
+        JsonNode wanted = canonicalize(outputs);
+        String fingerprint = fingerprint(wanted);
+        Entry entry = entries.get(key);
+        boolean recorded = entry != null && entry.fingerprint.equals(fingerprint);
+        if (recorded && System.currentTimeMillis() - entry.checkedMillis < maxAgeMillis) {
+            return fingerprint;
+        }
+
+        Response<TransformInner> response = get(manager, resourceGroup, accountName, transformName);
+        if (response != null) {
+            String version = version(response);
+            if (recorded && version != null && version.equals(entry.version)) {
+                put(key, fingerprint, version);
+                return fingerprint;
+            }
+            JsonNode found = canonicalize(response.getValue().outputs());
+            if (covers(found, wanted)) {
+                put(key, fingerprint, version);
+                return fingerprint;
+            }
+            driftCount++;
+            System.out.println("Transform " + transformName + " does not match its definition here (outputs "
+                    + fingerprint(found) + " instead of " + fingerprint + "), updating it.");
+        } else {
+            System.out.println("Creating transform " + transformName + "...");
+        }
+
+        requestCount++;
+        Response<TransformInner> updated = manager.serviceClient().getTransforms().createOrUpdateWithResponse(
+                resourceGroup, accountName, transformName,
+                new TransformInner().withDescription(description).withOutputs(outputs), Context.NONE);
+        put(key, fingerprint, version(updated));
+        return fingerprint;
+    }
+
+    /**
+     * Fingerprint the outputs of a transform, i.e. its presets and how they
+     * run.
+     *
+     * @param outputs The outputs of the transform.
+     * @return The SHA-256 of the canonical JSON of the outputs, in hex.
+     */
+    public static String fingerprint(List<TransformOutput> outputs) {
+        return fingerprint(canonicalize(outputs));
+    }
+
+    /**
+     * @return The number of requests made to Media Services.
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return The number of transforms found with other outputs than asked
+     *         for, and updated.
+     */
+    public synchronized int getDriftCount() {
+        return driftCount;
+    }
+
+    /**
+     * @return The transform, or null if it doesn't exist.
+     */
+    private Response<TransformInner> get(MediaServicesManager manager, String resourceGroup, String accountName,
+                                         String transformName) {
+        requestCount++;
+        try {
+            Response<TransformInner> response = manager.serviceClient().getTransforms()
+                    .getWithResponse(resourceGroup, accountName, transformName, Context.NONE);
+            return response.getValue() != null ? response : null;
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Record a transform as checked now, and write every entry to the registry
+     * file, replacing it atomically.
+     */
+    private void put(String key, String fingerprint, String version) throws IOException {
+        entries.put(key, new Entry(fingerprint, version != null ? version : "", System.currentTimeMillis()));
+
+        Path temp = Paths.get(file.toString() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(FILE_HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(entry.getKey() + '\t' + entry.getValue().fingerprint + '\t'
+                        + entry.getValue().version + '\t' + entry.getValue().checkedMillis);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The ETag of the transform, else its last modification time, or
+     *         null if neither is known.
+     */
+    private static String version(Response<TransformInner> response) {
+        String etag = response.getHeaders().getValue("ETag");
+        if (etag != null) {
+            return etag;
+        }
+        TransformInner transform = response.getValue();
+        return transform != null && transform.lastModified() != null ? transform.lastModified().toString() : null;
+    }
+
+    /**
+     * @return Whether every setting of the wanted outputs is in the found ones,
+     *         which may hold more, e.g. defaults filled in by the service.
+     */
+    static boolean covers(JsonNode found, JsonNode wanted) {
+        if (wanted.isObject()) {
+            if (!found.isObject()) {
+                return false;
+            }
+            for (Iterator<Map.Entry<String, JsonNode>> it = wanted.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                JsonNode value = found.get(field.getKey());
+                if (value == null || !covers(value, field.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (wanted.isArray()) {
+            if (!found.isArray() || found.size() != wanted.size()) {
+                return false;
+            }
+            for (int i = 0; i < wanted.size(); i++) {
+                if (!covers(found.get(i), wanted.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (wanted.isNumber() && found.isNumber()) {
+            return wanted.decimalValue().compareTo(found.decimalValue()) == 0;
+        }
+        return wanted.equals(found);
+    }
+
+    /**
+     * Serialize the outputs the way they are sent to Media Services, with the
+     * fields of every object sorted by name and null fields left out.
+     */
+    private static JsonNode canonicalize(List<TransformOutput> outputs) {
+        try {
+            String json = JacksonAdapter.createDefaultSerializerAdapter().serialize(outputs, SerializerEncoding.JSON);
+            return canonicalize(CANONICAL_MAPPER.readTree(json));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize the transform outputs", e);
+        }
+    }
+
+    static JsonNode canonicalize(JsonNode node) {
+        if (node.isObject()) {
+            List<String> names = new ArrayList<>();
+            for (Iterator<String> it = node.fieldNames(); it.hasNext(); ) {
+                names.add(it.next());
+            }
+            names.sort(null);
+            ObjectNode sorted = CANONICAL_MAPPER.createObjectNode();
+            for (String name : names) {
+                JsonNode value = node.get(name);
+                if (!value.isNull()) {
+                    sorted.set(name, canonicalize(value));
+                }
+            }
+            return sorted;
+        }
+        if (node.isArray()) {
+            ArrayNode array = CANONICAL_MAPPER.createArrayNode();
+            for (JsonNode element : node) {
+                array.add(canonicalize(element));
+            }
+            return array;
+        }
+        return node;
+    }
+
+    static String fingerprint(JsonNode canonical) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(CANONICAL_MAPPER.writeValueAsBytes(canonical));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+                chars[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize the transform outputs", e);
+        }
+    }
+
+    private static final class Entry {
+        private final String fingerprint;
+        private final String version;
+        private final long checkedMillis;
+
+        Entry(String fingerprint, String version, long checkedMillis) {
+            this.fingerprint = fingerprint;
+            this.version = version;
+            this.checkedMillis = checkedMillis;
+        }
+    }
+}
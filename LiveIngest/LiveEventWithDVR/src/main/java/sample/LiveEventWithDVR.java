@@ -65,6 +65,7 @@ public class LiveEventWithDVR {
         String drvAssetFilterName = "filter-" + uniqueness;
         String streamingEndpointName = "default";  // Change this to your Streaming Endpoint name.
         MediaServicesEventProcessor eventProcessorHost = null;
+        MediaServicesEventMultiplexer.Subscription eventSubscription = null;
         boolean stopEndpoint = false;
 
         Scanner scanner = new Scanner(System.in);
@@ -111,20 +112,21 @@ public class LiveEventWithDVR {
                         config.getStorageAccountName() +
                         ";AccountKey=" + config.getStorageAccountKey() + ";EndpointSuffix=core.windows.net";
 
-                // Cleanup storage container. We will config Event Hub to use the storage container configured in appsettings.json.
-                // All the blobs in <The container configured in appsettings.json> will be deleted.
+                // Event Hub keeps its checkpoints and partition ownership in the storage
+                // container configured in appsettings.json. The LiveEvent doesn't exist yet,
+                // so the partitions start at the latest event instead of a checkpoint, and
+                // nothing from earlier runs is replayed.
                 BlobServiceAsyncClient client = new BlobServiceClientBuilder()
                         .connectionString(storageConnectionString)
                         .buildAsyncClient();
                 BlobContainerAsyncClient container = client.getBlobContainerAsyncClient(config.getStorageContainerName());
-                container.listBlobs().subscribe(blobItem -> {
-                            container.getBlobAsyncClient(blobItem.getName()).delete();
-                        });
 
-                // Create a new host to process events from an Event Hub.
-                eventProcessorHost = new MediaServicesEventProcessor(null, null, liveEventName,
-                        config.getEventHubConnectionString(), config.getEventHubName(),
-                        container);
+                // Subscribe through the Event Hub consumer shared by all workflows of this
+                // process. The subscription keeps it running until it is closed.
+                eventSubscription = MediaServicesEventMultiplexer.forEventHub(config.getEventHubConnectionString(),
+                        config.getEventHubName(), container, EventHubEventSource.latest())
+                        .subscribeLiveEvent(liveEventName);
+                eventProcessorHost = eventSubscription.getProcessor();
 
             } catch (Exception exception) {
                 System.out.println("Failed to connect to Event Hub, please refer README for Event Hub and storage settings. Skipping event monitoring...");
@@ -248,6 +250,10 @@ public class LiveEventWithDVR {
             System.out.flush();
             scanner.nextLine();
 
+            if (eventProcessorHost != null) {
+                printIngestHealth(eventProcessorHost, liveEventName);
+            }
+
             System.out.println("Cleaning up LiveEvent and output...");
             CleanupLiveEventAndOutput(manager, config.getResourceGroup(), config.getAccountName(), liveEventName);
             System.out.println("The LiveEvent has ended.");
@@ -306,13 +312,39 @@ public class LiveEventWithDVR {
                 scanner.close();
             }
 
-            if (eventProcessorHost != null) {
-                eventProcessorHost.stop();
-                eventProcessorHost = null;
+            if (eventSubscription != null) {
+                eventSubscription.close();
+                eventSubscription = null;
             }
         }
     }
 
+    /**
+     * Print how soon the first LiveEvent event arrived, and the ingest health of
+     * each track of the LiveEvent over its last heartbeats.
+     *
+     * @param eventProcessorHost The event processor receiving the LiveEvent events.
+     * @param liveEventName      The LiveEvent name.
+     */
+    private static void printIngestHealth(MediaServicesEventProcessor eventProcessorHost, String liveEventName) {
+        Duration firstEvent = eventProcessorHost.getTimeToFirstEvent();
+        if (firstEvent != null) {
+            System.out.println("First LiveEvent event received " + firstEvent.toMillis()
+                    + " ms after the event processor started.");
+        }
+
+        List<LiveIngestHealthTracker.TrackHealth> health = eventProcessorHost.getLiveIngestHealth(liveEventName);
+        if (health.isEmpty()) {
+            System.out.println("No ingest heartbeats were received for the LiveEvent.");
+            return;
+        }
+        System.out.println("Ingest health of the LiveEvent over the last heartbeats:");
+        for (LiveIngestHealthTracker.TrackHealth track : health) {
+            System.out.println("  " + track);
+        }
+        System.out.println();
+    }
+
     /**
      * Build and print streaming URLs.
      *
@@ -4,14 +4,17 @@
 package sample;
 
 import java.net.URI;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.time.OffsetDateTime;
 
@@ -22,6 +25,8 @@ import com.azure.storage.blob.BlobContainerClientBuilder;
 import javax.naming.AuthenticationException;
 
 import com.azure.core.credential.TokenCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
 import com.azure.core.http.policy.HttpLogDetailLevel;
 import com.azure.core.http.policy.HttpLogOptions;
 import com.azure.core.management.exception.ManagementException;
@@ -32,6 +37,9 @@ import com.azure.identity.ClientSecretCredentialBuilder;
 
 public class EncodingWithMESCustomPreset {
     private static final String CUSTOM_TWO_LAYER_MP4_PNG = "Custom_TwoLayerMp4_Png";
+    private static final String JOB_LEDGER_DIRECTORY = "job-ledger";
+    private static final String TRANSFORM_REGISTRY_FILE = "transform-registry.txt";
+    private static final String ENCODE_CACHE_FILE = "encode-cache.txt";
     private static final String INPUT_MP4_RESOURCE = "video/ignite.mp4";
     private static final String OUTPUT_FOLDER_NAME = "Output";
 
@@ -68,10 +76,31 @@ public class EncodingWithMESCustomPreset {
                 .withLogOptions(new HttpLogOptions().setLogLevel(HttpLogDetailLevel.BODY_AND_HEADERS))
                 .authenticate(credential, profile);
 
+        // Encodes are cached locally, and their output assets kept, so the same input is
+        // never encoded twice with the same transform.
+        EncodeCache encodeCache;
+        try {
+            encodeCache = new EncodeCache(Paths.get(ENCODE_CACHE_FILE));
+        } catch (IOException e) {
+            System.out.println("Failed to open the encode cache: " + e.getMessage());
+            return;
+        }
+
+        // Runs are recorded in a local ledger until they are cleaned up. If an earlier
+        // run was interrupted, e.g. because the process died, resume it and re-attach
+        // to its job instead of uploading and encoding the same input again.
+        JobLedger ledger;
+        try {
+            ledger = new JobLedger(Paths.get(JOB_LEDGER_DIRECTORY));
+        } catch (IOException e) {
+            System.out.println("Failed to open the job ledger: " + e.getMessage());
+            return;
+        }
+        JobLedger.Entry resumedRun = ledger.getOpenRun(CUSTOM_TWO_LAYER_MP4_PNG);
+
         // Creating a unique suffix so that we don't have name collisions if you run the
         // sample multiple times without cleaning up.
-        UUID uuid = UUID.randomUUID();
-        String uniqueness = uuid.toString();
+        String uniqueness = resumedRun != null ? resumedRun.getName() : UUID.randomUUID().toString();
         String jobName = "job-" + uniqueness;
         String locatorName = "locator-" + uniqueness;
         String outputAssetName = "output-" + uniqueness;
@@ -81,32 +110,85 @@ public class EncodingWithMESCustomPreset {
         Scanner scanner = new Scanner(System.in);
 
         try {
-            // Ensure that you have the desired encoding Transform. This is really a one time setup operation.
-            Transform transform = createCustomTransform(manager, config.getResourceGroup(), config.getAccountName(),
-                    CUSTOM_TWO_LAYER_MP4_PNG);
-
-            // Create a new input Asset and upload the specified local video file into it.
-            Asset asset = createInputAsset(manager, config.getResourceGroup(), config.getAccountName(), inputAssetName,
-                    INPUT_MP4_RESOURCE);
+            if (resumedRun == null) {
+                ledger.record(JobLedger.Kind.RUN, uniqueness, CUSTOM_TWO_LAYER_MP4_PNG, JobLedger.CREATED);
+            } else {
+                System.out.println("Resuming the run interrupted at " + new Date(resumedRun.getUpdatedMillis())
+                        + ": " + ledger.getResources(uniqueness));
+            }
 
-            // Output from the encoding Job must be written to an Asset, so let's create one
-            Asset outputAsset = manager.assets()
-                    .define(outputAssetName)
-                    .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
-                    .create();
+            // Ensure that you have the desired encoding Transform. This is really a one time setup operation.
+            TransformRegistry transformRegistry = new TransformRegistry(Paths.get(TRANSFORM_REGISTRY_FILE));
+            String presetFingerprint = createCustomTransform(transformRegistry, manager, config.getResourceGroup(),
+                    config.getAccountName(), CUSTOM_TWO_LAYER_MP4_PNG);
+
+            // Encoding the same input with the same presets again gives the same output, so
+            // reuse the output of an earlier run instead of uploading and encoding again.
+            String contentHash;
+            try (InputStream content = EncodingWithMESCustomPreset.class.getClassLoader()
+                    .getResourceAsStream(INPUT_MP4_RESOURCE)) {
+                contentHash = EncodeCache.hashContent(content);
+            }
+            String cachedOutputAssetName = encodeCache.find(manager, config.getResourceGroup(),
+                    config.getAccountName(), contentHash, presetFingerprint);
+
+            JobState jobState;
+            if (cachedOutputAssetName != null) {
+                System.out.println("This input was already encoded with this transform into "
+                        + cachedOutputAssetName + ", skipping the upload and the job.");
+                outputAssetName = cachedOutputAssetName;
+                jobState = JobState.FINISHED;
+            } else {
+                // Create a new input Asset and upload the specified local video file into it.
+                // The input of a resumed run was uploaded before the interruption.
+                if (ledger.get(JobLedger.Kind.ASSET, inputAssetName) == null) {
+                    createInputAsset(manager, config.getResourceGroup(), config.getAccountName(), inputAssetName,
+                            INPUT_MP4_RESOURCE);
+                    ledger.record(JobLedger.Kind.ASSET, inputAssetName, uniqueness, JobLedger.CREATED);
+                }
 
-            Job job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
-                    transform.name(), jobName, asset.name(), outputAsset.name());
+                // Output from the encoding Job must be written to an Asset, so let's create one
+                Asset outputAsset = manager.assets()
+                        .define(outputAssetName)
+                        .withExistingMediaService(config.getResourceGroup(), config.getAccountName())
+                        .create();
+                ledger.record(JobLedger.Kind.ASSET, outputAssetName, uniqueness, JobLedger.CREATED);
+
+                Job job = null;
+                JobLedger.Entry recordedJob = ledger.get(JobLedger.Kind.JOB, jobName);
+                if (recordedJob != null && JobLedger.SUBMITTING.equals(recordedJob.getState())
+                        && !jobExists(manager, config.getResourceGroup(), config.getAccountName(), transform.name(), jobName)) {
+                    // Interrupted before the job was created, so submit it again.
+                    System.out.println("Job " + jobName + " was never created, submitting it again.");
+                    recordedJob = null;
+                }
+                if (recordedJob == null) {
+                    ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, JobLedger.SUBMITTING);
+                    job = submitJob(manager, config.getResourceGroup(), config.getAccountName(),
+                            CUSTOM_TWO_LAYER_MP4_PNG, jobName, inputAssetName, outputAsset.name());
+                    ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, job.state().toString());
+                } else {
+                    // Submitted before the interruption, so only wait for it.
+                    System.out.println("Re-attaching to job " + jobName + ", last recorded as "
+                            + recordedJob.getState() + ".");
+                }
 
-            // In this demo code, we will poll for Job status. Polling is not a recommended best practice for production
-            // applications because of the latency it introduces. Overuse of this API may trigger throttling. Developers
-            // should instead use Event Grid. To see how to implement the event grid, see the sample
-            // https://github.com/Azure-Samples/media-services-v3-java/tree/master/ContentProtection/BasicAESClearKey.
-            System.out.println();
-            job = waitForJobToFinish(manager, config.getResourceGroup(), config.getAccountName(),
-                    transform.name(), jobName);
+                // In this demo code, we will poll for Job status. Polling is not a recommended best practice for production
+                // applications because of the latency it introduces. Overuse of this API may trigger throttling. Developers
+                // should instead use Event Grid. To see how to implement the event grid, see the sample
+                // https://github.com/Azure-Samples/media-services-v3-java/tree/master/ContentProtection/BasicAESClearKey.
+                System.out.println();
+                job = waitForJobToFinish(manager, config.getResourceGroup(), config.getAccountName(),
+                        CUSTOM_TWO_LAYER_MP4_PNG, jobName);
+                ledger.record(JobLedger.Kind.JOB, jobName, uniqueness, job.state().toString());
+                jobState = job.state();
+                if (jobState == JobState.FINISHED) {
+                    encodeCache.put(config.getResourceGroup(), config.getAccountName(), contentHash,
+                            presetFingerprint, outputAssetName);
+                }
+            }
 
-            if (job.state() == JobState.FINISHED) {
+            if (jobState == JobState.FINISHED) {
                 System.out.println("Job finished.");
                 System.out.println();
                 File outputFolder = new File(OUTPUT_FOLDER_NAME);
@@ -118,7 +200,7 @@ public class EncodingWithMESCustomPreset {
                     outputFolder.mkdir();
                 }
 
-                downloadOutputAsset(manager, config.getResourceGroup(), config.getAccountName(), outputAsset.name(),
+                downloadOutputAsset(manager, config.getResourceGroup(), config.getAccountName(), outputAssetName,
                         outputFolder);
                 System.out.println("Please check the files at " + outputFolder.getAbsolutePath());
                 System.out.println("When finished, press ENTER to continue.");
@@ -126,7 +208,8 @@ public class EncodingWithMESCustomPreset {
                 System.out.flush();
                 scanner.nextLine();
 
-                StreamingLocator locator = createStreamingLocator(manager, config.getResourceGroup(), config.getAccountName(), outputAsset.name(), locatorName);
+                StreamingLocator locator = createStreamingLocator(manager, config.getResourceGroup(), config.getAccountName(), outputAssetName, locatorName);
+                ledger.record(JobLedger.Kind.LOCATOR, locatorName, uniqueness, JobLedger.CREATED);
 
                 StreamingEndpoint streamingEndpoint = manager.streamingEndpoints()
                         .get(config.getResourceGroup(), config.getAccountName(), STREAMING_ENDPOINT_NAME);
@@ -180,115 +263,112 @@ public class EncodingWithMESCustomPreset {
                 scanner.close();
             }
 
-            cleanup(manager, config.getResourceGroup(), config.getAccountName(), CUSTOM_TWO_LAYER_MP4_PNG, jobName, inputAssetName,
-                    outputAssetName, locatorName, stopEndpoint, STREAMING_ENDPOINT_NAME);
+            // The ledger drops every resource as it is deleted, and the run once nothing of
+            // it is left, so a failed cleanup leaves the rest to the next run.
+            try {
+                cleanup(manager, config.getResourceGroup(), config.getAccountName(), CUSTOM_TWO_LAYER_MP4_PNG, jobName, inputAssetName,
+                        outputAssetName, encodeCache.isCached(outputAssetName), locatorName, stopEndpoint,
+                        STREAMING_ENDPOINT_NAME, ledger, uniqueness);
+                ledger.record(JobLedger.Kind.RUN, uniqueness, CUSTOM_TWO_LAYER_MP4_PNG, JobLedger.DELETED);
+            } catch (Exception e) {
+                System.out.println("Cleanup failed, the next run resumes it: " + e);
+            } finally {
+                ledger.close();
+            }
 
             System.out.println("Done.");
         }
     }
 
     /**
-     * If the specified transform exists, return that transform. If the it does not
-     * exist, creates a new transform with the specified output. In this case, the
-     * output is set to encode a video using a custom preset.
+     * Make sure the specified transform exists with outputs that encode a video
+     * using a custom preset, creating or updating it if needed.
      *
-     * @param manager       This is the entry point of Azure Media resource management.
-     * @param resourceGroup The name of the resource group within the Azure subscription.
-     * @param accountName   The Media Services account name.
-     * @param transformName The name of the transform.
-     * @return The transform found or created.
+     * @param transformRegistry The registry of transforms known to be up to date.
+     * @param manager           This is the entry point of Azure Media resource management.
+     * @param resourceGroup     The name of the resource group within the Azure subscription.
+     * @param accountName       The Media Services account name.
+     * @param transformName     The name of the transform.
+     * @return The fingerprint of the transform outputs.
+     * @throws IOException If writing the registry file fails.
      */
-    private static Transform createCustomTransform(MediaServicesManager manager, String resourceGroup, String accountName,
-                                                   String transformName) {
-        Transform transform;
-        try {
-            // Does a transform already exist with the desired name? Assume that an existing Transform with the desired name
-            // also uses the same recipe or preset for processing content.
-            transform = manager.transforms().get(resourceGroup, accountName, transformName);
-        } catch (ManagementException e) {
-            transform = null;
-        }
-
-        if (transform == null) {
-            System.out.println("Creating a custom transform...");
-            // Create a new Transform Outputs List - this defines the set of outputs for the Transform
-            List<TransformOutput> outputs = new ArrayList<>();
-
-            // Create a new TransformOutput with a custom Standard Encoder Preset
-            // This demonstrates how to create custom codec and layer output settings
-            TransformOutput transformOutput = new TransformOutput();
-
-            // Add it to output list.
-            outputs.add(transformOutput);
-
-            // Create a customer preset and add it to transform output
-            StandardEncoderPreset preset = new StandardEncoderPreset();
-            transformOutput.withPreset(preset)
-                    .withOnError(OnErrorType.STOP_PROCESSING_JOB)
-                    .withRelativePriority(Priority.NORMAL);
-
-            // Create codecs for the preset and add it to the preset
-            List<Codec> codecs = new ArrayList<>();
-            preset.withCodecs(codecs);
-
-            // Add an AAC Audio layer for the audio encoding
-            codecs.add(new AacAudio()
-                    .withProfile(AacAudioProfile.AAC_LC)
-                    .withChannels(2)
-                    .withSamplingRate(48000)
-                    .withBitrate(128000));
-
-            // Next, add a H264Video with two layers, HD and SD for the video encoding
-            List<H264Layer> layers = new ArrayList<>();
-            // Add H264Layers, one at HD and the other at SD. Assign a label that you can use for the output filename
-            H264Layer hdLayer = new H264Layer();
-            hdLayer.withBitrate(1000000)    // Units are in bits per second
-                    .withWidth("1280")
-                    .withHeight("720")
-                    .withLabel("HD");           // This label is used to modify the file name in the output formats
-            H264Layer sdLayer = new H264Layer();
-            sdLayer.withBitrate(600000)
-                    .withWidth("640")
-                    .withHeight("360")
-                    .withLabel("SD");
-            layers.add(hdLayer);
-            layers.add(sdLayer);
-
-            codecs.add(new H264Video()      // Add a H264Video to codecs
-                    .withLayers(layers)         // Add the 2 layers
-                    .withKeyFrameInterval(Duration.ofSeconds(2))    //Set the GOP interval to 2 seconds for both H264Layers
-            );
-
-            // Also generate a set of PNG thumbnails
-            List<PngLayer> pngLayers = new ArrayList<>();
-            PngLayer pngLayer = new PngLayer();
-            pngLayer.withWidth("50%");
-            pngLayer.withHeight("50%");
-            pngLayers.add(pngLayer);
-            codecs.add(new PngImage()
-                    .withLayers(pngLayers)
-                    .withStart("25%")
-                    .withStep("25%")
-                    .withRange("80%"));
-
-            // Specify the format for the output files - one for video+audio, and another for the thumbnails
-            List<Format> formats = new ArrayList<>();
-            // Mux the H.264 video and AAC audio into MP4 files, using basename, label, bitrate and extension macros
-            // Note that since you have multiple H264Layers defined above, you have to use a macro that produces unique names per H264Layer
-            // Either {Label} or {Bitrate} should suffice
-            formats.add(new Mp4Format().withFilenamePattern("Video-{Basename}-{Label}-{Bitrate}{Extension}"));
-            formats.add(new PngFormat().withFilenamePattern("Thumbnail-{Basename}-{Index}{Extension}"));
-            preset.withFormats(formats);
-
-            // Create the custom Transform with the outputs defined above
-            transform = manager.transforms().define(transformName)
-                    .withExistingMediaService(resourceGroup, accountName)
-                    .withOutputs(outputs)
-                    .withDescription("A simple custom encoding transform with 2 MP4 bitrates")
-                    .create();
-        }
-
-        return transform;
+    private static String createCustomTransform(TransformRegistry transformRegistry, MediaServicesManager manager,
+                                                String resourceGroup, String accountName, String transformName)
+            throws IOException {
+        // Create a new Transform Outputs List - this defines the set of outputs for the Transform
+        List<TransformOutput> outputs = new ArrayList<>();
+
+        // Create a new TransformOutput with a custom Standard Encoder Preset
+        // This demonstrates how to create custom codec and layer output settings
+        TransformOutput transformOutput = new TransformOutput();
+
+        // Add it to output list.
+        outputs.add(transformOutput);
+
+        // Create a customer preset and add it to transform output
+        StandardEncoderPreset preset = new StandardEncoderPreset();
+        transformOutput.withPreset(preset)
+                .withOnError(OnErrorType.STOP_PROCESSING_JOB)
+                .withRelativePriority(Priority.NORMAL);
+
+        // Create codecs for the preset and add it to the preset
+        List<Codec> codecs = new ArrayList<>();
+        preset.withCodecs(codecs);
+
+        // Add an AAC Audio layer for the audio encoding
+        codecs.add(new AacAudio()
+                .withProfile(AacAudioProfile.AAC_LC)
+                .withChannels(2)
+                .withSamplingRate(48000)
+                .withBitrate(128000));
+
+        // Next, add a H264Video with two layers, HD and SD for the video encoding
+        List<H264Layer> layers = new ArrayList<>();
+        // Add H264Layers, one at HD and the other at SD. Assign a label that you can use for the output filename
+        H264Layer hdLayer = new H264Layer();
+        hdLayer.withBitrate(1000000)    // Units are in bits per second
+                .withWidth("1280")
+                .withHeight("720")
+                .withLabel("HD");           // This label is used to modify the file name in the output formats
+        H264Layer sdLayer = new H264Layer();
+        sdLayer.withBitrate(600000)
+                .withWidth("640")
+                .withHeight("360")
+                .withLabel("SD");
+        layers.add(hdLayer);
+        layers.add(sdLayer);
+
+        codecs.add(new H264Video()      // Add a H264Video to codecs
+                .withLayers(layers)         // Add the 2 layers
+                .withKeyFrameInterval(Duration.ofSeconds(2))    //Set the GOP interval to 2 seconds for both H264Layers
+        );
+
+        // Also generate a set of PNG thumbnails
+        List<PngLayer> pngLayers = new ArrayList<>();
+        PngLayer pngLayer = new PngLayer();
+        pngLayer.withWidth("50%");
+        pngLayer.withHeight("50%");
+        pngLayers.add(pngLayer);
+        codecs.add(new PngImage()
+                .withLayers(pngLayers)
+                .withStart("25%")
+                .withStep("25%")
+                .withRange("80%"));
+
+        // Specify the format for the output files - one for video+audio, and another for the thumbnails
+        List<Format> formats = new ArrayList<>();
+        // Mux the H.264 video and AAC audio into MP4 files, using basename, label, bitrate and extension macros
+        // Note that since you have multiple H264Layers defined above, you have to use a macro that produces unique names per H264Layer
+        // Either {Label} or {Bitrate} should suffice
+        formats.add(new Mp4Format().withFilenamePattern("Video-{Basename}-{Label}-{Bitrate}{Extension}"));
+        formats.add(new PngFormat().withFilenamePattern("Thumbnail-{Basename}-{Index}{Extension}"));
+        preset.withFormats(formats);
+
+        // Make sure the custom Transform exists with the outputs defined above. A local registry
+        // skips the request if the transform was checked within the last hour, and updates it
+        // only if its outputs no longer match, e.g. because the preset was changed here.
+        return transformRegistry.ensure(manager, resourceGroup, accountName, transformName,
+                "A simple custom encoding transform with 2 MP4 bitrates", outputs);
     }
 
     /**
@@ -375,7 +455,31 @@ public class EncodingWithMESCustomPreset {
     }
 
     /**
-     * Polls Media Services for the status of the Job.
+     * Check whether a job exists, e.g. one whose submission was interrupted.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param jobName       The name of the job.
+     * @return Whether the job exists.
+     */
+    private static boolean jobExists(MediaServicesManager manager, String resourceGroup, String accountName,
+                                     String transformName, String jobName) {
+        try {
+            return manager.jobs().get(resourceGroup, accountName, transformName, jobName) != null;
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Polls Media Services for the status of the Job, at intervals adapted to
+     * its progress and to throttling.
      *
      * @param manager       This is the entry point of Azure Media resource management.
      * @param resourceGroup The name of the resource group within the Azure subscription.
@@ -386,37 +490,7 @@ public class EncodingWithMESCustomPreset {
      */
     private static Job waitForJobToFinish(MediaServicesManager manager, String resourceGroup, String accountName,
                                           String transformName, String jobName) {
-        final int SLEEP_INTERVAL = 30 * 1000;
-
-        Job job = null;
-        boolean exit = false;
-
-        do {
-            job = manager.jobs().get(resourceGroup, accountName, transformName, jobName);
-
-            if (job.state() == JobState.FINISHED || job.state() == JobState.ERROR || job.state() == JobState.CANCELED) {
-                exit = true;
-            } else {
-                System.out.println("Job is " + job.state());
-
-                int i = 0;
-                for (JobOutput output : job.outputs()) {
-                    System.out.print("\tJobOutput[" + i++ + "] is " + output.state() + ".");
-                    if (output.state() == JobState.PROCESSING) {
-                        System.out.print("  Progress: " + output.progress());
-                    }
-                    System.out.println();
-                }
-
-                try {
-                    Thread.sleep(SLEEP_INTERVAL);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        } while (!exit);
-
-        return job;
+        return new AdaptiveJobPoller(manager).waitForJob(resourceGroup, accountName, transformName, jobName);
     }
 
     /**
@@ -521,20 +595,32 @@ public class EncodingWithMESCustomPreset {
      * @param jobName               The job name.
      * @param inputAssetName        The input asset name.
      * @param outputAssetName       The output asset name.
+     * @param keepOutputAsset       Keep the output asset if true, e.g. because it is in the encode cache.
      * @param streamingLocatorName  The streaming locator name.
      * @param stopEndpoint          Stop endpoint if true, otherwise keep endpoint running.
      * @param streamingEndpointName The endpoint name.
+     * @param ledger                The job ledger, told about every job, asset and locator deleted.
+     * @param runName               The run owning them.
+     * @throws IOException If a deletion can't be recorded in the job ledger.
      */
     private static void cleanup(MediaServicesManager manager, String resourceGroupName, String accountName, String transformName, String jobName,
-                                String inputAssetName, String outputAssetName, String streamingLocatorName, boolean stopEndpoint, String streamingEndpointName) {
+                                String inputAssetName, String outputAssetName, boolean keepOutputAsset, String streamingLocatorName,
+                                boolean stopEndpoint, String streamingEndpointName,
+                                JobLedger ledger, String runName) throws IOException {
         if (manager == null) {
             return;
         }
 
         manager.jobs().delete(resourceGroupName, accountName, transformName, jobName);
+        ledger.record(JobLedger.Kind.JOB, jobName, runName, JobLedger.DELETED);
         manager.assets().delete(resourceGroupName, accountName, inputAssetName);
-        manager.assets().delete(resourceGroupName, accountName, outputAssetName);
+        ledger.record(JobLedger.Kind.ASSET, inputAssetName, runName, JobLedger.DELETED);
+        if (!keepOutputAsset) {
+            manager.assets().delete(resourceGroupName, accountName, outputAssetName);
+            ledger.record(JobLedger.Kind.ASSET, outputAssetName, runName, JobLedger.DELETED);
+        }
         manager.streamingLocators().delete(resourceGroupName, accountName, streamingLocatorName);
+        ledger.record(JobLedger.Kind.LOCATOR, streamingLocatorName, runName, JobLedger.DELETED);
 
         if (stopEndpoint) {
             // Because we started the endpoint, we'll stop it.
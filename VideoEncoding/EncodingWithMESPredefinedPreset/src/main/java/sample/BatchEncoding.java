@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import com.azure.core.credential.TokenCredential;
+import com.azure.core.http.policy.HttpLogDetailLevel;
+import com.azure.core.http.policy.HttpLogOptions;
+import com.azure.core.management.exception.ManagementException;
+import com.azure.core.management.profile.AzureProfile;
+import com.azure.resourcemanager.mediaservices.models.BuiltInStandardEncoderPreset;
+import com.azure.resourcemanager.mediaservices.models.EncoderNamedPreset;
+import com.azure.resourcemanager.mediaservices.models.JobInputHttp;
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import com.azure.resourcemanager.mediaservices.models.Priority;
+import com.azure.resourcemanager.mediaservices.models.TransformOutput;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.identity.ClientSecretCredentialBuilder;
+import sample.BatchJobSubmitter.Submission;
+
+import javax.naming.AuthenticationException;
+
+/**
+ * Encodes a list of files with the transform of EncodingWithMESPredefinedPreset,
+ * e.g. to migrate a back catalog, through a BatchJobSubmitter.
+ *
+ * Usage: BatchEncoding &lt;file of input URLs&gt; [concurrency]
+ *        BatchEncoding --running &lt;jobs&gt; &lt;file of input URLs&gt;
+ *
+ * Run it with mvn exec:java -Dexec.mainClass=sample.BatchEncoding
+ * -Dexec.args="inputs.txt 8", or -Dexec.args="--running 10 inputs.txt".
+ *
+ * The file holds the HTTPS URL of one media file per line, optionally followed
+ * by a tenant and a priority (Low, Normal or High), separated by whitespace.
+ * Blank lines and lines starting with # are skipped. Each file gets its own
+ * output asset and job.
+ *
+ * By default every job is submitted at once through a BatchJobSubmitter, with
+ * at most the given number of submissions in flight (4 by default), paced to
+ * the write quota of the subscription. The file is read as the submissions go,
+ * so it can list tens of thousands of files. The submissions per second are
+ * printed as they go, and for the whole batch at the end. The jobs are left to
+ * run.
+ *
+ * With --running, a JobScheduler keeps the given number of jobs running
+ * instead, sharing the slots between the tenants of the file, and the run
+ * waits until every job is finished. Set it to the reserved units of the
+ * account. The whole file is queued up front.
+ *
+ * Output assets are named output-batch-..., and nothing is cleaned up.
+ */
+public class BatchEncoding {
+    private static final String TRANSFORM_NAME = "AdaptiveBitrate";
+    private static final String TRANSFORM_REGISTRY_FILE = "transform-registry.txt";
+    private static final String INPUT_LABEL = "input1";
+    private static final String DEFAULT_TENANT = "default";
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final long REPORT_INTERVAL_SECONDS = 60;
+
+    public static void main(String[] args) {
+        boolean scheduled = args.length > 0 && args[0].equals("--running");
+        String inputList = null;
+        int concurrency = 0;
+        if (scheduled ? args.length == 3 : args.length == 1 || args.length == 2) {
+            inputList = scheduled ? args[2] : args[0];
+            concurrency = scheduled ? parseCount(args[1]) : args.length == 2 ? parseCount(args[1])
+                    : DEFAULT_CONCURRENCY;
+        }
+        if (concurrency < 1) {
+            System.out.println("Usage: BatchEncoding <file of input URLs> [concurrency]");
+            System.out.println("       BatchEncoding --running <jobs> <file of input URLs>");
+            return;
+        }
+
+        // Please make sure you have set configuration in resources/conf/appsettings.json. For more information, see
+        // https://docs.microsoft.com/azure/media-services/latest/access-api-cli-how-to.
+        ConfigWrapper config = new ConfigWrapper();
+        runBatchEncoding(config, inputList, concurrency, scheduled);
+
+        config.close();
+        System.exit(0);
+    }
+
+    /**
+     * @return The count, or 0 if it is not a number.
+     */
+    private static int parseCount(String count) {
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Submit a job for every file of the list.
+     *
+     * @param config      The configuration read from the local configuration file.
+     * @param inputList   The file listing the input URLs.
+     * @param concurrency The most submissions in flight at a time, or with
+     *                    scheduled, the number of jobs to keep running.
+     * @param scheduled   Whether to keep a number of jobs running and wait
+     *                    for them, rather than submit every job at once.
+     */
+    private static void runBatchEncoding(ConfigWrapper config, String inputList, int concurrency,
+                                         boolean scheduled) {
+        TokenCredential credential = new ClientSecretCredentialBuilder()
+                .clientId(config.getAadClientId())
+                .clientSecret(config.getAadSecret())
+                .tenantId(config.getAadTenantId())
+                .build();
+        AzureProfile profile = new AzureProfile(config.getAadTenantId(), config.getSubscriptionId(),
+                com.azure.core.management.AzureEnvironment.AZURE);
+
+        // Logging the bodies of thousands of requests would bury the progress
+        // reports, so only failures are printed.
+        MediaServicesManager manager = MediaServicesManager.configure()
+                .withLogOptions(new HttpLogOptions().setLogLevel(HttpLogDetailLevel.NONE))
+                .authenticate(credential, profile);
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(inputList), StandardCharsets.UTF_8)) {
+            List<TransformOutput> outputs = new ArrayList<>();
+            outputs.add(new TransformOutput().withPreset(
+                    new BuiltInStandardEncoderPreset().withPresetName(EncoderNamedPreset.CONTENT_AWARE_ENCODING)));
+            new TransformRegistry(Paths.get(TRANSFORM_REGISTRY_FILE)).ensure(manager, config.getResourceGroup(),
+                    config.getAccountName(), TRANSFORM_NAME, outputs);
+
+            Iterator<String[]> lines = reader.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .map(line -> line.split("\\s+"))
+                    .iterator();
+            if (scheduled) {
+                runScheduled(manager, config, lines, concurrency);
+                return;
+            }
+
+            Iterator<Submission> submissions = new Iterator<Submission>() {
+                @Override
+                public boolean hasNext() {
+                    return lines.hasNext();
+                }
+
+                @Override
+                public Submission next() {
+                    return toSubmission(lines.next());
+                }
+            };
+            BatchJobSubmitter submitter = new BatchJobSubmitter(manager, config.getResourceGroup(),
+                    config.getAccountName(), concurrency);
+            System.out.println("Submitting the jobs of " + inputList + "...");
+            BatchJobSubmitter.Summary summary = submitter.submitAll(submissions, (submission, error) -> {
+                if (error != null) {
+                    System.out.println("Failed to submit " + submission.getJobName() + ": " + error.getMessage());
+                }
+            });
+            System.out.println(summary);
+        } catch (Exception e) {
+            Throwable cause = e;
+            while (cause != null) {
+                if (cause instanceof AuthenticationException) {
+                    System.out.println("ERROR: Authentication error, please check your account settings in appsettings.json.");
+                    break;
+                } else if (cause instanceof ManagementException) {
+                    ManagementException apiException = (ManagementException) cause;
+                    System.out.println("ERROR: " + apiException.getValue().getMessage());
+                    break;
+                }
+                cause = cause.getCause();
+            }
+            System.out.println();
+            e.printStackTrace();
+            System.out.println();
+        }
+    }
+
+    /**
+     * Queue every job in a JobScheduler and wait until all are finished,
+     * reporting the running and queued jobs as they go.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param config        The configuration read from the local configuration file.
+     * @param lines         The fields of the lines of the input list.
+     * @param targetRunning The number of jobs to keep running.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private static void runScheduled(MediaServicesManager manager, ConfigWrapper config, Iterator<String[]> lines,
+                                     int targetRunning) throws InterruptedException {
+        Map<String, Integer> finalStates = new TreeMap<>();
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+        try (JobScheduler scheduler = new JobScheduler(manager, config.getResourceGroup(),
+                config.getAccountName(), targetRunning)) {
+            while (lines.hasNext()) {
+                String[] fields = lines.next();
+                Submission submission = toSubmission(fields);
+                String tenant = fields.length > 1 ? fields[1] : DEFAULT_TENANT;
+                jobs.add(scheduler.schedule(tenant, submission).handle((JobState state, Throwable error) -> {
+                    String outcome = state != null ? state.toString() : "Failed";
+                    if (error != null) {
+                        System.out.println("Job " + submission.getJobName() + " failed: " + error.getMessage());
+                    }
+                    synchronized (finalStates) {
+                        finalStates.merge(outcome, 1, Integer::sum);
+                    }
+                    return null;
+                }));
+            }
+            System.out.println("Scheduled " + jobs.size() + " jobs, keeping " + targetRunning + " running...");
+
+            CompletableFuture<Void> all = CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0]));
+            while (true) {
+                try {
+                    all.get(REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    System.out.println(scheduler.getRunningCount() + " jobs running, " + scheduler.getQueuedCount()
+                            + " queued, " + scheduler.getFailedCount() + " failed to submit.");
+                } catch (ExecutionException e) {
+                    // Every job future is handled above.
+                    break;
+                }
+            }
+        }
+
+        synchronized (finalStates) {
+            System.out.println("Finished " + jobs.size() + " jobs: " + finalStates.entrySet().stream()
+                    .map(entry -> entry.getValue() + " " + entry.getKey())
+                    .collect(Collectors.joining(", ")) + ".");
+        }
+    }
+
+    /**
+     * Make the submission of one line of the input list, with a unique job and
+     * output asset.
+     *
+     * @param fields The fields of the line: the HTTPS URL of the input file,
+     *               then optionally a tenant and a priority.
+     * @return The submission.
+     */
+    private static Submission toSubmission(String[] fields) {
+        String url = fields[0];
+        int slash = url.lastIndexOf('/');
+        JobInputHttp input = new JobInputHttp().withBaseUri(url.substring(0, slash + 1));
+        input.withFiles(Collections.singletonList(url.substring(slash + 1)));
+        input.withLabel(INPUT_LABEL);
+
+        String uniqueness = UUID.randomUUID().toString();
+        return new Submission(input, TRANSFORM_NAME, "output-batch-" + uniqueness,
+                "job-batch-" + uniqueness.substring(0, 13), fields.length > 2 ? toPriority(fields[2]) : null);
+    }
+
+    private static Priority toPriority(String name) {
+        for (Priority priority : new Priority[] {Priority.LOW, Priority.NORMAL, Priority.HIGH}) {
+            if (priority.toString().equalsIgnoreCase(name)) {
+                return priority;
+            }
+        }
+        throw new IllegalArgumentException("Unknown priority " + name + ", expected Low, Normal or High");
+    }
+}
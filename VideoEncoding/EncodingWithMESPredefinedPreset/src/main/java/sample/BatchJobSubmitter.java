@@ -0,0 +1,362 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.rest.Response;
+import com.azure.core.util.Context;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.resourcemanager.mediaservices.fluent.models.AssetInner;
+import com.azure.resourcemanager.mediaservices.fluent.models.JobInner;
+import com.azure.resourcemanager.mediaservices.models.JobInput;
+import com.azure.resourcemanager.mediaservices.models.JobOutput;
+import com.azure.resourcemanager.mediaservices.models.JobOutputAsset;
+import com.azure.resourcemanager.mediaservices.models.Priority;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Submits large batches of jobs, e.g. for a back-catalog migration, creating
+ * the output asset and the job of each with a bounded number of requests in
+ * flight, and paces them to what ARM and Media Services allow.
+ *
+ * Requests go through the service clients of the manager so their responses,
+ * and with them the remaining subscription write quota, can be read:
+ *
+ * - below 100 writes left, the spacing between request starts is 10 ms for
+ *   every write missing to 100, so the rate settles where the quota refills as
+ *   fast as it is spent; with more left, every response narrows it by a
+ *   sixteenth;
+ * - a throttled request (429 or 503) doubles the spacing, pauses all workers
+ *   for the Retry-After the service asked for, or 5 seconds, and is retried up
+ *   to 5 times.
+ *
+ * Submissions are read from an iterator as workers free up, so a batch of
+ * tens of thousands is never held in memory. Progress and the sustained rate
+ * are printed every 10 seconds.
+ */
+public class BatchJobSubmitter {
+    private static final String REMAINING_WRITES_HEADER = "x-ms-ratelimit-remaining-subscription-writes";
+    private static final int LOW_REMAINING_WRITES = 100;
+    private static final long SPACING_PER_MISSING_WRITE_MILLIS = 10;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long DEFAULT_PAUSE_MILLIS = 5000;
+    private static final long MIN_SPACING_MILLIS = 50;
+    private static final long MAX_SPACING_MILLIS = 10000;
+    private static final long REPORT_INTERVAL_MILLIS = 10000;
+
+    private final MediaServicesManager manager;
+    private final String resourceGroup;
+    private final String accountName;
+    private final int concurrency;
+    private final Pacer pacer = new Pacer();
+    private final AtomicInteger throttledCount = new AtomicInteger();
+
+    /**
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param concurrency   The most submissions in flight at a time.
+     */
+    public BatchJobSubmitter(MediaServicesManager manager, String resourceGroup, String accountName,
+                             int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.manager = manager;
+        this.resourceGroup = resourceGroup;
+        this.accountName = accountName;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Submit every job of a batch and wait until all are submitted or failed.
+     *
+     * @param submissions The jobs to submit.
+     * @param onDone      Called for every submission with null, or the
+     *                    exception it failed with. Called from the workers,
+     *                    and done for every submission when this returns.
+     * @return The summary of the batch.
+     * @throws InterruptedException If interrupted while waiting; submissions
+     *                              in flight still complete.
+     */
+    public Summary submitAll(Iterator<Submission> submissions, BiConsumer<Submission, Exception> onDone)
+            throws InterruptedException {
+        AtomicLong submitted = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        Semaphore inFlight = new Semaphore(concurrency);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "batch-job-submitter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long startMillis = System.currentTimeMillis();
+        long reportMillis = startMillis;
+        long reportedCount = 0;
+        try {
+            while (submissions.hasNext()) {
+                Submission submission = submissions.next();
+                inFlight.acquire();
+                workers.execute(() -> {
+                    Exception error = null;
+                    try {
+                        submit(submission);
+                        submitted.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        error = e;
+                    }
+                    try {
+                        if (onDone != null) {
+                            onDone.accept(submission, error);
+                        }
+                    } finally {
+                        // Only now, so submitAll returns after the last callback.
+                        inFlight.release();
+                    }
+                });
+
+                long now = System.currentTimeMillis();
+                if (now - reportMillis >= REPORT_INTERVAL_MILLIS) {
+                    long count = submitted.get();
+                    System.out.println(String.format("Submitted %d jobs, %d failed: %.1f/s in the last %d s, "
+                                    + "%.1f/s overall, %d ms between requests.", count, failed.get(),
+                            (count - reportedCount) * 1000.0 / (now - reportMillis), (now - reportMillis) / 1000,
+                            count * 1000.0 / (now - startMillis), pacer.getSpacingMillis()));
+                    reportMillis = now;
+                    reportedCount = count;
+                }
+            }
+            // Wait for the last submissions.
+            inFlight.acquire(concurrency);
+        } finally {
+            workers.shutdown();
+        }
+
+        return new Summary(submitted.get(), failed.get(), throttledCount.get(),
+                Duration.ofMillis(System.currentTimeMillis() - startMillis));
+    }
+
+    /**
+     * Submit one job, paced together with the batches of this submitter.
+     *
+     * @param submission The job to submit.
+     */
+    public void submit(Submission submission) {
+        call(() -> manager.serviceClient().getAssets().createOrUpdateWithResponse(resourceGroup, accountName,
+                submission.outputAssetName, new AssetInner(), Context.NONE));
+
+        JobOutput output = new JobOutputAsset().withAssetName(submission.outputAssetName);
+        JobInner job = new JobInner().withInput(submission.input).withOutputs(Collections.singletonList(output))
+                .withPriority(submission.priority);
+        call(() -> manager.serviceClient().getJobs().createWithResponse(resourceGroup, accountName,
+                submission.transformName, submission.jobName, job, Context.NONE));
+    }
+
+    /**
+     * Make a paced request, retrying it while it is throttled.
+     */
+    private <T> T call(Supplier<Response<T>> request) {
+        for (int attempt = 1; ; attempt++) {
+            pacer.acquire();
+            try {
+                Response<T> response = request.get();
+                pacer.onSuccess(response.getHeaders().getValue(REMAINING_WRITES_HEADER));
+                return response.getValue();
+            } catch (HttpResponseException e) {
+                HttpResponse response = e.getResponse();
+                int status = response == null ? 0 : response.getStatusCode();
+                if ((status != 429 && status != 503) || attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                throttledCount.incrementAndGet();
+                long retryAfterMillis = AdaptiveJobPoller.retryAfterMillis(response);
+                pacer.onThrottled(retryAfterMillis > 0 ? retryAfterMillis : DEFAULT_PAUSE_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Spaces the starts of requests across all workers, and pauses them all
+     * while the service is throttling.
+     */
+    private static final class Pacer {
+        private long spacingMillis;
+        private long nextStartMillis;
+        private long pausedUntilMillis;
+
+        void acquire() {
+            long startMillis;
+            synchronized (this) {
+                startMillis = Math.max(System.currentTimeMillis(), Math.max(nextStartMillis, pausedUntilMillis));
+                nextStartMillis = startMillis + spacingMillis;
+            }
+            long waitMillis = startMillis - System.currentTimeMillis();
+            if (waitMillis > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        synchronized void onSuccess(String remainingWrites) {
+            int remaining = parseRemaining(remainingWrites);
+            if (remaining >= 0 && remaining < LOW_REMAINING_WRITES) {
+                // The emptier the quota, the slower; at 0 left, one request per second.
+                spacingMillis = (LOW_REMAINING_WRITES - remaining) * SPACING_PER_MISSING_WRITE_MILLIS;
+            } else {
+                // Speed up again by a sixteenth per request.
+                spacingMillis -= (spacingMillis + 15) / 16;
+            }
+        }
+
+        synchronized void onThrottled(long pauseMillis) {
+            pausedUntilMillis = Math.max(pausedUntilMillis, System.currentTimeMillis() + pauseMillis);
+            spacingMillis = Math.min(MAX_SPACING_MILLIS, Math.max(MIN_SPACING_MILLIS, spacingMillis * 2));
+        }
+
+        synchronized long getSpacingMillis() {
+            return spacingMillis;
+        }
+
+        /**
+         * @return The writes left, or -1 if not known.
+         */
+        private static int parseRemaining(String remainingWrites) {
+            if (remainingWrites == null) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(remainingWrites.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * One job to submit: its input, transform, output asset, name and priority.
+     */
+    public static final class Submission {
+        private final JobInput input;
+        private final String transformName;
+        private final String outputAssetName;
+        private final String jobName;
+        private final Priority priority;
+
+        /**
+         * @param input           The job input, e.g. a JobInputAsset or JobInputHttp.
+         * @param transformName   The name of the transform to run.
+         * @param outputAssetName The name of the output asset, created if missing.
+         * @param jobName         The name of the job, unique in the transform.
+         */
+        public Submission(JobInput input, String transformName, String outputAssetName, String jobName) {
+            this(input, transformName, outputAssetName, jobName, null);
+        }
+
+        /**
+         * @param input           The job input, e.g. a JobInputAsset or JobInputHttp.
+         * @param transformName   The name of the transform to run.
+         * @param outputAssetName The name of the output asset, created if missing.
+         * @param jobName         The name of the job, unique in the transform.
+         * @param priority        The priority of the job among the jobs of the
+         *                        transform, or null for Normal.
+         */
+        public Submission(JobInput input, String transformName, String outputAssetName, String jobName,
+                          Priority priority) {
+            this.input = input;
+            this.transformName = transformName;
+            this.outputAssetName = outputAssetName;
+            this.jobName = jobName;
+            this.priority = priority;
+        }
+
+        public JobInput getInput() {
+            return input;
+        }
+
+        public String getTransformName() {
+            return transformName;
+        }
+
+        public String getOutputAssetName() {
+            return outputAssetName;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        /**
+         * @return The priority of the job, or null for Normal.
+         */
+        public Priority getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * The outcome of a batch.
+     */
+    public static final class Summary {
+        private final long submittedCount;
+        private final long failedCount;
+        private final int throttledCount;
+        private final Duration elapsed;
+
+        Summary(long submittedCount, long failedCount, int throttledCount, Duration elapsed) {
+            this.submittedCount = submittedCount;
+            this.failedCount = failedCount;
+            this.throttledCount = throttledCount;
+            this.elapsed = elapsed;
+        }
+
+        public long getSubmittedCount() {
+            return submittedCount;
+        }
+
+        public long getFailedCount() {
+            return failedCount;
+        }
+
+        /**
+         * @return The number of requests that were throttled and retried.
+         */
+        public int getThrottledCount() {
+            return throttledCount;
+        }
+
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return The jobs submitted per second over the whole batch.
+         */
+        public double getSubmissionsPerSecond() {
+            return elapsed.isZero() ? 0 : submittedCount * 1000.0 / elapsed.toMillis();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Submitted %d jobs in %.1f s (%.1f/s), %d failed, %d requests throttled.",
+                    submittedCount, elapsed.toMillis() / 1000.0, getSubmissionsPerSecond(), failedCount,
+                    throttledCount);
+        }
+    }
+}
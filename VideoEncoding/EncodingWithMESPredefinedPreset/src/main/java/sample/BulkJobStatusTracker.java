@@ -0,0 +1,243 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.rest.PagedResponse;
+import com.azure.core.util.Context;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.resourcemanager.mediaservices.models.Job;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Waits for many jobs of one transform with one list call per cycle instead
+ * of one GET per job, so a thousand jobs in flight cost a few requests per
+ * cycle rather than a thousand.
+ *
+ * Every cycle lists the jobs of the transform that reached a final state
+ * since the previous cycle, filtered on the service side by state and last
+ * modification time, walks the pages, and completes the waiters of the jobs
+ * found. Cycles only run while someone waits. Throttled lists wait at least
+ * the Retry-After the service asked for.
+ *
+ * The time filter looks back one minute further than the previous cycle to
+ * cover clock skew between this machine and the service, so jobs that ended
+ * within the last minute are listed again. Register a job before or right
+ * after submitting it; a job that had already finished long before it is
+ * registered is not found.
+ */
+public class BulkJobStatusTracker {
+    private static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(10);
+    private static final Duration LOOK_BACK = Duration.ofMinutes(1);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    // Jobs in any of these states are still running and filtered out.
+    private static final String FINAL_STATE_FILTER = "properties/state ne 'Queued'"
+            + " and properties/state ne 'Scheduled'"
+            + " and properties/state ne 'Processing'"
+            + " and properties/state ne 'Canceling'";
+
+    // The tracker of each transform, by resource group, account and transform name.
+    private static final ConcurrentHashMap<String, BulkJobStatusTracker> TRANSFORMS = new ConcurrentHashMap<>();
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "bulk-job-status");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MediaServicesManager manager;
+    private final String resourceGroup;
+    private final String accountName;
+    private final String transformName;
+    private final long intervalMillis;
+    private final ConcurrentHashMap<String, CompletableFuture<Job>> waiters = new ConcurrentHashMap<>();
+    private final AtomicLong listCount = new AtomicLong();
+    private final AtomicLong pageCount = new AtomicLong();
+    private Instant watermark;
+    private boolean scheduled;
+    private long backoffMillis;
+
+    /**
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @param interval      The time between list calls.
+     */
+    public BulkJobStatusTracker(MediaServicesManager manager, String resourceGroup, String accountName,
+                                String transformName, Duration interval) {
+        this.manager = manager;
+        this.resourceGroup = resourceGroup;
+        this.accountName = accountName;
+        this.transformName = transformName;
+        this.intervalMillis = interval.toMillis();
+    }
+
+    /**
+     * Get the tracker of a transform, shared by the whole process, that lists
+     * every 10 seconds.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param transformName The name of the transform.
+     * @return The tracker.
+     */
+    public static BulkJobStatusTracker forTransform(MediaServicesManager manager, String resourceGroup,
+                                                    String accountName, String transformName) {
+        return TRANSFORMS.computeIfAbsent(resourceGroup + '/' + accountName + '/' + transformName,
+                key -> new BulkJobStatusTracker(manager, resourceGroup, accountName, transformName,
+                        DEFAULT_INTERVAL));
+    }
+
+    /**
+     * Wait for a job to finish, error or be canceled.
+     *
+     * @param jobName The name of the job.
+     * @return A future completed with the job in its final state. It is never
+     *         completed for a job that doesn't exist, so wait with a timeout.
+     *         It completes exceptionally if listing fails with other than a
+     *         throttling or server error.
+     */
+    public CompletableFuture<Job> waitForJob(String jobName) {
+        CompletableFuture<Job> future = waiters.computeIfAbsent(jobName, name -> {
+            CompletableFuture<Job> created = new CompletableFuture<>();
+            // Stop listing for a job the caller gave up on.
+            created.whenComplete((job, error) -> waiters.remove(name, created));
+            return created;
+        });
+        synchronized (this) {
+            if (!scheduled) {
+                // Idle until now; nothing older than this job is of interest.
+                watermark = Instant.now();
+                backoffMillis = 0;
+                scheduled = true;
+                SCHEDULER.schedule(this::cycle, AdaptiveJobPoller.jitter(intervalMillis), TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * List the jobs of the transform modified since a time, walking all pages.
+     *
+     * @param modifiedSince The earliest last modification time of interest.
+     * @param finalOnly     Whether to list only finished, errored and canceled
+     *                      jobs.
+     * @return The jobs.
+     */
+    public List<Job> listJobs(Instant modifiedSince, boolean finalOnly) {
+        // OData datetime literals take no quotes and must be UTC.
+        String filter = "properties/lastModified ge " + modifiedSince.truncatedTo(ChronoUnit.SECONDS)
+                + (finalOnly ? " and " + FINAL_STATE_FILTER : "");
+        List<Job> jobs = new ArrayList<>();
+        listCount.incrementAndGet();
+        for (PagedResponse<Job> page : manager.jobs()
+                .list(resourceGroup, accountName, transformName, filter, null, Context.NONE).iterableByPage()) {
+            pageCount.incrementAndGet();
+            jobs.addAll(page.getValue());
+            if (AdaptiveJobPoller.isLow(page.getHeaders().getValue(AdaptiveJobPoller.REMAINING_READS_HEADER))) {
+                synchronized (this) {
+                    backoffMillis = Math.max(backoffMillis, MAX_BACKOFF_MILLIS);
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @return The number of jobs waited for.
+     */
+    public int getWaitingCount() {
+        return waiters.size();
+    }
+
+    /**
+     * @return The number of list calls made.
+     */
+    public long getListCount() {
+        return listCount.get();
+    }
+
+    /**
+     * @return The number of result pages read.
+     */
+    public long getPageCount() {
+        return pageCount.get();
+    }
+
+    /**
+     * One list call. Runs on the scheduler thread and schedules the next one
+     * while there are waiters.
+     */
+    private void cycle() {
+        Instant cycleStart = Instant.now();
+        Instant since;
+        synchronized (this) {
+            since = watermark.minus(LOOK_BACK);
+        }
+
+        long delayMillis = AdaptiveJobPoller.jitter(intervalMillis);
+        try {
+            for (Job job : listJobs(since, true)) {
+                CompletableFuture<Job> future = waiters.remove(job.name());
+                if (future != null) {
+                    future.complete(job);
+                }
+            }
+            synchronized (this) {
+                watermark = cycleStart;
+                delayMillis = AdaptiveJobPoller.jitter(Math.max(intervalMillis, backoffMillis));
+                backoffMillis = 0;
+            }
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            int status = response == null ? 0 : response.getStatusCode();
+            if (status == 429 || status >= 500) {
+                synchronized (this) {
+                    backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(intervalMillis, backoffMillis * 2));
+                    // Jitter only the backoff; never retry before the Retry-After.
+                    delayMillis = Math.max(AdaptiveJobPoller.jitter(backoffMillis),
+                            AdaptiveJobPoller.retryAfterMillis(response));
+                }
+                System.out.println("Listing jobs of " + transformName + " failed with " + status + ", retrying in "
+                        + delayMillis / 1000 + " s.");
+            } else {
+                failAll(e);
+            }
+        } catch (RuntimeException e) {
+            failAll(e);
+        }
+
+        synchronized (this) {
+            if (waiters.isEmpty()) {
+                scheduled = false;
+                return;
+            }
+            SCHEDULER.schedule(this::cycle, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void failAll(Exception e) {
+        for (String jobName : new ArrayList<>(waiters.keySet())) {
+            CompletableFuture<Job> future = waiters.remove(jobName);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
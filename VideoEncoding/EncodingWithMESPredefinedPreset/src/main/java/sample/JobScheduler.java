@@ -0,0 +1,466 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.azure.resourcemanager.mediaservices.MediaServicesManager;
+import com.azure.resourcemanager.mediaservices.models.Job;
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import com.azure.resourcemanager.mediaservices.models.Priority;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import sample.BatchJobSubmitter.Submission;
+
+/**
+ * Keeps a target number of jobs running in the account and decides which
+ * waiting job goes next, so the account stays busy without a pile of queued
+ * jobs in front of it. Set the target to the number of jobs the account can
+ * process at once, i.e. its reserved units.
+ *
+ * Jobs are scheduled for a tenant, e.g. a customer or a team. Each tenant has
+ * a queue per priority, served highest first and in order within a priority.
+ * A free slot goes to the tenant with the fewest running jobs for its weight:
+ * with weights 2 and 1 and both busy, the first runs twice as many jobs as the
+ * second, while a tenant alone gets every slot. The priority is also set on
+ * the job, so Media Services orders it among the jobs of its transform.
+ *
+ * A slot is held from submission until the job finishes, errors or is
+ * canceled. By default that is found by the list polls of
+ * {@link BulkJobStatusTracker}, for at most a day. Where an event processor
+ * runs, pass the waitForJob of the HybridJobTracker of the transform instead,
+ * so a slot is refilled as soon as the final event of its job arrives. A
+ * submission that fails frees its slot at once.
+ *
+ * Close the scheduler when done. Queued jobs are then canceled; jobs already
+ * submitted keep running in the account.
+ */
+public class JobScheduler implements AutoCloseable {
+    private static final int MAX_SUBMITTING = 4;
+    private static final int DEFAULT_WEIGHT = 1;
+    // The longest the list polls wait for a job before its slot is given up.
+    private static final long LIST_WAIT_HOURS = 24;
+
+    private static final ScheduledThreadPoolExecutor TIMEOUTS = createTimeouts();
+
+    private final Consumer<Submission> submit;
+    private final BiFunction<String, String, CompletableFuture<JobState>> waitForJob;
+    private final ExecutorService submitting;
+    private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+    private int targetRunning;
+    private int runningCount;
+    private int queuedCount;
+    private long submittedCount;
+    private long failedCount;
+    private boolean closed;
+
+    /**
+     * Create a scheduler that finds finished jobs by listing the jobs of their
+     * transforms. Each job is also read once after it is submitted: a job that
+     * doesn't exist fails at once, and one that already ended is not missed.
+     * A job not found finished within 24 hours fails with a TimeoutException;
+     * its slot is freed, but the job keeps running in the account.
+     *
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param targetRunning The number of jobs to keep running.
+     */
+    public JobScheduler(MediaServicesManager manager, String resourceGroup, String accountName,
+                        int targetRunning) {
+        this(manager, resourceGroup, accountName, targetRunning, (transformName, jobName) ->
+                waitThroughList(manager, resourceGroup, accountName, transformName, jobName));
+    }
+
+    /**
+     * @param manager       The entry point of Azure Media resource management.
+     * @param resourceGroup The name of the resource group within the Azure
+     *                      subscription.
+     * @param accountName   The Media Services account name.
+     * @param targetRunning The number of jobs to keep running.
+     * @param waitForJob    Returns a future completed with the final state of
+     *                      a job, given its transform and name.
+     */
+    public JobScheduler(MediaServicesManager manager, String resourceGroup, String accountName,
+                        int targetRunning, BiFunction<String, String, CompletableFuture<JobState>> waitForJob) {
+        this(targetRunning, new BatchJobSubmitter(manager, resourceGroup, accountName,
+                Math.min(targetRunning, MAX_SUBMITTING))::submit, waitForJob);
+    }
+
+    /**
+     * Create a scheduler that submits through a function of its own, e.g. in
+     * tests.
+     *
+     * @param targetRunning The number of jobs to keep running.
+     * @param submit        Submits a job, throwing if it can't.
+     * @param waitForJob    Returns a future completed with the final state of
+     *                      a job, given its transform and name.
+     */
+    JobScheduler(int targetRunning, Consumer<Submission> submit,
+                 BiFunction<String, String, CompletableFuture<JobState>> waitForJob) {
+        if (targetRunning < 1) {
+            throw new IllegalArgumentException("targetRunning must be at least 1");
+        }
+        int submitters = Math.min(targetRunning, MAX_SUBMITTING);
+        this.submit = submit;
+        this.waitForJob = waitForJob;
+        this.targetRunning = targetRunning;
+        this.submitting = Executors.newFixedThreadPool(submitters, runnable -> {
+            Thread thread = new Thread(runnable, "job-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Set the share of a tenant. Tenants not set have a weight of 1.
+     *
+     * @param tenant The tenant.
+     * @param weight The weight of the tenant, relative to the others.
+     */
+    public synchronized void setWeight(String tenant, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1");
+        }
+        tenant(tenant).weight = weight;
+    }
+
+    /**
+     * Change the number of jobs to keep running, e.g. after scaling the
+     * reserved units of the account. Running jobs are not affected; a lower
+     * target takes effect as they finish.
+     *
+     * @param targetRunning The number of jobs to keep running.
+     */
+    public void setTargetRunning(int targetRunning) {
+        if (targetRunning < 1) {
+            throw new IllegalArgumentException("targetRunning must be at least 1");
+        }
+        synchronized (this) {
+            this.targetRunning = targetRunning;
+        }
+        dispatch();
+    }
+
+    /**
+     * Queue a job, to be submitted when a slot is free and its turn comes.
+     *
+     * @param tenant     The tenant the job is run for.
+     * @param submission The job. Its priority orders it among the jobs of the
+     *                   tenant; null counts as Normal.
+     * @return A future completed with the final state of the job. It completes
+     *         exceptionally if the job can't be submitted or waited for.
+     *         Cancel it to drop a job that was not submitted yet.
+     * @throws IllegalStateException If the scheduler is closed.
+     */
+    public CompletableFuture<JobState> schedule(String tenant, Submission submission) {
+        Task task = new Task(submission);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The scheduler is closed");
+            }
+            task.tenant = tenant(tenant);
+            task.queue = task.tenant.queues.get(rank(submission.getPriority()));
+            task.queue.add(task);
+            queuedCount++;
+        }
+        task.future.whenComplete((state, error) -> {
+            if (task.future.isCancelled()) {
+                unqueue(task);
+            }
+        });
+        dispatch();
+        return task.future;
+    }
+
+    /**
+     * Stop taking jobs: cancel the queued ones and stop the submitting threads
+     * once the submissions in progress are done. Jobs already submitted keep
+     * running, and their futures still complete.
+     */
+    @Override
+    public void close() {
+        List<Task> queued = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Tenant tenant : tenants.values()) {
+                Task task;
+                while ((task = tenant.poll()) != null) {
+                    task.queue = null;
+                    queued.add(task);
+                }
+            }
+            queuedCount = 0;
+        }
+        submitting.shutdown();
+        for (Task task : queued) {
+            task.future.cancel(false);
+        }
+    }
+
+    /**
+     * @return The number of jobs submitted and not finished yet.
+     */
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * @return The number of jobs waiting for a slot.
+     */
+    public synchronized int getQueuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * @return The number of jobs submitted.
+     */
+    public synchronized long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    /**
+     * @return The number of jobs that failed to be submitted.
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @param tenant The tenant.
+     * @return The number of jobs of the tenant submitted and not finished yet.
+     */
+    public synchronized int getRunningCount(String tenant) {
+        Tenant found = tenants.get(tenant);
+        return found == null ? 0 : found.runningCount;
+    }
+
+    /**
+     * Take jobs into the free slots, and submit them.
+     */
+    private void dispatch() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            while (!closed && runningCount < targetRunning) {
+                Task task = next();
+                if (task == null) {
+                    break;
+                }
+                task.queue = null;
+                queuedCount--;
+                if (task.future.isDone()) {
+                    // Canceled while queued, before it was taken out.
+                    continue;
+                }
+                task.tenant.runningCount++;
+                task.tenant.startedCount++;
+                runningCount++;
+                ready.add(task);
+            }
+        }
+        for (Task task : ready) {
+            try {
+                submitting.execute(() -> run(task));
+            } catch (RejectedExecutionException e) {
+                // Closed since the task was taken.
+                synchronized (this) {
+                    task.tenant.runningCount--;
+                    runningCount--;
+                }
+                task.future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @return The next job of the tenant with the fewest running jobs for its
+     *         weight, or null if none is queued. Ties go to the tenant that
+     *         started the fewest jobs for its weight, so tenants with short
+     *         jobs take turns.
+     */
+    private Task next() {
+        Tenant best = null;
+        for (Tenant tenant : tenants.values()) {
+            if (tenant.isIdle()) {
+                continue;
+            }
+            if (best == null) {
+                best = tenant;
+                continue;
+            }
+            long byRunning = (long) tenant.runningCount * best.weight - (long) best.runningCount * tenant.weight;
+            if (byRunning < 0 || (byRunning == 0
+                    && tenant.startedCount * best.weight < best.startedCount * tenant.weight)) {
+                best = tenant;
+            }
+        }
+        return best == null ? null : best.poll();
+    }
+
+    private void run(Task task) {
+        Submission submission = task.submission;
+        CompletableFuture<JobState> finished;
+        try {
+            submit.accept(submission);
+            synchronized (this) {
+                submittedCount++;
+            }
+            finished = waitForJob.apply(submission.getTransformName(), submission.getJobName());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                failedCount++;
+            }
+            release(task);
+            task.future.completeExceptionally(e);
+            return;
+        }
+
+        finished.whenComplete((state, error) -> {
+            release(task);
+            if (error != null) {
+                task.future.completeExceptionally(error);
+            } else {
+                task.future.complete(state);
+            }
+        });
+    }
+
+    /**
+     * Take a canceled job out of its queue, so it no longer counts as queued.
+     */
+    private synchronized void unqueue(Task task) {
+        if (task.queue != null) {
+            task.queue.remove(task);
+            task.queue = null;
+            queuedCount--;
+        }
+    }
+
+    private void release(Task task) {
+        synchronized (this) {
+            task.tenant.runningCount--;
+            runningCount--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Wait for a job through the list polls of its transform. The job is read
+     * once first, as the polls never find a job that doesn't exist, nor one
+     * that ended long before it was waited for. The wait fails after
+     * LIST_WAIT_HOURS.
+     */
+    private static CompletableFuture<JobState> waitThroughList(MediaServicesManager manager, String resourceGroup,
+                                                               String accountName, String transformName,
+                                                               String jobName) {
+        CompletableFuture<Job> listed = BulkJobStatusTracker
+                .forTransform(manager, resourceGroup, accountName, transformName).waitForJob(jobName);
+        try {
+            Job job = manager.jobs().get(resourceGroup, accountName, transformName, jobName);
+            if (AdaptiveJobPoller.isFinal(job.state())) {
+                listed.complete(job);
+            }
+        } catch (HttpResponseException e) {
+            HttpResponse response = e.getResponse();
+            if (response != null && response.getStatusCode() == 404) {
+                listed.completeExceptionally(e);
+            }
+            // Otherwise the list polls find the job.
+        }
+
+        ScheduledFuture<?> timeoutTask = TIMEOUTS.schedule(() -> listed.completeExceptionally(
+                new TimeoutException("Job " + jobName + " did not finish within " + LIST_WAIT_HOURS + " hours")),
+                LIST_WAIT_HOURS, TimeUnit.HOURS);
+        listed.whenComplete((job, error) -> timeoutTask.cancel(false));
+        return listed.thenApply(Job::state);
+    }
+
+    private static ScheduledThreadPoolExecutor createTimeouts() {
+        ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "job-scheduler-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Drop the timeout of a job as soon as it finishes.
+        timeouts.setRemoveOnCancelPolicy(true);
+        return timeouts;
+    }
+
+    private Tenant tenant(String name) {
+        return tenants.computeIfAbsent(name, key -> new Tenant());
+    }
+
+    /**
+     * @return The index of the queue of a priority, highest first.
+     */
+    private static int rank(Priority priority) {
+        if (Priority.HIGH.equals(priority)) {
+            return 0;
+        }
+        if (Priority.LOW.equals(priority)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static final class Tenant {
+        private final List<ArrayDeque<Task>> queues = new ArrayList<>();
+        private int weight = DEFAULT_WEIGHT;
+        private int runningCount;
+        private long startedCount;
+
+        Tenant() {
+            for (int i = 0; i < 3; i++) {
+                queues.add(new ArrayDeque<>());
+            }
+        }
+
+        boolean isIdle() {
+            for (ArrayDeque<Task> queue : queues) {
+                if (!queue.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Task poll() {
+            for (ArrayDeque<Task> queue : queues) {
+                if (!queue.isEmpty()) {
+                    return queue.poll();
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Task {
+        private final Submission submission;
+        private final CompletableFuture<JobState> future = new CompletableFuture<>();
+        private Tenant tenant;
+        // The queue holding the task, null once it is taken out.
+        private ArrayDeque<Task> queue;
+
+        Task(Submission submission) {
+            this.submission = submission;
+        }
+    }
+}
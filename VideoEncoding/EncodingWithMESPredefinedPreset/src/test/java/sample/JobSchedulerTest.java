@@ -0,0 +1,174 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License.
+
+package sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.azure.resourcemanager.mediaservices.models.JobState;
+import com.azure.resourcemanager.mediaservices.models.Priority;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import sample.BatchJobSubmitter.Submission;
+
+public class JobSchedulerTest {
+    private static final String TRANSFORM = "transform";
+
+    // The jobs in the order they were submitted.
+    private final BlockingQueue<String> submitted = new LinkedBlockingQueue<>();
+    // The wait of every submitted job; complete one to free its slot.
+    private final Map<String, CompletableFuture<JobState>> running = new ConcurrentHashMap<>();
+    private JobScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.close();
+        }
+    }
+
+    private void start(int targetRunning) {
+        scheduler = new JobScheduler(targetRunning, submission -> submitted.add(submission.getJobName()),
+                (transformName, jobName) -> running.computeIfAbsent(jobName, name -> new CompletableFuture<>()));
+    }
+
+    private CompletableFuture<JobState> schedule(String tenant, String jobName, Priority priority) {
+        return scheduler.schedule(tenant, new Submission(null, TRANSFORM, "output-" + jobName, jobName, priority));
+    }
+
+    /**
+     * @return The next job submitted, waiting a while for it.
+     */
+    private String nextSubmitted() throws InterruptedException {
+        return submitted.poll(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Finish a submitted job, once the scheduler waits for it.
+     */
+    private void finish(String jobName) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!running.containsKey(jobName) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        running.get(jobName).complete(JobState.FINISHED);
+    }
+
+    @Test
+    public void higherPrioritiesGoFirstAndEqualOnesInOrder() throws Exception {
+        start(1);
+        schedule("a", "blocker", null);
+        assertEquals("blocker", nextSubmitted());
+
+        schedule("a", "low", Priority.LOW);
+        schedule("a", "normal-1", null);
+        schedule("a", "high", Priority.HIGH);
+        schedule("a", "normal-2", Priority.NORMAL);
+        assertEquals(4, scheduler.getQueuedCount());
+
+        finish("blocker");
+        assertEquals("high", nextSubmitted());
+        finish("high");
+        assertEquals("normal-1", nextSubmitted());
+        finish("normal-1");
+        assertEquals("normal-2", nextSubmitted());
+        finish("normal-2");
+        assertEquals("low", nextSubmitted());
+    }
+
+    @Test
+    public void freeSlotsAreSharedByWeight() throws Exception {
+        start(1);
+        scheduler.setWeight("a", 2);
+        schedule("c", "blocker", null);
+        assertEquals("blocker", nextSubmitted());
+        for (int i = 0; i < 4; i++) {
+            schedule("a", "a-" + i, null);
+            schedule("b", "b-" + i, null);
+        }
+
+        finish("blocker");
+        assertEquals("a-0", nextSubmitted());
+        scheduler.setTargetRunning(3);
+        assertEquals("b-0", nextSubmitted());
+        assertEquals("a-1", nextSubmitted());
+        assertNull(submitted.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, scheduler.getRunningCount("a"));
+        assertEquals(1, scheduler.getRunningCount("b"));
+    }
+
+    @Test
+    public void aFinishedJobCompletesItsFutureAndFreesItsSlot() throws Exception {
+        start(1);
+        CompletableFuture<JobState> first = schedule("a", "first", null);
+        schedule("a", "second", null);
+        assertEquals("first", nextSubmitted());
+        assertEquals(1, scheduler.getRunningCount());
+
+        finish("first");
+        assertEquals(JobState.FINISHED, first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", nextSubmitted());
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void aFailedSubmissionFreesItsSlot() throws Exception {
+        scheduler = new JobScheduler(1, submission -> {
+            if (submission.getJobName().equals("failing")) {
+                throw new IllegalStateException("quota exceeded");
+            }
+            submitted.add(submission.getJobName());
+        }, (transformName, jobName) -> new CompletableFuture<>());
+        CompletableFuture<JobState> failing = schedule("a", "failing", null);
+        schedule("a", "next", null);
+
+        assertEquals("next", nextSubmitted());
+        assertTrue(failing.isCompletedExceptionally());
+        assertEquals(1, scheduler.getFailedCount());
+    }
+
+    @Test
+    public void aJobCanceledWhileQueuedLeavesTheQueueAtOnce() throws Exception {
+        start(1);
+        schedule("a", "blocker", null);
+        assertEquals("blocker", nextSubmitted());
+        CompletableFuture<JobState> canceled = schedule("a", "canceled", null);
+        schedule("a", "kept", null);
+        assertEquals(2, scheduler.getQueuedCount());
+
+        canceled.cancel(false);
+        assertEquals(1, scheduler.getQueuedCount());
+
+        finish("blocker");
+        assertEquals("kept", nextSubmitted());
+        assertNull(submitted.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void closeCancelsTheQueuedJobsAndLetsTheRunningOnesFinish() throws Exception {
+        start(1);
+        CompletableFuture<JobState> submittedJob = schedule("a", "running", null);
+        assertEquals("running", nextSubmitted());
+        CompletableFuture<JobState> queued = schedule("a", "queued", null);
+
+        scheduler.close();
+        assertTrue(queued.isCancelled());
+        assertEquals(0, scheduler.getQueuedCount());
+        assertThrows(IllegalStateException.class, () -> schedule("a", "late", null));
+
+        finish("running");
+        assertEquals(JobState.FINISHED, submittedJob.get(5, TimeUnit.SECONDS));
+        assertFalse(submitted.contains("queued"));
+        assertEquals(0, scheduler.getRunningCount());
+    }
+}